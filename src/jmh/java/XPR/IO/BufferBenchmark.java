@@ -0,0 +1,61 @@
+package XPR.IO;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferBenchmark {
+
+  @Param({"64", "65536"})
+  int length;
+
+  byte[] data;
+
+  @Setup
+  public void setUp() {
+    data = new byte[length];
+    for (int i = 0; i < length; i++) data[i] = (byte) i;
+  }
+
+  @Benchmark
+  public long createFree() {
+    Integer id = Buffer.create(1, length);
+    long units = Buffer.get(id).length;
+    Buffer.free(id);
+    return units;
+  }
+
+  @Benchmark
+  public int slice() throws IllegalAccessException {
+    Integer id = Buffer.add(data);
+    Integer slice = Buffer.sliceBuffer(id, 0, length / 2);
+    int width = Buffer.get(slice).length;
+    Buffer.free(slice);
+    Buffer.transfer(id);
+    return width;
+  }
+
+  @Benchmark
+  public int streamRoundTrip() throws IllegalAccessException, IOException {
+    Integer out = Buffer.createBufferOutputStream(length);
+    ByteArrayOutputStream stream = Stream.get(out);
+    stream.write(data);
+    Integer id = Buffer.copyBufferOutputStreamBytes(out);
+    Stream.free(out);
+    Integer in = Stream.add(new ByteArrayInputStream(Buffer.get(id)));
+    int available = Stream.getReadingStreamQueLength(in);
+    Stream.free(in);
+    Buffer.free(id);
+    return available;
+  }
+
+}
@@ -0,0 +1,62 @@
+package XPR.JSON;
+
+import XPR.JSON.Type.Variant;
+import XPR.JSON.Type.VariantList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VariantBenchmark {
+
+  String document;
+  String list;
+  Variant variant;
+
+  @Setup
+  public void setUp() {
+    StringBuilder s = new StringBuilder("{");
+    for (int i = 0; i < 64; i++) {
+      if (i > 0) s.append(',');
+      s.append("\"key").append(i).append("\":{\"name\":\"value ").append(i)
+        .append("\",\"count\":").append(i * 31)
+        .append(",\"ratio\":").append(i / 7.0)
+        .append(",\"enabled\":").append(i % 2 == 0)
+        .append(",\"tags\":[\"a\",\"b\",\"c\"]}");
+    }
+    document = s.append('}').toString();
+    list = "[1,2,3,4,5,6,7,8,9,10,\"eleven\",true,null,{\"twelve\":12}]";
+    variant = new Variant(document);
+  }
+
+  @Benchmark
+  public Variant parse() {
+    return new Variant(document);
+  }
+
+  @Benchmark
+  public VariantList parseList() {
+    return new VariantList(list);
+  }
+
+  @Benchmark
+  public Variant compile() {
+    return new Variant(new Compiler(document));
+  }
+
+  @Benchmark
+  public String serialize() {
+    return variant.toString();
+  }
+
+  @Benchmark
+  public String roundTrip() {
+    return new Variant(document).toString();
+  }
+
+}
@@ -0,0 +1,49 @@
+package XPR;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KioskBenchmark {
+
+  @Param({"16", "4096"})
+  int size;
+
+  Kiosk kiosk;
+  Integer[] keys;
+  int next;
+  Object value = new Object();
+
+  @Setup
+  public void setUp() {
+    kiosk = new Kiosk();
+    keys = new Integer[size];
+    for (int i = 0; i < size; i++) keys[i] = kiosk.add(value);
+  }
+
+  @Benchmark
+  public Object get() {
+    if (++next == size) next = 0;
+    return kiosk.get(keys[next]);
+  }
+
+  @Benchmark
+  public Integer addDelete() {
+    Integer key = kiosk.add(value);
+    kiosk.delete(key);
+    return key;
+  }
+
+  @Benchmark
+  public boolean existingKey() {
+    if (++next == size) next = 0;
+    return kiosk.existingKey(keys[next]);
+  }
+
+}
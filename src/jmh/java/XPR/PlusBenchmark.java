@@ -0,0 +1,45 @@
+package XPR;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlusBenchmark {
+
+  Object stream = new ByteArrayInputStream(new byte[0]);
+  Class<?>[] kinds = new Class<?>[]{
+    OutputStream.class, RandomAccessFile.class, InputStream.class, Closeable.class
+  };
+
+  @Benchmark
+  public boolean classMemberHit() {
+    return Plus.classMember(stream, InputStream.class);
+  }
+
+  @Benchmark
+  public boolean classMemberMiss() {
+    return Plus.classMember(stream, OutputStream.class);
+  }
+
+  @Benchmark
+  public boolean classMemberList() {
+    return Plus.classMember(stream, kinds);
+  }
+
+  @Benchmark
+  public boolean classMatch() {
+    return Plus.classMatch(InputStream.class, kinds);
+  }
+
+}
@@ -0,0 +1,65 @@
+package org.mozilla.javascript;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Script evaluation in interpreted (-1) and compiled (0 to 9) modes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextBenchmark {
+
+  static final String source =
+    "function fib(n) { return n < 2 ? n : fib(n - 1) + fib(n - 2); }\n" +
+    "var o = {total: 0, list: []};\n" +
+    "for (var i = 0; i < 200; i++) { o.list.push(i * 2); o.total += i; }\n" +
+    "var text = JSON.stringify(o);\n" +
+    "fib(15) + JSON.parse(text).total + text.replace(/[0-9]+/g, 'n').length;\n";
+
+  @Param({"-1", "0", "1", "9"})
+  int optimizationLevel;
+
+  Context cx;
+  ScriptableObject scope;
+  Script script;
+
+  @Setup
+  public void setUp() {
+    cx = Context.enter();
+    cx.setOptimizationLevel(optimizationLevel);
+    scope = cx.initStandardObjects();
+    script = cx.compileString(source, "benchmark", 1, null);
+  }
+
+  @TearDown
+  public void tearDown() {
+    Context.exit();
+  }
+
+  @Benchmark
+  public Object evaluateString() {
+    return cx.evaluateString(scope, source, "benchmark", 1, null);
+  }
+
+  @Benchmark
+  public Script compileString() {
+    return cx.compileString(source, "benchmark", 1, null);
+  }
+
+  @Benchmark
+  public Object exec() {
+    return script.exec(cx, scope);
+  }
+
+  @Benchmark
+  public Scriptable initStandardObjects() {
+    return cx.initStandardObjects();
+  }
+
+}
@@ -3,6 +3,13 @@ package XPR;
 import com.sun.istack.internal.NotNull;
 import com.sun.istack.internal.Nullable;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 
 /**
  * This class and it's members provide a way to set application configuration
@@ -14,23 +21,22 @@ public class Configuration {
   public static class Category {
     private final String name;
     private final Parameter[] parameter;
+    private final HashMap<String, Parameter> parameterNames;
+    private final Trigger.Index triggers;
     public Category(String name, Parameter... parameters) {
       this.name = name;
       parameter = parameters;
+      parameterNames = new HashMap<>(parameters.length * 2);
+      for (Parameter p: parameters) parameterNames.putIfAbsent(p.name, p);
+      triggers = new Trigger.Index(parameters);
     }
     @Nullable
     public Parameter findParameterByName(@NotNull String name) {
-      for (Parameter p: parameter) {
-        if (p.name.equals(name)) return p;
-      }
-      return null;
+      return parameterNames.get(name);
     }
     @Nullable
     public Parameter findParameterByTrigger(@NotNull String option) {
-      for (Parameter p: parameter) {
-        if (p.selector.match(option)) return p;
-      }
-      return null;
+      return triggers.find(option);
     }
     boolean hasParameter(Parameter query) {
       for (int i = 0; i < parameter.length; i++) {
@@ -40,6 +46,62 @@ public class Configuration {
     }
   }
 
+  /**
+   * An exact-match trigger selector.<br>
+   *   <br>
+   *     Parameters selected by a Trigger are indexed by their trigger names,
+   *     so a lookup costs one hash probe instead of a call to every selector.
+   *     Lambda selectors still work, and are tried in declaration order as a
+   *     fallback.
+   */
+  public static final class Trigger implements Parameter.Selector<String> {
+    private final HashSet<String> names;
+    public Trigger(@NotNull String... names) {
+      this.names = new HashSet<>(Arrays.asList(names));
+    }
+    @Override
+    public boolean match(String trigger) {
+      return names.contains(trigger);
+    }
+
+    /**
+     * Trigger lookup table for a list of parameters.<br>
+     *   <br>
+     *     Keeps the first-match-wins order of a linear selector scan: an exact
+     *     hit is only returned if no lambda selector declared before it also
+     *     matches.
+     */
+    static final class Index {
+      private final HashMap<String, Integer> exact = new HashMap<>();
+      private final Parameter[] parameter;
+      private final int[] fallback;
+      Index(Parameter... parameters) {
+        parameter = parameters;
+        int[] list = new int[parameters.length]; int count = 0;
+        for (int i = 0; i < parameters.length; i++) {
+          Parameter.Selector<?> s = parameters[i].selector;
+          if (s instanceof Trigger) {
+            for (String t: ((Trigger)s).names) exact.putIfAbsent(t, i);
+          } else list[count++] = i;
+        }
+        fallback = Arrays.copyOf(list, count);
+      }
+      @Nullable Parameter find(String trigger) {
+        Integer hit = exact.get(trigger);
+        int limit = (hit == null) ? parameter.length : hit;
+        for (int i: fallback) {
+          if (i >= limit) break;
+          if (matches(parameter[i], trigger)) return parameter[i];
+        }
+        return (hit == null) ? null : parameter[hit];
+      }
+      @SuppressWarnings("unchecked")
+      private static boolean matches(Parameter p, String trigger) {
+        return ((Parameter.Selector<String>) p.selector).match(trigger);
+      }
+    }
+  }
+
   public static class Parameter {
     public enum ValueType {NONE, OPTIONAL, MANDATORY}
     public interface Selector<TYPE> {boolean match(TYPE trigger);}
@@ -56,6 +118,9 @@ public class Configuration {
       this.selector = matcher;
       value = ValueType.NONE;
     }
+    public Parameter(@NotNull String name, @NotNull ValueType type, @NotNull String... triggers) {
+      this(name, new Trigger(triggers), type);
+    }
   }
 
   public static interface Supervisor {
@@ -118,42 +183,61 @@ public class Configuration {
   private final Category[] category;
   private final Director director;
 
+  private final HashMap<String, Category> categoryNames;
+  private final HashMap<String, Parameter> parameterPaths;
+  private final HashMap<String, Parameter> categoryPaths;
+  private final HashMap<Parameter, String> pathTable;
+  private final HashMap<Parameter, Category> parameterCategories;
+  private final Trigger.Index triggers;
+
   public Configuration(@NotNull String name, @NotNull Director director,
     @NotNull Category... categories) {
     this.name = name;  category = categories; this.director = director;
+    categoryNames = new HashMap<>(categories.length * 2);
+    parameterPaths = new HashMap<>();
+    categoryPaths = new HashMap<>();
+    pathTable = new HashMap<>();
+    parameterCategories = new HashMap<>();
+    ArrayList<Parameter> all = new ArrayList<>();
+    for (Category c: categories) {
+      categoryNames.putIfAbsent(c.name, c);
+      for (Parameter p: c.parameter) {
+        all.add(p);
+        parameterCategories.putIfAbsent(p, c);
+        pathTable.putIfAbsent(p, Speak.concatenate(".", name, c.name, p.name));
+        if (categoryNames.get(c.name) == c) {
+          parameterPaths.putIfAbsent(pathTable.get(p), p);
+          categoryPaths.putIfAbsent(Speak.concatenate(".", c.name, p.name), p);
+        }
+      }
+    }
+    triggers = new Trigger.Index(all.toArray(new Parameter[all.size()]));
   }
 
   @NotNull public final Category getParameterCategory(Parameter p) {
-    for (Category c: category) {
-      if (c.hasParameter(p)) return c;
-    }
+    Category c = parameterCategories.get(p);
+    if (c != null) return c;
     throw new Fault("parameter category lookup failure"
       + Speak.quoteExactTarget(p.name)
     );
   }
 
   @Nullable final public Category findCategoryByName(String search) {
-    for (Category c: category) {
-      if (c.name.equals(search)) return c;
-    }
-    return null;
+    return categoryNames.get(search);
   }
 
   @Nullable final public Parameter findParameterByName(String search) {
-    String[] names = search.split("\\.");
-    Category c = findCategoryByName(names[1]);
-    if (c == null) return null;
-    String parameterName = Speak.concatenate(".", 2, names);
-    return c.findParameterByName(parameterName);
+    Parameter p = parameterPaths.get(search);
+    if (p != null) return p;
+    // the leading configuration name is not significant for the search
+    int root = search.indexOf('.');
+    if (root < 0) return null;
+    return categoryPaths.get(search.substring(root + 1));
   }
 
   @Nullable public final Parameter findParameterByTrigger(String search) {
     if (search == null) return null;
-    int x; Parameter parameter = null;
-    for (x=0; x< category.length; x++) {
-      if ((parameter = category[x].findParameterByTrigger(search)) != null) break;
-    }
-    return parameter;
+    return triggers.find(search);
   }
 
   @NotNull final public String getName() {
@@ -161,10 +245,10 @@ public class Configuration {
   }
 
   @NotNull public String getParameterPath(Parameter parameter) {
-    return Speak.concatenate(".",
-      this.name,
-      getParameterCategory(parameter).name,
-      parameter.name
+    String path = pathTable.get(parameter);
+    if (path != null) return path;
+    throw new Fault("parameter category lookup failure"
+      + Speak.quoteExactTarget(parameter.name)
     );
   }
 
@@ -181,14 +265,17 @@ public class Configuration {
    */
   public int configure(@NotNull String... parameters) {
     int i;
+    // the trigger lookup of a value is the lookup of the next parameter
+    int peekIndex = -1; Parameter peek = null;
     for (i = 0; i < parameters.length; i++) {
 
       String parameter = parameters[i];
-      Parameter p = findParameterByTrigger(parameter);
+      Parameter p = (i == peekIndex) ? peek : findParameterByTrigger(parameter);
 
       if (p == null) {
         String value = nextValue(parameters, i);
-        if (findParameterByTrigger(value) != null) value = null;
+        peek = findParameterByTrigger(value); peekIndex = i + 1;
+        if (peek != null) value = null;
         switch (director.parse(this, i, parameter, value))
         {
           case 1: continue;
@@ -201,7 +288,10 @@ public class Configuration {
         ? nextValue(parameters, i) : null
       ;
 
-      if (findParameterByTrigger(value) != null) value = null;
+      if (value != null) {
+        peek = findParameterByTrigger(value); peekIndex = i + 1;
+        if (peek != null) value = null;
+      }
 
       if (value == null && p.value.equals(Parameter.ValueType.MANDATORY)) {
         throw new Fault("missing parameter value for parameter"
@@ -251,8 +341,16 @@ public class Configuration {
     director.set(this, p, 0, value);
   }
 
+  /**
+   * Known parameter paths are resolved through the path table and handed to
+   * the director as the one canonical path string it holds, so director
+   * lookups keyed by path hit on reference equality. Values are never kept
+   * here: the director is asked on every call, so what it returns is always
+   * live.
+   */
   @NotNull final public <ANY> ANY get(String path) {
-    return (ANY) director.get(path);
+    Parameter p = parameterPaths.get(path);
+    return Plus.valueOf(director.get((p == null) ? path : pathTable.get(p)));
   }
 
   @NotNull final public String getHelp(String path) {return director.locateHelpFor(path);}
@@ -265,8 +363,200 @@ public class Configuration {
     return director.toJSON();
   }
 
+  /**
+   * An immutable, flattened view of a loaded configuration.<br>
+   *   <br>
+   *     Nested JSON objects are flattened to dot-joined paths; an empty object
+   *     stays in the table as an empty map. Lists, and objects inside lists,
+   *     are frozen. Snapshots are published through a single volatile
+   *     reference, so readers never lock.
+   */
+  public static final class Snapshot {
+    static final Snapshot empty = new Snapshot(0, new HashMap<>());
+    public final long version;
+    private final Map<String, Object> table;
+    Snapshot(long version, Map<String, Object> table) {
+      this.version = version;
+      this.table = Collections.unmodifiableMap(table);
+    }
+    static Snapshot of(long version, @NotNull XPR.JSON.Type.Variant storage) {
+      HashMap<String, Object> table = new HashMap<>();
+      flatten(table, null, storage.toMap());
+      return new Snapshot(version, table);
+    }
+    private static void flatten(Map<String, Object> table, String root,
+      Map<String, Object> source) {
+      for (Map.Entry<String, Object> e: source.entrySet()) {
+        String path = (root == null) ? e.getKey() : root + "." + e.getKey();
+        Object value = e.getValue();
+        if (value instanceof Map && ! ((Map<?, ?>) value).isEmpty())
+          flatten(table, path, Plus.valueOf(value));
+        else table.put(path, freeze(value));
+      }
+    }
+    private static Object freeze(Object value) {
+      if (value instanceof List) {
+        List<Object> list = Plus.valueOf(value);
+        for (int i = 0; i < list.size(); i++) list.set(i, freeze(list.get(i)));
+        return Collections.unmodifiableList(list);
+      }
+      if (value instanceof Map) {
+        Map<String, Object> map = Plus.valueOf(value);
+        for (Map.Entry<String, Object> e: map.entrySet())
+          e.setValue(freeze(e.getValue()));
+        return Collections.unmodifiableMap(map);
+      }
+      return value;
+    }
+    public <ANY> ANY get(String path) { return Plus.valueOf(table.get(path)); }
+    public boolean has(String path) { return table.containsKey(path); }
+    public Set<String> paths() { return table.keySet(); }
+    public Map<String, Object> toMap() { return table; }
+    /**
+     * @param previous the snapshot this snapshot replaces
+     * @return the paths added, removed or changed since the previous snapshot
+     */
+    public Set<String> diff(@NotNull Snapshot previous) {
+      TreeSet<String> changed = new TreeSet<>();
+      for (Map.Entry<String, Object> e: table.entrySet()) {
+        if (! previous.table.containsKey(e.getKey())
+          || ! Objects.equals(e.getValue(), previous.table.get(e.getKey())))
+          changed.add(e.getKey());
+      }
+      for (String path: previous.table.keySet()) {
+        if (! table.containsKey(path)) changed.add(path);
+      }
+      return Collections.unmodifiableSet(changed);
+    }
+  }
+
+  public interface ReloadListener {
+    /**
+     * Called after a new snapshot has been published.
+     * @param main the configuration that was reloaded
+     * @param previous the snapshot that was replaced
+     * @param current the snapshot now published
+     * @param changed the paths that differ between the snapshots
+     */
+    void onReload(@NotNull Configuration main, @NotNull Snapshot previous,
+      @NotNull Snapshot current, @NotNull Set<String> changed);
+
+    /**
+     * Called on the watcher thread when a changed file could not be loaded.
+     * The previous snapshot stays published.
+     */
+    default void onReloadFault(@NotNull Configuration main, @NotNull Fault fault) {}
+  }
+
+  /**
+   * XPR.Configuration.Watcher<br>
+   *   <br>
+   *     Reloads a configuration file on a daemon thread whenever the file is
+   *     created or modified. Close the watcher to stop watching.
+   */
+  public static final class Watcher implements Closeable {
+    private final Configuration main;
+    private final Path file;
+    private final WatchService service;
+    private final Thread thread;
+    private volatile boolean open = true;
+    Watcher(Configuration main, Path file) throws IOException {
+      this.main = main;
+      this.file = file.toAbsolutePath();
+      Path directory = this.file.getParent();
+      service = directory.getFileSystem().newWatchService();
+      directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY
+      );
+      thread = new Thread(this::watch, "XPR.Configuration.Watcher" +
+        Speak.quoteCitation(main.name));
+      thread.setDaemon(true);
+    }
+    public Path getFile() { return file; }
+    public boolean isOpen() { return open; }
+    private void watch() {
+      while (open) {
+        WatchKey key;
+        try { key = service.take(); }
+        catch (InterruptedException | ClosedWatchServiceException e) { break; }
+        boolean changed = false;
+        for (WatchEvent<?> event: key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) changed = true;
+          else if (file.getFileName().equals(event.context())) changed = true;
+        }
+        if (! key.reset()) break;
+        if (changed && open) reload();
+      }
+    }
+    void reload() {
+      try {
+        main.load(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+      } catch (IOException e) {
+        main.notifyFault(new Fault("configuration reload failure"
+          + Speak.quoteExactTarget(file), e));
+      } catch (Fault f) {
+        main.notifyFault(f);
+      }
+    }
+    @Override
+    public void close() throws IOException {
+      open = false;
+      service.close();
+      thread.interrupt();
+    }
+  }
+
+  private final Object reloadLock = new Object();
+  private volatile Snapshot snapshot = Snapshot.empty;
+  private final CopyOnWriteArrayList<ReloadListener> reloadListeners =
+    new CopyOnWriteArrayList<>();
+
+  /**
+   * @return the last loaded configuration snapshot; never null.
+   */
+  @NotNull final public Snapshot getSnapshot() {
+    return snapshot;
+  }
+
+  final public void addReloadListener(@NotNull ReloadListener listener) {
+    reloadListeners.add(listener);
+  }
+
+  final public boolean removeReloadListener(ReloadListener listener) {
+    return reloadListeners.remove(listener);
+  }
+
+  /**
+   * Loads the file now, then reloads it off-thread every time it changes.
+   * @param file a JSON configuration file
+   * @return the running watcher
+   */
+  @NotNull final public Watcher watch(@NotNull Path file) throws IOException {
+    Watcher watcher = new Watcher(this, file);
+    watcher.reload();
+    watcher.thread.start();
+    return watcher;
+  }
+
+  private void notifyFault(Fault fault) {
+    for (ReloadListener l: reloadListeners) l.onReloadFault(this, fault);
+  }
+
   final public void load(String serialization) {
-    director.onLoad(new XPR.JSON.Type.Variant(new XPR.JSON.Compiler(serialization)));
+    XPR.JSON.Compiler compiler = new XPR.JSON.Compiler(serialization);
+    XPR.JSON.Type.Variant storage = new XPR.JSON.Type.Variant(compiler);
+    Snapshot previous, current;
+    synchronized (reloadLock) {
+      previous = snapshot;
+      current = Snapshot.of(previous.version + 1, storage);
+      director.onLoad(storage);
+      snapshot = current;
+    }
+    // listeners run unlocked, so they may load or read without deadlock
+    Set<String> changed = current.diff(previous);
+    if (changed.isEmpty()) return;
+    for (ReloadListener l: reloadListeners)
+      l.onReload(this, previous, current, changed);
   }
 
 }
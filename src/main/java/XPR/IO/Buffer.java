@@ -3,9 +3,15 @@ package XPR.IO;
 import XPR.Fault;
 import XPR.Kiosk;
 import XPR.Plus;
+import XPR.System.Metrics;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.typedarrays.NativeArrayBuffer;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import static XPR.Plus.valueOf;
@@ -16,12 +22,16 @@ public class Buffer {
 
   static private long bytesAllocated = 0;
 
+  static private final Metrics.Counter allocated =
+    Metrics.counter("XPR.IO.Buffer.allocated");
+
   static private Kiosk bufferKiosk = new Kiosk(new Kiosk.Supervisor() {
 
     @Override
     public void onAdded(Object key, Object value) {
       byte[] buffer = valueOf(value);
       bytesAllocated += buffer.length;
+      allocated.add(buffer.length);
     }
 
     @Override
@@ -50,6 +60,11 @@ public class Buffer {
     }
   });
 
+  static {
+    Metrics.gauge("XPR.IO.Buffer.bytes", Buffer::getBytesAllocated);
+    Metrics.gauge("XPR.IO.Buffer.units", Buffer::getUnits);
+  }
+
   static public Integer create(int width, int length) {
     switch (width) {
       case 1:
@@ -87,6 +102,27 @@ public class Buffer {
     return bufferKiosk.add(buffer);
   }
 
+  // A script ArrayBuffer over the bytes of a buffer: no copy is made, so
+  // writes on either side show up on the other.
+  static public Scriptable toArrayBuffer(Context cx, Scriptable scope, Integer id) {
+    return toArrayBuffer(cx, scope, ByteBuffer.wrap(get(id)));
+  }
+
+  // The same over the bytes of a writable ByteBuffer from its position to
+  // its limit, which may be a direct buffer or a mapped file. Any context
+  // will do: when the scope has no ArrayBuffer class, as before ES6, the
+  // buffer has the Object prototype, and Java code can still view it.
+  static public Scriptable toArrayBuffer(Context cx, Scriptable scope, ByteBuffer buffer) {
+    NativeArrayBuffer result = new NativeArrayBuffer(buffer);
+    Scriptable top = ScriptableObject.getTopLevelScope(scope);
+    Scriptable proto = ScriptableObject.getClassPrototype(top,
+      NativeArrayBuffer.CLASS_NAME);
+    result.setParentScope(top);
+    result.setPrototype(proto != null ? proto
+      : ScriptableObject.getObjectPrototype(top));
+    return result;
+  }
+
   static byte[] transfer(Integer id) {
     return bufferKiosk.transfer(id);
   }
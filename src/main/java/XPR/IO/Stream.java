@@ -5,6 +5,7 @@ import XPR.Fault;
 import XPR.IO.Network.Socket;
 import XPR.Kiosk;
 import XPR.Plus;
+import XPR.System.Metrics;
 
 import java.io.*;
 import java.nio.ByteBuffer;
@@ -39,6 +40,10 @@ public class Stream {
   };
 
 
+  private static final Metrics.Counter
+    handles = Metrics.counter("XPR.IO.Stream.handles"),
+    opened = Metrics.counter("XPR.IO.Stream.opened");
+
   private static Kiosk streamKiosk = new Kiosk(new Kiosk.Supervisor() {
     @Override
     public boolean permit(Kiosk.Operation operation, Object key) {
@@ -54,8 +59,14 @@ public class Stream {
       return false;
     }
 
+    @Override
+    protected void onAdded(Object key, Object value) {
+      handles.increment(); opened.increment();
+    }
+
     @Override
     protected void onRemoved(Object key, Object value, boolean transfer) {
+      handles.decrement();
       Closeable stream = valueOf(value);
       if (value instanceof Flushable) try {
         ((Flushable) stream).flush();
@@ -3,6 +3,7 @@ package XPR.JSON;
 import XPR.Fault;
 import XPR.JSON.Type.Variant;
 import XPR.JSON.Type.VariantList;
+import XPR.System.Metrics;
 
 import java.io.*;
 
@@ -30,6 +31,15 @@ public class Compiler {
     private boolean usePrevious;
     /** the number of characters read in the previous line. */
     private long characterPreviousLine;
+    /** nesting depth of the objects and lists being compiled. */
+    private int depth;
+    /** read index of the input when the outermost value was entered. */
+    private long enteredIndex;
+
+    private static final Metrics.Counter characters =
+            Metrics.counter("XPR.JSON.Compiler.characters");
+    private static final Metrics.Histogram parsing =
+            Metrics.histogram("XPR.JSON.Compiler.parse");
 
 
     /**
@@ -70,6 +80,34 @@ public class Compiler {
     }
 
 
+    /**
+     * Marks the start of an object or list value. Only the outermost value is
+     * metered.
+     * @return a start time for {@link #leaveValue(long)}
+     */
+    public long enterValue() {
+        if (this.depth++ > 0) {
+            return -1;
+        }
+        this.enteredIndex = this.index;
+        return System.nanoTime();
+    }
+
+    /**
+     * Marks the end of an object or list value. When the outermost value ends,
+     * the characters it consumed and the time it took are recorded in the
+     * "XPR.JSON.Compiler.characters" counter and "XPR.JSON.Compiler.parse"
+     * histogram.
+     * @param start the value returned by the matching {@link #enterValue()}
+     */
+    public void leaveValue(long start) {
+        if (--this.depth > 0 || start < 0) {
+            return;
+        }
+        parsing.recordSince(start);
+        characters.add(this.index - this.enteredIndex);
+    }
+
     /**
      * Back up one character. This provides a sort of lookahead capability,
      * so that you can test for a digit or letter before attempting to parse
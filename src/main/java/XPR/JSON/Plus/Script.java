@@ -0,0 +1,512 @@
+package XPR.JSON.Plus;
+
+import XPR.Fault;
+import XPR.JSON.Type.Variant;
+import XPR.JSON.Type.VariantList;
+import org.mozilla.javascript.Callable;
+import org.mozilla.javascript.ConsString;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Undefined;
+import org.mozilla.javascript.Wrapper;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * This provides static methods to move Variant and VariantList trees into
+ * and out of scripts without writing them as JSON text.
+ * <p>
+ * A Variant or VariantList goes into a script as a live view: the view
+ * reads a member from the tree when the script reads it, wraps nested
+ * objects in views on first use, and writes what the script stores back
+ * into the tree; a store that would make the tree contain itself throws
+ * a TypeError. Script objects and arrays come out as new Variant trees,
+ * read member by member; the views come out as the trees they view, once
+ * checked for cycles.
+ * <p>
+ * Install a {@link WrapFactory} on a context to have the Variants returned
+ * by Java methods show up in scripts as views.
+ */
+public class Script { private Script(){};
+
+  /**
+   * Convert a script value to a JSON value: a Variant, a VariantList, a
+   * Boolean, a Number, a String or Variant.NULL. Values that JSON.stringify
+   * leaves out, such as undefined and functions, convert to null. Views,
+   * and Java objects wrapping trees, convert to the trees they hold.
+   *
+   * @param value A script value.
+   * @return The JSON value, or null.
+   * @throws Fault If the value contains itself.
+   */
+  public static Object toVariant(Object value) throws Fault {
+    return new Converter(null).convert("", value);
+  }
+
+  /**
+   * Convert a script object to a Variant.
+   *
+   * @param object A script object.
+   * @return A Variant of the enumerable members of the object.
+   * @throws Fault If the object contains itself or is a function.
+   */
+  public static Variant toJSONValue(Scriptable object) throws Fault {
+    Object value = toVariant(object);
+    if (value instanceof Variant) return (Variant) value;
+    throw new Fault("script value is not an object");
+  }
+
+  /**
+   * Convert a script array to a VariantList.
+   *
+   * @param array A script array.
+   * @return A VariantList of the elements of the array.
+   * @throws Fault If the array contains itself or is not an array.
+   */
+  public static VariantList toJSONElements(Scriptable array) throws Fault {
+    Object value = toVariant(array);
+    if (value instanceof VariantList) return (VariantList) value;
+    throw new Fault("script value is not an array");
+  }
+
+  /**
+   * Convert a JSON value to a script value. A Variant or VariantList
+   * becomes a view of it.
+   *
+   * @param scope The scope of the script.
+   * @param value A JSON value.
+   * @return The script value.
+   */
+  public static Object toScriptValue(Scriptable scope, Object value) {
+    if (value == null || Variant.NULL.equals(value)) return null;
+    if (value instanceof Variant)
+      return new ObjectView(scope, (Variant) value);
+    if (value instanceof VariantList)
+      return new ArrayView(scope, (VariantList) value);
+    return toScriptPrimitive(value);
+  }
+
+  /**
+   * Get a view of a Variant for a script.
+   *
+   * @param scope The scope of the script.
+   * @param variant The object to view.
+   * @return A script object that reads and writes variant.
+   */
+  public static Scriptable toScriptable(Scriptable scope, Variant variant) {
+    return new ObjectView(scope, variant);
+  }
+
+  /**
+   * Get a view of a VariantList for a script.
+   *
+   * @param scope The scope of the script.
+   * @param list The array to view.
+   * @return A script array that reads and writes list.
+   */
+  public static Scriptable toScriptable(Scriptable scope, VariantList list) {
+    return new ArrayView(scope, list);
+  }
+
+  private static Object toScriptPrimitive(Object value) {
+    if (value instanceof Integer || value instanceof Double
+      || value instanceof String || value instanceof Boolean) {
+      return value;
+    }
+    if (value instanceof Number)
+      return Double.valueOf(((Number) value).doubleValue());
+    if (value instanceof Enum<?>) return ((Enum<?>) value).name();
+    if (value instanceof Character) return value.toString();
+    Context cx = Context.getCurrentContext();
+    if (cx == null) return value.toString();
+    return cx.getWrapFactory().wrap(cx, null, value, null);
+  }
+
+  /**
+   * A wrap factory that shows Variant and VariantList values to scripts as
+   * views, instead of as Java objects.
+   */
+  public static class WrapFactory extends org.mozilla.javascript.WrapFactory {
+    @Override
+    public Object wrap(Context cx, Scriptable scope, Object obj,
+      Class<?> staticType) {
+      if (obj instanceof Variant || obj instanceof VariantList)
+        return toScriptValue(scope, obj);
+      if (obj != null && Variant.NULL.equals(obj)) return null;
+      return super.wrap(cx, scope, obj, staticType);
+    }
+    @Override
+    public Scriptable wrapAsJavaObject(Context cx, Scriptable scope,
+      Object javaObject, Class<?> staticType) {
+      if (javaObject instanceof Variant)
+        return new ObjectView(scope, (Variant) javaObject);
+      if (javaObject instanceof VariantList)
+        return new ArrayView(scope, (VariantList) javaObject);
+      return super.wrapAsJavaObject(cx, scope, javaObject, staticType);
+    }
+  }
+
+  /**
+   * Converts script values to JSON values, keeping the objects and trees
+   * on the current path to catch cycles.
+   */
+  private static final class Converter {
+    private final IdentityHashMap<Object, Object> path =
+      new IdentityHashMap<Object, Object>();
+
+    /**
+     * @param target The tree the value is stored into, which the value
+     *               must not contain; or null.
+     */
+    Converter(Object target) {
+      if (target != null) path.put(target, target);
+    }
+
+    Object convert(String key, Object value) throws Fault {
+      if (value == null) return Variant.NULL;
+      if (value == Undefined.instance || value == Scriptable.NOT_FOUND)
+        return null;
+      if (value instanceof Boolean || value instanceof String) return value;
+      if (value instanceof ConsString) return value.toString();
+      if (value instanceof Number) return convertNumber((Number) value);
+      if (value instanceof Wrapper)
+        return checkTree(Variant.wrap(((Wrapper) value).unwrap()));
+      if (!(value instanceof Scriptable)) return Variant.wrap(value);
+      Scriptable object = (Scriptable) value;
+      if (!(object instanceof Function)) {
+        // Number, String and Boolean objects convert to their values
+        String className = object.getClassName();
+        if (className.equals("Number"))
+          return convertNumber(ScriptRuntime.toNumber(
+            object.getDefaultValue(ScriptRuntime.NumberClass)));
+        if (className.equals("String"))
+          return ScriptRuntime.toString(
+            object.getDefaultValue(ScriptRuntime.StringClass));
+        if (className.equals("Boolean"))
+          return object.getDefaultValue(ScriptRuntime.BooleanClass);
+      }
+      Object toJSON = ScriptableObject.getProperty(object, "toJSON");
+      if (toJSON instanceof Callable) {
+        Context cx = Context.getCurrentContext();
+        if (cx != null) {
+          Object json = ((Callable) toJSON).call(cx,
+            ScriptableObject.getTopLevelScope(object), object,
+            new Object[] { key });
+          if (json != object) return convert(key, json);
+        }
+      }
+      if (object instanceof Function) return null;
+      enter(object);
+      try {
+        if ("Array".equals(object.getClassName())) return convertArray(object);
+        return convertObject(object);
+      } finally {
+        path.remove(object);
+      }
+    }
+
+    private void enter(Object object) {
+      if (path.put(object, object) != null)
+        throw new Fault("cannot convert a script value that contains itself");
+    }
+
+    /**
+     * Return a tree taken as is, after checking that it does not contain
+     * itself or a tree on the path.
+     */
+    private Object checkTree(Object tree) {
+      if (tree instanceof Variant) {
+        Variant variant = (Variant) tree;
+        enter(variant);
+        for (String name : variant.keySet()) checkTree(variant.opt(name));
+        path.remove(variant);
+      } else if (tree instanceof VariantList) {
+        VariantList list = (VariantList) tree;
+        enter(list);
+        for (Object element : list) checkTree(element);
+        path.remove(list);
+      }
+      return tree;
+    }
+
+    private Object convertNumber(Number number) {
+      if (number instanceof Integer) return number;
+      double d = number.doubleValue();
+      if (Double.isNaN(d) || Double.isInfinite(d)) return Variant.NULL;
+      if (d == (int) d && (d != 0 || 1 / d > 0)) return Integer.valueOf((int) d);
+      if (d == (long) d && Math.abs(d) < 0x1p53) return Long.valueOf((long) d);
+      return Double.valueOf(d);
+    }
+
+    private VariantList convertArray(Scriptable array) {
+      long length = ScriptRuntime.toUint32(
+        ScriptableObject.getProperty(array, "length"));
+      ArrayList<Object> elements = new ArrayList<Object>((int) Math.min(length, 1024));
+      for (long i = 0; i < length; i++) {
+        Object element = i > Integer.MAX_VALUE
+          ? ScriptableObject.getProperty(array, Long.toString(i))
+          : ScriptableObject.getProperty(array, (int) i);
+        Object json = convert(Long.toString(i), element);
+        elements.add(json == null ? Variant.NULL : json);
+      }
+      return new VariantList(elements);
+    }
+
+    private Variant convertObject(Scriptable object) {
+      Variant variant = new Variant();
+      for (Object id : object.getIds()) {
+        Object member = id instanceof Integer
+          ? ScriptableObject.getProperty(object, (Integer) id)
+          : ScriptableObject.getProperty(object, id.toString());
+        Object json = convert(id.toString(), member);
+        if (json != null) variant.put(id.toString(), json);
+      }
+      return variant;
+    }
+  }
+
+  /**
+   * A script object that shows a JSON tree. Nested views are kept while
+   * the member they view stays the same, so that a script reading a member
+   * twice gets the same object.
+   */
+  private static abstract class View extends ScriptableObject implements Wrapper {
+    private static final long serialVersionUID = 1L;
+
+    View(Scriptable scope, String prototypeName) {
+      setParentScope(ScriptableObject.getTopLevelScope(scope));
+      setPrototype(ScriptableObject.getClassPrototype(scope, prototypeName));
+    }
+
+    @Override
+    public abstract Object unwrap();
+
+    static Object toScriptMember(View parent, Object cached, Object member) {
+      if (member instanceof Variant || member instanceof VariantList) {
+        if (cached != null && ((View) cached).unwrap() == member) return cached;
+        return toScriptValue(parent.getParentScope(), member);
+      }
+      if (member == null) return NOT_FOUND;
+      if (Variant.NULL.equals(member)) return null;
+      return toScriptPrimitive(member);
+    }
+
+    /**
+     * Convert a value stored into the tree of view under key.
+     */
+    static Object toMember(View view, String key, Object value) {
+      try {
+        return new Converter(view.unwrap()).convert(key, value);
+      } catch (Fault e) {
+        throw ScriptRuntime.typeError(e.getMessage());
+      }
+    }
+  }
+
+  private static final class ObjectView extends View {
+    private static final long serialVersionUID = 1L;
+    private final Variant variant;
+    private Map<String, Object> children;
+
+    ObjectView(Scriptable scope, Variant variant) {
+      super(scope, "Object");
+      this.variant = variant;
+    }
+
+    @Override
+    public String getClassName() { return "Object"; }
+
+    @Override
+    public Object unwrap() { return variant; }
+
+    @Override
+    public boolean has(String name, Scriptable start) {
+      return variant.has(name);
+    }
+
+    @Override
+    public boolean has(int index, Scriptable start) {
+      return variant.has(Integer.toString(index));
+    }
+
+    @Override
+    public Object get(String name, Scriptable start) {
+      Object cached = children == null ? null : children.get(name);
+      Object value = toScriptMember(this, cached, variant.opt(name));
+      if (value instanceof View && value != cached) {
+        if (children == null) children = new HashMap<String, Object>();
+        children.put(name, value);
+      }
+      return value;
+    }
+
+    @Override
+    public Object get(int index, Scriptable start) {
+      return get(Integer.toString(index), start);
+    }
+
+    @Override
+    public void put(String name, Scriptable start, Object value) {
+      if (start != this) {
+        super.put(name, start, value);
+        return;
+      }
+      Object member = toMember(this, name, value);
+      if (member == null) variant.remove(name);
+      else variant.put(name, member);
+    }
+
+    @Override
+    public void put(int index, Scriptable start, Object value) {
+      put(Integer.toString(index), start, value);
+    }
+
+    @Override
+    public void delete(String name) {
+      variant.remove(name);
+    }
+
+    @Override
+    public void delete(int index) {
+      variant.remove(Integer.toString(index));
+    }
+
+    @Override
+    public Object[] getIds() {
+      return variant.keySet().toArray();
+    }
+  }
+
+  /**
+   * A script array that shows a VariantList. A deleted element, or one a
+   * longer length adds, is a hole the view knows of and null in the list.
+   * Named properties other than length live on the view only.
+   */
+  private static final class ArrayView extends View {
+    private static final long serialVersionUID = 1L;
+    // The most elements a view grows its list to
+    private static final int MAX_LENGTH = 1 << 24;
+    private final VariantList list;
+    private Object[] children;
+    private final BitSet holes = new BitSet();
+
+    ArrayView(Scriptable scope, VariantList list) {
+      super(scope, "Array");
+      this.list = list;
+    }
+
+    @Override
+    public String getClassName() { return "Array"; }
+
+    @Override
+    public Object unwrap() { return list; }
+
+    // Whether the element at index was deleted and not set since
+    private boolean isHole(int index) {
+      return holes.get(index) && Variant.NULL.equals(list.opt(index));
+    }
+
+    // Grow the list to length, with holes at the new indexes
+    private void grow(long length) {
+      int old = list.length();
+      if (length <= old) return;
+      if (length > MAX_LENGTH)
+        throw ScriptRuntime.rangeError("array view length " + length
+          + " exceeds " + MAX_LENGTH);
+      list.put((int) length - 1, Variant.NULL);
+      holes.set(old, (int) length);
+    }
+
+    @Override
+    public boolean has(String name, Scriptable start) {
+      return name.equals("length") || super.has(name, start);
+    }
+
+    @Override
+    public boolean has(int index, Scriptable start) {
+      return index >= 0 && index < list.length() && !isHole(index);
+    }
+
+    @Override
+    public Object get(String name, Scriptable start) {
+      if (name.equals("length")) return Integer.valueOf(list.length());
+      return super.get(name, start);
+    }
+
+    @Override
+    public Object get(int index, Scriptable start) {
+      if (index < 0 || index >= list.length() || isHole(index))
+        return NOT_FOUND;
+      Object cached = children != null && index < children.length
+        ? children[index] : null;
+      Object value = toScriptMember(this, cached, list.opt(index));
+      if (value instanceof View && value != cached) {
+        if (children == null || index >= children.length) {
+          Object[] grown = new Object[Math.max(index + 1, list.length())];
+          if (children != null)
+            System.arraycopy(children, 0, grown, 0, children.length);
+          children = grown;
+        }
+        children[index] = value;
+      }
+      return value;
+    }
+
+    @Override
+    public void put(String name, Scriptable start, Object value) {
+      if (start == this && name.equals("length")) {
+        double number = ScriptRuntime.toNumber(value);
+        long length = ScriptRuntime.toUint32(number);
+        if (length != number)
+          throw ScriptRuntime.rangeError("invalid array length " + number);
+        if (length > list.length()) {
+          grow(length);
+          return;
+        }
+        while (list.length() > length) list.remove(list.length() - 1);
+        holes.clear((int) length, Math.max((int) length, holes.length()));
+        return;
+      }
+      super.put(name, start, value);
+    }
+
+    @Override
+    public void put(int index, Scriptable start, Object value) {
+      if (start != this || index < 0) {
+        super.put(index, start, value);
+        return;
+      }
+      Object member = toMember(this, Integer.toString(index), value);
+      grow(index + 1L);
+      list.put(index, member == null ? Variant.NULL : member);
+      holes.clear(index);
+    }
+
+    @Override
+    public void delete(int index) {
+      if (index >= 0 && index < list.length()) {
+        list.put(index, Variant.NULL);
+        holes.set(index);
+      }
+    }
+
+    @Override
+    public Object[] getIds() {
+      Object[] named = super.getIds();
+      ArrayList<Object> ids =
+        new ArrayList<Object>(list.length() + named.length);
+      for (int i = 0; i < list.length(); i++)
+        if (!isHole(i)) ids.add(Integer.valueOf(i));
+      for (Object id : named) ids.add(id);
+      return ids.toArray();
+    }
+  }
+
+}
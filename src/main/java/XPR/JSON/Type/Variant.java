@@ -129,6 +129,15 @@ public class Variant {
    */
   public Variant(Compiler x) throws Fault {
     this();
+    long metering = x.enterValue();
+    try {
+      read(x);
+    } finally {
+      x.leaveValue(metering);
+    }
+  }
+
+  private void read(Compiler x) throws Fault {
     char c;
     String key;
 
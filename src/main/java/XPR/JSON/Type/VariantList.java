@@ -88,6 +88,15 @@ public class VariantList implements Iterable<Object> {
    */
   public VariantList(Compiler x) throws Fault {
     this();
+    long metering = x.enterValue();
+    try {
+      read(x);
+    } finally {
+      x.leaveValue(metering);
+    }
+  }
+
+  private void read(Compiler x) throws Fault {
     if (x.nextClean() != '[') {
       throw x.syntaxError("A VariantList text must start with '['");
     }
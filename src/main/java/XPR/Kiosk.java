@@ -1,5 +1,6 @@
 package XPR;
 
+import XPR.System.Metrics;
 import com.sun.istack.internal.NotNull;
 
 import java.util.HashMap;
@@ -73,6 +74,10 @@ public class Kiosk {
 
   }
 
+  static private final Metrics.Counter
+    added = Metrics.counter("XPR.Kiosk.added"),
+    removed = Metrics.counter("XPR.Kiosk.removed");
+
   private final Storage<Integer, Object> kStorage;
   private final Supervisor kSupervisor;
 
@@ -97,6 +102,7 @@ public class Kiosk {
     if (value == null && ! kSupervisor.permit(Operation.ADD_NULL_KEY, null));
     else if (kSupervisor.permit(Operation.SET_KEY, valueOf(key))) {
       kStorage.set(valueOf(key), value);
+      added.increment();
       kSupervisor.onAdded(key, value);
     }
     else throw new Fault(new IllegalAccessError());
@@ -106,6 +112,7 @@ public class Kiosk {
     if (value == null && ! kSupervisor.permit(Operation.ADD_NULL_KEY, null));
     else if (kSupervisor.permit(Operation.ADD_KEY, null)) {
       int key = kStorage.add(value);
+      added.increment();
       kSupervisor.onAdded(key, value);
       return key;
     }
@@ -115,6 +122,7 @@ public class Kiosk {
   public void delete(Object key) {
     if (kSupervisor.permit(Operation.DELETE_KEY, valueOf(key))) {
       Object value = kStorage.transfer(valueOf(key));
+      removed.increment();
       kSupervisor.onRemoved(key, value, false);
     }
     else throw new Fault(new IllegalAccessError());
@@ -123,6 +131,7 @@ public class Kiosk {
   public <ANY> ANY transfer(Object key) {
     if (kSupervisor.permit(Operation.TRANSFER_KEY, valueOf(key))) {
       Object value = kStorage.transfer(valueOf(key));
+      removed.increment();
       kSupervisor.onRemoved(key, value, true);
       return valueOf(value);
     }
@@ -61,10 +61,10 @@ public class Plus { private Plus(){};
    * @param kind a java class, java classes or a parameter-list of java classes to test
    * @return true when the value is a member of any one of the class kind(s).
    */
-  static public boolean classMember(@NotNull Object value, @NotNull Class... kind) {
+  static public boolean classMember(@NotNull Object value, @NotNull Class<?>... kind) {
     Class<?> valueType = value.getClass();
-    for (Class family: kind) {
-      if (valueType.isAssignableFrom(family)) return true;
+    for (Class<?> family: kind) {
+      if (family.isAssignableFrom(valueType)) return true;
     }
     return false;
   }
@@ -1,7 +1,224 @@
 package XPR.System;
 
+import XPR.Fault;
+import XPR.JSON.Type.Variant;
+import XPR.Speak;
+import com.sun.istack.internal.NotNull;
+import org.mozilla.javascript.Callable;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static XPR.Plus.valueOf;
+
 /**
- * A namespace to put common system metering methods.
+ * A namespace to put common system metering methods.<br>
+ *   <br>
+ *     Meters are registered by name in one process-wide registry. Recording
+ *     never locks: counters are striped, and histograms record into atomic
+ *     bucket arrays. Callers on hot paths should hold on to the meter instead
+ *     of looking it up by name for every record.
  */
-public class Metrics {
+public class Metrics { private Metrics(){};
+
+  public static abstract class Meter {
+    public final String name;
+    Meter(String name) { this.name = name; }
+    abstract Object export();
+  }
+
+  /**
+   * A striped counter. Counters may also be decremented, to keep a count of
+   * live things such as open handles.
+   */
+  public static final class Counter extends Meter {
+    private final LongAdder adder = new LongAdder();
+    Counter(String name) { super(name); }
+    public void increment() { adder.increment(); }
+    public void decrement() { adder.decrement(); }
+    public void add(long value) { adder.add(value); }
+    public long get() { return adder.sum(); }
+    @Override Object export() { return adder.sum(); }
+  }
+
+  public interface Reading { long read(); }
+
+  /**
+   * A gauge reads its value from the metered object when a snapshot is taken.
+   */
+  public static final class Gauge extends Meter {
+    private final Reading reading;
+    Gauge(String name, Reading reading) { super(name); this.reading = reading; }
+    public long get() { return reading.read(); }
+    @Override Object export() { return reading.read(); }
+  }
+
+  /**
+   * A log-linear (HDR-style) histogram of non-negative long values.<br>
+   *   <br>
+   *     Every power of two is split into 32 linear sub-buckets, which keeps the
+   *     relative error of any reported value under 3.2% across the whole long
+   *     range, in a fixed array of 1920 buckets.
+   */
+  public static final class Histogram extends Meter {
+    static final int subBits = 5, subCount = 1 << subBits;
+    static final int bucketCount = (64 - subBits + 1) * subCount;
+    private final AtomicLongArray buckets = new AtomicLongArray(bucketCount);
+    private final LongAdder count = new LongAdder(), sum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+    Histogram(String name) { super(name); }
+
+    static int bucketOf(long value) {
+      if (value < subCount) return (int) value;
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+      int sub = (int) (value >>> (exponent - subBits)) & (subCount - 1);
+      return (exponent - subBits + 1) * subCount + sub;
+    }
+
+    static long lowestOf(int bucket) {
+      if (bucket < subCount) return bucket;
+      int exponent = bucket / subCount + subBits - 1;
+      long sub = bucket % subCount;
+      return (1L << exponent) | (sub << (exponent - subBits));
+    }
+
+    public void record(long value) {
+      if (value < 0) value = 0;
+      buckets.incrementAndGet(bucketOf(value));
+      count.increment(); sum.add(value);
+      long m;
+      while (value < (m = min.get()) && ! min.compareAndSet(m, value));
+      while (value > (m = max.get()) && ! max.compareAndSet(m, value));
+    }
+
+    /**
+     * Records the nanoseconds elapsed since a {@link System#nanoTime()} value.
+     */
+    public void recordSince(long startNanos) {
+      record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() { return count.sum(); }
+    public long getSum() { return sum.sum(); }
+    public long getMin() { long m = min.get(); return (m == Long.MAX_VALUE) ? 0 : m; }
+    public long getMax() { long m = max.get(); return (m == Long.MIN_VALUE) ? 0 : m; }
+
+    /**
+     * @param percentile a value from 0 to 100
+     * @return the lower bound of the bucket holding the percentile
+     */
+    public long getPercentile(double percentile) {
+      long total = count.sum();
+      if (total == 0) return 0;
+      long rank = (long) java.lang.Math.ceil(total * percentile / 100.0);
+      if (rank < 1) rank = 1;
+      long seen = 0;
+      for (int i = 0; i < bucketCount; i++) {
+        seen += buckets.get(i);
+        if (seen >= rank) return java.lang.Math.min(lowestOf(i), getMax());
+      }
+      return getMax();
+    }
+
+    @Override Object export() {
+      long n = count.sum();
+      return new Variant()
+        .put("count", n)
+        .put("sum", sum.sum())
+        .put("min", getMin())
+        .put("max", getMax())
+        .put("mean", (n == 0) ? 0.0 : (double) sum.sum() / n)
+        .put("p50", getPercentile(50))
+        .put("p90", getPercentile(90))
+        .put("p99", getPercentile(99))
+        .put("p999", getPercentile(99.9));
+    }
+  }
+
+  static private final ConcurrentHashMap<String, Meter> registry =
+    new ConcurrentHashMap<>();
+
+  static private <TYPE extends Meter> TYPE register(String name, Class<TYPE> kind,
+    java.util.function.Function<String, Meter> factory) {
+    Meter meter = registry.computeIfAbsent(name, factory);
+    if (kind.isInstance(meter)) return valueOf(meter);
+    throw new Fault.WrongParameterType("meter registration failure"
+      + Speak.quoteExactTarget(name) + " is registered as a "
+      + meter.getClass().getSimpleName()
+    );
+  }
+
+  @NotNull static public Counter counter(@NotNull String name) {
+    return register(name, Counter.class, Counter::new);
+  }
+
+  /**
+   * Registers a gauge. A gauge registered under an existing name replaces it.
+   */
+  @NotNull static public Gauge gauge(@NotNull String name, @NotNull Reading reading) {
+    Gauge gauge = new Gauge(name, reading);
+    Meter previous = registry.put(name, gauge);
+    if (previous == null || previous instanceof Gauge) return gauge;
+    registry.put(name, previous);
+    throw new Fault.WrongParameterType("meter registration failure"
+      + Speak.quoteExactTarget(name) + " is registered as a "
+      + previous.getClass().getSimpleName()
+    );
+  }
+
+  @NotNull static public Histogram histogram(@NotNull String name) {
+    return register(name, Histogram.class, Histogram::new);
+  }
+
+  static public Meter get(String name) { return registry.get(name); }
+
+  static public Meter remove(String name) { return registry.remove(name); }
+
+  /**
+   * @return every registered meter by name; counters and gauges as numbers,
+   * histograms as objects of count, sum, min, max, mean and percentiles.
+   */
+  @NotNull static public Variant getSnapshot() {
+    Variant snapshot = new Variant();
+    for (Map.Entry<String, Meter> e: registry.entrySet()) {
+      snapshot.put(e.getKey(), e.getValue().export());
+    }
+    return snapshot;
+  }
+
+  static public String toJSON() {
+    return getSnapshot().toString();
+  }
+
+  /**
+   * A script context factory that meters top-level script calls.<br>
+   *   <br>
+   *     Install it with ContextFactory.initGlobal, or use it to enter
+   *     contexts, to record the latency of every top-level script execution
+   *     and function call in the "XPR.Script.eval" histogram.
+   */
+  public static class ScriptFactory extends org.mozilla.javascript.ContextFactory {
+    static public final Histogram eval = histogram("XPR.Script.eval");
+    static public final Counter faults = counter("XPR.Script.faults");
+    @Override
+    protected Object doTopCall(Callable callable, Context cx, Scriptable scope,
+      Scriptable thisObj, Object[] args) {
+      long start = System.nanoTime();
+      try {
+        return super.doTopCall(callable, cx, scope, thisObj, args);
+      } catch (RuntimeException e) {
+        faults.increment();
+        throw e;
+      } finally {
+        eval.recordSince(start);
+      }
+    }
+  }
+
 }
@@ -2,58 +2,272 @@ package XPR.System;
 
 import XPR.Fault;
 import XPR.IO.Stream;
-import XPR.Plus;
 
 import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.file.FileSystemException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
-
-import static XPR.Plus.valueOf;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Viron { private Viron(){};
 
-    static private HashMap<String, String> copyVirons() {
+    /**
+     * An immutable environment table.<br>
+     *   <br>
+     *     Writers copy the table and publish the copy; readers use whatever
+     *     table was published last, without locking or copying.
+     */
+    static private final class Table {
+      final Map<String, String> map;
+      private volatile String[] keys;
+      Table(HashMap<String, String> source) {
+        map = Collections.unmodifiableMap(source);
+      }
+      HashMap<String, String> copy() { return new HashMap<>(map); }
+      String[] keys() {
+        String[] k = keys;
+        if (k == null) keys = k = map.keySet().toArray(new String[map.size()]);
+        return k;
+      }
+    }
+
+    static private Table copyVirons() {
       Map<String, String> source = java.lang.System.getenv();
       HashMap<String, String> localMap;
       localMap = new HashMap<>(source.size() + 16);
       localMap.putAll(source);
-      return localMap;
+      return new Table(localMap);
     }
 
-    static private HashMap<String, String> virons = copyVirons();
+    static private volatile Table virons = copyVirons();
+    static private final Object writeLock = new Object();
+
+    public interface Listener {
+      /**
+       * @param key the environment key
+       * @param previous the previous value or null
+       * @param value the new value or null if the key was cleared
+       */
+      void onChange(String key, String previous, String value);
+    }
+
+    static private final CopyOnWriteArrayList<Listener> listeners =
+      new CopyOnWriteArrayList<>();
+
+    static public void addListener(Listener listener) { listeners.add(listener); }
+
+    static public boolean removeListener(Listener listener) {
+      return listeners.remove(listener);
+    }
+
+    static private void publish(Table current) {
+      Table previous;
+      synchronized (writeLock) { previous = virons; virons = current; }
+      announce(previous, current);
+    }
+
+    static private void announce(Table previous, Table current) {
+      if (listeners.isEmpty()) return;
+      for (Map.Entry<String, String> e: current.map.entrySet()) {
+        String old = previous.map.get(e.getKey());
+        if (! Objects.equals(e.getValue(), old)) notify(e.getKey(), old, e.getValue());
+      }
+      for (Map.Entry<String, String> e: previous.map.entrySet()) {
+        if (! current.map.containsKey(e.getKey()))
+          notify(e.getKey(), e.getValue(), null);
+      }
+    }
+
+    static private void notify(String key, String previous, String value) {
+      for (Listener l: listeners) l.onChange(key, previous, value);
+    }
+
+    /**
+     * XPR.System.Viron.Scope<br>
+     *   <br>
+     *     A thread-local environment overlay. While a scope is open on a
+     *     thread, every Viron read and write on that thread goes through the
+     *     scope: writes stay in the overlay, and reads fall through to the
+     *     process table for keys the scope has not touched. Closing the scope
+     *     restores the nearest enclosing scope that is still open; scopes may
+     *     be closed in any order, and a closed scope is skipped by the scopes
+     *     it encloses.
+     */
+    static public final class Scope implements Closeable {
+      private final Scope parent;
+      private final HashMap<String, String> overlay = new HashMap<>();
+      private final HashSet<String> cleared = new HashSet<>();
+      private boolean detached;
+      private volatile boolean closed;
+      private Map<String, String> view, viewBase;
+      private Scope(Scope parent) { this.parent = parent; }
+      private Scope parent() {
+        Scope p = parent;
+        while (p != null && p.closed) p = p.parent;
+        return p;
+      }
+      private Map<String, String> base() {
+        Scope p = parent();
+        return (p == null) ? virons.map : p.snapshot();
+      }
+      public String get(String key) {
+        String value = overlay.get(key);
+        if (value != null || detached || overlay.containsKey(key)
+          || cleared.contains(key)) return value;
+        Scope p = parent();
+        return (p == null) ? virons.map.get(key) : p.get(key);
+      }
+      public void set(String key, String value) {
+        overlay.put(key, value); cleared.remove(key); view = null;
+      }
+      public String clearKey(String key) {
+        String value = get(key);
+        overlay.remove(key); cleared.add(key); view = null;
+        return value;
+      }
+      public void clearKeys() {
+        overlay.clear(); cleared.clear(); detached = true; view = null;
+      }
+      /**
+       * @return a modifiable copy of the merged table.
+       */
+      public Map<String, String> readTable() {
+        return new HashMap<>(snapshot());
+      }
+      /**
+       * @return the merged, unmodifiable table; rebuilt only after this
+       * scope or the table beneath it changes.
+       */
+      public Map<String, String> snapshot() {
+        Map<String, String> base = detached ? null : base();
+        if (view != null && viewBase == base) return view;
+        HashMap<String, String> merged = (base == null) ? new HashMap<>()
+          : new HashMap<>(base);
+        for (String key: cleared) merged.remove(key);
+        merged.putAll(overlay);
+        viewBase = base;
+        return view = Collections.unmodifiableMap(merged);
+      }
+      public boolean isOpen() { return ! closed; }
+      @Override
+      public void close() {
+        closed = true;
+        if (scope.get() == this) current();
+      }
+    }
+
+    static private final ThreadLocal<Scope> scope = new ThreadLocal<>();
+
+    /**
+     * @return the innermost open scope of the calling thread or null; closed
+     * scopes on top of it are dropped.
+     */
+    static private Scope current() {
+      Scope s = scope.get();
+      if (s == null || ! s.closed) return s;
+      while (s != null && s.closed) s = s.parent;
+      if (s == null) scope.remove(); else scope.set(s);
+      return s;
+    }
+
+    /**
+     * Opens an environment overlay for the calling thread.
+     * @return the scope; close it to return to the previous environment.
+     */
+    static public Scope openScope() {
+      Scope s = new Scope(current());
+      scope.set(s);
+      return s;
+    }
+
+    /**
+     * @return the scope open on the calling thread or null.
+     */
+    static public Scope getScope() {
+      return current();
+    }
+
+   /**
+    * @return a modifiable copy of the environment table.
+    */
+   static public Map<String, String> readTable() {
+     return new HashMap<>(snapshot());
+   }
 
-    static public Map<String, String> readTable() {
-     return valueOf(virons.clone());
+   /**
+    * @return the environment table as an unmodifiable map, without copying.
+    */
+   static public Map<String, String> snapshot() {
+     Scope s = current();
+     if (s != null) return s.snapshot();
+     return virons.map;
    }
 
    static public void writeTable(Map<String, String> table) {
-     virons.putAll(table);
+     Scope s = current();
+     if (s != null) { for (Map.Entry<String, String> e: table.entrySet())
+       s.set(e.getKey(), e.getValue()); return; }
+     Table previous, current;
+     synchronized (writeLock) {
+       HashMap<String, String> map = (previous = virons).copy();
+       map.putAll(table);
+       virons = current = new Table(map);
+     }
+     announce(previous, current);
    }
 
    static public String get(String key) {
-     return virons.get(key);
+     Scope s = current();
+     if (s != null) return s.get(key);
+     return virons.map.get(key);
    }
 
    static public void set(String key, String value) {
-     virons.put(key, value);
+     Scope s = current();
+     if (s != null) { s.set(key, value); return; }
+     Table previous, current;
+     synchronized (writeLock) {
+       HashMap<String, String> map = (previous = virons).copy();
+       map.put(key, value);
+       virons = current = new Table(map);
+     }
+     announce(previous, current);
    }
 
    static public String clearKey(String key) {
-     return virons.remove(key);
+     Scope s = current();
+     if (s != null) return s.clearKey(key);
+     Table previous, current; String value;
+     synchronized (writeLock) {
+       HashMap<String, String> map = (previous = virons).copy();
+       value = map.remove(key);
+       virons = current = new Table(map);
+     }
+     announce(previous, current);
+     return value;
    }
 
    static public void clearKeys() {
-     virons.clear();
+     Scope s = current();
+     if (s != null) { s.clearKeys(); return; }
+     publish(new Table(new HashMap<>()));
    }
 
    static public String[] getKeys() {
-     return Plus.getBasicListOf(virons.keySet());
+     Scope s = current();
+     if (s != null) {
+       Map<String, String> table = s.snapshot();
+       return table.keySet().toArray(new String[table.size()]);
+     }
+     return virons.keys().clone();
    }
 
    static public void loadSystemTable() {
-     virons = copyVirons();
+     publish(copyVirons());
    }
 
     public static final String getCharSetName() {
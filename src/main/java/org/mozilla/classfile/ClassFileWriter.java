@@ -863,6 +863,141 @@ public class ClassFileWriter {
         }
     }
 
+    /**
+     * Add an invokedynamic instruction. The call site is linked by
+     * <code>bsm</code>, which must be a static method, with the given
+     * static arguments (Strings and Integers).
+     *
+     * @param methodName the name passed to the bootstrap method
+     * @param methodType the descriptor of the call site
+     * @param bsm the bootstrap method
+     * @param bsmArgs the static arguments of the bootstrap method
+     * @see #isInvokeDynamicSupported()
+     */
+    public void addInvokeDynamic(String methodName, String methodType,
+                                 MHandle bsm, Object... bsmArgs)
+    {
+        if (DEBUGCODE) {
+            System.out.println("Add invokedynamic, "+methodName+", "
+                               +methodType);
+        }
+        if (!isInvokeDynamicSupported()) {
+            throw new IllegalStateException(
+                "invokedynamic requires class file version 51");
+        }
+        int parameterInfo = sizeOfParameters(methodType);
+        int stackDiff = (short)parameterInfo;
+        int newStack = itsStackTop + stackDiff;
+        if (newStack < 0 || Short.MAX_VALUE < newStack) badStack(newStack);
+
+        BootstrapEntry entry = new BootstrapEntry(bsm, bsmArgs);
+        if (itsBootstrapMethods == null) {
+            itsBootstrapMethods = new ObjArray();
+        }
+        int bootstrapIndex = itsBootstrapMethods.indexOf(entry);
+        if (bootstrapIndex < 0) {
+            bootstrapIndex = itsBootstrapMethods.size();
+            itsBootstrapMethods.add(entry);
+            itsBootstrapMethodsLength += entry.code.length;
+        }
+        short indyIndex = itsConstantPool.addInvokeDynamic(methodName,
+                                                           methodType,
+                                                           bootstrapIndex);
+        addToCodeBuffer(ByteCode.INVOKEDYNAMIC);
+        addToCodeInt16(indyIndex);
+        addToCodeInt16(0);
+
+        itsStackTop = (short)newStack;
+        if (newStack > itsMaxStack) itsMaxStack = (short)newStack;
+        if (DEBUGSTACK) {
+            System.out.println("After invokedynamic stack = "+itsStackTop);
+        }
+    }
+
+    /**
+     * Returns true if the generated classes may use invokedynamic, that is,
+     * if they have class file version 51 (Java 7) or later.
+     */
+    public static boolean isInvokeDynamicSupported()
+    {
+        return MajorVersion >= 51;
+    }
+
+    /**
+     * A method handle constant, the bootstrap method of an invokedynamic
+     * instruction.
+     */
+    public static final class MHandle
+    {
+        public MHandle(byte tag, String owner, String name, String desc)
+        {
+            this.tag = tag;
+            this.owner = owner;
+            this.name = name;
+            this.desc = desc;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof MHandle)) {
+                return false;
+            }
+            MHandle mh = (MHandle)obj;
+            return tag == mh.tag && owner.equals(mh.owner)
+                   && name.equals(mh.name) && desc.equals(mh.desc);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return tag + owner.hashCode() * name.hashCode()
+                   * desc.hashCode();
+        }
+
+        @Override
+        public String toString()
+        {
+            return owner + '.' + name + desc + " (" + tag + ")";
+        }
+
+        final byte tag;
+        final String owner;
+        final String name;
+        final String desc;
+    }
+
+    // One entry of the BootstrapMethods attribute
+    private final class BootstrapEntry
+    {
+        final byte[] code;
+
+        BootstrapEntry(MHandle bsm, Object... bsmArgs)
+        {
+            int length = 2 + 2 + bsmArgs.length * 2;
+            code = new byte[length];
+            putInt16(itsConstantPool.addMethodHandle(bsm), code, 0);
+            putInt16(bsmArgs.length, code, 2);
+            for (int i = 0; i < bsmArgs.length; i++) {
+                putInt16(itsConstantPool.addConstant(bsmArgs[i]),
+                         code, 4 + i * 2);
+            }
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            return obj instanceof BootstrapEntry
+                   && Arrays.equals(code, ((BootstrapEntry)obj).code);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return ~Arrays.hashCode(code);
+        }
+    }
+
     /**
      * Generate code to load the given integer on stack.
      *
@@ -2185,6 +2320,22 @@ public class ClassFileWriter {
                         push(TypeInfo.fromType(returnType, itsConstantPool));
                     }
                     break;
+                case ByteCode.INVOKEDYNAMIC: {
+                    index = getOperand(bci + 1, 2);
+                    String indyType = ((FieldOrMethodRef)
+                            itsConstantPool.getConstantData(index)).getType();
+                    int indyParameterCount = sizeOfParameters(indyType) >>> 16;
+                    for (int i = 0; i < indyParameterCount; i++) {
+                        pop();
+                    }
+                    String indyReturnType = descriptorToInternalName(
+                            indyType.substring(indyType.indexOf(')') + 1));
+                    if (!indyReturnType.equals("V")) {
+                        push(TypeInfo.fromType(indyReturnType,
+                                               itsConstantPool));
+                    }
+                    break;
+                }
                 case ByteCode.GETFIELD:
                     pop();
                 case ByteCode.GETSTATIC:
@@ -2741,6 +2892,9 @@ public class ClassFileWriter {
         if (itsSourceFileNameIndex != 0) {
             itsConstantPool.addUtf8("SourceFile");
         }
+        if (itsBootstrapMethods != null) {
+            itsConstantPool.addUtf8("BootstrapMethods");
+        }
 
         size += 8; //writeLong(FileHeaderConstant);
         size += itsConstantPool.getWriteSize();
@@ -2760,13 +2914,17 @@ public class ClassFileWriter {
             size += ((ClassFileMethod)(itsMethods.get(i))).getWriteSize();
         }
 
+        size += 2; //writeShort(attributes count)
         if (itsSourceFileNameIndex != 0) {
-            size += 2; //writeShort(1);  attributes count
             size += 2; //writeShort(sourceFileAttributeNameIndex);
             size += 4; //writeInt(2);
             size += 2; //writeShort(itsSourceFileNameIndex);
-        }else {
-            size += 2; //out.writeShort(0);  no attributes
+        }
+        if (itsBootstrapMethods != null) {
+            size += 2; //writeShort(bootstrapMethodsAttributeNameIndex);
+            size += 4; //writeInt(attribute length);
+            size += 2; //writeShort(number of bootstrap methods);
+            size += itsBootstrapMethodsLength;
         }
 
         return size;
@@ -2786,6 +2944,11 @@ public class ClassFileWriter {
             sourceFileAttributeNameIndex = itsConstantPool.addUtf8(
                                                "SourceFile");
         }
+        short bootstrapMethodsAttributeNameIndex = 0;
+        if (itsBootstrapMethods != null) {
+            bootstrapMethodsAttributeNameIndex = itsConstantPool.addUtf8(
+                                                     "BootstrapMethods");
+        }
 
         offset = putInt32(FileHeaderConstant, data, offset);
         offset = putInt16(MinorVersion, data, offset);
@@ -2809,13 +2972,31 @@ public class ClassFileWriter {
             ClassFileMethod method = (ClassFileMethod)itsMethods.get(i);
             offset = method.write(data, offset);
         }
+        int attributeCount = 0;
+        if (itsSourceFileNameIndex != 0) {
+            ++attributeCount;
+        }
+        if (itsBootstrapMethods != null) {
+            ++attributeCount;
+        }
+        offset = putInt16(attributeCount, data, offset);
         if (itsSourceFileNameIndex != 0) {
-            offset = putInt16(1, data, offset); // attributes count
             offset = putInt16(sourceFileAttributeNameIndex, data, offset);
             offset = putInt32(2, data, offset);
             offset = putInt16(itsSourceFileNameIndex, data, offset);
-        } else {
-            offset = putInt16(0, data, offset); // no attributes
+        }
+        if (itsBootstrapMethods != null) {
+            offset = putInt16(bootstrapMethodsAttributeNameIndex, data,
+                              offset);
+            offset = putInt32(2 + itsBootstrapMethodsLength, data, offset);
+            offset = putInt16(itsBootstrapMethods.size(), data, offset);
+            for (int i = 0; i < itsBootstrapMethods.size(); i++) {
+                BootstrapEntry entry
+                    = (BootstrapEntry)itsBootstrapMethods.get(i);
+                System.arraycopy(entry.code, 0, data, offset,
+                                 entry.code.length);
+                offset += entry.code.length;
+            }
         }
 
         if (offset != dataSize) {
@@ -3188,6 +3369,7 @@ public class ClassFileWriter {
                 return 4;
 
             case ByteCode.GOTO_W:
+            case ByteCode.INVOKEDYNAMIC:
             case ByteCode.INVOKEINTERFACE:
             case ByteCode.JSR_W:
                 return 5;
@@ -3390,6 +3572,7 @@ public class ClassFileWriter {
             case ByteCode.IF_ICMPNE:
             case ByteCode.ILOAD:
             case ByteCode.INSTANCEOF:
+            case ByteCode.INVOKEDYNAMIC:
             case ByteCode.INVOKEINTERFACE:
             case ByteCode.INVOKESPECIAL:
             case ByteCode.INVOKESTATIC:
@@ -3571,6 +3754,7 @@ public class ClassFileWriter {
             case ByteCode.IMPDEP2:
             case ByteCode.INEG:
             case ByteCode.INSTANCEOF:
+            case ByteCode.INVOKEDYNAMIC:
             case ByteCode.INVOKESTATIC:
             case ByteCode.L2D:
             case ByteCode.LALOAD:
@@ -4069,6 +4253,7 @@ public class ClassFileWriter {
                 case ByteCode.INVOKESPECIAL:    return "invokespecial";
                 case ByteCode.INVOKESTATIC:     return "invokestatic";
                 case ByteCode.INVOKEINTERFACE:  return "invokeinterface";
+                case ByteCode.INVOKEDYNAMIC:    return "invokedynamic";
                 case ByteCode.NEW:              return "new";
                 case ByteCode.NEWARRAY:         return "newarray";
                 case ByteCode.ANEWARRAY:        return "anewarray";
@@ -4248,6 +4433,8 @@ public class ClassFileWriter {
 
     private ObjArray itsMethods = new ObjArray();
     private ObjArray itsFields = new ObjArray();
+    private ObjArray itsBootstrapMethods;
+    private int itsBootstrapMethodsLength;
     private ObjArray itsInterfaces = new ObjArray();
 
     private short itsFlags;
@@ -4426,6 +4613,9 @@ final class ConstantPool
         CONSTANT_Long = 5,
         CONSTANT_Double = 6,
         CONSTANT_NameAndType = 12,
+        CONSTANT_MethodHandle = 15,
+        CONSTANT_MethodType = 16,
+        CONSTANT_InvokeDynamic = 18,
         CONSTANT_Utf8 = 1;
 
     int write(byte[] data, int offset)
@@ -4692,6 +4882,56 @@ final class ConstantPool
         return (short)(itsTopIndex++);
     }
 
+    // A constant for a bootstrap method argument
+    int addConstant(Object value)
+    {
+        if (value instanceof Integer) {
+            return addConstant(((Integer)value).intValue());
+        } else if (value instanceof String) {
+            return addConstant((String)value);
+        } else if (value instanceof ClassFileWriter.MHandle) {
+            return addMethodHandle((ClassFileWriter.MHandle)value);
+        }
+        throw new IllegalArgumentException("value " + value);
+    }
+
+    short addMethodHandle(ClassFileWriter.MHandle mh)
+    {
+        int theIndex = itsMethodHandleHash.get(mh, -1);
+        if (theIndex == -1) {
+            short ref;
+            if (mh.tag <= ByteCode.MH_PUTSTATIC) {
+                ref = addFieldRef(mh.owner, mh.name, mh.desc);
+            } else if (mh.tag == ByteCode.MH_INVOKEINTERFACE) {
+                ref = addInterfaceMethodRef(mh.owner, mh.name, mh.desc);
+            } else {
+                ref = addMethodRef(mh.owner, mh.name, mh.desc);
+            }
+            ensure(4);
+            itsPool[itsTop++] = CONSTANT_MethodHandle;
+            itsPool[itsTop++] = mh.tag;
+            itsTop = ClassFileWriter.putInt16(ref, itsPool, itsTop);
+            theIndex = itsTopIndex++;
+            itsMethodHandleHash.put(mh, theIndex);
+            itsPoolTypes.put(theIndex, CONSTANT_MethodHandle);
+        }
+        return (short)theIndex;
+    }
+
+    short addInvokeDynamic(String methodName, String methodType,
+                           int bootstrapIndex)
+    {
+        short ntIndex = addNameAndType(methodName, methodType);
+        ensure(5);
+        itsPool[itsTop++] = CONSTANT_InvokeDynamic;
+        itsTop = ClassFileWriter.putInt16(bootstrapIndex, itsPool, itsTop);
+        itsTop = ClassFileWriter.putInt16(ntIndex, itsPool, itsTop);
+        FieldOrMethodRef r = new FieldOrMethodRef("", methodName, methodType);
+        setConstantData(itsTopIndex, r);
+        itsPoolTypes.put(itsTopIndex, CONSTANT_InvokeDynamic);
+        return (short)(itsTopIndex++);
+    }
+
     Object getConstantData(int index)
     {
         return itsConstantData.getObject(index);
@@ -4729,6 +4969,7 @@ final class ConstantPool
     private ObjToIntMap itsFieldRefHash = new ObjToIntMap();
     private ObjToIntMap itsMethodRefHash = new ObjToIntMap();
     private ObjToIntMap itsClassHash = new ObjToIntMap();
+    private ObjToIntMap itsMethodHandleHash = new ObjToIntMap();
 
     private int itsTop;
     private int itsTopIndex;
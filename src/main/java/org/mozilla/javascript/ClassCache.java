@@ -8,11 +8,24 @@ package org.mozilla.javascript;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.io.Serializable;
 
 /**
  * Cache of generated classes and data structures to access Java runtime
  * from JavaScript.
+ * <p>
+ * One ClassCache may be associated with any number of top-level scopes,
+ * including scopes initialized by contexts of different ContextFactory
+ * instances (see {@link ContextFactory#setClassCache(ClassCache)}). Java
+ * classes are then reflected, and adapter classes generated, once for all
+ * of those scopes; each scope only gets its own function objects for the
+ * reflected methods.
+ * <p>
+ * {@link #getGlobal()} returns a ClassCache shared by the whole process,
+ * which keeps the data of each class only as long as the class itself is
+ * loaded.
  *
  * @author Igor Bukanov
  *
@@ -22,12 +35,98 @@ public class ClassCache implements Serializable
 {
     private static final long serialVersionUID = -8866246036237312215L;
     private static final Object AKEY = "ClassCache";
+    private static final ClassCache global = new ClassCache(true);
+    private static final ClassLoader rhinoLoader =
+        ClassCache.class.getClassLoader();
+
+    private final boolean isGlobal;
     private volatile boolean cachingIsEnabled = true;
-    private transient Map<Class<?>,JavaMembers> classTable;
-    private transient Map<JavaAdapter.JavaAdapterSignature,Class<?>> classAdapterCache;
-    private transient Map<Class<?>,Object> interfaceAdapterCache;
+    private volatile boolean invokerOptimization;
+    // the cached data of each class; the global cache keeps the data of
+    // classes that may be unloaded before Rhino in classEntryValues
+    private transient volatile ConcurrentMap<Class<?>,ClassEntry> classEntries;
+    private transient volatile ClassValue<ClassEntry> classEntryValues;
     private int generatedClassSerial;
-    private Scriptable associatedScope;
+    // incremented when the caches are emptied, to empty the scope tables
+    private transient volatile int generation;
+
+    /**
+     * What the cache keeps for one class: its members reflected for each
+     * access mode, its interface adapter and the adapter classes kept
+     * with it.
+     */
+    private static final class ClassEntry
+    {
+        final AtomicReferenceArray<JavaMembers> members =
+            new AtomicReferenceArray<JavaMembers>(4);
+        volatile Object interfaceAdapter;
+        final ConcurrentMap<JavaAdapter.JavaAdapterSignature,Class<?>> adapters =
+            new ConcurrentHashMap<JavaAdapter.JavaAdapterSignature,Class<?>>(
+                4, 0.75f, 1);
+    }
+
+    public ClassCache()
+    {
+        this(false);
+    }
+
+    private ClassCache(boolean isGlobal)
+    {
+        this.isGlobal = isGlobal;
+    }
+
+    /**
+     * Return the ClassCache shared by the whole process.
+     * <p>
+     * Associating the global cache with the scopes of every request, for
+     * example with {@link ContextFactory#setClassCache(ClassCache)}, makes
+     * Java classes reflected and adapter classes generated once per class
+     * loader rather than once per scope. The cache does not keep classes
+     * loaded: the data of classes from class loaders other than Rhino's
+     * and its parents is attached to the classes themselves with a
+     * {@link ClassValue}, so dropping such a loader drops its data. Adapter
+     * classes, and the members of a class with a generated accessor, are
+     * only kept with a class whose class loader keeps the loader of the
+     * generated class alive anyway.
+     */
+    public static ClassCache getGlobal()
+    {
+        return global;
+    }
+
+    /**
+     * The association of a ClassCache with one top-level scope, holding
+     * the members reflected for the cache bound to that scope.
+     */
+    static final class ScopeBinding implements Serializable
+    {
+        private static final long serialVersionUID = 2425393545287620409L;
+
+        final ClassCache cache;
+        final ScriptableObject scope;
+        private transient volatile Map<Class<?>,JavaMembers> classTable;
+        private transient int generation;
+
+        ScopeBinding(ClassCache cache, ScriptableObject scope)
+        {
+            this.cache = cache;
+            this.scope = scope;
+        }
+
+        /**
+         * @return a map from classes to JavaMembers bound to the scope
+         */
+        Map<Class<?>,JavaMembers> getClassCacheMap()
+        {
+            Map<Class<?>,JavaMembers> table = classTable;
+            if (table == null || generation != cache.generation) {
+                generation = cache.generation;
+                table = new ConcurrentHashMap<Class<?>,JavaMembers>(16, 0.75f, 1);
+                classTable = table;
+            }
+            return table;
+        }
+    }
 
     /**
      * Search for ClassCache object in the given scope.
@@ -44,18 +143,24 @@ public class ClassCache implements Serializable
      */
     public static ClassCache get(Scriptable scope)
     {
-        ClassCache cache = (ClassCache)
+        return getBinding(scope).cache;
+    }
+
+    static ScopeBinding getBinding(Scriptable scope)
+    {
+        ScopeBinding binding = (ScopeBinding)
                 ScriptableObject.getTopScopeValue(scope, AKEY);
-        if (cache == null) {
+        if (binding == null) {
             throw new RuntimeException("Can't find top level scope for " +
                     "ClassCache.get");
         }
-        return cache;
+        return binding;
     }
 
     /**
      * Associate ClassCache object with the given top-level scope.
-     * The ClassCache object can only be associated with the given scope once.
+     * A scope can only be associated with one ClassCache object, while a
+     * ClassCache object may be associated with many scopes.
      *
      * @param topScope scope to associate this ClassCache object with.
      * @return true if no previous ClassCache objects were embedded into
@@ -70,11 +175,9 @@ public class ClassCache implements Serializable
             // Can only associate cache with top level scope
             throw new IllegalArgumentException();
         }
-        if (this == topScope.associateValue(AKEY, this)) {
-            associatedScope = topScope;
-            return true;
-        }
-        return false;
+        Object binding = topScope.associateValue(AKEY,
+                                                 new ScopeBinding(this, topScope));
+        return ((ScopeBinding) binding).cache == this;
     }
 
     /**
@@ -82,9 +185,9 @@ public class ClassCache implements Serializable
      */
     public synchronized void clearCaches()
     {
-        classTable = null;
-        classAdapterCache = null;
-        interfaceAdapterCache = null;
+        classEntries = null;
+        classEntryValues = null;
+        ++generation;
     }
 
     /**
@@ -123,49 +226,207 @@ public class ClassCache implements Serializable
         cachingIsEnabled = enabled;
     }
 
+    private ClassEntry getEntry(Class<?> cl)
+    {
+        if (isGlobal && !outlivesRhino(cl.getClassLoader())) {
+            ClassValue<ClassEntry> values = classEntryValues;
+            if (values == null) {
+                synchronized (this) {
+                    values = classEntryValues;
+                    if (values == null) {
+                        values = new ClassValue<ClassEntry>() {
+                            @Override
+                            protected ClassEntry computeValue(Class<?> type)
+                            {
+                                return new ClassEntry();
+                            }
+                        };
+                        classEntryValues = values;
+                    }
+                }
+            }
+            return values.get(cl);
+        }
+        ConcurrentMap<Class<?>,ClassEntry> entries = classEntries;
+        if (entries == null) {
+            synchronized (this) {
+                entries = classEntries;
+                if (entries == null) {
+                    // Use 1 as concurrency level here and for other
+                    // concurrent hash maps as we don't expect high levels
+                    // of sustained concurrent writes.
+                    entries = new ConcurrentHashMap<Class<?>,ClassEntry>(
+                        16, 0.75f, 1);
+                    classEntries = entries;
+                }
+            }
+        }
+        ClassEntry entry = entries.get(cl);
+        if (entry == null) {
+            entry = new ClassEntry();
+            ClassEntry previous = entries.putIfAbsent(cl, entry);
+            if (previous != null) {
+                entry = previous;
+            }
+        }
+        return entry;
+    }
+
+    // Whether classes of the loader stay loaded as long as Rhino does
+    private static boolean outlivesRhino(ClassLoader loader)
+    {
+        return isAncestorOrSelf(loader, rhinoLoader);
+    }
+
+    // Whether the class loader of cl, or Rhino's loader for classes that
+    // outlive Rhino, keeps parentLoader alive, so that the entry of cl may
+    // keep a class loader whose parent is parentLoader
+    private static boolean isKeptAlive(Class<?> cl, ClassLoader parentLoader)
+    {
+        ClassLoader holder = outlivesRhino(cl.getClassLoader())
+            ? rhinoLoader : cl.getClassLoader();
+        return isAncestorOrSelf(parentLoader, holder);
+    }
+
+    private static boolean isAncestorOrSelf(ClassLoader ancestor,
+                                            ClassLoader loader)
+    {
+        if (ancestor == null) {
+            return true;
+        }
+        try {
+            for (; loader != null; loader = loader.getParent()) {
+                if (loader == ancestor) {
+                    return true;
+                }
+            }
+        } catch (SecurityException ex) {
+            // can not tell
+        }
+        return false;
+    }
+
+    private static int accessMode(boolean includeProtected,
+                                  boolean includePrivate)
+    {
+        return (includeProtected ? 1 : 0) | (includePrivate ? 2 : 0);
+    }
+
     /**
-     * @return a map from classes to associated JavaMembers objects
+     * @return the members of cl reflected with the given access, not bound
+     *         to any scope, or null if cl was not reflected
      */
-    Map<Class<?>,JavaMembers> getClassCacheMap() {
-        if (classTable == null) {
-            // Use 1 as concurrency level here and for other concurrent hash maps
-            // as we don't expect high levels of sustained concurrent writes.
-            classTable = new ConcurrentHashMap<Class<?>,JavaMembers>(16, 0.75f, 1);
+    JavaMembers getReflectedClass(Class<?> cl, boolean includeProtected,
+                                  boolean includePrivate)
+    {
+        return getEntry(cl).members.get(
+            accessMode(includeProtected, includePrivate));
+    }
+
+    /**
+     * Cache the reflected members of cl unless another thread did first.
+     *
+     * @return the members now in the cache
+     */
+    JavaMembers cacheReflectedClass(Class<?> cl, boolean includeProtected,
+                                    boolean includePrivate,
+                                    JavaMembers members)
+    {
+        if (!cachingIsEnabled) {
+            return members;
+        }
+        if (isGlobal && !isKeptAlive(cl, members.getAccessorParent())) {
+            // the entry of cl must not keep the accessor's class loader
+            // alive longer than cl's own class loader would
+            return members;
         }
-        return classTable;
+        AtomicReferenceArray<JavaMembers> reflected = getEntry(cl).members;
+        int mode = accessMode(includeProtected, includePrivate);
+        if (reflected.compareAndSet(mode, null, members)) {
+            return members;
+        }
+        return reflected.get(mode);
+    }
+
+    Class<?> getAdapterClass(JavaAdapter.JavaAdapterSignature sig)
+    {
+        return getEntry(adapterOwner(sig)).adapters.get(sig);
+    }
+
+    /**
+     * Cache an adapter class generated in a class loader whose parent is
+     * <code>parentLoader</code>.
+     */
+    void cacheAdapterClass(JavaAdapter.JavaAdapterSignature sig,
+                           Class<?> adapterClass, ClassLoader parentLoader)
+    {
+        if (!cachingIsEnabled) {
+            return;
+        }
+        Class<?> owner = adapterOwner(sig);
+        if (isGlobal) {
+            if (SecurityController.getStaticSecurityDomainClass() != null) {
+                // the adapter was loaded with the security domain of the
+                // calling script
+                return;
+            }
+            // The entry of the owner must not keep the adapter's class
+            // loader alive longer than the owner's own class loader would
+            if (!isKeptAlive(owner, parentLoader)) {
+                return;
+            }
+        }
+        getEntry(owner).adapters.putIfAbsent(sig, adapterClass);
     }
 
-    Map<JavaAdapter.JavaAdapterSignature,Class<?>> getInterfaceAdapterCacheMap()
+    // The adapter class is kept with its superclass, or with the interface
+    // most likely to be unloaded first
+    private static Class<?> adapterOwner(JavaAdapter.JavaAdapterSignature sig)
     {
-        if (classAdapterCache == null) {
-            classAdapterCache = new ConcurrentHashMap<JavaAdapter.JavaAdapterSignature,Class<?>>(16, 0.75f, 1);
+        Class<?> owner = sig.superClass;
+        if (outlivesRhino(owner.getClassLoader()) && sig.interfaces != null) {
+            for (Class<?> iface : sig.interfaces) {
+                if (iface != null && !outlivesRhino(iface.getClassLoader())) {
+                    return iface;
+                }
+            }
         }
-        return classAdapterCache;
+        return owner;
     }
 
     /**
-     * @deprecated
-     * The method always returns false.
+     * Check if members of reflected Java classes are accessed through
+     * generated classes.
+     *
      * @see #setInvokerOptimizationEnabled(boolean enabled)
      */
-    @Deprecated
     public boolean isInvokerOptimizationEnabled()
     {
-        return false;
+        return invokerOptimization;
     }
 
     /**
-     * @deprecated
-     * The method does nothing.
-     * Invoker optimization is no longer used by Rhino.
-     * On modern JDK like 1.4 or 1.5 the disadvantages of the optimization
-     * like increased memory usage or longer initialization time overweight
-     * small speed increase that can be gained using generated proxy class
-     * to replace reflection.
+     * Set whether to generate, for each reflected Java class, a class that
+     * reads and writes its public fields and calls its public methods and
+     * constructors with direct bytecode instead of reflection.
+     * <p>
+     * Generating the class makes the first use of each Java class slower
+     * and costs one more loaded class per Java class, which pays off when
+     * scripts use the members of a class heavily, as with Java domain
+     * models exposed to scripts. Members the generated class can not
+     * reach, such as non-public members made accessible by
+     * {@link Context#FEATURE_ENHANCED_JAVA_ACCESS}, are still used through
+     * reflection.
+     * <p>
+     * Changing the setting empties the caches.
+     * Invoker optimization is disabled by default.
      */
-    @Deprecated
     public synchronized void setInvokerOptimizationEnabled(boolean enabled)
     {
+        if (enabled == invokerOptimization)
+            return;
+        clearCaches();
+        invokerOptimization = enabled;
     }
 
     /**
@@ -179,22 +440,18 @@ public class ClassCache implements Serializable
 
     Object getInterfaceAdapter(Class<?> cl)
     {
-        return interfaceAdapterCache == null
-                    ? null
-                    : interfaceAdapterCache.get(cl);
+        return getEntry(cl).interfaceAdapter;
     }
 
-    synchronized void cacheInterfaceAdapter(Class<?> cl, Object iadapter)
+    void cacheInterfaceAdapter(Class<?> cl, Object iadapter)
     {
         if (cachingIsEnabled) {
-            if (interfaceAdapterCache == null) {
-                interfaceAdapterCache = new ConcurrentHashMap<Class<?>,Object>(16, 0.75f, 1);
-            }
-            interfaceAdapterCache.put(cl, iadapter);
+            getEntry(cl).interfaceAdapter = iadapter;
         }
     }
 
-    Scriptable getAssociatedScope() {
-        return associatedScope;
+    private Object readResolve()
+    {
+        return isGlobal ? global : this;
     }
 }
@@ -96,6 +96,12 @@ class CodeGenerator extends Icode {
         if (theFunction.getFunctionName() != null) {
             itsData.itsName = theFunction.getName();
         }
+        if (TieredCompiler.isTierable(theFunction)) {
+            itsData.rawSourceStart = theFunction.getAbsolutePosition();
+            itsData.rawSourceEnd = itsData.rawSourceStart
+                                   + theFunction.getLength();
+            itsData.rawSourceLineno = theFunction.getBaseLineno();
+        }
         if (theFunction.isGenerator()) {
           addIcode(Icode_GENERATOR);
           addUint16(theFunction.getBaseLineno() & 0xFFFF);
@@ -124,6 +130,7 @@ class CodeGenerator extends Icode {
             System.arraycopy(itsData.itsICode, 0, tmp, 0, iCodeTop);
             itsData.itsICode = tmp;
         }
+        itsData.initPropertyCaches();
         if (strings.size() == 0) {
             itsData.itsStringTable = null;
         } else {
@@ -342,6 +349,16 @@ class CodeGenerator extends Icode {
           case Token.IFNE :
             {
                 Node target = ((Jump)node).target;
+                if (isFusedComparison(child)) {
+                    Node lhs = child.getFirstChild();
+                    visitExpression(lhs, 0);
+                    visitExpression(lhs.getNext(), 0);
+                    addGoto(target, (type == Token.IFEQ) ? Icode_IFEQ_CMP
+                                                         : Icode_IFNE_CMP);
+                    addUint8(child.getType());
+                    stackChange(-2);
+                    break;
+                }
                 visitExpression(child, 0);
                 addGoto(target, type);
                 stackChange(-1);
@@ -380,6 +397,17 @@ class CodeGenerator extends Icode {
           case Token.EXPR_VOID:
           case Token.EXPR_RESULT:
             updateLineNumber(node);
+            if (type == Token.EXPR_VOID && isFusedVarIncDec(child)) {
+                int index = scriptOrFn.getIndexForNameNode(
+                                child.getFirstChild());
+                addIcode(Icode_VAR_INC_DEC_POP);
+                addUint8(index);
+                addUint8(child.getExistingIntProp(Node.INCRDECR_PROP));
+                // The value is pushed and popped within the instruction
+                stackChange(1);
+                stackChange(-1);
+                break;
+            }
             visitExpression(child, 0);
             addIcode((type == Token.EXPR_VOID) ? Icode_POP : Icode_POP_RESULT);
             stackChange(-1);
@@ -629,6 +657,18 @@ class CodeGenerator extends Icode {
 
           case Token.GETPROP:
           case Token.GETPROPNOWARN:
+            if (type == Token.GETPROP && child.getType() == Token.GETVAR
+                && compilerEnv.isGenerateSuperinstructions())
+            {
+                int index = scriptOrFn.getIndexForNameNode(child);
+                if (index < 128) {
+                    addStringPrefix(child.getNext().getString());
+                    addIcode(Icode_GETVAR1_PROP);
+                    addUint8(index);
+                    stackChange(1);
+                    break;
+                }
+            }
             visitExpression(child, 0);
             child = child.getNext();
             addStringOp(type, child.getString());
@@ -1009,6 +1049,43 @@ class CodeGenerator extends Icode {
     }
 
 
+    // Whether a comparison that only decides a jump compiles to
+    // Icode_IFEQ_CMP or Icode_IFNE_CMP
+    private boolean isFusedComparison(Node node)
+    {
+        if (!compilerEnv.isGenerateSuperinstructions()) {
+            return false;
+        }
+        switch (node.getType()) {
+          case Token.EQ:
+          case Token.NE:
+          case Token.SHEQ:
+          case Token.SHNE:
+          case Token.LT:
+          case Token.LE:
+          case Token.GT:
+          case Token.GE:
+            return true;
+        }
+        return false;
+    }
+
+    // Whether ++/-- of a variable whose value is unused compiles to
+    // Icode_VAR_INC_DEC_POP
+    private boolean isFusedVarIncDec(Node node)
+    {
+        if (!compilerEnv.isGenerateSuperinstructions()) {
+            return false;
+        }
+        int type = node.getType();
+        if (type != Token.INC && type != Token.DEC) {
+            return false;
+        }
+        Node child = node.getFirstChild();
+        return child.getType() == Token.GETVAR
+               && scriptOrFn.getIndexForNameNode(child) < 128;
+    }
+
     private void visitIncDec(Node node, Node child)
     {
         int incrDecrMask = node.getExistingIntProp(Node.INCRDECR_PROP);
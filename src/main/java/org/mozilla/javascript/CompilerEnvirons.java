@@ -26,6 +26,7 @@ public class CompilerEnvirons
         warningAsError = false;
         generateObserverCount = false;
         allowSharpComments = false;
+        generateSuperinstructions = true;
     }
 
     public void initFromContext(Context cx)
@@ -51,6 +52,9 @@ public class CompilerEnvirons
 
         // Observer code generation in compiled code :
         generateObserverCount = cx.generateObserverCount;
+
+        generateSuperinstructions
+            = cx.hasFeature(Context.FEATURE_INTERPRETER_SUPERINSTRUCTIONS);
     }
 
     public final ErrorReporter getErrorReporter()
@@ -195,6 +199,24 @@ public class CompilerEnvirons
         this.generateObserverCount = generateObserverCount;
     }
 
+    /**
+     * @return true iff interpreted code combines common sequences of
+     * instructions into single instructions
+     */
+    public boolean isGenerateSuperinstructions() {
+        return generateSuperinstructions;
+    }
+
+    /**
+     * Turn on or off combined instructions in interpreted code, such as
+     * a comparison and the conditional jump that uses it. Code runs the
+     * same either way; combined instructions dispatch less often.
+     * Only affects code compiled for the interpreter.
+     */
+    public void setGenerateSuperinstructions(boolean flag) {
+        this.generateSuperinstructions = flag;
+    }
+
     public boolean isRecordingComments() {
         return recordingComments;
     }
@@ -291,5 +313,6 @@ public class CompilerEnvirons
     private boolean warnTrailingComma;
     private boolean ideMode;
     private boolean allowSharpComments;
+    private boolean generateSuperinstructions;
     Set<String> activationNames;
 }
@@ -7,6 +7,9 @@
 package org.mozilla.javascript;
 
 import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * <p>This class represents a string composed of two components, each of which
@@ -15,8 +18,20 @@ import java.io.Serializable;
  * <p>This string representation is optimized for concatenation using the "+"
  * operator. Instead of immediately copying both components to a new character
  * array, ConsString keeps references to the original components and only
- * converts them to a String if either toString() is called or a certain depth
- * level is reached.</p>
+ * converts them to a String when toString() is called. The components form
+ * a rope: {@link #charAt(int)} and {@link #subSequence(int, int)} walk down
+ * the tree without converting it, and a tree that grows deeper than
+ * {@value #MAX_DEPTH} levels is rebuilt balanced, so it never gets deep
+ * enough to overflow the stack.</p>
+ *
+ * <p>Repeated appending, as in <code>s += x</code> in a loop, would build a
+ * tree as deep as the number of appends. Once the left component is a
+ * tree at least {@value #BUFFER_DEPTH} levels deep, the right component is
+ * copied into a growable character buffer instead. A later string appended
+ * to a tree whose last piece ends at the end of such a buffer is copied to
+ * the buffer, and only the nodes on the path to that piece are replaced,
+ * so a loop of appends copies every appended character only a constant
+ * number of times on average and never copies what it appends to.</p>
  *
  * <p>Note that instances of this class are only immutable if both parts are
  * immutable, i.e. either Strings or ConsStrings that are ultimately composed
@@ -28,59 +43,166 @@ public class ConsString implements CharSequence, Serializable {
 
     private static final long serialVersionUID = -8432806714471372570L;
 
-    private CharSequence s1, s2;
+    // Depth of the left component from which the right one is copied into
+    // a buffer
+    private static final int BUFFER_DEPTH = 8;
+
+    // Initial size of a buffer
+    private static final int BUFFER_SIZE = 64;
+
+    // Depth beyond which a tree is rebuilt balanced
+    private static final int MAX_DEPTH = 48;
+
+    // Pieces shorter than this are joined with their neighbours when a tree
+    // is rebuilt
+    private static final int LEAF_SIZE = 512;
+
+    // A tree of depth d is balanced if it is at least MIN_LENGTH[d] chars
+    // long; these are the Fibonacci numbers from F(2) on
+    private static final int[] MIN_LENGTH;
+
+    static {
+        ArrayList<Integer> fib = new ArrayList<Integer>();
+        int a = 1, b = 2;
+        fib.add(a);
+        while (b > 0) {
+            fib.add(b);
+            int next = a + b;
+            a = b;
+            b = next;
+        }
+        MIN_LENGTH = new int[fib.size()];
+        for (int i = 0; i != MIN_LENGTH.length; ++i) {
+            MIN_LENGTH[i] = fib.get(i);
+        }
+    }
+
+    // The components, or the whole string and "" once it was converted.
+    // They only change under the lock of this object, and then always to
+    // components of the same total length; readers that do not hold the
+    // lock check that the lengths add up before trusting what they read.
+    private CharSequence left, right;
     private final int length;
     private int depth;
 
     public ConsString(CharSequence str1, CharSequence str2) {
-        s1 = str1;
-        s2 = str2;
         length = str1.length() + str2.length();
-        depth = 1;
+        CharSequence tree = null;
         if (str1 instanceof ConsString) {
-            depth += ((ConsString)str1).depth;
+            ConsString cons = (ConsString)str1;
+            tree = appendToBuffer(cons, str2);
+            if (tree == null && cons.depth >= BUFFER_DEPTH
+                && str2.length() != 0)
+            {
+                str2 = newChunk(str2);
+            }
         }
-        if (str2 instanceof ConsString) {
-            depth += ((ConsString)str2).depth;
+        int d = 1 + Math.max(depthOf(str1), depthOf(str2));
+        if (tree == null && d > MAX_DEPTH) {
+            tree = rebalance(str1, str2);
         }
-        // Don't let it grow too deep, can cause stack overflows
-        if (depth > 2000) {
-            flatten();
+        if (tree instanceof ConsString) {
+            ConsString cons = (ConsString)tree;
+            str1 = cons.left;
+            str2 = cons.right;
+            d = cons.depth;
+        } else if (tree != null) {
+            str1 = tree;
+            str2 = "";
+            d = 0;
         }
+        left = str1;
+        right = str2;
+        depth = d;
+    }
+
+    private ConsString(CharSequence left, CharSequence right, int depth) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+        this.depth = depth;
+    }
+
+    private static int depthOf(CharSequence s) {
+        return s instanceof ConsString ? ((ConsString)s).depth : 0;
     }
 
     // Replace with string representation when serializing
     private Object writeReplace() {
         return this.toString();
     }
-    
+
     @Override
     public String toString() {
-        return depth == 0 ? (String)s1 : flatten();
+        CharSequence l = left;
+        if (l instanceof String && l.length() == length) {
+            return (String)l;
+        }
+        return flatten();
     }
 
     private synchronized String flatten() {
-        if (depth > 0) {
-            StringBuilder b = new StringBuilder(length);
-            appendTo(b);
-            s1 = b.toString();
-            s2 = "";
+        if (!(left instanceof String) || right.length() != 0) {
+            char[] chars = new char[length];
+            copyChars(this, 0, length, chars, 0);
+            left = new String(chars);
+            right = "";
             depth = 0;
         }
-        return (String)s1;
+        return (String)left;
     }
 
-    private synchronized void appendTo(StringBuilder b) {
-        appendFragment(s1, b);
-        appendFragment(s2, b);
+    /**
+     * If the last piece of cons is a chunk at the end of its buffer, append
+     * s to the buffer and return a tree like cons whose last piece is the
+     * longer chunk; the nodes on the path to that piece are copied and all
+     * others shared. Otherwise return null.
+     */
+    private static CharSequence appendToBuffer(ConsString cons,
+                                               CharSequence s)
+    {
+        ConsString[] path = new ConsString[cons.depth + 1];
+        boolean[] wentLeft = new boolean[path.length];
+        int n = 0;
+        CharSequence node = cons;
+        while (node instanceof ConsString) {
+            ConsString c = (ConsString)node;
+            CharSequence l = c.left, r = c.right;
+            if (n == path.length || l.length() + r.length() != c.length) {
+                // converted or rebuilt concurrently
+                return null;
+            }
+            path[n] = c;
+            wentLeft[n] = r.length() == 0;
+            ++n;
+            node = wentLeft[n - 1] ? l : r;
+        }
+        if (!(node instanceof Chunk)) {
+            return null;
+        }
+        CharSequence tree = ((Chunk)node).append(s);
+        if (tree == null) {
+            return null;
+        }
+        while (n != 0) {
+            ConsString c = path[--n];
+            tree = wentLeft[n] ? new ConsString(tree, c.right, c.depth)
+                               : new ConsString(c.left, tree, c.depth);
+        }
+        return tree;
     }
 
-    private static void appendFragment(CharSequence s, StringBuilder b) {
-        if (s instanceof ConsString) {
-            ((ConsString)s).appendTo(b);
-        } else {
-            b.append(s);
+    // Copy s to the start of a new buffer
+    private static Chunk newChunk(CharSequence s) {
+        int n = s.length();
+        int capacity = Math.max(BUFFER_SIZE, n * 2);
+        if (capacity < 0) {
+            capacity = n;
         }
+        Buffer buffer = new Buffer(new char[capacity]);
+        copyChars(s, 0, n, buffer.chars, 0);
+        buffer.used = n;
+        return new Chunk(buffer, buffer.chars, n);
     }
 
     public int length() {
@@ -88,13 +210,285 @@ public class ConsString implements CharSequence, Serializable {
     }
 
     public char charAt(int index) {
-        String str = depth == 0 ? (String)s1 : flatten();
-        return str.charAt(index);
+        if (index < 0 || index >= length) {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+        CharSequence node = this;
+        while (node instanceof ConsString) {
+            ConsString cons = (ConsString)node;
+            CharSequence l = cons.left, r = cons.right;
+            int leftLength = l.length();
+            if (leftLength + r.length() != cons.length) {
+                // converted concurrently
+                return cons.toString().charAt(index);
+            }
+            if (index < leftLength) {
+                node = l;
+            } else {
+                node = r;
+                index -= leftLength;
+            }
+        }
+        return node.charAt(index);
     }
 
     public CharSequence subSequence(int start, int end) {
-        String str = depth == 0 ? (String)s1 : flatten();
-        return str.substring(start, end);
+        if (start < 0 || end > length || start > end) {
+            throw new StringIndexOutOfBoundsException(
+                "start " + start + ", end " + end + ", length " + length);
+        }
+        // Descend while the range lies within one component
+        CharSequence node = this;
+        while (node instanceof ConsString
+               && (start != 0 || end != node.length()))
+        {
+            ConsString cons = (ConsString)node;
+            CharSequence l = cons.left, r = cons.right;
+            int leftLength = l.length();
+            if (leftLength + r.length() != cons.length) {
+                return cons.toString().substring(start, end);
+            }
+            if (end <= leftLength) {
+                node = l;
+            } else if (start >= leftLength) {
+                node = r;
+                start -= leftLength;
+                end -= leftLength;
+            } else {
+                char[] chars = new char[end - start];
+                copyChars(cons, start, end, chars, 0);
+                return new String(chars);
+            }
+        }
+        if (start == 0 && end == node.length()) {
+            return node instanceof Chunk ? node.toString() : node;
+        }
+        return node.subSequence(start, end);
+    }
+
+    /**
+     * Copy the chars from start to end of s to dest from destPos on,
+     * walking the components with an explicit stack instead of recursion.
+     */
+    private static void copyChars(CharSequence s, int start, int end,
+                                  char[] dest, int destPos)
+    {
+        ArrayDeque<CharSequence> pending = new ArrayDeque<CharSequence>();
+        CharSequence node = s;
+        int pos = 0;  // index in s where node starts
+        for (;;) {
+            int nodeLength = node.length();
+            if (pos + nodeLength > start && pos < end) {
+                if (node instanceof ConsString) {
+                    ConsString cons = (ConsString)node;
+                    CharSequence l = cons.left, r = cons.right;
+                    if (l.length() + r.length() == nodeLength) {
+                        pending.push(r);
+                        node = l;
+                        continue;
+                    }
+                    node = cons.toString();
+                }
+                int from = Math.max(start - pos, 0);
+                int to = Math.min(end - pos, nodeLength);
+                int at = destPos + pos + from - start;
+                if (node instanceof String) {
+                    ((String)node).getChars(from, to, dest, at);
+                } else if (node instanceof Chunk) {
+                    System.arraycopy(((Chunk)node).chars, from, dest, at,
+                                     to - from);
+                } else {
+                    for (int i = from; i != to; ++i) {
+                        dest[at++] = node.charAt(i);
+                    }
+                }
+            }
+            pos += nodeLength;
+            if (pos >= end || pending.isEmpty()) {
+                break;
+            }
+            node = pending.pop();
+        }
+    }
+
+    /**
+     * Rebuild the concatenation of str1 and str2 as a balanced tree, after
+     * Boehm, Atkinson and Plass, "Ropes: an Alternative to Strings". The
+     * pieces of the tree, i.e. its balanced subtrees and its leaves, are
+     * added in order to a forest of balanced trees of increasing length;
+     * runs of short pieces are copied into one leaf.
+     */
+    private static CharSequence rebalance(CharSequence str1,
+                                          CharSequence str2)
+    {
+        CharSequence[] forest = new CharSequence[MIN_LENGTH.length];
+        ArrayDeque<CharSequence> pending = new ArrayDeque<CharSequence>();
+        pending.push(str2);
+        CharSequence node = str1;
+        char[] run = new char[2 * LEAF_SIZE];
+        int runLength = 0;
+        for (;;) {
+            int n = node.length();
+            if (n < LEAF_SIZE) {
+                if (n != 0) {
+                    copyChars(node, 0, n, run, runLength);
+                    runLength += n;
+                    if (runLength >= LEAF_SIZE) {
+                        addToForest(forest, new String(run, 0, runLength));
+                        runLength = 0;
+                    }
+                }
+            } else if (node instanceof ConsString && !isBalanced(node)) {
+                ConsString cons = (ConsString)node;
+                CharSequence l = cons.left, r = cons.right;
+                if (l.length() + r.length() == n) {
+                    pending.push(r);
+                    node = l;
+                    continue;
+                }
+                node = cons.toString();
+                continue;
+            } else {
+                if (runLength != 0) {
+                    addToForest(forest, new String(run, 0, runLength));
+                    runLength = 0;
+                }
+                addToForest(forest, node);
+            }
+            if (pending.isEmpty()) {
+                break;
+            }
+            node = pending.pop();
+        }
+        if (runLength != 0) {
+            addToForest(forest, new String(run, 0, runLength));
+        }
+        CharSequence result = null;
+        for (int i = 0; i != forest.length; ++i) {
+            if (forest[i] != null) {
+                result = join(forest[i], result);
+            }
+        }
+        return result == null ? "" : result;
+    }
+
+    private static boolean isBalanced(CharSequence s) {
+        int d = depthOf(s);
+        return d < MIN_LENGTH.length && s.length() >= MIN_LENGTH[d];
+    }
+
+    // Slot i of the forest holds a tree at least MIN_LENGTH[i] and less
+    // than MIN_LENGTH[i + 1] chars long
+    private static void addToForest(CharSequence[] forest,
+                                    CharSequence piece)
+    {
+        int n = piece.length();
+        int last = forest.length - 1;
+        CharSequence prefix = null;
+        int i = 0;
+        while (i != last && n >= MIN_LENGTH[i + 1]) {
+            if (forest[i] != null) {
+                prefix = join(forest[i], prefix);
+                forest[i] = null;
+            }
+            ++i;
+        }
+        CharSequence tree = join(prefix, piece);
+        for (;;) {
+            if (forest[i] != null) {
+                tree = join(forest[i], tree);
+                forest[i] = null;
+            }
+            if (i == last || tree.length() < MIN_LENGTH[i + 1]) {
+                break;
+            }
+            ++i;
+        }
+        forest[i] = tree;
+    }
+
+    private static CharSequence join(CharSequence l, CharSequence r) {
+        if (l == null) {
+            return r;
+        }
+        if (r == null) {
+            return l;
+        }
+        return new ConsString(l, r, 1 + Math.max(depthOf(l), depthOf(r)));
+    }
+
+    /**
+     * A growable array of chars that chunks share.
+     */
+    private static final class Buffer {
+        char[] chars;
+        int used;
+
+        Buffer(char[] chars) {
+            this.chars = chars;
+        }
     }
 
+    /**
+     * The first length chars of a buffer. The chars of a chunk never change
+     * once it is created; only the chunk that ends where the buffer's used
+     * part ends may append to the buffer.
+     */
+    private static final class Chunk implements CharSequence {
+        private final Buffer buffer;
+        final char[] chars;
+        private final int length;
+
+        Chunk(Buffer buffer, char[] chars, int length) {
+            this.buffer = buffer;
+            this.chars = chars;
+            this.length = length;
+        }
+
+        // Return the chunk for this chunk followed by s, or null if the
+        // buffer was already appended to after this chunk
+        Chunk append(CharSequence s) {
+            Buffer b = buffer;
+            synchronized (b) {
+                if (b.used != length) {
+                    return null;
+                }
+                int newLength = length + s.length();
+                char[] buf = b.chars;
+                if (newLength > buf.length) {
+                    int capacity = buf.length * 2;
+                    buf = Arrays.copyOf(buf, capacity < newLength
+                                             ? newLength : capacity);
+                    b.chars = buf;
+                }
+                copyChars(s, 0, s.length(), buf, length);
+                b.used = newLength;
+                return new Chunk(b, buf, newLength);
+            }
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new StringIndexOutOfBoundsException(index);
+            }
+            return chars[index];
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new StringIndexOutOfBoundsException(
+                    "start " + start + ", end " + end + ", length " + length);
+            }
+            return new String(chars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+    }
 }
@@ -292,6 +292,42 @@ public class Context
      */
     public static final int FEATURE_V8_EXTENSIONS = 14;
 
+    /**
+     * Declares that the scriptable objects created by scripts in this
+     * context are only ever used by the thread that created them.
+     * Their property tables then add and remove properties without taking
+     * the object's monitor. Objects shared between threads, such as a
+     * shared top-level scope, must be created in a context without this
+     * feature.
+     * <p>
+     * By default {@link #hasFeature(int)} returns false.
+     */
+    public static final int FEATURE_THREAD_CONFINED_OBJECTS = 15;
+
+    /**
+     * Controls whether scripts compiled for the interpreter combine common
+     * sequences of instructions, such as a comparison and the conditional
+     * jump that uses it, into single instructions. Scripts behave the same
+     * either way; the combined instructions run faster.
+     * <p>
+     * By default {@link #hasFeature(int)} returns true.
+     */
+    public static final int FEATURE_INTERPRETER_SUPERINSTRUCTIONS = 16;
+
+    /**
+     * Controls whether regular expressions without backreferences or
+     * lookahead remember which parts of the pattern failed to match at
+     * which positions of the input, and do not try them there again. The
+     * matches found are the same; the time to find them grows with the
+     * size of the pattern times the length of the input, however the
+     * pattern nests its quantifiers, at the cost of memory of the same
+     * order.
+     * <p>
+     * By default {@link #hasFeature(int)} returns false.
+     * @see #setMaximumRegExpSteps(int)
+     */
+    public static final int FEATURE_MEMOIZED_REGEXP = 17;
+
     public static final String languageVersionProperty = "language version";
     public static final String errorReporterProperty   = "error reporter";
 
@@ -2048,6 +2084,41 @@ public class Context
         maximumInterpreterStackDepth = max;
     }
 
+    /**
+     * Returns the most steps a regular expression may take to find a
+     * match, or 0 if there is no limit, which is the default.
+     *
+     * @see #setMaximumRegExpSteps(int)
+     */
+    public final int getMaximumRegExpSteps()
+    {
+        return maximumRegExpSteps;
+    }
+
+    /**
+     * Sets the most steps a regular expression may take to find a match,
+     * or 0 for no limit. A step is an instruction of the backtracking
+     * matcher, or a state of the pattern tried at a position with
+     * {@link #FEATURE_MEMOIZED_REGEXP}; a pattern that backtracks
+     * catastrophically on some input makes the match throw an
+     * EvaluatorException in the script instead of running for hours.
+     * <p>
+     * Whatever the limit, when the instruction observer threshold is set
+     * the steps count as script instructions toward it.
+     *
+     * @param max the new maximum number of steps, or 0
+     * @throws IllegalArgumentException if max is negative
+     * @see #setInstructionObserverThreshold(int)
+     */
+    public final void setMaximumRegExpSteps(int max)
+    {
+        if(sealed) onSealedMutation();
+        if(max < 0) {
+            throw new IllegalArgumentException("Cannot set maximumRegExpSteps to less than 0");
+        }
+        maximumRegExpSteps = max;
+    }
+
     /**
      * Set the security controller for this context.
      * <p> SecurityController may only be set if it is currently null
@@ -2468,11 +2539,59 @@ public class Context
 
         CompilerEnvirons compilerEnv = new CompilerEnvirons();
         compilerEnv.initFromContext(this);
+
+        ScriptCache cache = factory.getScriptCache();
+        if (cache != null && !returnFunction && compiler == null
+            && compilationErrorReporter == null && debugger == null
+            && activationNames == null)
+        {
+            if (sourceReader != null) {
+                sourceString = Kit.readReader(sourceReader);
+            }
+            final CompilerEnvirons env = compilerEnv;
+            final String source = sourceString;
+            final String name = sourceName;
+            final int line = lineno;
+            final Object domain = securityDomain;
+            ScriptCache.Key key = new ScriptCache.Key(source, name, line,
+                                                      domain, this, env);
+            return cache.get(key, new ScriptCache.Compilation() {
+                public Script compile()
+                {
+                    try {
+                        return (Script) compileImpl(env, null, null, source,
+                                                    name, line, domain,
+                                                    false, null, null);
+                    } catch (IOException ex) {
+                        // Should not happen when dealing with source as string
+                        throw new RuntimeException();
+                    }
+                }
+            });
+        }
+        return compileImpl(compilerEnv, scope, sourceReader, sourceString,
+                           sourceName, lineno, securityDomain,
+                           returnFunction, compiler,
+                           compilationErrorReporter);
+    }
+
+    private Object compileImpl(CompilerEnvirons compilerEnv,
+                               Scriptable scope,
+                               Reader sourceReader, String sourceString,
+                               String sourceName, int lineno,
+                               Object securityDomain, boolean returnFunction,
+                               Evaluator compiler,
+                               ErrorReporter compilationErrorReporter)
+        throws IOException
+    {
         if (compilationErrorReporter == null) {
             compilationErrorReporter = compilerEnv.getErrorReporter();
         }
 
-        if (debugger != null) {
+        boolean tiered = !returnFunction
+            && compilerEnv.getOptimizationLevel() < 0
+            && getFactory().getTierUpThreshold() > 0;
+        if (debugger != null || tiered) {
             if (sourceReader != null) {
                 sourceString = Kit.readReader(sourceReader);
                 sourceReader = null;
@@ -2527,6 +2646,11 @@ public class Context
             }
         }
 
+        if (tiered && bytecode instanceof InterpreterData) {
+            TieredCompiler.attachSource((InterpreterData)bytecode,
+                                        sourceString);
+        }
+
         Object result;
         if (returnFunction) {
             result = compiler.createFunctionObject(this, scope, bytecode, securityDomain);
@@ -2551,7 +2675,7 @@ public class Context
     private static Class<?> interpreterClass = Kit.classOrNull(
                              "org.mozilla.javascript.Interpreter");
 
-    private Evaluator createCompiler()
+    Evaluator createCompiler()
     {
         Evaluator result = null;
         if (optimizationLevel >= 0 && codegenClass != null) {
@@ -2702,6 +2826,7 @@ public class Context
     boolean useDynamicScope;
     private int optimizationLevel;
     private int maximumInterpreterStackDepth;
+    private int maximumRegExpSteps;
     private WrapFactory wrapFactory;
     Debugger debugger;
     private Object debuggerData;
@@ -10,6 +10,7 @@ package org.mozilla.javascript;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Factory class that Rhino runtime uses to create new {@link Context}
@@ -118,6 +119,14 @@ public class ContextFactory
     private volatile Object listeners;
     private boolean disabledListening;
     private ClassLoader applicationClassLoader;
+    private volatile ScriptCache scriptCache;
+    private volatile ClassCache classCache;
+    private volatile int tierUpThreshold;
+
+    // sealed standard objects shared by the scopes of newStandardScope,
+    // by language version and safe flag
+    private final ConcurrentHashMap<Integer,TopLevel> sharedStandardObjects
+        = new ConcurrentHashMap<Integer,TopLevel>();
 
     /**
      * Listener of {@link Context} creation and release events.
@@ -282,6 +291,15 @@ public class ContextFactory
 
           case Context.FEATURE_V8_EXTENSIONS:
             return true;
+
+          case Context.FEATURE_THREAD_CONFINED_OBJECTS:
+            return false;
+
+          case Context.FEATURE_INTERPRETER_SUPERINSTRUCTIONS:
+            return true;
+
+          case Context.FEATURE_MEMOIZED_REGEXP:
+            return false;
         }
         // It is a bug to call the method with unknown featureIndex
         throw new IllegalArgumentException(String.valueOf(featureIndex));
@@ -460,6 +478,161 @@ public class ContextFactory
         }
     }
 
+    /**
+     * Get the cache of compiled scripts used by contexts of this factory,
+     * or null if scripts are always compiled.
+     *
+     * @see #setScriptCache(ScriptCache)
+     */
+    public final ScriptCache getScriptCache()
+    {
+        return scriptCache;
+    }
+
+    /**
+     * Set the cache of compiled scripts used by
+     * {@link Context#compileString(String, String, int, Object)},
+     * {@link Context#compileReader(java.io.Reader, String, int, Object)}
+     * and the methods that evaluate through them, or null to always
+     * compile.
+     *
+     * @see LruScriptCache
+     */
+    public final void setScriptCache(ScriptCache cache)
+    {
+        checkNotSealed();
+        scriptCache = cache;
+    }
+
+    /**
+     * Get the cache of Java reflection data and generated classes shared by
+     * the top-level scopes that contexts of this factory initialize, or
+     * null if each such scope gets a new cache.
+     *
+     * @see #setClassCache(ClassCache)
+     */
+    public final ClassCache getClassCache()
+    {
+        return classCache;
+    }
+
+    /**
+     * Set the ClassCache that
+     * {@link Context#initStandardObjects(ScriptableObject, boolean)} and
+     * {@link Context#initSafeStandardObjects(ScriptableObject, boolean)}
+     * associate with the scopes they initialize, or null to give each scope
+     * a new cache. The same ClassCache may be set on several factories,
+     * so that their scopes reflect each Java class only once.
+     */
+    public final void setClassCache(ClassCache cache)
+    {
+        checkNotSealed();
+        classCache = cache;
+    }
+
+    /**
+     * Get the number of calls and loop iterations after which an
+     * interpreted function is compiled to bytecode, or 0 if interpreted
+     * functions are never compiled.
+     *
+     * @see #setTierUpThreshold(int)
+     */
+    public final int getTierUpThreshold()
+    {
+        return tierUpThreshold;
+    }
+
+    /**
+     * Compile hot functions of interpreted scripts to bytecode in the
+     * background. Scripts compiled with optimization level -1 by contexts
+     * of this factory count the calls and loop iterations of each of their
+     * functions; once a function reaches <code>threshold</code>, it is
+     * compiled with the optimizer on a background thread, and later calls
+     * run the compiled code. 0, the default, disables tiering. Contexts
+     * with an instruction observer threshold neither count nor run
+     * compiled functions, so they observe every instruction.
+     * <p>
+     * Compiled functions can not be captured in continuations, so
+     * factories used with {@link Context#captureContinuation()} should
+     * leave tiering disabled.
+     */
+    public final void setTierUpThreshold(int threshold)
+    {
+        checkNotSealed();
+        if (threshold < 0) throw new IllegalArgumentException();
+        tierUpThreshold = threshold;
+    }
+
+    /**
+     * Create a new top-level scope over the standard objects shared by all
+     * scopes of this factory.
+     * <p>
+     * The first call for each language version builds the standard objects
+     * with {@link Context#initStandardObjects(ScriptableObject, boolean)},
+     * seals them and keeps them. Every call returns a fresh, empty
+     * {@link TopLevel} whose prototype is that shared scope, so creating a
+     * scope costs one object instead of hundreds of constructors and
+     * functions. Scripts see the standard objects through the prototype;
+     * their own top-level variables and assignments, including ones that
+     * shadow standard globals, stay in the new scope. The shared standard
+     * objects themselves are sealed, so no scope can change them for the
+     * others.
+     *
+     * @param cx the current Context, which must have been made by this
+     *        factory
+     * @return a new top-level scope
+     * @see #newSafeStandardScope(Context)
+     */
+    public final ScriptableObject newStandardScope(Context cx)
+    {
+        return newSharedScope(cx, false);
+    }
+
+    /**
+     * Like {@link #newStandardScope(Context)}, over standard objects built
+     * with {@link Context#initSafeStandardObjects(ScriptableObject, boolean)},
+     * which leave out access to Java classes.
+     */
+    public final ScriptableObject newSafeStandardScope(Context cx)
+    {
+        return newSharedScope(cx, true);
+    }
+
+    private ScriptableObject newSharedScope(Context cx, boolean safe)
+    {
+        if (cx.getFactory() != this)
+            throw new IllegalArgumentException("Context of another factory");
+        TopLevel shared = getSharedStandardObjects(cx, safe);
+        TopLevel scope = new TopLevel();
+        scope.setPrototype(shared);
+        scope.shareBuiltins(shared);
+        return scope;
+    }
+
+    private TopLevel getSharedStandardObjects(Context cx, boolean safe)
+    {
+        Integer key = Integer.valueOf(cx.getLanguageVersion() * 2
+                                      + (safe ? 1 : 0));
+        TopLevel shared = sharedStandardObjects.get(key);
+        if (shared == null) {
+            // build each snapshot once; scopes wait for the first one
+            synchronized (sharedStandardObjects) {
+                shared = sharedStandardObjects.get(key);
+                if (shared == null) {
+                    shared = new TopLevel();
+                    if (safe) {
+                        cx.initSafeStandardObjects(shared, true);
+                    } else {
+                        cx.initStandardObjects(shared, true);
+                    }
+                    shared.sealObject();
+                    sharedStandardObjects.put(key, shared);
+                }
+            }
+        }
+        return shared;
+    }
+
     /**
      * Checks if this is a sealed ContextFactory.
      * @see #seal()
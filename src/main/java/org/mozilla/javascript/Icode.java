@@ -135,8 +135,28 @@ abstract class Icode {
 
        Icode_DEBUGGER                   = -64,
 
+    // Variants of ADD, LT, LE, GT, GE, GETELEM and SETELEM that the
+    // interpreter substitutes after they saw only numbers or dense arrays
+       Icode_ADD_NUM                    = -65,
+       Icode_LT_NUM                     = -66,
+       Icode_LE_NUM                     = -67,
+       Icode_GT_NUM                     = -68,
+       Icode_GE_NUM                     = -69,
+       Icode_GETELEM_DENSE              = -70,
+       Icode_SETELEM_DENSE              = -71,
+
+    // Superinstructions, see CompilerEnvirons.isGenerateSuperinstructions()
+    // Comparison followed by IFEQ or IFNE; followed by the jump offset
+    // and the token of the comparison
+       Icode_IFEQ_CMP                   = -72,
+       Icode_IFNE_CMP                   = -73,
+    // GETVAR1 followed by GETPROP
+       Icode_GETVAR1_PROP               = -74,
+    // VAR_INC_DEC followed by POP
+       Icode_VAR_INC_DEC_POP            = -75,
+
        // Last icode
-        MIN_ICODE                       = -64;
+        MIN_ICODE                       = -75;
 
     static String bytecodeName(int bytecode)
     {
@@ -217,6 +237,17 @@ abstract class Icode {
           case Icode_GENERATOR:        return "GENERATOR";
           case Icode_GENERATOR_END:    return "GENERATOR_END";
           case Icode_DEBUGGER:         return "DEBUGGER";
+          case Icode_ADD_NUM:          return "ADD_NUM";
+          case Icode_LT_NUM:           return "LT_NUM";
+          case Icode_LE_NUM:           return "LE_NUM";
+          case Icode_GT_NUM:           return "GT_NUM";
+          case Icode_GE_NUM:           return "GE_NUM";
+          case Icode_GETELEM_DENSE:    return "GETELEM_DENSE";
+          case Icode_SETELEM_DENSE:    return "SETELEM_DENSE";
+          case Icode_IFEQ_CMP:         return "IFEQ_CMP";
+          case Icode_IFNE_CMP:         return "IFNE_CMP";
+          case Icode_GETVAR1_PROP:     return "GETVAR1_PROP";
+          case Icode_VAR_INC_DEC_POP:  return "VAR_INC_DEC_POP";
         }
 
         // icode without name
@@ -696,6 +696,10 @@ public abstract class IdScriptableObject extends ScriptableObject
 
     @Override
     public void defineOwnProperty(Context cx, Object key, ScriptableObject desc) {
+      if (isSealed()) {
+        throw Context.reportRuntimeError1("msg.modify.sealed",
+                                          ScriptRuntime.toString(key));
+      }
       if (key instanceof String) {
         String name = (String) key;
         int info = findInstanceIdInfo(name);
@@ -16,6 +16,9 @@ final class InterpretedFunction extends NativeFunction implements Script
     SecurityController securityController;
     Object securityDomain;
 
+    // this closure of the function compiled to bytecode; see TieredCompiler
+    private transient NativeFunction compiled;
+
     private InterpretedFunction(InterpreterData idata,
                                 Object staticSecurityDomain)
     {
@@ -106,9 +109,31 @@ final class InterpretedFunction extends NativeFunction implements Script
         if (!ScriptRuntime.hasTopCall(cx)) {
             return ScriptRuntime.doTopCall(this, cx, scope, thisObj, args);
         }
+        NativeFunction target = getTieredTarget(cx);
+        if (target != null) {
+            return target.call(cx, scope, thisObj, args);
+        }
         return Interpreter.interpret(this, cx, scope, thisObj, args);
     }
 
+    /**
+     * Return the compiled code to run instead of interpreting this
+     * function, or null if it has not been compiled.
+     */
+    NativeFunction getTieredTarget(Context cx)
+    {
+        if (cx.instructionThreshold != 0) {
+            // compiled code may not count instructions for the observer
+            return null;
+        }
+        NativeFunction target = compiled;
+        if (target == null && idata.tierConstructor != null) {
+            target = TieredCompiler.getCompiled(cx, this);
+            compiled = target;
+        }
+        return target;
+    }
+
     public Object exec(Context cx, Scriptable scope)
     {
         if (!isScript()) {
@@ -10,6 +10,7 @@ import java.io.PrintStream;
 import java.io.Serializable;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.mozilla.javascript.ast.FunctionNode;
 import org.mozilla.javascript.ast.ScriptNode;
@@ -33,6 +34,10 @@ public final class Interpreter extends Icode implements Evaluator
     //            exception local and scope local
     static final int EXCEPTION_SLOT_SIZE       = 6;
 
+    // InterpreterData.itsTypeFeedback value of an instruction whose
+    // specialized variant met operands it does not handle
+    static final byte FEEDBACK_GENERIC = 1;
+
     /**
      * Class to hold data corresponding to one interpreted call stack frame.
      */
@@ -317,6 +322,27 @@ public final class Interpreter extends Icode implements Evaluator
                 pc += 2;
                 break;
               }
+              case Icode_IFEQ_CMP :
+              case Icode_IFNE_CMP : {
+                int newPC = pc + getShort(iCode, pc) - 1;
+                out.println(tname + " " + Token.name(iCode[pc + 2])
+                            + " " + newPC);
+                pc += 3;
+                break;
+              }
+              case Icode_GETVAR1_PROP : {
+                indexReg = iCode[pc];
+                out.println(tname + " " + indexReg);
+                ++pc;
+                break;
+              }
+              case Icode_VAR_INC_DEC_POP : {
+                indexReg = iCode[pc];
+                int incrDecrType = iCode[pc + 1];
+                out.println(tname + " " + indexReg + " " + incrDecrType);
+                pc += 2;
+                break;
+              }
               case Icode_VAR_INC_DEC :
               case Icode_NAME_INC_DEC :
               case Icode_PROP_INC_DEC :
@@ -488,7 +514,7 @@ public final class Interpreter extends Icode implements Evaluator
         out.flush();
     }
 
-    private static int bytecodeSpan(int bytecode)
+    static int bytecodeSpan(int bytecode)
     {
         switch (bytecode) {
             case Token.THROW :
@@ -507,6 +533,21 @@ public final class Interpreter extends Icode implements Evaluator
                 // target pc offset
                 return 1 + 2;
 
+            case Icode_IFEQ_CMP :
+            case Icode_IFNE_CMP :
+                // target pc offset
+                // comparison token
+                return 1 + 2 + 1;
+
+            case Icode_GETVAR1_PROP :
+                // byte var index
+                return 1 + 1;
+
+            case Icode_VAR_INC_DEC_POP :
+                // byte var index
+                // type of ++/--
+                return 1 + 1 + 1;
+
             case Icode_CALLSPECIAL :
                 // call type
                 // is new
@@ -1029,9 +1070,42 @@ switch (op) {
     case Token.LE :
     case Token.GT :
     case Token.LT : {
+        if (stack[stackTop] == DBL_MRK && stack[stackTop - 1] == DBL_MRK) {
+            specialize(frame, numericVariant(op));
+        }
         stackTop = doCompare(frame, op, stack, sDbl, stackTop);
         continue Loop;
     }
+    case Icode_GE_NUM :
+    case Icode_LE_NUM :
+    case Icode_GT_NUM :
+    case Icode_LT_NUM : {
+        --stackTop;
+        if (stack[stackTop] != DBL_MRK || stack[stackTop + 1] != DBL_MRK) {
+            op = despecialize(frame, op);
+            stackTop = doCompare(frame, op, stack, sDbl, stackTop + 1);
+            continue Loop;
+        }
+        double lDbl = sDbl[stackTop];
+        double rDbl = sDbl[stackTop + 1];
+        boolean valBln;
+        switch (op) {
+          case Icode_GE_NUM:
+            valBln = (lDbl >= rDbl);
+            break;
+          case Icode_LE_NUM:
+            valBln = (lDbl <= rDbl);
+            break;
+          case Icode_GT_NUM:
+            valBln = (lDbl > rDbl);
+            break;
+          default:
+            valBln = (lDbl < rDbl);
+            break;
+        }
+        stack[stackTop] = ScriptRuntime.wrapBoolean(valBln);
+        continue Loop;
+    }
     case Token.IN :
     case Token.INSTANCEOF : {
         stackTop = doInOrInstanceof(cx, op, stack, sDbl, stackTop);
@@ -1072,6 +1146,17 @@ switch (op) {
         }
         stack[stackTop--] = null;
         break jumplessRun;
+    case Icode_IFEQ_CMP :
+    case Icode_IFNE_CMP : {
+        stackTop -= 2;
+        boolean valBln = doCompareOp(frame, iCode[frame.pc + 2], stack,
+                                     sDbl, stackTop + 1);
+        if (valBln == (op == Icode_IFEQ_CMP)) {
+            break jumplessRun;
+        }
+        frame.pc += 3;
+        continue Loop;
+    }
     case Token.GOTO :
         break jumplessRun;
     case Icode_GOSUB :
@@ -1185,8 +1270,20 @@ switch (op) {
     }
     case Token.ADD :
         --stackTop;
+        if (stack[stackTop] == DBL_MRK && stack[stackTop + 1] == DBL_MRK) {
+            specialize(frame, Icode_ADD_NUM);
+        }
         doAdd(stack, sDbl, stackTop, cx);
         continue Loop;
+    case Icode_ADD_NUM :
+        --stackTop;
+        if (stack[stackTop] == DBL_MRK && stack[stackTop + 1] == DBL_MRK) {
+            sDbl[stackTop] += sDbl[stackTop + 1];
+        } else {
+            despecialize(frame, op);
+            doAdd(stack, sDbl, stackTop, cx);
+        }
+        continue Loop;
     case Token.SUB :
     case Token.MUL :
     case Token.DIV :
@@ -1231,14 +1328,27 @@ switch (op) {
         Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
         stack[stackTop] = ScriptRuntime.getObjectPropNoWarn(lhs, stringReg,
-                                                            cx, frame.scope);
+                                                            cx, frame.scope,
+                                                            propertyCache(frame));
         continue Loop;
     }
     case Token.GETPROP : {
         Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
         stack[stackTop] = ScriptRuntime.getObjectProp(lhs, stringReg,
-                                                      cx, frame.scope);
+                                                      cx, frame.scope,
+                                                      propertyCache(frame));
+        continue Loop;
+    }
+    case Icode_GETVAR1_PROP : {
+        PropertyCache cache = propertyCache(frame);
+        indexReg = iCode[frame.pc++];
+        stackTop = doGetVar(frame, stack, sDbl, stackTop, vars, varDbls,
+                            indexReg);
+        Object lhs = stack[stackTop];
+        if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
+        stack[stackTop] = ScriptRuntime.getObjectProp(lhs, stringReg,
+                                                      cx, frame.scope, cache);
         continue Loop;
     }
     case Token.SETPROP : {
@@ -1248,7 +1358,8 @@ switch (op) {
         Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
         stack[stackTop] = ScriptRuntime.setObjectProp(lhs, stringReg, rhs,
-                                                      cx, frame.scope);
+                                                      cx, frame.scope,
+                                                      propertyCache(frame));
         continue Loop;
     }
     case Icode_PROP_INC_DEC : {
@@ -1261,10 +1372,62 @@ switch (op) {
         continue Loop;
     }
     case Token.GETELEM : {
+        if (denseArrayAt(stack, sDbl, stackTop - 1) != null) {
+            specialize(frame, Icode_GETELEM_DENSE);
+        }
+        stackTop = doGetElem(cx, frame, stack, sDbl, stackTop);
+        continue Loop;
+    }
+    case Icode_GETELEM_DENSE : {
+        NativeArray array = denseArrayAt(stack, sDbl, stackTop - 1);
+        if (array != null) {
+            int index = (int)sDbl[stackTop];
+            double number = array.getDenseNumber(index);
+            if (!NativeArray.isHole(number)) {
+                stack[--stackTop] = DBL_MRK;
+                sDbl[stackTop] = number;
+                continue Loop;
+            }
+            Object value = array.getDenseElement(index);
+            if (value != Scriptable.NOT_FOUND) {
+                stack[--stackTop] = value;
+                continue Loop;
+            }
+        } else {
+            despecialize(frame, op);
+        }
         stackTop = doGetElem(cx, frame, stack, sDbl, stackTop);
         continue Loop;
     }
     case Token.SETELEM : {
+        if (denseArrayAt(stack, sDbl, stackTop - 2) != null) {
+            specialize(frame, Icode_SETELEM_DENSE);
+        }
+        stackTop = doSetElem(cx, frame, stack, sDbl, stackTop);
+        continue Loop;
+    }
+    case Icode_SETELEM_DENSE : {
+        NativeArray array = denseArrayAt(stack, sDbl, stackTop - 2);
+        if (array != null) {
+            Object value = stack[stackTop];
+            if (value == DBL_MRK) {
+                double number = sDbl[stackTop];
+                if (array.putDenseNumber((int)sDbl[stackTop - 1], number)) {
+                    stackTop -= 2;
+                    stack[stackTop] = DBL_MRK;
+                    sDbl[stackTop] = number;
+                    continue Loop;
+                }
+                value = ScriptRuntime.wrapNumber(number);
+            }
+            if (array.putDenseElement((int)sDbl[stackTop - 1], value)) {
+                stackTop -= 2;
+                stack[stackTop] = value;
+                continue Loop;
+            }
+        } else {
+            despecialize(frame, op);
+        }
         stackTop = doSetElem(cx, frame, stack, sDbl, stackTop);
         continue Loop;
     }
@@ -1320,7 +1483,8 @@ switch (op) {
         if (obj == DBL_MRK) obj = ScriptRuntime.wrapNumber(sDbl[stackTop]);
         // stringReg: property
         stack[stackTop] = ScriptRuntime.getPropFunctionAndThis(obj, stringReg,
-                                                               cx, frame.scope);
+                                                               cx, frame.scope,
+                                                               propertyCache(frame));
         ++stackTop;
         stack[stackTop] = ScriptRuntime.lastStoredScriptable(cx);
         continue Loop;
@@ -1377,7 +1541,9 @@ switch (op) {
         }
         if (fun instanceof InterpretedFunction) {
             InterpretedFunction ifun = (InterpretedFunction)fun;
-            if (frame.fnOrScript.securityDomain == ifun.securityDomain) {
+            if (frame.fnOrScript.securityDomain == ifun.securityDomain
+                && ifun.getTieredTarget(cx) == null)
+            {
                 CallFrame callParentFrame = frame;
                 CallFrame calleeFrame = new CallFrame();
                 if (op == Icode_TAIL_CALL) {
@@ -1445,7 +1611,9 @@ switch (op) {
                 Callable applyCallable = ScriptRuntime.getCallable(funThisObj);
                 if (applyCallable instanceof InterpretedFunction) {
                     InterpretedFunction iApplyCallable = (InterpretedFunction)applyCallable;
-                    if (frame.fnOrScript.securityDomain == iApplyCallable.securityDomain) {
+                    if (frame.fnOrScript.securityDomain == iApplyCallable.securityDomain
+                        && iApplyCallable.getTieredTarget(cx) == null)
+                    {
                         frame = initFrameForApplyOrCall(cx, frame, indexReg,
                                 stack, sDbl, stackTop, op, calleeScope, ifun,
                                 iApplyCallable);
@@ -1464,7 +1632,9 @@ switch (op) {
             // if the method is in fact an InterpretedFunction
             if (noSuchMethodMethod instanceof InterpretedFunction) {
                 InterpretedFunction ifun = (InterpretedFunction) noSuchMethodMethod;
-                if (frame.fnOrScript.securityDomain == ifun.securityDomain) {
+                if (frame.fnOrScript.securityDomain == ifun.securityDomain
+                    && ifun.getTieredTarget(cx) == null)
+                {
                     frame = initFrameForNoSuchMethod(cx, frame, indexReg, stack, sDbl,
                                              stackTop, op, funThisObj, calleeScope,
                                              noSuchMethodShim, ifun);
@@ -1492,7 +1662,9 @@ switch (op) {
         Object lhs = stack[stackTop];
         if (lhs instanceof InterpretedFunction) {
             InterpretedFunction f = (InterpretedFunction)lhs;
-            if (frame.fnOrScript.securityDomain == f.securityDomain) {
+            if (frame.fnOrScript.securityDomain == f.securityDomain
+                && f.getTieredTarget(cx) == null)
+            {
                 Scriptable newInstance = f.createObject(cx, frame.scope);
                 CallFrame calleeFrame = new CallFrame();
                 initFrame(cx, frame.scope, newInstance, stack, sDbl,
@@ -1587,6 +1759,13 @@ switch (op) {
                                vars, varDbls, varAttributes, indexReg);
         continue Loop;
     }
+    case Icode_VAR_INC_DEC_POP : {
+        indexReg = iCode[frame.pc++];
+        stackTop = doVarIncDec(cx, frame, stack, sDbl, stackTop,
+                               vars, varDbls, varAttributes, indexReg);
+        stack[stackTop--] = null;
+        continue Loop;
+    }
     case Icode_ZERO :
         ++stackTop;
         stack[stackTop] = DBL_MRK;
@@ -1900,6 +2079,15 @@ switch (op) {
                         addInstructionCount(cx, frame, 2);
                     }
                     int offset = getShort(iCode, frame.pc);
+                    if (offset < 0) {
+                        // a loop back edge counts towards tiering up
+                        InterpreterData idata = frame.idata;
+                        if (idata.rawSource != null
+                            && idata.tierState == TieredCompiler.TIER_INTERPRETED)
+                        {
+                            ++idata.tierCounter;
+                        }
+                    }
                     if (offset != 0) {
                         // -1 accounts for pc pointing to jump opcode + 1
                         frame.pc += offset - 1;
@@ -2108,6 +2296,49 @@ switch (op) {
     private static int doCompare(CallFrame frame, int op, Object[] stack,
                                  double[] sDbl, int stackTop) {
         --stackTop;
+        boolean valBln = compare(frame, op, stack, sDbl, stackTop);
+        stack[stackTop] = ScriptRuntime.wrapBoolean(valBln);
+        return stackTop;
+    }
+
+    /**
+     * Evaluates comparison <code>op</code> of stack[stackTop] and
+     * stack[stackTop + 1] for Icode_IFEQ_CMP and Icode_IFNE_CMP.
+     */
+    private static boolean doCompareOp(CallFrame frame, int op,
+                                       Object[] stack, double[] sDbl,
+                                       int stackTop) {
+        switch (op) {
+          case Token.EQ:
+            return doEquals(stack, sDbl, stackTop);
+          case Token.NE:
+            return !doEquals(stack, sDbl, stackTop);
+          case Token.SHEQ:
+            return doShallowEquals(stack, sDbl, stackTop);
+          case Token.SHNE:
+            return !doShallowEquals(stack, sDbl, stackTop);
+        }
+        if (stack[stackTop] == DOUBLE_MARK
+            && stack[stackTop + 1] == DOUBLE_MARK)
+        {
+            double lDbl = sDbl[stackTop];
+            double rDbl = sDbl[stackTop + 1];
+            switch (op) {
+              case Token.GE:
+                return lDbl >= rDbl;
+              case Token.LE:
+                return lDbl <= rDbl;
+              case Token.GT:
+                return lDbl > rDbl;
+              case Token.LT:
+                return lDbl < rDbl;
+            }
+        }
+        return compare(frame, op, stack, sDbl, stackTop);
+    }
+
+    private static boolean compare(CallFrame frame, int op, Object[] stack,
+                                   double[] sDbl, int stackTop) {
         Object rhs = stack[stackTop + 1];
         Object lhs = stack[stackTop];
         boolean valBln;
@@ -2159,8 +2390,7 @@ switch (op) {
                     throw Kit.codeBug();
             }
         }
-        stack[stackTop] = ScriptRuntime.wrapBoolean(valBln);
-        return stackTop;
+        return valBln;
     }
 
     private static int doBitOp(CallFrame frame, int op, Object[] stack,
@@ -2189,6 +2419,105 @@ switch (op) {
         return stackTop;
     }
 
+    /**
+     * Replaces the instruction just read by frame with its variant
+     * <code>specialOp</code>, unless that variant was tried there before.
+     * <p>
+     * Threads running the same script write itsICode and itsTypeFeedback
+     * here and in despecialize without synchronization. That is safe
+     * because a variant checks its operands itself and runs the generic
+     * code when they do not fit, and because every byte written is either
+     * the generic instruction or its variant. A write that another thread
+     * misses or overwrites can only make a site specialize again or stay
+     * generic, which costs time but never changes a result.
+     */
+    private static void specialize(CallFrame frame, int specialOp)
+    {
+        InterpreterData idata = frame.idata;
+        int pc = frame.pc - 1;
+        byte[] feedback = idata.itsTypeFeedback;
+        if (feedback == null || feedback[pc] != FEEDBACK_GENERIC) {
+            idata.itsICode[pc] = (byte)specialOp;
+        }
+    }
+
+    /**
+     * Restores the generic instruction in place of the variant
+     * <code>specialOp</code> just read by frame, for good, and returns it.
+     */
+    private static int despecialize(CallFrame frame, int specialOp)
+    {
+        int op;
+        switch (specialOp) {
+          case Icode_ADD_NUM:       op = Token.ADD;     break;
+          case Icode_LT_NUM:        op = Token.LT;      break;
+          case Icode_LE_NUM:        op = Token.LE;      break;
+          case Icode_GT_NUM:        op = Token.GT;      break;
+          case Icode_GE_NUM:        op = Token.GE;      break;
+          case Icode_GETELEM_DENSE: op = Token.GETELEM; break;
+          case Icode_SETELEM_DENSE: op = Token.SETELEM; break;
+          default: throw Kit.codeBug();
+        }
+        InterpreterData idata = frame.idata;
+        int pc = frame.pc - 1;
+        byte[] feedback = idata.itsTypeFeedback;
+        if (feedback == null) {
+            feedback = new byte[idata.itsICode.length];
+            idata.itsTypeFeedback = feedback;
+        }
+        feedback[pc] = FEEDBACK_GENERIC;
+        idata.itsICode[pc] = (byte)op;
+        return op;
+    }
+
+    private static int numericVariant(int op)
+    {
+        switch (op) {
+          case Token.LT: return Icode_LT_NUM;
+          case Token.LE: return Icode_LE_NUM;
+          case Token.GT: return Icode_GT_NUM;
+          case Token.GE: return Icode_GE_NUM;
+        }
+        throw Kit.codeBug();
+    }
+
+    /**
+     * Returns the array at stack[i] if it is a plain array and stack[i + 1]
+     * an int32 number, or null.
+     */
+    private static NativeArray denseArrayAt(Object[] stack, double[] sDbl,
+                                            int i)
+    {
+        Object obj = stack[i];
+        if (obj != null && obj.getClass() == NativeArray.class
+            && stack[i + 1] == DOUBLE_MARK)
+        {
+            double d = sDbl[i + 1];
+            if ((int)d == d) {
+                return (NativeArray)obj;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the property cache of the instruction just read by frame.
+     */
+    private static PropertyCache propertyCache(CallFrame frame)
+    {
+        AtomicReferenceArray<PropertyCache> caches =
+            frame.idata.itsPropertyCaches;
+        int pc = frame.pc - 1;
+        PropertyCache cache = caches.get(pc);
+        if (cache == null) {
+            cache = new PropertyCache();
+            if (!caches.compareAndSet(pc, null, cache)) {
+                cache = caches.get(pc);
+            }
+        }
+        return cache;
+    }
+
     private static int doDelName(Context cx, CallFrame frame, int op,
                                  Object[] stack, double[] sDbl, int stackTop) {
         Object rhs = stack[stackTop];
@@ -2747,6 +3076,9 @@ switch (op) {
 
         Scriptable scope;
         if (idata.itsFunctionType != 0) {
+            if (idata.rawSource != null) {
+                TieredCompiler.countInvocation(cx, fnOrScript);
+            }
             scope = fnOrScript.getParentScope();
 
             if (useActivation) {
@@ -6,7 +6,10 @@
 
 package org.mozilla.javascript;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.mozilla.javascript.debug.DebuggableScript;
 
@@ -44,6 +47,22 @@ final class InterpreterData implements Serializable, DebuggableScript
         itsStringTable = new String[INITIAL_STRINGTABLE_SIZE];
     }
 
+    /**
+     * Allocate the property caches once the icode has its final length.
+     */
+    void initPropertyCaches()
+    {
+        itsPropertyCaches = new AtomicReferenceArray<PropertyCache>(
+            itsICode.length);
+    }
+
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        initPropertyCaches();
+    }
+
     String itsName;
     String itsSourceFile;
     boolean itsNeedsActivation;
@@ -56,6 +75,15 @@ final class InterpreterData implements Serializable, DebuggableScript
 
     byte[] itsICode;
 
+    // property caches of the GETPROP and SETPROP instructions, by pc;
+    // allocated with the final icode, and filled in by compareAndSet since
+    // threads running the same script share them
+    transient AtomicReferenceArray<PropertyCache> itsPropertyCaches;
+
+    // type feedback of instructions the interpreter specializes, by pc;
+    // see Interpreter.specialize
+    transient byte[] itsTypeFeedback;
+
     int[] itsExceptionTable;
 
     int itsMaxVars;
@@ -74,6 +102,17 @@ final class InterpreterData implements Serializable, DebuggableScript
     int encodedSourceStart;
     int encodedSourceEnd;
 
+    // position and line of a function that may be promoted to bytecode in
+    // the original source, and its own source until it is promoted or
+    // ruled out; see TieredCompiler
+    int rawSourceStart = -1;
+    int rawSourceEnd = -1;
+    int rawSourceLineno;
+    transient String rawSource;
+    transient int tierCounter;
+    transient volatile int tierState;
+    transient volatile java.lang.reflect.Constructor<?> tierConstructor;
+
     int languageVersion;
 
     boolean isStrict;
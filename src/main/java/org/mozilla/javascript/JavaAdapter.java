@@ -318,22 +318,19 @@ public final class JavaAdapter implements IdFunctionCall
                                             Class<?>[] interfaces, Scriptable obj)
     {
         ClassCache cache = ClassCache.get(scope);
-        Map<JavaAdapterSignature,Class<?>> generated
-            = cache.getInterfaceAdapterCacheMap();
 
         ObjToIntMap names = getObjectFunctionNames(obj);
         JavaAdapterSignature sig;
         sig = new JavaAdapterSignature(superClass, interfaces, names);
-        Class<?> adapterClass = generated.get(sig);
+        Class<?> adapterClass = cache.getAdapterClass(sig);
         if (adapterClass == null) {
             String adapterName = "adapter" + cache.newClassSerialNumber();
             byte[] code = createAdapterCode(names, adapterName,
                                             superClass, interfaces, null);
 
             adapterClass = loadAdapterClass(adapterName, code);
-            if (cache.isCachingEnabled()) {
-                generated.put(sig, adapterClass);
-            }
+            cache.cacheAdapterClass(sig, adapterClass,
+                Context.getContext().getApplicationClassLoader());
         }
         return adapterClass;
     }
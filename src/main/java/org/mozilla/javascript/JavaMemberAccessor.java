@@ -0,0 +1,480 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import org.mozilla.classfile.ByteCode;
+import org.mozilla.classfile.ClassFileWriter;
+
+/**
+ * Base class of the accessors generated for the public members of a Java
+ * class when {@link ClassCache#setInvokerOptimizationEnabled(boolean)} is
+ * on.
+ * <p>
+ * A generated accessor reads, writes and invokes the members of one class
+ * with ordinary field and invoke instructions, selected by a switch on the
+ * index the member was given when the accessor was made. Arguments and
+ * values are passed already converted to the member's types, with
+ * primitive values boxed.
+ * <p>
+ * This is an internal class: it is public only so that generated classes,
+ * which live in their own class loaders, can extend it.
+ */
+public abstract class JavaMemberAccessor
+{
+    private static final String ACCESSOR_CLASS =
+        "org.mozilla.javascript.JavaMemberAccessor";
+
+    // Class.getModule and Module.isExported(String), null before Java 9
+    private static final Method getModule;
+    private static final Method isExported;
+
+    static {
+        Method m1 = null, m2 = null;
+        try {
+            m1 = Class.class.getMethod("getModule");
+            m2 = m1.getReturnType().getMethod("isExported", String.class);
+        } catch (Exception ex) {
+            m1 = m2 = null;
+        }
+        getModule = m1;
+        isExported = m2;
+    }
+
+    // The loader the class loader of the generated class delegates to
+    private ClassLoader parentLoader;
+
+    protected JavaMemberAccessor()
+    {
+    }
+
+    /**
+     * Read field <code>index</code> of <code>target</code>, which is
+     * ignored for static fields.
+     */
+    public abstract Object getField(int index, Object target);
+
+    /**
+     * Write field <code>index</code> of <code>target</code>, which is
+     * ignored for static fields.
+     */
+    public abstract void setField(int index, Object target, Object value);
+
+    /**
+     * Call method or constructor <code>index</code>. Void methods return
+     * null; <code>target</code> is ignored for static methods and
+     * constructors.
+     */
+    public abstract Object invoke(int index, Object target, Object[] args);
+
+    /**
+     * Generate an accessor for <code>fields</code> and <code>members</code>
+     * of class <code>cl</code>, and set the index of each field and member
+     * the accessor can reach: its position in the list, or -1 for fields
+     * and members the accessor leaves to reflection.
+     *
+     * @return the accessor, or null if no accessor can be made
+     */
+    static JavaMemberAccessor create(Class<?> cl, List<Field> fields,
+                                     List<MemberBox> members,
+                                     int[] fieldIndexes, int[] memberIndexes,
+                                     int serial)
+    {
+        ClassLoader loader = chooseLoader(cl);
+        if (loader == null) {
+            return null;
+        }
+        Class<?>[] fieldOwners = new Class<?>[fields.size()];
+        Class<?>[] memberOwners = new Class<?>[members.size()];
+        boolean any = false;
+        for (int i = 0; i != fields.size(); ++i) {
+            Field field = fields.get(i);
+            fieldOwners[i] = ownerOf(loader, cl, field);
+            boolean ok = fieldOwners[i] != null
+                         && isReachable(loader, field.getType());
+            fieldIndexes[i] = ok ? i : -1;
+            any |= ok;
+        }
+        for (int i = 0; i != members.size(); ++i) {
+            MemberBox box = members.get(i);
+            Member member = box.member();
+            memberOwners[i] = ownerOf(loader, cl, member);
+            boolean ok = memberOwners[i] != null;
+            if (ok && box.isMethod()) {
+                ok = isReachable(loader, box.method().getReturnType())
+                     && !(box.isStatic() && memberOwners[i].isInterface());
+            } else if (ok) {
+                ok = !Modifier.isAbstract(memberOwners[i].getModifiers());
+            }
+            for (int j = 0; ok && j != box.argTypes.length; ++j) {
+                ok = isReachable(loader, box.argTypes[j]);
+            }
+            memberIndexes[i] = ok ? i : -1;
+            any |= ok;
+        }
+        if (!any) {
+            return null;
+        }
+
+        String className = "accessor" + serial;
+        byte[] code = generate(className, fields, fieldOwners, fieldIndexes,
+                               members, memberOwners, memberIndexes);
+        try {
+            GeneratedClassLoader gcl =
+                SecurityController.createLoader(loader, null);
+            Class<?> accessorClass = gcl.defineClass(className, code);
+            gcl.linkClass(accessorClass);
+            JavaMemberAccessor accessor = (JavaMemberAccessor)
+                accessorClass.getDeclaredConstructor().newInstance();
+            accessor.parentLoader = loader;
+            return accessor;
+        } catch (Exception ex) {
+            return null;
+        } catch (LinkageError ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the class loader the loader of this accessor's class
+     *         delegates to
+     */
+    final ClassLoader getParentLoader()
+    {
+        return parentLoader;
+    }
+
+    // The loader of the accessor's class must see both the Rhino runtime
+    // and the class itself. Classes whose loader can not see Rhino, such
+    // as bootstrap classes, get the loader of Rhino if it sees the same
+    // class: any other loader, like the application loader of the current
+    // context, would be kept alive by the accessor for as long as the
+    // class is cached.
+    private static ClassLoader chooseLoader(Class<?> cl)
+    {
+        ClassLoader loader = cl.getClassLoader();
+        if (loader != null && Kit.testIfCanLoadRhinoClasses(loader)) {
+            return loader;
+        }
+        loader = JavaMemberAccessor.class.getClassLoader();
+        if (loader != null
+            && Kit.classOrNull(loader, cl.getName()) == cl)
+        {
+            return loader;
+        }
+        return null;
+    }
+
+    // The class generated code names to reach a public member: the class
+    // declaring it or, if that is not public, the reflected class
+    private static Class<?> ownerOf(ClassLoader loader, Class<?> cl,
+                                    Member member)
+    {
+        if (!Modifier.isPublic(member.getModifiers())) {
+            return null;
+        }
+        Class<?> declaringClass = member.getDeclaringClass();
+        if (isReachable(loader, declaringClass)) {
+            return declaringClass;
+        }
+        if (!(member instanceof Constructor) && !cl.isInterface()
+            && isReachable(loader, cl))
+        {
+            return cl;
+        }
+        return null;
+    }
+
+    // Whether generated code in a class of the loader may name the class
+    private static boolean isReachable(ClassLoader loader, Class<?> type)
+    {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (type.isPrimitive()) {
+            return true;
+        }
+        if (!Modifier.isPublic(type.getModifiers())) {
+            return false;
+        }
+        if (getModule != null) {
+            try {
+                Object module = getModule.invoke(type);
+                Package pkg = type.getPackage();
+                String pkgName = pkg == null ? "" : pkg.getName();
+                if (!(Boolean) isExported.invoke(module, pkgName)) {
+                    return false;
+                }
+            } catch (Exception ex) {
+                return false;
+            }
+        }
+        return Kit.classOrNull(loader, type.getName()) == type;
+    }
+
+    private static byte[] generate(String className, List<Field> fields,
+                                   Class<?>[] fieldOwners, int[] fieldIndexes,
+                                   List<MemberBox> members,
+                                   Class<?>[] memberOwners,
+                                   int[] memberIndexes)
+    {
+        ClassFileWriter cfw = new ClassFileWriter(className, ACCESSOR_CLASS,
+                                                  "<accessor>");
+        cfw.startMethod("<init>", "()V", ClassFileWriter.ACC_PUBLIC);
+        cfw.addALoad(0);
+        cfw.addInvoke(ByteCode.INVOKESPECIAL, ACCESSOR_CLASS, "<init>", "()V");
+        cfw.add(ByteCode.RETURN);
+        cfw.stopMethod((short)1);
+
+        // getField(int index, Object target)
+        cfw.startMethod("getField", "(ILjava/lang/Object;)Ljava/lang/Object;",
+                        ClassFileWriter.ACC_PUBLIC);
+        int switchStart = startSwitch(cfw, fields.size());
+        boolean[] generated = new boolean[fields.size()];
+        for (int i = 0; i != fields.size(); ++i) {
+            if (fieldIndexes[i] < 0) continue;
+            cfw.markTableSwitchCase(switchStart, i);
+            generated[i] = true;
+            Field field = fields.get(i);
+            String owner = fieldOwners[i].getName();
+            String desc = typeDescriptor(field.getType());
+            if (Modifier.isStatic(field.getModifiers())) {
+                cfw.add(ByteCode.GETSTATIC, owner, field.getName(), desc);
+            } else {
+                cfw.addALoad(2);
+                cfw.add(ByteCode.CHECKCAST, owner);
+                cfw.add(ByteCode.GETFIELD, owner, field.getName(), desc);
+            }
+            box(cfw, field.getType());
+            cfw.add(ByteCode.ARETURN);
+        }
+        endSwitch(cfw, switchStart, generated);
+        cfw.stopMethod((short)3);
+
+        // setField(int index, Object target, Object value)
+        cfw.startMethod("setField", "(ILjava/lang/Object;Ljava/lang/Object;)V",
+                        ClassFileWriter.ACC_PUBLIC);
+        switchStart = startSwitch(cfw, fields.size());
+        generated = new boolean[fields.size()];
+        for (int i = 0; i != fields.size(); ++i) {
+            Field field = fields.get(i);
+            int mods = field.getModifiers();
+            if (fieldIndexes[i] < 0 || Modifier.isFinal(mods)) continue;
+            cfw.markTableSwitchCase(switchStart, i);
+            generated[i] = true;
+            String owner = fieldOwners[i].getName();
+            String desc = typeDescriptor(field.getType());
+            if (Modifier.isStatic(mods)) {
+                cfw.addALoad(3);
+                unbox(cfw, field.getType());
+                cfw.add(ByteCode.PUTSTATIC, owner, field.getName(), desc);
+            } else {
+                cfw.addALoad(2);
+                cfw.add(ByteCode.CHECKCAST, owner);
+                cfw.addALoad(3);
+                unbox(cfw, field.getType());
+                cfw.add(ByteCode.PUTFIELD, owner, field.getName(), desc);
+            }
+            cfw.add(ByteCode.RETURN);
+        }
+        endSwitch(cfw, switchStart, generated);
+        cfw.stopMethod((short)4);
+
+        // invoke(int index, Object target, Object[] args)
+        cfw.startMethod("invoke",
+                        "(ILjava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;",
+                        ClassFileWriter.ACC_PUBLIC);
+        switchStart = startSwitch(cfw, members.size());
+        generated = new boolean[members.size()];
+        for (int i = 0; i != members.size(); ++i) {
+            if (memberIndexes[i] < 0) continue;
+            cfw.markTableSwitchCase(switchStart, i);
+            generated[i] = true;
+            generateInvoke(cfw, members.get(i), memberOwners[i]);
+        }
+        endSwitch(cfw, switchStart, generated);
+        cfw.stopMethod((short)4);
+
+        return cfw.toByteArray();
+    }
+
+    private static int startSwitch(ClassFileWriter cfw, int count)
+    {
+        if (count == 0) {
+            return -1;
+        }
+        cfw.addILoad(1);
+        return cfw.addTableSwitch(0, count - 1);
+    }
+
+    // Cases the accessor leaves to reflection, and indexes out of range,
+    // throw IndexOutOfBoundsException
+    private static void endSwitch(ClassFileWriter cfw, int switchStart,
+                                  boolean[] generated)
+    {
+        if (switchStart >= 0) {
+            cfw.markTableSwitchDefault(switchStart);
+            for (int i = 0; i != generated.length; ++i) {
+                if (!generated[i]) {
+                    cfw.markTableSwitchCase(switchStart, i);
+                }
+            }
+        }
+        cfw.add(ByteCode.NEW, "java/lang/IndexOutOfBoundsException");
+        cfw.add(ByteCode.DUP);
+        cfw.addInvoke(ByteCode.INVOKESPECIAL,
+                      "java/lang/IndexOutOfBoundsException", "<init>", "()V");
+        cfw.add(ByteCode.ATHROW);
+    }
+
+    private static void generateInvoke(ClassFileWriter cfw, MemberBox box,
+                                       Class<?> ownerClass)
+    {
+        Class<?>[] argTypes = box.argTypes;
+        StringBuilder sb = new StringBuilder();
+        sb.append('(');
+        for (Class<?> type : argTypes) {
+            sb.append(typeDescriptor(type));
+        }
+        sb.append(')');
+        String owner = ownerClass.getName();
+        if (box.isCtor()) {
+            cfw.add(ByteCode.NEW, owner);
+            cfw.add(ByteCode.DUP);
+            pushArgs(cfw, argTypes);
+            sb.append('V');
+            cfw.addInvoke(ByteCode.INVOKESPECIAL, owner, "<init>",
+                          sb.toString());
+            cfw.add(ByteCode.ARETURN);
+            return;
+        }
+        Method method = box.method();
+        int op;
+        if (box.isStatic()) {
+            op = ByteCode.INVOKESTATIC;
+        } else {
+            cfw.addALoad(2);
+            cfw.add(ByteCode.CHECKCAST, owner);
+            op = ownerClass.isInterface() ? ByteCode.INVOKEINTERFACE
+                                              : ByteCode.INVOKEVIRTUAL;
+        }
+        pushArgs(cfw, argTypes);
+        Class<?> returnType = method.getReturnType();
+        sb.append(typeDescriptor(returnType));
+        cfw.addInvoke(op, owner, method.getName(), sb.toString());
+        if (returnType == Void.TYPE) {
+            cfw.add(ByteCode.ACONST_NULL);
+        } else {
+            box(cfw, returnType);
+        }
+        cfw.add(ByteCode.ARETURN);
+    }
+
+    private static void pushArgs(ClassFileWriter cfw, Class<?>[] argTypes)
+    {
+        for (int i = 0; i != argTypes.length; ++i) {
+            cfw.addALoad(3);
+            cfw.addPush(i);
+            cfw.add(ByteCode.AALOAD);
+            unbox(cfw, argTypes[i]);
+        }
+    }
+
+    private static String typeDescriptor(Class<?> type)
+    {
+        if (type.isPrimitive()) {
+            return String.valueOf(primitiveCode(type));
+        }
+        if (type.isArray()) {
+            return type.getName().replace('.', '/');
+        }
+        return 'L' + type.getName().replace('.', '/') + ';';
+    }
+
+    private static char primitiveCode(Class<?> type)
+    {
+        if (type == Integer.TYPE) return 'I';
+        if (type == Long.TYPE) return 'J';
+        if (type == Double.TYPE) return 'D';
+        if (type == Boolean.TYPE) return 'Z';
+        if (type == Float.TYPE) return 'F';
+        if (type == Short.TYPE) return 'S';
+        if (type == Byte.TYPE) return 'B';
+        if (type == Character.TYPE) return 'C';
+        if (type == Void.TYPE) return 'V';
+        throw Kit.codeBug();
+    }
+
+    private static String wrapperClass(Class<?> type)
+    {
+        switch (primitiveCode(type)) {
+          case 'I': return "java/lang/Integer";
+          case 'J': return "java/lang/Long";
+          case 'D': return "java/lang/Double";
+          case 'Z': return "java/lang/Boolean";
+          case 'F': return "java/lang/Float";
+          case 'S': return "java/lang/Short";
+          case 'B': return "java/lang/Byte";
+          case 'C': return "java/lang/Character";
+        }
+        throw Kit.codeBug();
+    }
+
+    private static void box(ClassFileWriter cfw, Class<?> type)
+    {
+        if (type.isPrimitive()) {
+            cfw.addInvoke(ByteCode.INVOKESTATIC, wrapperClass(type), "valueOf",
+                          "(" + primitiveCode(type) + ")L"
+                          + wrapperClass(type) + ";");
+        }
+    }
+
+    // Numbers unbox through java.lang.Number to allow the widening
+    // conversions reflection allows
+    private static void unbox(ClassFileWriter cfw, Class<?> type)
+    {
+        if (!type.isPrimitive()) {
+            if (type != ScriptRuntime.ObjectClass) {
+                cfw.add(ByteCode.CHECKCAST, type.isArray()
+                        ? typeDescriptor(type) : type.getName());
+            }
+            return;
+        }
+        char code = primitiveCode(type);
+        switch (code) {
+          case 'Z':
+            cfw.add(ByteCode.CHECKCAST, "java/lang/Boolean");
+            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, "java/lang/Boolean",
+                          "booleanValue", "()Z");
+            return;
+          case 'C':
+            cfw.add(ByteCode.CHECKCAST, "java/lang/Character");
+            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, "java/lang/Character",
+                          "charValue", "()C");
+            return;
+        }
+        String method;
+        switch (code) {
+          case 'I': method = "intValue"; break;
+          case 'J': method = "longValue"; break;
+          case 'D': method = "doubleValue"; break;
+          case 'F': method = "floatValue"; break;
+          case 'S': method = "shortValue"; break;
+          case 'B': method = "byteValue"; break;
+          default: throw Kit.codeBug();
+        }
+        cfw.add(ByteCode.CHECKCAST, "java/lang/Number");
+        cfw.addInvoke(ByteCode.INVOKEVIRTUAL, "java/lang/Number", method,
+                      "()" + code);
+    }
+}
@@ -21,29 +21,62 @@ import static java.lang.reflect.Modifier.isPublic;
  */
 class JavaMembers
 {
-    JavaMembers(Scriptable scope, Class<?> cl)
+    // The members of cl reflected once per ClassCache and access mode;
+    // templates are not bound to a scope and are never used directly
+    private JavaMembers(ClassCache cache, Class<?> cl,
+                        boolean includeProtected, boolean includePrivate)
     {
-        this(scope, cl, false);
+        this.members = new HashMap<String,Object>();
+        this.staticMembers = new HashMap<String,Object>();
+        this.cl = cl;
+        reflect(null, includeProtected, includePrivate);
+        if (cache.isInvokerOptimizationEnabled()) {
+            createAccessor(cache);
+        }
     }
 
-    JavaMembers(Scriptable scope, Class<?> cl, boolean includeProtected)
+    // A copy of template whose functions have the given scope
+    private JavaMembers(JavaMembers template, Scriptable scope)
     {
-        try {
-            Context cx = ContextFactory.getGlobal().enterContext();
-            ClassShutter shutter = cx.getClassShutter();
-            if (shutter != null && !shutter.visibleToScripts(cl.getName())) {
-                throw Context.reportRuntimeError1("msg.access.prohibited",
-                                                  cl.getName());
+        this.cl = template.cl;
+        this.ctors = template.ctors;
+        this.members = bindMembers(template.members, scope, false);
+        this.staticMembers = bindMembers(template.staticMembers, scope, true);
+    }
+
+    private Map<String,Object> bindMembers(Map<String,Object> ht,
+                                           Scriptable scope,
+                                           boolean isStatic)
+    {
+        Map<String,Object> bound = new HashMap<String,Object>(ht);
+        for (Map.Entry<String,Object> entry : bound.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof FieldAndMethods) {
+                FieldAndMethods fam = (FieldAndMethods) value;
+                FieldAndMethods famNew = new FieldAndMethods(scope,
+                                                             fam.methods,
+                                                             fam.field);
+                Map<String,FieldAndMethods> fmht = isStatic
+                    ? staticFieldAndMethods : fieldAndMethods;
+                if (fmht == null) {
+                    fmht = new HashMap<String,FieldAndMethods>();
+                    if (isStatic) {
+                        staticFieldAndMethods = fmht;
+                    } else {
+                        fieldAndMethods = fmht;
+                    }
+                }
+                fmht.put(entry.getKey(), famNew);
+                entry.setValue(famNew);
+            } else if (value instanceof NativeJavaMethod) {
+                NativeJavaMethod method = (NativeJavaMethod) value;
+                NativeJavaMethod fun = new NativeJavaMethod(
+                    method.methods, method.getFunctionName());
+                ScriptRuntime.setFunctionProtoAndParent(fun, scope);
+                entry.setValue(fun);
             }
-            this.members = new HashMap<String,Object>();
-            this.staticMembers = new HashMap<String,Object>();
-            this.cl = cl;
-            boolean includePrivate = cx.hasFeature(
-                    Context.FEATURE_ENHANCED_JAVA_ACCESS);
-            reflect(scope, includeProtected, includePrivate);
-        } finally {
-            Context.exit();
         }
+        return bound;
     }
 
     boolean has(String name, boolean isStatic)
@@ -84,6 +117,11 @@ class JavaMembers
                     return Scriptable.NOT_FOUND;
                 rval = bp.getter.invoke(javaObject, Context.emptyArgs);
                 type = bp.getter.method().getReturnType();
+            } else if (member instanceof AccessorField) {
+                AccessorField af = (AccessorField) member;
+                rval = af.accessor.getField(af.index,
+                                            isStatic ? null : javaObject);
+                type = af.field.getType();
             } else {
                 Field field = (Field) member;
                 rval = field.get(isStatic ? null : javaObject);
@@ -112,6 +150,22 @@ class JavaMembers
             FieldAndMethods fam = (FieldAndMethods) ht.get(name);
             member = fam.field;
         }
+        if (member instanceof AccessorField) {
+            AccessorField af = (AccessorField) member;
+            if (!Modifier.isFinal(af.field.getModifiers())) {
+                Object javaValue = Context.jsToJava(value, af.field.getType());
+                try {
+                    af.accessor.setField(af.index, javaObject, javaValue);
+                } catch (ClassCastException castEx) {
+                    throw Context.reportRuntimeError3(
+                        "msg.java.internal.field.type",
+                        value.getClass().getName(), af.field,
+                        javaObject.getClass().getName());
+                }
+                return;
+            }
+            member = af.field;
+        }
 
         // Is this a bean property "set"?
         if (member instanceof BeanProperty) {
@@ -633,6 +687,54 @@ class JavaMembers
         ctors = new NativeJavaMethod(ctorMembers, cl.getSimpleName());
     }
 
+    // Route the public fields, methods and constructors through a
+    // generated JavaMemberAccessor; the members it can not reach keep
+    // using reflection
+    private void createAccessor(ClassCache cache)
+    {
+        List<Map.Entry<String,Object>> fieldEntries =
+            new ArrayList<Map.Entry<String,Object>>();
+        List<Field> fields = new ArrayList<Field>();
+        List<MemberBox> boxes = new ArrayList<MemberBox>();
+        for (int tableCursor = 0; tableCursor != 2; ++tableCursor) {
+            Map<String,Object> ht = tableCursor == 0 ? staticMembers : members;
+            for (Map.Entry<String,Object> entry : ht.entrySet()) {
+                Object value = entry.getValue();
+                if (value instanceof Field) {
+                    fieldEntries.add(entry);
+                    fields.add((Field) value);
+                } else if (value instanceof NativeJavaMethod) {
+                    boxes.addAll(Arrays.asList(
+                        ((NativeJavaMethod) value).methods));
+                }
+            }
+        }
+        boxes.addAll(Arrays.asList(ctors.methods));
+
+        int[] fieldIndexes = new int[fields.size()];
+        int[] boxIndexes = new int[boxes.size()];
+        JavaMemberAccessor accessor = JavaMemberAccessor.create(cl,
+            fields, boxes, fieldIndexes, boxIndexes,
+            cache.newClassSerialNumber());
+        if (accessor == null) {
+            return;
+        }
+        accessorParent = accessor.getParentLoader();
+        for (int i = 0; i != fields.size(); ++i) {
+            if (fieldIndexes[i] >= 0) {
+                fieldEntries.get(i).setValue(new AccessorField(
+                    fields.get(i), accessor, fieldIndexes[i]));
+            }
+        }
+        for (int i = 0; i != boxes.size(); ++i) {
+            if (boxIndexes[i] >= 0) {
+                MemberBox box = boxes.get(i);
+                box.accessor = accessor;
+                box.accessorIndex = boxIndexes[i];
+            }
+        }
+    }
+
     private Constructor<?>[] getAccessibleConstructors(boolean includePrivate)
     {
       // The JVM currently doesn't allow changing access on java.lang.Class
@@ -789,8 +891,9 @@ class JavaMembers
                                    Class<?> staticType, boolean includeProtected)
     {
         JavaMembers members;
-        ClassCache cache = ClassCache.get(scope);
-        Map<Class<?>,JavaMembers> ct = cache.getClassCacheMap();
+        ClassCache.ScopeBinding binding = ClassCache.getBinding(scope);
+        ClassCache cache = binding.cache;
+        Map<Class<?>,JavaMembers> ct = binding.getClassCacheMap();
 
         Class<?> cl = dynamicType;
         for (;;) {
@@ -804,8 +907,8 @@ class JavaMembers
                 return members;
             }
             try {
-                members = new JavaMembers(cache.getAssociatedScope(), cl,
-                        includeProtected);
+                members = reflectClass(cache, binding.scope, cl,
+                                       includeProtected);
                 break;
             } catch (SecurityException e) {
                 // Reflection may fail for objects that are in a restricted
@@ -841,6 +944,44 @@ class JavaMembers
         return members;
     }
 
+    // Bind the members of cl reflected for the ClassCache to scope,
+    // reflecting them first if no scope sharing the cache has done so
+    private static JavaMembers reflectClass(ClassCache cache,
+                                            Scriptable scope, Class<?> cl,
+                                            boolean includeProtected)
+    {
+        try {
+            Context cx = ContextFactory.getGlobal().enterContext();
+            ClassShutter shutter = cx.getClassShutter();
+            if (shutter != null && !shutter.visibleToScripts(cl.getName())) {
+                throw Context.reportRuntimeError1("msg.access.prohibited",
+                                                  cl.getName());
+            }
+            boolean includePrivate = cx.hasFeature(
+                    Context.FEATURE_ENHANCED_JAVA_ACCESS);
+            JavaMembers template = cache.getReflectedClass(cl,
+                includeProtected, includePrivate);
+            if (template == null) {
+                template = new JavaMembers(cache, cl, includeProtected,
+                                           includePrivate);
+                template = cache.cacheReflectedClass(cl, includeProtected,
+                                                     includePrivate, template);
+            }
+            return new JavaMembers(template, scope);
+        } finally {
+            Context.exit();
+        }
+    }
+
+    /**
+     * @return the loader the class loader of the generated accessor of a
+     *         template delegates to, or null if it has no accessor
+     */
+    ClassLoader getAccessorParent()
+    {
+        return accessorParent;
+    }
+
     RuntimeException reportMemberNotFound(String memberName)
     {
         return Context.reportRuntimeError2(
@@ -853,6 +994,7 @@ class JavaMembers
     private Map<String,Object> staticMembers;
     private Map<String,FieldAndMethods> staticFieldAndMethods;
     NativeJavaMethod ctors; // we use NativeJavaMethod for ctor overload resolution
+    private ClassLoader accessorParent;
 }
 
 class BeanProperty
@@ -869,6 +1011,20 @@ class BeanProperty
     NativeJavaMethod setters;
 }
 
+class AccessorField
+{
+    AccessorField(Field field, JavaMemberAccessor accessor, int index)
+    {
+        this.field = field;
+        this.accessor = accessor;
+        this.index = index;
+    }
+
+    final Field field;
+    final JavaMemberAccessor accessor;
+    final int index;
+}
+
 class FieldAndMethods extends NativeJavaMethod
 {
     static final long serialVersionUID = -9222428244284796755L;
@@ -877,8 +1033,10 @@ class FieldAndMethods extends NativeJavaMethod
     {
         super(methods);
         this.field = field;
-        setParentScope(scope);
-        setPrototype(ScriptableObject.getFunctionPrototype(scope));
+        if (scope != null) {
+            setParentScope(scope);
+            setPrototype(ScriptableObject.getFunctionPrototype(scope));
+        }
     }
 
     @Override
@@ -0,0 +1,141 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link ScriptCache} holding a bounded number of scripts, evicting the
+ * least recently used.
+ * <p>
+ * Threads that miss on the same key at the same time compile it once: the
+ * first one compiles, and the others wait for its script. If that
+ * compilation fails, each waiting thread compiles for itself, so every
+ * caller sees its own errors.
+ */
+public class LruScriptCache implements ScriptCache
+{
+    private final int maxEntries;
+    private final LinkedHashMap<Key,Pending> entries;
+    private long hits;
+    private long misses;
+
+    private static final class Pending
+    {
+        private Script script;
+        private boolean done;
+
+        synchronized void finish(Script result)
+        {
+            script = result;
+            done = true;
+            notifyAll();
+        }
+
+        // Returns the script, or null if its compilation failed
+        synchronized Script await()
+        {
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return script;
+        }
+    }
+
+    public LruScriptCache(int maxEntries)
+    {
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException(String.valueOf(maxEntries));
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<Key,Pending>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key,Pending> eldest)
+            {
+                return size() > LruScriptCache.this.maxEntries;
+            }
+        };
+    }
+
+    public Script get(Key key, Compilation compilation)
+    {
+        Pending pending;
+        boolean compiling = false;
+        synchronized (entries) {
+            pending = entries.get(key);
+            if (pending == null) {
+                pending = new Pending();
+                entries.put(key, pending);
+                compiling = true;
+                ++misses;
+            } else {
+                ++hits;
+            }
+        }
+        if (!compiling) {
+            Script script = pending.await();
+            return (script != null) ? script : compilation.compile();
+        }
+        Script script = null;
+        try {
+            script = compilation.compile();
+        } finally {
+            if (script == null) {
+                synchronized (entries) {
+                    if (entries.get(key) == pending) {
+                        entries.remove(key);
+                    }
+                }
+            }
+            pending.finish(script);
+        }
+        return script;
+    }
+
+    public void clear()
+    {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    public int size()
+    {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits()
+    {
+        synchronized (entries) {
+            return hits;
+        }
+    }
+
+    public long getMisses()
+    {
+        synchronized (entries) {
+            return misses;
+        }
+    }
+}
@@ -6,6 +6,9 @@
 
 package org.mozilla.javascript;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.*;
 import java.io.*;
 
@@ -13,6 +16,12 @@ import java.io.*;
  * Wrappper class for Method and Constructor instances to cache
  * getParameterTypes() results, recover from IllegalAccessException
  * in some cases and provide serialization support.
+ * <p>
+ * Members are invoked through a MethodHandle made on first use, which
+ * takes the target and the argument array and applies the boxing and
+ * widening conversions Method.invoke would. Members no MethodHandle can
+ * be made for are invoked through reflection. Members of classes with a
+ * generated {@link JavaMemberAccessor} are invoked through the accessor.
  *
  * @author Igor Bukanov
  */
@@ -25,6 +34,16 @@ final class MemberBox implements Serializable
     transient Class<?>[] argTypes;
     transient Object delegateTo;
     transient boolean vararg;
+    // (Object target, Object[] args)Object, REFLECT, or null until first use
+    private transient volatile MethodHandle invoker;
+    // Set by JavaMembers before the member is published
+    transient JavaMemberAccessor accessor;
+    transient int accessorIndex;
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(
+        Object.class, Object.class, Object[].class);
+    private static final MethodHandle REFLECT = MethodHandles.constant(
+        Object.class, null);
 
 
     MemberBox(Method method)
@@ -120,6 +139,27 @@ final class MemberBox implements Serializable
 
     Object invoke(Object target, Object[] args)
     {
+        if (accessor != null) {
+            try {
+                return accessor.invoke(accessorIndex, target, args);
+            } catch (ContinuationPending ex) {
+                // Must allow ContinuationPending exceptions to propagate
+                throw ex;
+            } catch (Throwable ex) {
+                throw Context.throwAsScriptRuntimeEx(ex);
+            }
+        }
+        MethodHandle mh = getInvoker();
+        if (mh != REFLECT) {
+            try {
+                return (Object)mh.invokeExact(target, args);
+            } catch (ContinuationPending ex) {
+                // Must allow ContinuationPending exceptions to propagate
+                throw ex;
+            } catch (Throwable ex) {
+                throw Context.throwAsScriptRuntimeEx(ex);
+            }
+        }
         Method method = method();
         try {
             try {
@@ -153,6 +193,21 @@ final class MemberBox implements Serializable
 
     Object newInstance(Object[] args)
     {
+        if (accessor != null) {
+            try {
+                return accessor.invoke(accessorIndex, null, args);
+            } catch (Throwable ex) {
+                throw Context.throwAsScriptRuntimeEx(ex);
+            }
+        }
+        MethodHandle mh = getInvoker();
+        if (mh != REFLECT) {
+            try {
+                return (Object)mh.invokeExact((Object)null, args);
+            } catch (Throwable ex) {
+                throw Context.throwAsScriptRuntimeEx(ex);
+            }
+        }
         Constructor<?> ctor = ctor();
         try {
             try {
@@ -168,6 +223,67 @@ final class MemberBox implements Serializable
         }
     }
 
+    private MethodHandle getInvoker()
+    {
+        MethodHandle mh = invoker;
+        if (mh == null) {
+            mh = createInvoker();
+            invoker = mh;
+        }
+        return mh;
+    }
+
+    private MethodHandle createInvoker()
+    {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        MethodHandle mh;
+        try {
+            if (isMethod()) {
+                Method method = method();
+                try {
+                    mh = lookup.unreflect(method);
+                } catch (IllegalAccessException ex) {
+                    Method accessible = searchAccessibleMethod(method,
+                                                               argTypes);
+                    if (accessible != null) {
+                        mh = lookup.unreflect(accessible);
+                    } else if (VMBridge.instance.tryToMakeAccessible(method)) {
+                        mh = lookup.unreflect(method);
+                    } else {
+                        return REFLECT;
+                    }
+                }
+                if (isStatic()) {
+                    mh = MethodHandles.dropArguments(mh, 0, Object.class);
+                }
+            } else {
+                Constructor<?> ctor = ctor();
+                try {
+                    mh = lookup.unreflectConstructor(ctor);
+                } catch (IllegalAccessException ex) {
+                    if (!VMBridge.instance.tryToMakeAccessible(ctor)) {
+                        return REFLECT;
+                    }
+                    mh = lookup.unreflectConstructor(ctor);
+                }
+                mh = MethodHandles.dropArguments(mh, 0, Object.class);
+            }
+            mh = mh.asFixedArity();
+            if (mh.type().returnType() == Void.TYPE) {
+                // Method.invoke returns null for void methods
+                mh = MethodHandles.filterReturnValue(mh,
+                    MethodHandles.constant(Object.class, null));
+            }
+            mh = mh.asSpreader(Object[].class, argTypes.length);
+            return mh.asType(INVOKER_TYPE);
+        } catch (IllegalAccessException ex) {
+            return REFLECT;
+        } catch (RuntimeException ex) {
+            // such as members of classes the VM will not let us link
+            return REFLECT;
+        }
+    }
+
     private static Method searchAccessibleMethod(Method method, Class<?>[] params)
     {
         int modifiers = method.getModifiers();
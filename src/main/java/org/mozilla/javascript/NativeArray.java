@@ -8,6 +8,9 @@ package org.mozilla.javascript;
 
 import org.mozilla.javascript.regexp.NativeRegExp;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
@@ -63,8 +66,13 @@ public class NativeArray extends IdScriptableObject implements List
             int intLength = (int) lengthArg;
             if (intLength < DEFAULT_INITIAL_CAPACITY)
                 intLength = DEFAULT_INITIAL_CAPACITY;
-            dense = new Object[intLength];
-            Arrays.fill(dense, Scriptable.NOT_FOUND);
+            if (lengthArg == 0) {
+                ints = new int[intLength];
+            } else {
+                // All elements are missing, which only doubles can hold
+                doubles = new double[intLength];
+                Arrays.fill(doubles, HOLE);
+            }
         }
         length = lengthArg;
     }
@@ -72,8 +80,45 @@ public class NativeArray extends IdScriptableObject implements List
     public NativeArray(Object[] array)
     {
         denseOnly = true;
-        dense = array;
         length = array.length;
+        pack(array);
+    }
+
+    /**
+     * Stores <code>array</code> in ints or doubles if it holds only numbers,
+     * and in dense otherwise.
+     */
+    private void pack(Object[] array)
+    {
+        boolean allInts = true;
+        for (Object value : array) {
+            if (value instanceof Integer) {
+                continue;
+            } else if (value instanceof Double) {
+                if (allInts && !isInt32((Double) value)) {
+                    allInts = false;
+                }
+            } else if (value == NOT_FOUND) {
+                allInts = false;
+            } else {
+                dense = array;
+                return;
+            }
+        }
+        int n = array.length;
+        if (allInts) {
+            ints = new int[n];
+            for (int i = 0; i != n; ++i) {
+                ints[i] = ((Number) array[i]).intValue();
+            }
+        } else {
+            doubles = new double[n];
+            for (int i = 0; i != n; ++i) {
+                Object value = array[i];
+                doubles[i] = value == NOT_FOUND ? HOLE
+                             : toStoredDouble(((Number) value).doubleValue());
+            }
+        }
     }
 
     @Override
@@ -341,18 +386,341 @@ public class NativeArray extends IdScriptableObject implements List
     {
         if (!denseOnly && isGetterOrSetter(null, index, false))
             return super.get(index, start);
-        if (dense != null && 0 <= index && index < dense.length)
-            return dense[index];
+        if (hasDenseStorage() && 0 <= index && index < capacity())
+            return denseGet(index);
         return super.get(index, start);
     }
 
+    /**
+     * Returns the element at <code>index</code> if this array holds it in
+     * its dense storage, or NOT_FOUND if it must be looked up with get.
+     */
+    Object getDenseElement(int index)
+    {
+        if (denseOnly && 0 <= index) {
+            return denseGet(index);
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Returns the number at <code>index</code> if this array holds it
+     * unboxed, or a value for which {@link #isHole(double)} is true if the
+     * caller must use getDenseElement.
+     */
+    double getDenseNumber(int index)
+    {
+        if (denseOnly && 0 <= index) {
+            if (ints != null) {
+                if (index < length) {
+                    return ints[index];
+                }
+            } else if (doubles != null && index < doubles.length) {
+                return doubles[index];
+            }
+        }
+        return HOLE;
+    }
+
+    static boolean isHole(double value)
+    {
+        return Double.doubleToRawLongBits(value) == HOLE_BITS;
+    }
+
+    /**
+     * Stores <code>value</code> at <code>index</code> if this array uses
+     * only its dense storage and already holds an element there, and
+     * returns true if it did; otherwise the caller must use put, which
+     * also finds setters of the prototype for a hole.
+     */
+    boolean putDenseElement(int index, Object value)
+    {
+        if (denseOnly && 0 <= index && denseHas(index) && !isSealed()) {
+            denseSet(index, value);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Like putDenseElement, but returns false without storing if this
+     * array does not hold numbers unboxed.
+     */
+    boolean putDenseNumber(int index, double value)
+    {
+        if (denseOnly && 0 <= index && denseHas(index) && !isSealed()) {
+            if (ints != null) {
+                if (isInt32(value)) {
+                    ints[index] = (int) value;
+                    return true;
+                }
+                toDoubles();
+            }
+            if (doubles != null) {
+                doubles[index] = toStoredDouble(value);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * While the array is denseOnly, its elements are in exactly one of
+     * ints, doubles and dense, picked by the kinds of values stored so far:
+     * ints holds int32 numbers without missing elements, up to length;
+     * doubles holds numbers, with HOLE at missing elements and at length
+     * and above; dense holds any values, with NOT_FOUND at missing elements
+     * and at length and above. An array moves from ints to doubles to
+     * dense and never back, and must be in dense to stop being denseOnly.
+     */
+
+    private boolean hasDenseStorage()
+    {
+        return dense != null || ints != null || doubles != null;
+    }
+
+    private int capacity()
+    {
+        return ints != null ? ints.length
+               : doubles != null ? doubles.length : dense.length;
+    }
+
+    private static boolean isInt32(double d)
+    {
+        int i = (int) d;
+        return i == d && (i != 0 || Double.doubleToRawLongBits(d) == 0L);
+    }
+
+    // Keep the bits of HOLE out of doubles stored as elements
+    private static double toStoredDouble(double d)
+    {
+        return d == d ? d : Double.NaN;
+    }
+
+    /**
+     * Returns the element at <code>index</code> of the dense storage, or
+     * NOT_FOUND if it is missing or beyond the dense storage. Numbers held
+     * unboxed come back as Doubles, as the interpreter boxes them, whatever
+     * box they were stored in.
+     */
+    private Object denseGet(int index)
+    {
+        if (ints != null) {
+            return index < length ? ScriptRuntime.wrapNumber(ints[index])
+                                  : NOT_FOUND;
+        }
+        if (doubles != null) {
+            if (index < doubles.length) {
+                double d = doubles[index];
+                if (!isHole(d)) {
+                    return ScriptRuntime.wrapNumber(d);
+                }
+            }
+            return NOT_FOUND;
+        }
+        return index < dense.length ? dense[index] : NOT_FOUND;
+    }
+
+    private boolean denseHas(int index)
+    {
+        if (ints != null) {
+            return index < length;
+        }
+        if (doubles != null) {
+            return index < doubles.length && !isHole(doubles[index]);
+        }
+        return index < dense.length && dense[index] != NOT_FOUND;
+    }
+
+    /**
+     * Returns whether an element from <code>from</code> up to
+     * <code>to</code> is missing, so that reading it must go through the
+     * prototype and the generic code has to be used.
+     */
+    private boolean denseHasHoles(int from, int to)
+    {
+        if (ints != null && to <= length) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (!denseHas(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stores <code>value</code>, or a missing element if value is NOT_FOUND,
+     * at <code>index</code> below the capacity of the dense storage, moving
+     * the elements to doubles or dense if they cannot hold it. A caller
+     * storing at length or above must then set length above index.
+     */
+    private void denseSet(int index, Object value)
+    {
+        if (ints != null) {
+            if (index <= length) {
+                if (value instanceof Integer) {
+                    ints[index] = ((Integer) value).intValue();
+                    return;
+                }
+                if (value instanceof Double && isInt32((Double) value)) {
+                    ints[index] = ((Double) value).intValue();
+                    return;
+                }
+            }
+            if (value instanceof Integer || value instanceof Double
+                || value == NOT_FOUND)
+            {
+                toDoubles();
+            } else {
+                toObjects();
+            }
+        }
+        if (doubles != null) {
+            if (value instanceof Integer || value instanceof Double) {
+                doubles[index] = toStoredDouble(((Number) value).doubleValue());
+                return;
+            }
+            if (value == NOT_FOUND) {
+                doubles[index] = HOLE;
+                return;
+            }
+            toObjects();
+        }
+        dense[index] = value;
+    }
+
+    /**
+     * Marks the elements from <code>from</code> up to <code>to</code>
+     * within the dense storage missing.
+     */
+    private void denseClear(int from, int to)
+    {
+        to = Math.min(to, capacity());
+        if (from >= to) {
+            return;
+        }
+        if (ints != null) {
+            if (from >= length) {
+                return;
+            }
+            toDoubles();
+        }
+        if (doubles != null) {
+            Arrays.fill(doubles, from, to, HOLE);
+        } else {
+            Arrays.fill(dense, from, to, NOT_FOUND);
+        }
+    }
+
+    private void denseCopy(int from, int to, int count)
+    {
+        if (ints != null) {
+            System.arraycopy(ints, from, ints, to, count);
+        } else if (doubles != null) {
+            System.arraycopy(doubles, from, doubles, to, count);
+        } else {
+            System.arraycopy(dense, from, dense, to, count);
+        }
+    }
+
+    private void toDoubles()
+    {
+        int[] values = ints;
+        double[] result = new double[values.length];
+        int n = (int) length;
+        for (int i = 0; i != n; ++i) {
+            result[i] = values[i];
+        }
+        Arrays.fill(result, n, result.length, HOLE);
+        doubles = result;
+        ints = null;
+    }
+
+    private void toObjects()
+    {
+        if (ints == null && doubles == null) {
+            return;
+        }
+        int n = capacity();
+        Object[] result = new Object[n];
+        for (int i = 0; i != n; ++i) {
+            result[i] = denseGet(i);
+        }
+        dense = result;
+        ints = null;
+        doubles = null;
+    }
+
+    /**
+     * Appends the elements of <code>from</code>, which is denseOnly, to this
+     * array, which has the capacity for them.
+     */
+    private void denseAppend(NativeArray from)
+    {
+        int n = (int) from.length;
+        int at = (int) length;
+        if (ints != null && from.ints != null) {
+            System.arraycopy(from.ints, 0, ints, at, n);
+        } else if (doubles != null && from.doubles != null) {
+            System.arraycopy(from.doubles, 0, doubles, at, n);
+        } else if (dense != null && from.dense != null) {
+            System.arraycopy(from.dense, 0, dense, at, n);
+        } else {
+            for (int i = 0; i != n; ++i) {
+                denseSet(at + i, from.denseGet(i));
+                length = at + i + 1;
+            }
+            return;
+        }
+        length = at + n;
+    }
+
+    /**
+     * Copies the elements from <code>begin</code> up to <code>end</code> of
+     * this array, which is denseOnly, into <code>result</code>, a new empty
+     * array.
+     */
+    private void denseSlice(NativeArray result, int begin, int end)
+    {
+        result.ints = null;
+        if (ints != null) {
+            result.ints = Arrays.copyOfRange(ints, begin, end);
+        } else if (doubles != null) {
+            result.doubles = Arrays.copyOfRange(doubles, begin, end);
+        } else {
+            result.dense = Arrays.copyOfRange(dense, begin, end);
+        }
+        result.length = end - begin;
+    }
+
+    private void denseReverse()
+    {
+        for (int i = 0, j = (int) length - 1; i < j; i++, j--) {
+            if (ints != null) {
+                int temp = ints[i];
+                ints[i] = ints[j];
+                ints[j] = temp;
+            } else if (doubles != null) {
+                double temp = doubles[i];
+                doubles[i] = doubles[j];
+                doubles[j] = temp;
+            } else {
+                Object temp = dense[i];
+                dense[i] = dense[j];
+                dense[j] = temp;
+            }
+        }
+    }
+
     @Override
     public boolean has(int index, Scriptable start)
     {
         if (!denseOnly && isGetterOrSetter(null, index, false))
             return super.has(index, start);
-        if (dense != null && 0 <= index && index < dense.length)
-            return dense[index] != NOT_FOUND;
+        if (hasDenseStorage() && 0 <= index && index < capacity())
+            return denseHas(index);
         return super.has(index, start);
     }
 
@@ -402,6 +770,7 @@ public class NativeArray extends IdScriptableObject implements List
             long index = toArrayIndex(id);
             if (index >= length) {
                 length = index + 1;
+                toObjects();
                 denseOnly = false;
             }
         }
@@ -409,41 +778,63 @@ public class NativeArray extends IdScriptableObject implements List
 
     private boolean ensureCapacity(int capacity)
     {
-        if (capacity > dense.length) {
+        int oldCapacity = capacity();
+        if (capacity > oldCapacity) {
             if (capacity > MAX_PRE_GROW_SIZE) {
+                toObjects();
                 denseOnly = false;
                 return false;
             }
-            capacity = Math.max(capacity, (int)(dense.length * GROW_FACTOR));
-            Object[] newDense = new Object[capacity];
-            System.arraycopy(dense, 0, newDense, 0, dense.length);
-            Arrays.fill(newDense, dense.length, newDense.length,
-                        Scriptable.NOT_FOUND);
-            dense = newDense;
+            capacity = Math.max(capacity, (int)(oldCapacity * GROW_FACTOR));
+            if (ints != null) {
+                ints = Arrays.copyOf(ints, capacity);
+            } else if (doubles != null) {
+                doubles = Arrays.copyOf(doubles, capacity);
+                Arrays.fill(doubles, oldCapacity, capacity, HOLE);
+            } else {
+                Object[] newDense = new Object[capacity];
+                System.arraycopy(dense, 0, newDense, 0, dense.length);
+                Arrays.fill(newDense, dense.length, newDense.length,
+                            Scriptable.NOT_FOUND);
+                dense = newDense;
+            }
         }
         return true;
     }
 
+    /**
+     * Returns whether a store at <code>index</code> should grow the dense
+     * storage, rather than give it up: stores a little past its end, which
+     * leave only a few missing elements, still do.
+     */
+    private boolean isNearDense(long index)
+    {
+        int capacity = capacity();
+        return index < capacity * GROW_FACTOR
+               || index < (long) capacity + MAX_DENSE_GAP;
+    }
+
     @Override
     public void put(int index, Scriptable start, Object value)
     {
-        if (start == this && !isSealed() && dense != null && 0 <= index &&
+        if (start == this && !isSealed() && hasDenseStorage() && 0 <= index &&
             (denseOnly || !isGetterOrSetter(null, index, true)))
         {
             if (!isExtensible() && this.length <= index) {
                 return;
-            } else if (index < dense.length) {
-                dense[index] = value;
+            } else if (index < capacity()) {
+                denseSet(index, value);
                 if (this.length <= index)
                     this.length = (long)index + 1;
                 return;
-            } else if (denseOnly && index < dense.length * GROW_FACTOR &&
+            } else if (denseOnly && isNearDense(index) &&
                        ensureCapacity(index+1))
             {
-                dense[index] = value;
+                denseSet(index, value);
                 this.length = (long)index + 1;
                 return;
             } else {
+                toObjects();
                 denseOnly = false;
             }
         }
@@ -460,10 +851,10 @@ public class NativeArray extends IdScriptableObject implements List
     @Override
     public void delete(int index)
     {
-        if (dense != null && 0 <= index && index < dense.length &&
+        if (hasDenseStorage() && 0 <= index && index < capacity() &&
             !isSealed() && (denseOnly || !isGetterOrSetter(null, index, true)))
         {
-            dense[index] = NOT_FOUND;
+            denseClear(index, index + 1);
         } else {
             super.delete(index);
         }
@@ -473,8 +864,8 @@ public class NativeArray extends IdScriptableObject implements List
     public Object[] getIds()
     {
         Object[] superIds = super.getIds();
-        if (dense == null) { return superIds; }
-        int N = dense.length;
+        if (!hasDenseStorage()) { return superIds; }
+        int N = capacity();
         long currentLength = length;
         if (N > currentLength) {
             N = (int)currentLength;
@@ -486,7 +877,7 @@ public class NativeArray extends IdScriptableObject implements List
         int presentCount = 0;
         for (int i = 0; i != N; ++i) {
             // Replace existing elements by their indexes
-            if (dense[i] != NOT_FOUND) {
+            if (denseHas(i)) {
                 ids[presentCount] = Integer.valueOf(i);
                 ++presentCount;
             }
@@ -547,8 +938,7 @@ public class NativeArray extends IdScriptableObject implements List
 
     @Override
     public int getAttributes(int index) {
-        if (dense != null && index >= 0 && index < dense.length
-                && dense[index] != NOT_FOUND) {
+        if (hasDenseStorage() && index >= 0 && denseHas(index)) {
             return EMPTY;
         }
         return super.getAttributes(index);
@@ -556,10 +946,10 @@ public class NativeArray extends IdScriptableObject implements List
 
     @Override
     protected ScriptableObject getOwnPropertyDescriptor(Context cx, Object id) {
-      if (dense != null) {
+      if (hasDenseStorage()) {
         int index = toDenseIndex(id);
-        if (0 <= index && index < dense.length && dense[index] != NOT_FOUND) {
-          Object value = dense[index];
+        if (0 <= index && denseHas(index)) {
+          Object value = denseGet(index);
           return defaultIndexPropertyDescriptor(value);
         }
       }
@@ -570,15 +960,8 @@ public class NativeArray extends IdScriptableObject implements List
     protected void defineOwnProperty(Context cx, Object id,
                                      ScriptableObject desc,
                                      boolean checkValid) {
-      if (dense != null) {
-        Object[] values = dense;
-        dense = null;
-        denseOnly = false;
-        for (int i = 0; i < values.length; i++) {
-          if (values[i] != NOT_FOUND) {
-            put(i, this, values[i]);
-          }
-        }
+      if (hasDenseStorage()) {
+        moveDenseToSlots();
       }
       long index = toArrayIndex(id);
       if (index >= length) {
@@ -587,6 +970,35 @@ public class NativeArray extends IdScriptableObject implements List
       super.defineOwnProperty(cx, id, desc, checkValid);
     }
 
+    /**
+     * Moves the elements out of the dense storage into slots, so that
+     * every later change goes through the checks of ScriptableObject.
+     */
+    private void moveDenseToSlots() {
+        toObjects();
+        Object[] values = dense;
+        dense = null;
+        denseOnly = false;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != NOT_FOUND) {
+                put(i, this, values[i]);
+            }
+        }
+    }
+
+    /**
+     * Seals the array after moving its elements to slots, as the fast
+     * paths of push, splice and the other mutators write the dense
+     * storage directly and would bypass the seal.
+     */
+    @Override
+    public synchronized void sealObject() {
+        if (!isSealed() && hasDenseStorage()) {
+            moveDenseToSlots();
+        }
+        super.sealObject();
+    }
+
     /**
      * See ECMA 15.4.1,2
      */
@@ -638,6 +1050,9 @@ public class NativeArray extends IdScriptableObject implements List
     void setDenseOnly(boolean denseOnly) {
         if (denseOnly && !this.denseOnly)
             throw new IllegalArgumentException();
+        if (!denseOnly) {
+            toObjects();
+        }
         this.denseOnly = denseOnly;
     }
 
@@ -662,16 +1077,22 @@ public class NativeArray extends IdScriptableObject implements List
         if (denseOnly) {
             if (longVal < length) {
                 // downcast okay because denseOnly
-                Arrays.fill(dense, (int) longVal, dense.length, NOT_FOUND);
                 length = longVal;
+                denseClear((int) longVal, capacity());
                 return;
             } else if (longVal < MAX_PRE_GROW_SIZE &&
-                       longVal < (length * GROW_FACTOR) &&
+                       (longVal < (length * GROW_FACTOR)
+                        || longVal < length + MAX_DENSE_GAP) &&
                        ensureCapacity((int)longVal))
             {
+                if (ints != null && longVal > length) {
+                    // the new elements are missing
+                    toDoubles();
+                }
                 length = longVal;
                 return;
             } else {
+                toObjects();
                 denseOnly = false;
             }
         }
@@ -906,18 +1327,20 @@ public class NativeArray extends IdScriptableObject implements List
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
             if (na.denseOnly) {
+                Scriptable proto = na.getPrototype();
                 StringBuilder sb = new StringBuilder();
                 for (int i = 0; i < length; i++) {
                     if (i != 0) {
                         sb.append(separator);
                     }
-                    if (i < na.dense.length) {
-                        Object temp = na.dense[i];
-                        if (temp != null && temp != Undefined.instance &&
-                            temp != Scriptable.NOT_FOUND)
-                        {
-                            sb.append(ScriptRuntime.toString(temp));
-                        }
+                    Object temp = na.denseGet(i);
+                    if (temp == NOT_FOUND && proto != null) {
+                        temp = ScriptableObject.getProperty(proto, i);
+                    }
+                    if (temp != null && temp != Undefined.instance &&
+                        temp != Scriptable.NOT_FOUND)
+                    {
+                        sb.append(ScriptRuntime.toString(temp));
                     }
                 }
                 return sb.toString();
@@ -959,12 +1382,8 @@ public class NativeArray extends IdScriptableObject implements List
     {
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
-            if (na.denseOnly) {
-                for (int i=0, j=((int)na.length)-1; i < j; i++,j--) {
-                    Object temp = na.dense[i];
-                    na.dense[i] = na.dense[j];
-                    na.dense[j] = temp;
-                }
+            if (na.denseOnly && !na.denseHasHoles(0, (int) na.length)) {
+                na.denseReverse();
                 return thisObj;
             }
         }
@@ -1049,15 +1468,37 @@ public class NativeArray extends IdScriptableObject implements List
         // copy the JS array into a working array, so it can be
         // sorted cheaply.
         final Object[] working = new Object[length];
-        for (int i = 0; i != length; ++i) {
-            working[i] = getRawElem(thisObj, i);
+        NativeArray na = thisObj instanceof NativeArray
+                         ? (NativeArray) thisObj : null;
+        if (na != null && na.denseOnly) {
+            // holes read through the prototype, as getRawElem does
+            Scriptable proto = na.getPrototype();
+            for (int i = 0; i != length; ++i) {
+                Object val = na.denseGet(i);
+                if (val == NOT_FOUND && proto != null) {
+                    val = ScriptableObject.getProperty(proto, i);
+                }
+                working[i] = val;
+            }
+        } else {
+            for (int i = 0; i != length; ++i) {
+                working[i] = getRawElem(thisObj, i);
+            }
         }
 
         Arrays.sort(working, comparator);
 
         // copy the working array back into thisObj
-        for (int i = 0; i < length; ++i) {
-            setRawElem(cx, thisObj, i, working[i]);
+        if (na != null && na.denseOnly && length <= na.length
+            && !na.isSealed())
+        {
+            for (int i = 0; i < length; ++i) {
+                na.denseSet(i, working[i]);
+            }
+        } else {
+            for (int i = 0; i < length; ++i) {
+                setRawElem(cx, thisObj, i, working[i]);
+            }
         }
 
         return thisObj;
@@ -1072,7 +1513,8 @@ public class NativeArray extends IdScriptableObject implements List
                 na.ensureCapacity((int) na.length + args.length))
             {
                 for (int i = 0; i < args.length; i++) {
-                    na.dense[(int)na.length++] = args[i];
+                    na.denseSet((int) na.length, args[i]);
+                    na.length++;
                 }
                 return ScriptRuntime.wrapNumber(na.length);
             }
@@ -1106,10 +1548,15 @@ public class NativeArray extends IdScriptableObject implements List
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
             if (na.denseOnly && na.length > 0) {
-                na.length--;
-                result = na.dense[(int)na.length];
-                na.dense[(int)na.length] = NOT_FOUND;
-                return result;
+                int last = (int) na.length - 1;
+                result = na.denseGet(last);
+                Scriptable proto = na.getPrototype();
+                if (result == NOT_FOUND && proto != null) {
+                    result = ScriptableObject.getProperty(proto, last);
+                }
+                na.length = last;
+                na.denseClear(last, last + 1);
+                return result == NOT_FOUND ? Undefined.instance : result;
             }
         }
         long length = getLengthProperty(cx, thisObj);
@@ -1137,12 +1584,14 @@ public class NativeArray extends IdScriptableObject implements List
     {
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
-            if (na.denseOnly && na.length > 0) {
+            if (na.denseOnly && na.length > 0
+                && !na.denseHasHoles(0, (int) na.length))
+            {
+                Object result = na.denseGet(0);
+                na.denseCopy(1, 0, (int) na.length - 1);
                 na.length--;
-                Object result = na.dense[0];
-                System.arraycopy(na.dense, 1, na.dense, 0, (int)na.length);
-                na.dense[(int)na.length] = NOT_FOUND;
-                return result == NOT_FOUND ? Undefined.instance : result;
+                na.denseClear((int) na.length, (int) na.length + 1);
+                return result;
             }
         }
         Object result;
@@ -1179,15 +1628,14 @@ public class NativeArray extends IdScriptableObject implements List
     {
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
-            if (na.denseOnly &&
+            if (na.denseOnly && !na.denseHasHoles(0, (int) na.length) &&
                 na.ensureCapacity((int)na.length + args.length))
             {
-                System.arraycopy(na.dense, 0, na.dense, args.length,
-                                 (int) na.length);
+                na.denseCopy(0, args.length, (int) na.length);
+                na.length += args.length;
                 for (int i = 0; i < args.length; i++) {
-                    na.dense[i] = args[i];
+                    na.denseSet(i, args[i]);
                 }
-                na.length += args.length;
                 return ScriptRuntime.wrapNumber(na.length);
             }
         }
@@ -1217,10 +1665,8 @@ public class NativeArray extends IdScriptableObject implements List
                                     Scriptable thisObj, Object[] args)
     {
     	NativeArray na = null;
-    	boolean denseMode = false;
         if (thisObj instanceof NativeArray) {
             na = (NativeArray) thisObj;
-            denseMode = na.denseOnly;
         }
 
         /* create an empty Array to return. */
@@ -1252,6 +1698,11 @@ public class NativeArray extends IdScriptableObject implements List
 
         long end = begin + count;
 
+        // Missing elements that move or are removed are read through the
+        // prototype, which only the generic code does
+        boolean denseMode = na != null && na.denseOnly
+                            && !na.denseHasHoles((int) begin, (int) length);
+
         /* If there are elements to remove, put them into the return value. */
         Object result;
         if (count != 0) {
@@ -1274,7 +1725,9 @@ public class NativeArray extends IdScriptableObject implements List
             	if (denseMode) {
                     int intLen = (int) (end - begin);
                     Object[] copy = new Object[intLen];
-                    System.arraycopy(na.dense, (int) begin, copy, 0, intLen);
+                    for (int i = 0; i != intLen; ++i) {
+                        copy[i] = na.denseGet((int) begin + i);
+                    }
                     result = cx.newArray(scope, copy);
                 } else {
                     Scriptable resultArray = cx.newArray(scope, 0);
@@ -1303,16 +1756,15 @@ public class NativeArray extends IdScriptableObject implements List
         if (denseMode && length + delta < Integer.MAX_VALUE &&
             na.ensureCapacity((int) (length + delta)))
         {
-            System.arraycopy(na.dense, (int) end, na.dense,
-                             (int) (begin + argc), (int) (length - end));
-            if (argc > 0) {
-                System.arraycopy(args, 2, na.dense, (int) begin, argc);
-            }
+            na.denseCopy((int) end, (int) (begin + argc),
+                         (int) (length - end));
+            na.length = length + delta;
             if (delta < 0) {
-                Arrays.fill(na.dense, (int) (length + delta), (int) length,
-                            NOT_FOUND);
+                na.denseClear((int) (length + delta), (int) length);
+            }
+            for (int i = 0; i < argc; i++) {
+                na.denseSet((int) begin + i, args[i + 2]);
             }
-            na.length = length + delta;
             return result;
         }
 
@@ -1354,7 +1806,9 @@ public class NativeArray extends IdScriptableObject implements List
         if (thisObj instanceof NativeArray && result instanceof NativeArray) {
             NativeArray denseThis = (NativeArray) thisObj;
             NativeArray denseResult = (NativeArray) result;
-            if (denseThis.denseOnly && denseResult.denseOnly) {
+            if (denseThis.denseOnly && denseResult.denseOnly
+                && !denseThis.denseHasHoles(0, (int) denseThis.length))
+            {
                 // First calculate length of resulting array
                 boolean canUseDense = true;
                 int length = (int) denseThis.length;
@@ -1363,28 +1817,24 @@ public class NativeArray extends IdScriptableObject implements List
                         // only try to use dense approach for Array-like
                         // objects that are actually NativeArrays
                         final NativeArray arg = (NativeArray) args[i];
-                        canUseDense = arg.denseOnly;
+                        canUseDense = arg.denseOnly
+                            && !arg.denseHasHoles(0, (int) arg.length);
                         length += arg.length;
                     } else {
                         length++;
                     }
                 }
                 if (canUseDense && denseResult.ensureCapacity(length)) {
-                    System.arraycopy(denseThis.dense, 0, denseResult.dense,
-                                     0, (int) denseThis.length);
-                    int cursor = (int) denseThis.length;
+                    denseResult.denseAppend(denseThis);
                     for (int i = 0; i < args.length && canUseDense; i++) {
                         if (args[i] instanceof NativeArray) {
-                            NativeArray arg = (NativeArray) args[i];
-                            System.arraycopy(arg.dense, 0,
-                                    denseResult.dense, cursor,
-                                    (int)arg.length);
-                            cursor += (int)arg.length;
+                            denseResult.denseAppend((NativeArray) args[i]);
                         } else {
-                            denseResult.dense[cursor++] = args[i];
+                            denseResult.denseSet((int) denseResult.length,
+                                                 args[i]);
+                            denseResult.length++;
                         }
                     }
-                    denseResult.length = length;
                     return result;
                 }
             }
@@ -1453,6 +1903,14 @@ public class NativeArray extends IdScriptableObject implements List
             }
         }
 
+        if (thisObj instanceof NativeArray && result instanceof NativeArray
+            && ((NativeArray) thisObj).denseOnly && begin < end
+            && !((NativeArray) thisObj).denseHasHoles((int) begin, (int) end))
+        {
+            ((NativeArray) thisObj).denseSlice((NativeArray) result,
+                                               (int) begin, (int) end);
+            return result;
+        }
         for (long slot = begin; slot < end; slot++) {
             Object temp = getRawElem(thisObj, slot);
             if (temp != NOT_FOUND) {
@@ -1513,7 +1971,7 @@ public class NativeArray extends IdScriptableObject implements List
             if (na.denseOnly) {
                 Scriptable proto = na.getPrototype();
                 for (int i=(int)start; i < length; i++) {
-                    Object val = na.dense[i];
+                    Object val = na.denseGet(i);
                     if (val == NOT_FOUND && proto != null) {
                         val = ScriptableObject.getProperty(proto, i);
                     }
@@ -1568,7 +2026,7 @@ public class NativeArray extends IdScriptableObject implements List
             if (na.denseOnly) {
                 Scriptable proto = na.getPrototype();
                 for (int i=(int)start; i >= 0; i--) {
-                    Object val = na.dense[i];
+                    Object val = na.denseGet(i);
                     if (val == NOT_FOUND && proto != null) {
                         val = ScriptableObject.getProperty(proto, i);
                     }
@@ -1721,6 +2179,38 @@ public class NativeArray extends IdScriptableObject implements List
         return "Array".equals(((Scriptable)o).getClassName());
     }
 
+    /**
+     * Writes ints and doubles as the <code>dense</code> they stand for,
+     * as streams do not keep the bits of a NaN and HOLE is one.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        Object[] values = dense;
+        if (ints != null || doubles != null) {
+            values = new Object[capacity()];
+            for (int i = 0; i != values.length; ++i) {
+                values[i] = denseGet(i);
+            }
+        }
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("length", length);
+        fields.put("lengthAttr", lengthAttr);
+        fields.put("dense", values);
+        fields.put("denseOnly", denseOnly);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        if (denseOnly && dense != null) {
+            Object[] values = dense;
+            dense = null;
+            pack(values);
+        }
+    }
+
     // methods to implement java.util.List
 
     public boolean contains(Object o) {
@@ -2069,10 +2559,36 @@ public class NativeArray extends IdScriptableObject implements List
     private Object[] dense;
 
     /**
-     * True if all numeric properties are stored in <code>dense</code>.
+     * Fast storage for dense arrays of int32 numbers without missing
+     * elements, used instead of <code>dense</code>.
+     */
+    private transient int[] ints;
+
+    /**
+     * Fast storage for dense arrays of numbers, used instead of
+     * <code>dense</code>; missing elements are HOLE.
+     */
+    private transient double[] doubles;
+
+    /**
+     * True if all numeric properties are stored in <code>dense</code>,
+     * <code>ints</code> or <code>doubles</code>.
      */
     private boolean denseOnly;
 
+    /**
+     * The NaN that marks missing elements in <code>doubles</code>; NaN
+     * elements are stored as Double.NaN, whose bits differ.
+     */
+    private static final long HOLE_BITS = 0x7ff8000000000001L;
+    private static final double HOLE = Double.longBitsToDouble(HOLE_BITS);
+
+    /**
+     * How far past the end of the dense storage a store may be and still
+     * grow it, leaving the elements in between missing.
+     */
+    private static final int MAX_DENSE_GAP = 1024;
+
     /**
      * The maximum size of <code>dense</code> that will be allocated initially.
      */
@@ -204,6 +204,11 @@ final class NativeDate extends IdScriptableObject
         NativeDate realThis = (NativeDate)thisObj;
         double t = realThis.date;
 
+        if (Id_setTime <= id && id <= Id_setYear && realThis.isSealed()) {
+            throw Context.reportRuntimeError1("msg.modify.sealed.state",
+                                              f.getFunctionName());
+        }
+
         switch (id) {
 
           case Id_toString:
@@ -8,10 +8,9 @@ package org.mozilla.javascript;
 
 import org.mozilla.javascript.json.JsonParser;
 
-import java.util.Stack;
-import java.util.Collection;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.LinkedList;
 
@@ -199,13 +198,18 @@ public final class NativeJSON extends IdScriptableObject
             this.space = space;
         }
 
-        Stack<Scriptable> stack = new Stack<Scriptable>();
+        ArrayList<Scriptable> stack = new ArrayList<Scriptable>();
         String indent;
         String gap;
         Callable replacer;
         List<Object> propertyList;
         Object space;
 
+        // The whole text, written in one pass
+        StringBuilder out = new StringBuilder();
+        // Property names quoted before, as records repeat them
+        HashMap<String,String> quotedKeys = new HashMap<String,String>();
+
         Context cx;
         Scriptable scope;
     }
@@ -263,11 +267,19 @@ public final class NativeJSON extends IdScriptableObject
         wrapper.setParentScope(scope);
         wrapper.setPrototype(ScriptableObject.getObjectPrototype(scope));
         wrapper.defineProperty("", value, 0);
-        return str("", wrapper, state);
+        if (!str("", wrapper, state)) {
+            return Undefined.instance;
+        }
+        return state.out.toString();
     }
 
-    private static Object str(Object key, Scriptable holder,
-                              StringifyState state)
+    /*
+     * Write the value of property key of holder to state.out, and return
+     * true, or write nothing and return false if the value has no JSON
+     * text.
+     */
+    private static boolean str(Object key, Scriptable holder,
+                               StringifyState state)
     {
         Object value = null;
         if (key instanceof String) {
@@ -275,7 +287,12 @@ public final class NativeJSON extends IdScriptableObject
         } else {
             value = getProperty(holder, ((Number) key).intValue());
         }
+        return str(key, value, holder, state);
+    }
 
+    private static boolean str(Object key, Object value, Scriptable holder,
+                               StringifyState state)
+    {
         if (value instanceof Scriptable) {
             Object toJSON = getProperty((Scriptable) value, "toJSON");
             if (toJSON instanceof Callable) {
@@ -298,53 +315,68 @@ public final class NativeJSON extends IdScriptableObject
             value = ((NativeBoolean) value).getDefaultValue(ScriptRuntime.BooleanClass);
         }
 
-        if (value == null) return "null";
-        if (value.equals(Boolean.TRUE)) return "true";
-        if (value.equals(Boolean.FALSE)) return "false";
+        StringBuilder out = state.out;
+        if (value == null) {
+            out.append("null");
+            return true;
+        }
+        if (value instanceof Boolean) {
+            out.append(((Boolean) value).booleanValue() ? "true" : "false");
+            return true;
+        }
 
         if (value instanceof CharSequence) {
-            return quote(value.toString());
+            quote(out, value.toString());
+            return true;
         }
 
         if (value instanceof Number) {
+            if (value instanceof Integer) {
+                out.append(((Integer) value).intValue());
+                return true;
+            }
             double d = ((Number) value).doubleValue();
             if (d == d && d != Double.POSITIVE_INFINITY &&
                 d != Double.NEGATIVE_INFINITY)
             {
-                return ScriptRuntime.toString(value);
+                out.append(ScriptRuntime.toString(value));
             } else {
-                return "null";
+                out.append("null");
             }
+            return true;
         }
 
         if (value instanceof Scriptable && !(value instanceof Callable)) {
-            if (value instanceof NativeArray) {
-                return ja((NativeArray) value, state);
+            if (value instanceof NativeArray
+                || "Array".equals(((Scriptable) value).getClassName()))
+            {
+                ja((Scriptable) value, state);
+            } else {
+                jo((Scriptable) value, state);
             }
-            return jo((Scriptable) value, state);
+            return true;
         }
 
-        return Undefined.instance;
+        return false;
     }
 
-    private static String join(Collection<Object> objs, String delimiter) {
-        if (objs == null || objs.isEmpty()) {
-            return "";
-        }
-        Iterator<Object> iter = objs.iterator();
-        if (!iter.hasNext()) return "";
-        StringBuilder builder = new StringBuilder(iter.next().toString());
-        while (iter.hasNext()) {
-            builder.append(delimiter).append(iter.next().toString());
+    private static void enter(Scriptable value, StringifyState state) {
+        ArrayList<Scriptable> stack = state.stack;
+        for (int i = stack.size(); i-- != 0; ) {
+            if (stack.get(i) == value) {
+                throw ScriptRuntime.typeError0("msg.cyclic.value");
+            }
         }
-        return builder.toString();
+        stack.add(value);
     }
 
-    private static String jo(Scriptable value, StringifyState state) {
-        if (state.stack.search(value) != -1) {
-            throw ScriptRuntime.typeError0("msg.cyclic.value");
-        }
-        state.stack.push(value);
+    // Start a member of an object or array whose members are indented
+    private static void newLine(StringifyState state) {
+        state.out.append('\n').append(state.indent);
+    }
+
+    private static void jo(Scriptable value, StringifyState state) {
+        enter(value, state);
 
         String stepback = state.indent;
         state.indent = state.indent + state.gap;
@@ -355,90 +387,101 @@ public final class NativeJSON extends IdScriptableObject
             k = value.getIds();
         }
 
-        List<Object> partial = new LinkedList<Object>();
-
+        StringBuilder out = state.out;
+        boolean indented = state.gap.length() > 0;
+        boolean empty = true;
+        out.append('{');
         for (Object p : k) {
-            Object strP = str(p, value, state);
-            if (strP != Undefined.instance) {
-                String member = quote(p.toString()) + ":";
-                if (state.gap.length() > 0) {
-                    member = member + " ";
-                }
-                member = member + strP;
-                partial.add(member);
+            int mark = out.length();
+            if (!empty) {
+                out.append(',');
             }
-        }
-
-        final String finalValue;
-
-        if (partial.isEmpty()) {
-            finalValue = "{}";
-        } else {
-            if (state.gap.length() == 0) {
-                finalValue = '{' + join(partial, ",") + '}';
+            if (indented) {
+                newLine(state);
+            }
+            String name = p.toString();
+            String quoted = state.quotedKeys.get(name);
+            if (quoted == null) {
+                StringBuilder b = new StringBuilder(name.length() + 2);
+                quote(b, name);
+                quoted = b.toString();
+                state.quotedKeys.put(name, quoted);
+            }
+            out.append(quoted).append(':');
+            if (indented) {
+                out.append(' ');
+            }
+            if (str(p, value, state)) {
+                empty = false;
             } else {
-                String separator = ",\n" + state.indent;
-                String properties = join(partial, separator);
-                finalValue = "{\n" + state.indent + properties + '\n' +
-                    stepback + '}';
+                out.setLength(mark);
             }
         }
 
-        state.stack.pop();
+        state.stack.remove(state.stack.size() - 1);
         state.indent = stepback;
-        return finalValue;
+        if (!empty && indented) {
+            newLine(state);
+        }
+        out.append('}');
     }
 
-    private static String ja(NativeArray value, StringifyState state) {
-        if (state.stack.search(value) != -1) {
-            throw ScriptRuntime.typeError0("msg.cyclic.value");
-        }
-        state.stack.push(value);
+    private static void ja(Scriptable value, StringifyState state) {
+        enter(value, state);
 
         String stepback = state.indent;
         state.indent = state.indent + state.gap;
-        List<Object> partial = new LinkedList<Object>();
 
-        long len = value.getLength();
+        StringBuilder out = state.out;
+        boolean indented = state.gap.length() > 0;
+        out.append('[');
+        NativeArray dense = value instanceof NativeArray
+                            ? (NativeArray) value : null;
+        long len = dense != null ? dense.getLength()
+                   : ScriptRuntime.toUint32(getProperty(value, "length"));
         for (long index = 0; index < len; index++) {
-            Object strP;
-            if (index > Integer.MAX_VALUE) {
-                strP = str(Long.toString(index), value, state);
-            } else {
-                strP = str((int) index, value, state);
+            if (index != 0) {
+                out.append(',');
             }
-            if (strP == Undefined.instance) {
-                partial.add("null");
-            } else {
-                partial.add(strP);
+            if (indented) {
+                newLine(state);
             }
-        }
-
-        final String finalValue;
-
-        if (partial.isEmpty()) {
-            finalValue = "[]";
-        } else {
-            if (state.gap.length() == 0) {
-                finalValue = '[' + join(partial, ",") + ']';
+            boolean written;
+            if (index > Integer.MAX_VALUE) {
+                written = str(Long.toString(index), value, state);
+            } else if (dense != null) {
+                // Read dense arrays without looking up each element
+                Object element = dense.getDenseElement((int) index);
+                written = element != NOT_FOUND
+                          ? str((int) index, element, value, state)
+                          : str((int) index, value, state);
             } else {
-                String separator = ",\n" + state.indent;
-                String properties = join(partial, separator);
-                finalValue = "[\n" + state.indent + properties + '\n' + stepback + ']';
+                written = str((int) index, value, state);
+            }
+            if (!written) {
+                out.append("null");
             }
         }
 
-        state.stack.pop();
+        state.stack.remove(state.stack.size() - 1);
         state.indent = stepback;
-        return finalValue;
+        if (len != 0 && indented) {
+            newLine(state);
+        }
+        out.append(']');
     }
 
-    private static String quote(String string) {
-        StringBuilder product = new StringBuilder(string.length()+2); // two extra chars for " on either side
+    private static void quote(StringBuilder product, String string) {
         product.append('"');
         int length = string.length();
+        int start = 0;
         for (int i = 0; i < length; i++) {
             char c = string.charAt(i);
+            if (c >= ' ' && c != '"' && c != '\\') {
+                continue;
+            }
+            product.append(string, start, i);
+            start = i + 1;
             switch (c) {
                 case '"':
                     product.append("\\\"");
@@ -462,19 +505,14 @@ public final class NativeJSON extends IdScriptableObject
                     product.append("\\t");
                     break;
                 default:
-                    if (c < ' ') {
-                        product.append("\\u");
-                        String hex = String.format("%04x", (int) c);
-                        product.append(hex);
-                    }
-                    else {
-                        product.append(c);
-                    }
+                    product.append("\\u");
+                    String hex = String.format("%04x", (int) c);
+                    product.append(hex);
                     break;
             }
         }
+        product.append(string, start, length);
         product.append('"');
-        return product.toString();
     }
 
 // #string_id_map#
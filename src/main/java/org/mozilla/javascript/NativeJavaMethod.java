@@ -8,7 +8,6 @@ package org.mozilla.javascript;
 
 import java.lang.reflect.*;
 import java.util.Arrays;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This class reflects Java methods into the JavaScript environment and
@@ -250,29 +249,65 @@ public class NativeJavaMethod extends BaseFunction
 
     int findCachedFunction(Context cx, Object[] args) {
         if (methods.length > 1) {
-            if (overloadCache != null) {
-                for (ResolvedOverload ovl : overloadCache) {
-                    if (ovl.matches(args)) {
+            ResolvedOverload[] table = overloadTable;
+            int hash = ResolvedOverload.hash(args);
+            if (table != null) {
+                int mask = table.length - 1;
+                for (int i = hash & mask; table[i] != null;
+                     i = (i + 1) & mask)
+                {
+                    ResolvedOverload ovl = table[i];
+                    if (ovl.hash == hash && ovl.matches(args)) {
                         return ovl.index;
                     }
                 }
-            } else {
-                overloadCache = new CopyOnWriteArrayList<ResolvedOverload>();
             }
             int index = findFunction(cx, methods, args);
-            // As a sanity measure, don't let the lookup cache grow longer
-            // than twice the number of overloaded methods
-            if (overloadCache.size() < methods.length * 2) {
-                synchronized (overloadCache) {
-                    ResolvedOverload ovl = new ResolvedOverload(args, index);
-                    if (!overloadCache.contains(ovl)) {
-                        overloadCache.add(0, ovl);
+            addResolvedOverload(new ResolvedOverload(args, index, hash));
+            return index;
+        }
+        return findFunction(cx, methods, args);
+    }
+
+    // The table of resolved overloads is an open-addressed hash table of
+    // argument type vectors, replaced and never modified once published.
+    private synchronized void addResolvedOverload(ResolvedOverload ovl)
+    {
+        ResolvedOverload[] table = overloadTable;
+        // As a sanity measure, don't let the lookup cache grow larger
+        // than twice the number of overloaded methods
+        if (overloadCount >= methods.length * 2) {
+            return;
+        }
+        int capacity = 8;
+        while (capacity < (overloadCount + 1) * 2) {
+            capacity <<= 1;
+        }
+        ResolvedOverload[] grown = new ResolvedOverload[capacity];
+        if (table != null) {
+            for (ResolvedOverload old : table) {
+                if (old != null) {
+                    if (old.equals(ovl)) {
+                        return;
                     }
+                    insertResolvedOverload(grown, old);
                 }
             }
-            return index;
         }
-        return findFunction(cx, methods, args);
+        insertResolvedOverload(grown, ovl);
+        ++overloadCount;
+        overloadTable = grown;
+    }
+
+    private static void insertResolvedOverload(ResolvedOverload[] table,
+                                               ResolvedOverload ovl)
+    {
+        int mask = table.length - 1;
+        int i = ovl.hash & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = ovl;
     }
 
     /**
@@ -557,15 +592,18 @@ public class NativeJavaMethod extends BaseFunction
 
     MemberBox[] methods;
     private String functionName;
-    private transient CopyOnWriteArrayList<ResolvedOverload> overloadCache;
+    private transient volatile ResolvedOverload[] overloadTable;
+    private transient int overloadCount;
 }
 
 class ResolvedOverload {
     final Class<?>[] types;
     final int index;
+    final int hash;
 
-    ResolvedOverload(Object[] args, int index) {
+    ResolvedOverload(Object[] args, int index, int hash) {
         this.index = index;
+        this.hash = hash;
         types = new Class<?>[args.length];
         for (int i = 0, l = args.length; i < l; i++) {
             Object arg = args[i];
@@ -575,6 +613,21 @@ class ResolvedOverload {
         }
     }
 
+    /**
+     * Hash of the argument type vector of <code>args</code>, equal for
+     * arguments that {@link #matches(Object[])} the same overloads.
+     */
+    static int hash(Object[] args) {
+        int h = args.length;
+        for (int i = 0, l = args.length; i < l; i++) {
+            Object arg = args[i];
+            if (arg instanceof Wrapper)
+                arg = ((Wrapper)arg).unwrap();
+            h = 31 * h + (arg == null ? 0 : arg.getClass().hashCode());
+        }
+        return h ^ (h >>> 16);
+    }
+
     boolean matches(Object[] args) {
         if (args.length != types.length) {
             return false;
@@ -603,6 +656,6 @@ class ResolvedOverload {
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(types);
+        return hash;
     }
 }
@@ -131,6 +131,10 @@ class NativeScript extends BaseFunction
 
           case Id_compile: {
             NativeScript real = realThis(thisObj, f);
+            if (real.isSealed()) {
+                throw Context.reportRuntimeError1("msg.modify.sealed.state",
+                                                  "compile");
+            }
             String source = ScriptRuntime.toString(args, 0);
             real.script = compile(cx, source);
             return real;
@@ -0,0 +1,80 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.util.HashSet;
+
+/**
+ * The property names of a kind of plain object, such as the records a
+ * JSON text repeats.
+ * <p>
+ * {@link #newObject} fills an object's slot table in one step, instead of
+ * a property at a time, and gives it the {@link Shape} of objects that
+ * were given the same properties in the same order, so scripts reading
+ * the objects hit the same property caches.
+ */
+public final class ObjectTemplate
+{
+    private final String[] names;
+    private final Shape shape;
+
+    /**
+     * @param names the names of the properties, in order
+     * @throws IllegalArgumentException if a name is repeated or is an
+     *         array index
+     */
+    public ObjectTemplate(String[] names)
+    {
+        HashSet<String> seen = new HashSet<String>();
+        Shape s = Shape.EMPTY;
+        for (String name : names) {
+            if (!seen.add(name) || ScriptRuntime.indexFromString(name) >= 0) {
+                throw new IllegalArgumentException(name);
+            }
+            if (s != null) {
+                s = s.addProperty(name);
+            }
+        }
+        this.names = names.clone();
+        this.shape = s;
+    }
+
+    /**
+     * Returns the number of properties of the objects.
+     */
+    public int getPropertyCount()
+    {
+        return names.length;
+    }
+
+    /**
+     * Returns the name of property <code>index</code>.
+     */
+    public String getPropertyName(int index)
+    {
+        return names[index];
+    }
+
+    /**
+     * Creates a plain object, like {@link Context#newObject(Scriptable)},
+     * whose properties have the given values.
+     *
+     * @param values the values of the properties, in order; only the
+     *        first {@link #getPropertyCount()} are used
+     */
+    public Scriptable newObject(Context cx, Scriptable scope, Object[] values)
+    {
+        if (values.length < names.length) {
+            throw new IllegalArgumentException();
+        }
+        NativeObject result = new NativeObject();
+        ScriptRuntime.setBuiltinProtoAndParent(result, scope,
+                                               TopLevel.Builtins.Object);
+        result.initSlots(shape, names, values);
+        return result;
+    }
+}
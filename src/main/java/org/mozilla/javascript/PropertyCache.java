@@ -0,0 +1,306 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+/**
+ * A polymorphic inline cache for one named property access site.
+ *
+ * <p>The cache remembers up to {@link #MAX_ENTRIES} receiver shapes (see
+ * {@link Shape}) seen at the site, and where the property was found for
+ * each: in the receiver itself or in its immediate prototype. A later
+ * access on an object with a remembered class and shape reads the slot by
+ * position instead of walking the hash table and the prototype chain. Any
+ * access the cache cannot prove equivalent goes through the ordinary
+ * lookup in {@link ScriptRuntime}.</p>
+ *
+ * <p>Entries hold classes and shapes, never the objects themselves, so a
+ * cache does not keep scripts' data alive. Caches are safe to share between
+ * threads running the same compiled code.</p>
+ */
+public final class PropertyCache
+{
+    static final int MAX_ENTRIES = 4;
+
+    // get(String, Scriptable) looks at the slot table before anything else
+    private static final int SLOT_FIRST = 1;
+    // get, put and has do nothing but the slot table and prototype values
+    private static final int PLAIN = 2;
+
+    private static final ClassValue<Integer> CLASS_KINDS =
+        new ClassValue<Integer>() {
+            @Override
+            protected Integer computeValue(Class<?> type)
+            {
+                return Integer.valueOf(classifyClass(type));
+            }
+        };
+
+    static final class Entry
+    {
+        final Class<?> receiverClass;
+        final Shape receiverShape;
+        // null when the property is an own property of the receiver
+        final Class<?> holderClass;
+        final Shape holderShape;
+        final int index;
+
+        Entry(Class<?> receiverClass, Shape receiverShape,
+              Class<?> holderClass, Shape holderShape, int index)
+        {
+            this.receiverClass = receiverClass;
+            this.receiverShape = receiverShape;
+            this.holderClass = holderClass;
+            this.holderShape = holderShape;
+            this.index = index;
+        }
+
+        /**
+         * Returns the object whose slot holds the property if
+         * <code>obj</code> matches this entry, or null.
+         */
+        ScriptableObject holderOf(Object obj)
+        {
+            if (obj == null || obj.getClass() != receiverClass) {
+                return null;
+            }
+            ScriptableObject so = (ScriptableObject) obj;
+            if (so.getShape() != receiverShape) {
+                return null;
+            }
+            if (holderClass == null) {
+                return so;
+            }
+            if (hasPrototypeValues(so)) {
+                return null;
+            }
+            Scriptable proto = so.getPrototype();
+            if (proto == null || proto.getClass() != holderClass) {
+                return null;
+            }
+            ScriptableObject holder = (ScriptableObject) proto;
+            if (holder.getShape() != holderShape) {
+                return null;
+            }
+            return holder;
+        }
+
+        /**
+         * Returns the value of the property of <code>obj</code>, or
+         * NOT_FOUND if <code>obj</code> does not match this entry.
+         */
+        Object getValue(Object obj)
+        {
+            ScriptableObject holder = holderOf(obj);
+            if (holder == null) {
+                return Scriptable.NOT_FOUND;
+            }
+            return holder.getShapeSlotValue(index, (Scriptable) obj);
+        }
+
+        /**
+         * Stores <code>value</code> in the own property of <code>obj</code>
+         * and returns true, or returns false if this entry can not.
+         */
+        boolean putValue(Object obj, Object value)
+        {
+            if (holderClass != null || obj == null
+                || obj.getClass() != receiverClass)
+            {
+                return false;
+            }
+            ScriptableObject so = (ScriptableObject) obj;
+            return so.getShape() == receiverShape
+                   && !hasPrototypeValues(so)
+                   && so.putShapeSlotValue(index, value);
+        }
+    }
+
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    private volatile Entry[] entries = NO_ENTRIES;
+
+    public PropertyCache()
+    {
+    }
+
+    /**
+     * Returns the cached value of the property of <code>obj</code>, or
+     * NOT_FOUND if this cache does not know where to find it.
+     */
+    Object get(Object obj)
+    {
+        Entry[] e = entries;
+        for (int i = 0; i != e.length; ++i) {
+            Object value = e[i].getValue(obj);
+            if (value != Scriptable.NOT_FOUND) {
+                return value;
+            }
+        }
+        return Scriptable.NOT_FOUND;
+    }
+
+    /**
+     * Stores <code>value</code> in the property of <code>obj</code> if it
+     * is a cached own data property, and returns true if it did.
+     */
+    boolean put(Object obj, Object value)
+    {
+        Entry[] e = entries;
+        for (int i = 0; i != e.length; ++i) {
+            if (e[i].putValue(obj, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the entries of the cache. The array is replaced, never
+     * modified, when an entry is added.
+     */
+    Entry[] getEntries()
+    {
+        return entries;
+    }
+
+    /**
+     * Records where a completed lookup of <code>name</code> on
+     * <code>obj</code> found the property, if the cache can serve it.
+     */
+    void learnGet(Object obj, String name)
+    {
+        if (!(obj instanceof ScriptableObject) || isFull()) {
+            return;
+        }
+        ScriptableObject so = (ScriptableObject) obj;
+        Shape shape = so.getShape();
+        if (shape == null) {
+            return;
+        }
+        int kind = kindOf(so.getClass());
+        if ((kind & SLOT_FIRST) == 0) {
+            return;
+        }
+        int index = shape.indexOf(name);
+        if (index >= 0) {
+            add(new Entry(so.getClass(), shape, null, null, index));
+            return;
+        }
+        if ((kind & PLAIN) == 0 || hasPrototypeValues(so)) {
+            return;
+        }
+        Scriptable proto = so.getPrototype();
+        if (!(proto instanceof ScriptableObject)
+            || (kindOf(proto.getClass()) & SLOT_FIRST) == 0)
+        {
+            return;
+        }
+        Shape holderShape = ((ScriptableObject) proto).getShape();
+        if (holderShape == null) {
+            return;
+        }
+        index = holderShape.indexOf(name);
+        if (index >= 0) {
+            add(new Entry(so.getClass(), shape,
+                          proto.getClass(), holderShape, index));
+        }
+    }
+
+    /**
+     * Records the position of own property <code>name</code> of
+     * <code>obj</code> after a completed assignment.
+     */
+    void learnPut(Object obj, String name)
+    {
+        if (!(obj instanceof ScriptableObject) || isFull()) {
+            return;
+        }
+        ScriptableObject so = (ScriptableObject) obj;
+        Shape shape = so.getShape();
+        if (shape == null || (kindOf(so.getClass()) & PLAIN) == 0
+            || hasPrototypeValues(so))
+        {
+            return;
+        }
+        int index = shape.indexOf(name);
+        if (index >= 0) {
+            add(new Entry(so.getClass(), shape, null, null, index));
+        }
+    }
+
+    private boolean isFull()
+    {
+        return entries.length >= MAX_ENTRIES;
+    }
+
+    private synchronized void add(Entry entry)
+    {
+        Entry[] e = entries;
+        if (e.length >= MAX_ENTRIES) {
+            return;
+        }
+        for (int i = 0; i != e.length; ++i) {
+            if (e[i].receiverShape == entry.receiverShape
+                && e[i].receiverClass == entry.receiverClass)
+            {
+                return;
+            }
+        }
+        Entry[] grown = new Entry[e.length + 1];
+        System.arraycopy(e, 0, grown, 0, e.length);
+        grown[e.length] = entry;
+        entries = grown;
+    }
+
+    private static boolean hasPrototypeValues(ScriptableObject obj)
+    {
+        return obj instanceof IdScriptableObject
+               && ((IdScriptableObject) obj).hasPrototypeMap();
+    }
+
+    private static int kindOf(Class<?> type)
+    {
+        return CLASS_KINDS.get(type).intValue();
+    }
+
+    private static int classifyClass(Class<?> type)
+    {
+        int kind = 0;
+        if (isBaseMethod(type, "get", String.class, Scriptable.class)) {
+            kind |= SLOT_FIRST;
+            if (isBaseMethod(type, "put", String.class, Scriptable.class,
+                             Object.class)
+                && isBaseMethod(type, "has", String.class, Scriptable.class)
+                && (!IdScriptableObject.class.isAssignableFrom(type)
+                    || isBaseMethod(type, "findInstanceIdInfo",
+                                    String.class)))
+            {
+                kind |= PLAIN;
+            }
+        }
+        return kind;
+    }
+
+    // Whether the most derived declaration of the method is the one in
+    // ScriptableObject or IdScriptableObject.
+    private static boolean isBaseMethod(Class<?> type, String name,
+                                        Class<?>... params)
+    {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod(name, params);
+            } catch (NoSuchMethodException ex) {
+                continue;
+            } catch (SecurityException ex) {
+                return false;
+            }
+            return c == ScriptableObject.class
+                   || c == IdScriptableObject.class;
+        }
+        return false;
+    }
+}
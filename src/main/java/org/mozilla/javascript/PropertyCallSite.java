@@ -0,0 +1,313 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+
+/**
+ * An invokedynamic call site for a named property access in compiled
+ * scripts.
+ * <p>
+ * The optimizer links <code>obj.name</code>, <code>obj.name = value</code>
+ * and the function lookup of <code>obj.name(...)</code> through
+ * {@link #bootstrap}. Each site starts out with the ordinary lookup in
+ * {@link ScriptRuntime}, which fills a {@link PropertyCache} of its own.
+ * Whenever that cache learns a receiver shape, the site relinks to a chain
+ * of guards, one per remembered shape, that read or write the slot
+ * directly; only receivers no guard accepts take the ordinary lookup.
+ * Function lookups on Java objects are guarded by the object's
+ * {@link JavaMembers} and return the {@link NativeJavaMethod} found before.
+ * <p>
+ * The chain holds no script objects, only classes, shapes and members of
+ * Java classes, so it does not keep scripts' data alive.
+ */
+public final class PropertyCallSite extends MutableCallSite
+{
+    private static final int GET = 0;
+    private static final int GET_NOWARN = 1;
+    private static final int SET = 2;
+    private static final int GET_FUNCTION = 3;
+
+    private static final int MAX_JAVA_ENTRIES = 4;
+
+    private static final MethodHandle GET_FALLBACK;
+    private static final MethodHandle SET_FALLBACK;
+    private static final MethodHandle GET_FUNCTION_FALLBACK;
+    private static final MethodHandle MATCHES;
+    private static final MethodHandle MATCHES_OWN;
+    private static final MethodHandle GET_HIT;
+    private static final MethodHandle SET_HIT;
+    private static final MethodHandle GET_FUNCTION_HIT;
+    private static final MethodHandle MATCHES_JAVA;
+    private static final MethodHandle GET_JAVA_METHOD;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            MethodType getSite = MethodType.methodType(Object.class,
+                Object.class, Context.class, Scriptable.class);
+            MethodType setSite = MethodType.methodType(Object.class,
+                Object.class, Object.class, Context.class, Scriptable.class);
+            GET_FALLBACK = lookup.findVirtual(PropertyCallSite.class,
+                "getFallback", getSite);
+            SET_FALLBACK = lookup.findVirtual(PropertyCallSite.class,
+                "setFallback", setSite);
+            GET_FUNCTION_FALLBACK = lookup.findVirtual(PropertyCallSite.class,
+                "getFunctionFallback", getSite.changeReturnType(Callable.class));
+
+            MATCHES = lookup.findStatic(PropertyCallSite.class, "matches",
+                MethodType.methodType(boolean.class,
+                    PropertyCache.Entry.class, Object.class));
+            MATCHES_OWN = lookup.findStatic(PropertyCallSite.class,
+                "matchesOwn", MethodType.methodType(boolean.class,
+                    PropertyCache.Entry.class, Object.class));
+            GET_HIT = lookup.findStatic(PropertyCallSite.class, "getHit",
+                getSite.insertParameterTypes(0, PropertyCache.Entry.class,
+                                             PropertyCallSite.class));
+            SET_HIT = lookup.findStatic(PropertyCallSite.class, "setHit",
+                setSite.insertParameterTypes(0, PropertyCache.Entry.class,
+                                             PropertyCallSite.class));
+            GET_FUNCTION_HIT = lookup.findStatic(PropertyCallSite.class,
+                "getFunctionHit", getSite.changeReturnType(Callable.class)
+                    .insertParameterTypes(0, PropertyCache.Entry.class,
+                                          PropertyCallSite.class));
+            MATCHES_JAVA = lookup.findStatic(PropertyCallSite.class,
+                "matchesJava", MethodType.methodType(boolean.class,
+                    JavaMembers.class, Object.class));
+            GET_JAVA_METHOD = lookup.findStatic(PropertyCallSite.class,
+                "getJavaMethod", MethodType.methodType(Callable.class,
+                    NativeJavaMethod.class, Object.class, Context.class));
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private final int operation;
+    private final String name;
+    private final PropertyCache cache = new PropertyCache();
+
+    // The cache entries and Java members the current target was built from
+    private volatile PropertyCache.Entry[] linkedEntries;
+    private volatile JavaMembers[] javaMembers = new JavaMembers[0];
+    private volatile NativeJavaMethod[] javaMethods = new NativeJavaMethod[0];
+
+    private PropertyCallSite(MethodType type, int operation, String name)
+    {
+        super(type);
+        this.operation = operation;
+        this.name = name;
+        this.linkedEntries = cache.getEntries();
+        setTarget(fallback());
+    }
+
+    /**
+     * The bootstrap method of property access sites in compiled scripts.
+     *
+     * @param operation one of "getProp", "getPropNoWarn", "setProp" or
+     *        "getPropFunctionAndThis"
+     * @param type (Object, Context, Scriptable)Object for the get
+     *        operations, (Object, Object, Context, Scriptable)Object for
+     *        setProp and (Object, Context, Scriptable)Callable for
+     *        getPropFunctionAndThis
+     * @param name the name of the property
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup lookup,
+                                     String operation, MethodType type,
+                                     String name)
+    {
+        int op;
+        if (operation.equals("getProp")) {
+            op = GET;
+        } else if (operation.equals("getPropNoWarn")) {
+            op = GET_NOWARN;
+        } else if (operation.equals("setProp")) {
+            op = SET;
+        } else if (operation.equals("getPropFunctionAndThis")) {
+            op = GET_FUNCTION;
+        } else {
+            throw new IllegalArgumentException(operation);
+        }
+        return new PropertyCallSite(type, op, name);
+    }
+
+    private MethodHandle fallback()
+    {
+        switch (operation) {
+          case SET:
+            return SET_FALLBACK.bindTo(this);
+          case GET_FUNCTION:
+            return GET_FUNCTION_FALLBACK.bindTo(this);
+          default:
+            return GET_FALLBACK.bindTo(this);
+        }
+    }
+
+    // Build the guard chain for the cache entries and Java methods known
+    private void relink(PropertyCache.Entry[] entries)
+    {
+        linkedEntries = entries;
+        MethodHandle chain = fallback();
+        MethodType type = type();
+        JavaMembers[] members = javaMembers;
+        NativeJavaMethod[] methods = javaMethods;
+        for (int i = members.length; i-- != 0; ) {
+            MethodHandle test = MethodHandles.dropArguments(
+                MATCHES_JAVA.bindTo(members[i]), 1,
+                type.parameterList().subList(1, type.parameterCount()));
+            MethodHandle hit = MethodHandles.dropArguments(
+                MethodHandles.insertArguments(GET_JAVA_METHOD, 0, methods[i]),
+                2, Scriptable.class);
+            chain = MethodHandles.guardWithTest(test, hit, chain);
+        }
+        for (int i = entries.length; i-- != 0; ) {
+            PropertyCache.Entry entry = entries[i];
+            MethodHandle test = MethodHandles.dropArguments(
+                (operation == SET ? MATCHES_OWN : MATCHES).bindTo(entry), 1,
+                type.parameterList().subList(1, type.parameterCount()));
+            MethodHandle hit;
+            switch (operation) {
+              case SET:
+                hit = SET_HIT;
+                break;
+              case GET_FUNCTION:
+                hit = GET_FUNCTION_HIT;
+                break;
+              default:
+                hit = GET_HIT;
+                break;
+            }
+            hit = MethodHandles.insertArguments(hit, 0, entry, this);
+            chain = MethodHandles.guardWithTest(test, hit, chain);
+        }
+        setTarget(chain);
+    }
+
+    private void checkLinkage()
+    {
+        PropertyCache.Entry[] entries = cache.getEntries();
+        if (entries != linkedEntries) {
+            relink(entries);
+        }
+    }
+
+    private Object getFallback(Object obj, Context cx, Scriptable scope)
+    {
+        Object result = operation == GET_NOWARN
+            ? ScriptRuntime.getObjectPropNoWarn(obj, name, cx, scope, cache)
+            : ScriptRuntime.getObjectProp(obj, name, cx, scope, cache);
+        checkLinkage();
+        return result;
+    }
+
+    private Object setFallback(Object obj, Object value, Context cx,
+                               Scriptable scope)
+    {
+        ScriptRuntime.setObjectProp(obj, name, value, cx, scope, cache);
+        checkLinkage();
+        return value;
+    }
+
+    private Callable getFunctionFallback(Object obj, Context cx,
+                                         Scriptable scope)
+    {
+        Callable f = ScriptRuntime.getPropFunctionAndThis(obj, name, cx,
+                                                          scope, cache);
+        if (f instanceof NativeJavaMethod
+            && obj != null && obj.getClass() == NativeJavaObject.class)
+        {
+            learnJavaMethod(((NativeJavaObject) obj).members,
+                            (NativeJavaMethod) f);
+        }
+        checkLinkage();
+        return f;
+    }
+
+    private synchronized void learnJavaMethod(JavaMembers members,
+                                              NativeJavaMethod method)
+    {
+        JavaMembers[] m = javaMembers;
+        if (members == null || m.length >= MAX_JAVA_ENTRIES) {
+            return;
+        }
+        for (int i = 0; i != m.length; ++i) {
+            if (m[i] == members) {
+                return;
+            }
+        }
+        JavaMembers[] grownMembers = new JavaMembers[m.length + 1];
+        System.arraycopy(m, 0, grownMembers, 0, m.length);
+        grownMembers[m.length] = members;
+        NativeJavaMethod[] grownMethods = new NativeJavaMethod[m.length + 1];
+        System.arraycopy(javaMethods, 0, grownMethods, 0, m.length);
+        grownMethods[m.length] = method;
+        javaMethods = grownMethods;
+        javaMembers = grownMembers;
+        relink(cache.getEntries());
+    }
+
+    private static boolean matches(PropertyCache.Entry entry, Object obj)
+    {
+        return entry.holderOf(obj) != null;
+    }
+
+    private static boolean matchesOwn(PropertyCache.Entry entry, Object obj)
+    {
+        return entry.holderOf(obj) == obj;
+    }
+
+    private static Object getHit(PropertyCache.Entry entry,
+                                 PropertyCallSite site, Object obj,
+                                 Context cx, Scriptable scope)
+    {
+        Object value = entry.getValue(obj);
+        if (value != Scriptable.NOT_FOUND) {
+            return value;
+        }
+        return site.getFallback(obj, cx, scope);
+    }
+
+    private static Object setHit(PropertyCache.Entry entry,
+                                 PropertyCallSite site, Object obj,
+                                 Object value, Context cx, Scriptable scope)
+    {
+        if (entry.putValue(obj, value)) {
+            return value;
+        }
+        return site.setFallback(obj, value, cx, scope);
+    }
+
+    private static Callable getFunctionHit(PropertyCache.Entry entry,
+                                           PropertyCallSite site, Object obj,
+                                           Context cx, Scriptable scope)
+    {
+        Object value = entry.getValue(obj);
+        if (value instanceof Callable) {
+            ScriptRuntime.storeScriptable(cx, (Scriptable) obj);
+            return (Callable) value;
+        }
+        return site.getFunctionFallback(obj, cx, scope);
+    }
+
+    // A NativeJavaObject finds a method by its members alone, so objects
+    // sharing the members find the same method
+    private static boolean matchesJava(JavaMembers members, Object obj)
+    {
+        return obj != null && obj.getClass() == NativeJavaObject.class
+               && ((NativeJavaObject) obj).members == members;
+    }
+
+    private static Callable getJavaMethod(NativeJavaMethod method,
+                                          Object obj, Context cx)
+    {
+        ScriptRuntime.storeScriptable(cx, (Scriptable) obj);
+        return method;
+    }
+}
@@ -0,0 +1,168 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+/**
+ * A cache of compiled scripts, installed with
+ * {@link ContextFactory#setScriptCache(ScriptCache)}.
+ * <p>
+ * {@link Context#compileString(String, String, int, Object)} and
+ * {@link Context#compileReader(java.io.Reader, String, int, Object)} look
+ * compiled scripts up in the cache of the context's factory before parsing.
+ * A script is only reused for exactly the same source, source name, line
+ * number and security domain, compiled with the same language version,
+ * optimization level and compiler features. Compilations that install a
+ * debugger or declare activation names bypass the cache.
+ * <p>
+ * Warnings are reported only when a script is actually compiled, not when
+ * it is served from the cache.
+ *
+ * @see LruScriptCache
+ */
+public interface ScriptCache
+{
+    /**
+     * Compiles a script on a cache miss.
+     */
+    public interface Compilation
+    {
+        Script compile();
+    }
+
+    /**
+     * Return the script cached for <code>key</code>, or compile it with
+     * <code>compilation</code> and cache it. Errors of the compilation
+     * propagate to the caller and are not cached.
+     */
+    public Script get(Key key, Compilation compilation);
+
+    /**
+     * Remove every cached script.
+     */
+    public void clear();
+
+    /**
+     * Identity of a compiled script: its source and everything that
+     * changes the code the compiler makes from it.
+     */
+    public static final class Key
+    {
+        private final String source;
+        private final String sourceName;
+        private final int lineno;
+        private final Object securityDomain;
+        private final int languageVersion;
+        private final int optimizationLevel;
+        private final int features;
+        private final int hash;
+
+        Key(String source, String sourceName, int lineno,
+            Object securityDomain, Context cx, CompilerEnvirons compilerEnv)
+        {
+            this.source = source;
+            this.sourceName = sourceName;
+            this.lineno = lineno;
+            this.securityDomain = securityDomain;
+            this.languageVersion = compilerEnv.getLanguageVersion();
+            this.optimizationLevel = compilerEnv.getOptimizationLevel();
+            this.features = (compilerEnv.isGenerateDebugInfo() ? 1 : 0)
+                | (compilerEnv.isReservedKeywordAsIdentifier() ? 2 : 0)
+                | (compilerEnv.isAllowMemberExprAsFunctionName() ? 4 : 0)
+                | (compilerEnv.isXmlAvailable() ? 8 : 0)
+                | (compilerEnv.isGeneratingSource() ? 16 : 0)
+                | (compilerEnv.isStrictMode() ? 32 : 0)
+                | (compilerEnv.reportWarningAsError() ? 64 : 0)
+                | (compilerEnv.isGenerateObserverCount() ? 128 : 0)
+                | (compilerEnv.isGenerateSuperinstructions() ? 256 : 0)
+                | (compilerEnv.isRecordingComments() ? 512 : 0)
+                | (compilerEnv.isRecordingLocalJsDocComments() ? 1024 : 0)
+                | (compilerEnv.recoverFromErrors() ? 2048 : 0)
+                | (compilerEnv.getWarnTrailingComma() ? 4096 : 0)
+                | (compilerEnv.isIdeMode() ? 8192 : 0)
+                | (compilerEnv.getAllowSharpComments() ? 16384 : 0)
+                // Read from the context by the code generators
+                | (cx.hasFeature(Context.FEATURE_ENHANCED_JAVA_ACCESS)
+                   ? 32768 : 0)
+                | (optimizationLevel < 0
+                   && cx.getFactory().getTierUpThreshold() > 0 ? 65536 : 0);
+            int h = source.hashCode();
+            h = 31 * h + sourceName.hashCode();
+            h = 31 * h + lineno;
+            h = 31 * h + languageVersion;
+            h = 31 * h + optimizationLevel;
+            h = 31 * h + features;
+            this.hash = h;
+        }
+
+        public String getSource()
+        {
+            return source;
+        }
+
+        public String getSourceName()
+        {
+            return sourceName;
+        }
+
+        public int getLineno()
+        {
+            return lineno;
+        }
+
+        public Object getSecurityDomain()
+        {
+            return securityDomain;
+        }
+
+        /**
+         * Return the compiler flags of the key as a bit set; keys compiled
+         * with the same flags have the same value.
+         */
+        public int getFeatures()
+        {
+            return features;
+        }
+
+        public int getLanguageVersion()
+        {
+            return languageVersion;
+        }
+
+        public int getOptimizationLevel()
+        {
+            return optimizationLevel;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash
+                   && lineno == other.lineno
+                   && languageVersion == other.languageVersion
+                   && optimizationLevel == other.optimizationLevel
+                   && features == other.features
+                   && sourceName.equals(other.sourceName)
+                   && (securityDomain == null
+                       ? other.securityDomain == null
+                       : securityDomain.equals(other.securityDomain))
+                   && source.equals(other.source);
+        }
+    }
+}
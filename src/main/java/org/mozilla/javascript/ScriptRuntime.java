@@ -159,7 +159,11 @@ public class ScriptRuntime {
             scope = new NativeObject();
         }
         scope.associateValue(LIBRARY_SCOPE_KEY, scope);
-        (new ClassCache()).associate(scope);
+        ClassCache classCache = cx.getFactory().getClassCache();
+        if (classCache == null) {
+            classCache = new ClassCache();
+        }
+        classCache.associate(scope);
 
         BaseFunction.init(scope, sealed);
         NativeObject.init(scope, sealed);
@@ -358,11 +362,28 @@ public class ScriptRuntime {
         return Integer.valueOf(i);
     }
 
+    // Boxes of the small non-negative integers, which loop counters and
+    // array indexes box over and over
+    private static final int SMALL_DOUBLES_SIZE = 1024;
+    private static final Double[] smallDoubles =
+        new Double[SMALL_DOUBLES_SIZE];
+    static {
+        for (int i = 0; i != SMALL_DOUBLES_SIZE; ++i) {
+            smallDoubles[i] = new Double(i);
+        }
+    }
+
     public static Number wrapNumber(double x)
     {
         if (x != x) {
             return ScriptRuntime.NaNobj;
         }
+        int i = (int)x;
+        if (i == x && 0 <= i && i < SMALL_DOUBLES_SIZE
+            && (i != 0 || 1 / x > 0))
+        {
+            return smallDoubles[i];
+        }
         return new Double(x);
     }
 
@@ -1523,6 +1544,34 @@ public class ScriptRuntime {
         return result;
     }
 
+    /**
+     * Version of getObjectProp for a site with a property cache.
+     */
+    public static Object getObjectProp(Object obj, String property,
+                                       Context cx, Scriptable scope,
+                                       PropertyCache cache)
+    {
+        Object result = cache.get(obj);
+        if (result != Scriptable.NOT_FOUND) {
+            return result;
+        }
+        result = getObjectProp(obj, property, cx, scope);
+        cache.learnGet(obj, property);
+        return result;
+    }
+
+    public static Object getObjectProp(Scriptable obj, String property,
+                                       Context cx, PropertyCache cache)
+    {
+        Object result = cache.get(obj);
+        if (result != Scriptable.NOT_FOUND) {
+            return result;
+        }
+        result = getObjectProp(obj, property, cx);
+        cache.learnGet(obj, property);
+        return result;
+    }
+
     /**
      * @deprecated Use {@link #getObjectPropNoWarn(Object, String, Context, Scriptable)} instead
      */
@@ -1547,6 +1596,19 @@ public class ScriptRuntime {
         return result;
     }
 
+    public static Object getObjectPropNoWarn(Object obj, String property,
+                                             Context cx, Scriptable scope,
+                                             PropertyCache cache)
+    {
+        Object result = cache.get(obj);
+        if (result != Scriptable.NOT_FOUND) {
+            return result;
+        }
+        result = getObjectPropNoWarn(obj, property, cx, scope);
+        cache.learnGet(obj, property);
+        return result;
+    }
+
     /**
      * A cheaper and less general version of the above for well-known argument
      * types.
@@ -1668,6 +1730,21 @@ public class ScriptRuntime {
         return value;
     }
 
+    /**
+     * Version of setObjectProp for a site with a property cache.
+     */
+    public static Object setObjectProp(Object obj, String property,
+                                       Object value, Context cx,
+                                       Scriptable scope, PropertyCache cache)
+    {
+        if (cache.put(obj, value)) {
+            return value;
+        }
+        setObjectProp(obj, property, value, cx, scope);
+        cache.learnPut(obj, property);
+        return value;
+    }
+
     /**
      * A cheaper and less general version of the above for well-known argument
      * types.
@@ -2407,6 +2484,24 @@ public class ScriptRuntime {
         return getPropFunctionAndThisHelper(obj, property, cx, thisObj);
     }
 
+    /**
+     * Version of getPropFunctionAndThis for a site with a property cache.
+     */
+    public static Callable getPropFunctionAndThis(Object obj,
+                                                  String property,
+                                                  Context cx, Scriptable scope,
+                                                  PropertyCache cache)
+    {
+        Object value = cache.get(obj);
+        if (value instanceof Callable) {
+            storeScriptable(cx, (Scriptable) obj);
+            return (Callable)value;
+        }
+        Callable f = getPropFunctionAndThis(obj, property, cx, scope);
+        cache.learnGet(obj, property);
+        return f;
+    }
+
     private static Callable getPropFunctionAndThisHelper(Object obj,
           String property, Context cx, Scriptable thisObj)
     {
@@ -4197,7 +4292,7 @@ public class ScriptRuntime {
         return value;
     }
 
-    private static void storeScriptable(Context cx, Scriptable value)
+    static void storeScriptable(Context cx, Scriptable value)
     {
         // The previously stored scratchScriptable should be consumed
         if (cx.scratchScriptable != null)
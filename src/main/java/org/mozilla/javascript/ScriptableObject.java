@@ -19,9 +19,9 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.mozilla.javascript.debug.DebuggableObject;
 import org.mozilla.javascript.annotations.JSConstructor;
@@ -121,9 +121,25 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     private transient Slot firstAdded;
     private transient Slot lastAdded;
 
+    // Hidden class of the named properties, and the named slots in shape
+    // order; see Shape. A null shape means dictionary mode: the object is
+    // not cached by PropertyCache.
+    private transient volatile Shape shape = Shape.EMPTY;
+    private transient Slot[] shapeSlots;
 
+
+    // A ConcurrentHashMap once created; declared as a Map to keep the
+    // serialized form. The null key is stored as UniqueTag.NULL_VALUE.
     private volatile Map<Object,Object> associatedValues;
 
+    // Whether the slot table takes the object's monitor to add and remove
+    // slots: unknown until the first slot is added, then locked, or
+    // unlocked for objects of a FEATURE_THREAD_CONFINED_OBJECTS context.
+    private static final byte SLOTS_UNKNOWN = 0;
+    private static final byte SLOTS_LOCKED = 1;
+    private static final byte SLOTS_UNLOCKED = 2;
+    private transient byte slotLocking;
+
     private static final int SLOT_QUERY = 1;
     private static final int SLOT_MODIFY = 2;
     private static final int SLOT_MODIFY_CONST = 3;
@@ -193,7 +209,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
             return attributes;
         }
 
-        synchronized void setAttributes(int value)
+        void setAttributes(int value)
         {
             checkValidAttributes(value);
             attributes = (short)value;
@@ -1867,6 +1883,10 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     protected void defineOwnProperty(Context cx, Object id, ScriptableObject desc,
                                      boolean checkValid) {
+        if (isSealed()) {
+            throw Context.reportRuntimeError1("msg.modify.sealed",
+                                              ScriptRuntime.toString(id));
+        }
 
         Slot slot = getSlot(cx, id, SLOT_QUERY);
         boolean isNew = slot == null;
@@ -2197,6 +2217,10 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     }
 
     public void preventExtensions() {
+      if (isSealed()) {
+        throw Context.reportRuntimeError1("msg.modify.sealed.state",
+                                          "preventExtensions");
+      }
       isExtensible = false;
     }
 
@@ -2640,7 +2664,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
         Map<Object,Object> h = associatedValues;
         if (h == null)
             return null;
-        return h.get(key);
+        return h.get(key == null ? UniqueTag.NULL_VALUE : key);
     }
 
     /**
@@ -2684,15 +2708,22 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      * given key or old value for any subsequent calls.
      * @see #getAssociatedValue(Object key)
      */
-    public synchronized final Object associateValue(Object key, Object value)
+    public final Object associateValue(Object key, Object value)
     {
         if (value == null) throw new IllegalArgumentException();
         Map<Object,Object> h = associatedValues;
         if (h == null) {
-            h = new HashMap<Object,Object>();
-            associatedValues = h;
+            synchronized (this) {
+                h = associatedValues;
+                if (h == null) {
+                    h = new ConcurrentHashMap<Object,Object>();
+                    associatedValues = h;
+                }
+            }
         }
-        return Kit.initHash(h, key, value);
+        Object current = h.putIfAbsent(key == null ? UniqueTag.NULL_VALUE
+                                                   : key, value);
+        return (current == null) ? value : current;
     }
 
     /**
@@ -2841,7 +2872,32 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
         return createSlot(name, indexOrHash, accessType);
     }
 
-    private synchronized Slot createSlot(String name, int indexOrHash, int accessType) {
+    private Slot createSlot(String name, int indexOrHash, int accessType) {
+        // Adding a slot or replacing one with an accessor changes the object
+        checkNotSealed(name, indexOrHash);
+        if (isSlotLockingOff()) {
+            return createSlotImpl(name, indexOrHash, accessType);
+        }
+        synchronized (this) {
+            return createSlotImpl(name, indexOrHash, accessType);
+        }
+    }
+
+    private boolean isSlotLockingOff()
+    {
+        byte locking = slotLocking;
+        if (locking == SLOTS_UNKNOWN) {
+            Context cx = Context.getCurrentContext();
+            locking = (cx != null
+                       && cx.hasFeature(Context.FEATURE_THREAD_CONFINED_OBJECTS))
+                      ? SLOTS_UNLOCKED : SLOTS_LOCKED;
+            slotLocking = locking;
+        }
+        return locking == SLOTS_UNLOCKED;
+    }
+
+    // Must be inside createSlot
+    private Slot createSlotImpl(String name, int indexOrHash, int accessType) {
         Slot[] slotsLocalRef = slots;
         int insertPos;
         if (count == 0) {
@@ -2849,6 +2905,8 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
             slotsLocalRef = new Slot[INITIAL_SLOT_SIZE];
             slots = slotsLocalRef;
             insertPos = getSlotIndex(slotsLocalRef.length, indexOrHash);
+            shapeSlots = null;
+            shape = Shape.EMPTY;
         } else {
             int tableSize = slotsLocalRef.length;
             insertPos = getSlotIndex(tableSize, indexOrHash);
@@ -2903,6 +2961,14 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
                 } else {
                     prev.next = newSlot;
                 }
+                // the replacement keeps the position of the old slot
+                Shape shapeLocalRef = shape;
+                if (name != null && shapeLocalRef != null) {
+                    int shapeIndex = shapeLocalRef.indexOf(name);
+                    if (shapeIndex >= 0) {
+                        shapeSlots[shapeIndex] = newSlot;
+                    }
+                }
                 // other housekeeping
                 slot.markDeleted();
                 return newSlot;
@@ -2932,10 +2998,137 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
         lastAdded = newSlot;
         // add new slot to hash table, return it
         addKnownAbsentSlot(slotsLocalRef, newSlot, insertPos);
+        if (name != null) {
+            addShapeSlot(name, newSlot);
+        }
         return newSlot;
     }
 
-    private synchronized void removeSlot(String name, int index) {
+    // Must be inside createSlot
+    private void addShapeSlot(String name, Slot slot)
+    {
+        Shape shapeLocalRef = shape;
+        if (shapeLocalRef == null) {
+            return;
+        }
+        Shape next = shapeLocalRef.addProperty(name);
+        if (next == null) {
+            shapeSlots = null;
+            shape = null;
+            return;
+        }
+        Slot[] s = shapeSlots;
+        if (s == null || s.length <= next.index) {
+            Slot[] grown = new Slot[Math.max(INITIAL_SLOT_SIZE, next.size() * 2)];
+            if (s != null) {
+                System.arraycopy(s, 0, grown, 0, next.index);
+            }
+            s = grown;
+        }
+        s[next.index] = slot;
+        // publish the slot before the shape that makes it reachable
+        shapeSlots = s;
+        shape = next;
+    }
+
+    /**
+     * Gives this object, which has no properties yet, the plain data
+     * properties names[i] = values[i] at once. shape is the shape objects
+     * reach by adding the names in order, or null if they have none.
+     * Called by ObjectTemplate.
+     */
+    final void initSlots(Shape shape, String[] names, Object[] values)
+    {
+        int n = names.length;
+        int tableSize = INITIAL_SLOT_SIZE;
+        while (4 * n > 3 * tableSize) {
+            tableSize *= 2;
+        }
+        Slot[] table = new Slot[tableSize];
+        Slot[] ordered = shape == null ? null
+                         : new Slot[Math.max(INITIAL_SLOT_SIZE, n)];
+        Slot prev = null;
+        for (int i = 0; i != n; ++i) {
+            String name = names[i];
+            Slot slot = new Slot(name, name.hashCode(), 0);
+            slot.value = values[i];
+            addKnownAbsentSlot(table, slot,
+                               getSlotIndex(tableSize, slot.indexOrHash));
+            if (prev == null) {
+                firstAdded = slot;
+            } else {
+                prev.orderedNext = slot;
+            }
+            prev = slot;
+            if (ordered != null) {
+                ordered[i] = slot;
+            }
+        }
+        lastAdded = prev;
+        count = n;
+        slots = table;
+        shapeSlots = ordered;
+        // publish the slots before the shape that makes them reachable
+        this.shape = shape;
+    }
+
+    /**
+     * Returns the hidden class of this object, or null in dictionary mode.
+     */
+    final Shape getShape()
+    {
+        return shape;
+    }
+
+    /**
+     * Returns the value of the named slot at <code>index</code> in the
+     * shape, or NOT_FOUND if the object no longer has that slot.
+     */
+    final Object getShapeSlotValue(int index, Scriptable start)
+    {
+        Slot[] s = shapeSlots;
+        if (s == null || index >= s.length) {
+            return NOT_FOUND;
+        }
+        Slot slot = s[index];
+        if (slot == null || slot.wasDeleted) {
+            return NOT_FOUND;
+        }
+        return slot.getValue(start);
+    }
+
+    /**
+     * Stores <code>value</code> in the plain, writable data slot at
+     * <code>index</code> in the shape. Returns false, changing nothing, if
+     * the slot is an accessor or read-only, or the object is sealed.
+     */
+    final boolean putShapeSlotValue(int index, Object value)
+    {
+        Slot[] s = shapeSlots;
+        if (s == null || index >= s.length || count < 0) {
+            return false;
+        }
+        Slot slot = s[index];
+        if (slot == null || slot.getClass() != Slot.class
+                || slot.wasDeleted || (slot.getAttributes() & READONLY) != 0) {
+            return false;
+        }
+        slot.value = value;
+        return true;
+    }
+
+    private void removeSlot(String name, int index) {
+        if (isSlotLockingOff()) {
+            removeSlotImpl(name, index);
+            return;
+        }
+        synchronized (this) {
+            removeSlotImpl(name, index);
+        }
+    }
+
+    // Must be inside removeSlot
+    private void removeSlotImpl(String name, int index) {
         int indexOrHash = (name != null ? name.hashCode() : index);
 
         Slot[] slotsLocalRef = slots;
@@ -2983,6 +3176,12 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
                     lastAdded = prev;
                 }
 
+                // positions of the remaining names are no longer known
+                if (name != null) {
+                    shapeSlots = null;
+                    shape = null;
+                }
+
                 // Mark the slot as removed.
                 slot.markDeleted();
             }
@@ -3130,6 +3329,20 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     {
         in.defaultReadObject();
 
+        // Streams from before associated values were concurrent hold a
+        // HashMap, which may have a null key
+        Map<Object,Object> h = associatedValues;
+        if (h != null && !(h instanceof ConcurrentHashMap)) {
+            ConcurrentHashMap<Object,Object> copy =
+                new ConcurrentHashMap<Object,Object>();
+            for (Map.Entry<Object,Object> e : h.entrySet()) {
+                Object key = e.getKey();
+                copy.put(key == null ? UniqueTag.NULL_VALUE : key,
+                         e.getValue());
+            }
+            associatedValues = copy;
+        }
+
         int tableSize = in.readInt();
         if (tableSize != 0) {
             // If tableSize is not a power of 2 find the closest
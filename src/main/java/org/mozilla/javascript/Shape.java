@@ -0,0 +1,130 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A hidden class describing the named properties of a ScriptableObject.
+ *
+ * <p>Objects that add the same property names in the same order share one
+ * Shape, and a property keeps its position in the shape for as long as the
+ * object keeps the shape. Each object stores its slots in shape order next
+ * to its hash table, so a {@link PropertyCache} that has seen a shape once
+ * can find the slot of any object with that shape by position, without
+ * hashing the name.</p>
+ *
+ * <p>Shapes only ever grow. Deleting a property puts the object in
+ * dictionary mode (no shape), and property caches then leave it alone.</p>
+ */
+final class Shape
+{
+    static final Shape EMPTY = new Shape(null, null, -1);
+
+    // Objects with more named properties than this are used as maps,
+    // not records; keep them out of the transition tree.
+    static final int MAX_PROPERTIES = 128;
+
+    // Transitions are not recorded beyond this fan-out, so objects keyed
+    // with generated names cannot grow the tree without bound.
+    private static final int MAX_TRANSITIONS = 64;
+
+    final Shape parent;
+    final String name;
+    final int index;
+
+    // Read without locking: the empty shape is the parent of every object's
+    // first property, and is shared by all threads.
+    private final ConcurrentHashMap<String,WeakReference<Shape>> transitions =
+        new ConcurrentHashMap<String,WeakReference<Shape>>(4);
+    private volatile HashMap<String,Integer> lookup;
+
+    private Shape(Shape parent, String name, int index)
+    {
+        this.parent = parent;
+        this.name = name;
+        this.index = index;
+    }
+
+    int size()
+    {
+        return index + 1;
+    }
+
+    /**
+     * Returns the shape reached by adding property <code>name</code>, or
+     * null if the object should go to dictionary mode instead.
+     */
+    Shape addProperty(String name)
+    {
+        if (index + 1 >= MAX_PROPERTIES) {
+            return null;
+        }
+        for (;;) {
+            WeakReference<Shape> ref = transitions.get(name);
+            Shape next = (ref == null) ? null : ref.get();
+            if (next != null) {
+                return next;
+            }
+            next = new Shape(this, name, index + 1);
+            WeakReference<Shape> nextRef = new WeakReference<Shape>(next);
+            if (ref != null) {
+                if (transitions.replace(name, ref, nextRef)) {
+                    return next;
+                }
+            } else if (transitions.size() >= MAX_TRANSITIONS
+                       && !expungeTransitions()) {
+                return next;
+            } else if (transitions.putIfAbsent(name, nextRef) == null) {
+                return next;
+            }
+            // another thread added the transition first; use its shape
+        }
+    }
+
+    /**
+     * Drops the transitions to shapes that no object has any more, and
+     * returns true if there is then room for another.
+     */
+    private boolean expungeTransitions()
+    {
+        for (Map.Entry<String,WeakReference<Shape>> e
+                 : transitions.entrySet())
+        {
+            if (e.getValue().get() == null) {
+                transitions.remove(e.getKey(), e.getValue());
+            }
+        }
+        return transitions.size() < MAX_TRANSITIONS;
+    }
+
+    /**
+     * Returns the position of property <code>name</code>, or -1.
+     */
+    int indexOf(String name)
+    {
+        if (index < 8) {
+            for (Shape s = this; s.index >= 0; s = s.parent) {
+                if (s.name.equals(name)) return s.index;
+            }
+            return -1;
+        }
+        HashMap<String,Integer> map = lookup;
+        if (map == null) {
+            map = new HashMap<String,Integer>(2 * size());
+            for (Shape s = this; s.index >= 0; s = s.parent) {
+                map.put(s.name, Integer.valueOf(s.index));
+            }
+            lookup = map;
+        }
+        Integer i = map.get(name);
+        return (i == null) ? -1 : i.intValue();
+    }
+}
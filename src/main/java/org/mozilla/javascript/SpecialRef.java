@@ -80,6 +80,12 @@ class SpecialRef extends Ref
           case SPECIAL_PROTO:
           case SPECIAL_PARENT:
             {
+                if (target instanceof ScriptableObject
+                    && ((ScriptableObject) target).isSealed())
+                {
+                    throw Context.reportRuntimeError1("msg.modify.sealed",
+                                                      name);
+                }
                 Scriptable obj = ScriptRuntime.toObjectOrNull(cx, value, scope);
                 if (obj != null) {
                     // Check that obj does not contain on its prototype/scope
@@ -0,0 +1,227 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.mozilla.javascript.ast.AstRoot;
+import org.mozilla.javascript.ast.FunctionNode;
+import org.mozilla.javascript.ast.ScriptNode;
+
+/**
+ * Promotes hot interpreted functions to JVM bytecode.
+ * <p>
+ * When a ContextFactory has a tier-up threshold (see
+ * {@link ContextFactory#setTierUpThreshold(int)}), each function of a
+ * script compiled for the interpreter keeps its own source, and counts its
+ * invocations and loop back edges. When the count reaches the threshold, the
+ * function's source is compiled by the optimizer on a background thread,
+ * with the observer settings of the context that made it hot, and the
+ * source is dropped. Every later call of any closure of that function runs
+ * the compiled code; calls in progress finish in the interpreter.
+ * <p>
+ * The compiled code runs as a separate function object sharing the
+ * interpreted function's parent scope, so functions whose behaviour could
+ * tell the two apart are left in the interpreter, as decided from the parse
+ * tree by {@link #isTierable(FunctionNode)}. Contexts with an instruction
+ * observer threshold never tier up and always interpret, so compiled code
+ * can not run past their instruction budget.
+ */
+final class TieredCompiler
+{
+    // InterpreterData.tierState values
+    static final int TIER_INTERPRETED = 0;
+    static final int TIER_QUEUED = 1;
+    static final int TIER_COMPILED = 2;
+    static final int TIER_NEVER = 3;
+
+    private static final int QUEUE_SIZE = 256;
+
+    private static final ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(QUEUE_SIZE),
+            new ThreadFactory() {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "Rhino tiered compiler");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private TieredCompiler()
+    {
+    }
+
+    /**
+     * Return true if a function may run as compiled code in place of its
+     * interpreted code. It may not need an activation, which
+     * <code>arguments</code>, <code>eval</code> and <code>with</code>
+     * require, nor be a generator or a method, nor be a named function
+     * expression, whose name is bound to the function object itself.
+     */
+    static boolean isTierable(FunctionNode fn)
+    {
+        if (fn.requiresActivation() || fn.isGenerator() || fn.isMethod()) {
+            return false;
+        }
+        int type = fn.getFunctionType();
+        return type == FunctionNode.FUNCTION_STATEMENT
+            || (type == FunctionNode.FUNCTION_EXPRESSION
+                && fn.getFunctionName() == null);
+    }
+
+    /**
+     * Give each tierable function of a script compiled for the interpreter
+     * its own source, so it can be compiled again when it gets hot.
+     */
+    static void attachSource(InterpreterData idata, String source)
+    {
+        if (idata.rawSourceStart >= 0
+            && idata.rawSourceEnd <= source.length())
+        {
+            idata.rawSource = source.substring(idata.rawSourceStart,
+                                               idata.rawSourceEnd);
+        }
+        InterpreterData[] nested = idata.itsNestedFunctions;
+        if (nested != null) {
+            for (int i = 0; i != nested.length; ++i) {
+                attachSource(nested[i], source);
+            }
+        }
+    }
+
+    /**
+     * Count an invocation of <code>fn</code>; the interpreter counts loop
+     * back edges directly in InterpreterData.tierCounter.
+     */
+    static void countInvocation(Context cx, InterpretedFunction fn)
+    {
+        InterpreterData idata = fn.idata;
+        if (idata.tierState != TIER_INTERPRETED
+            || cx.instructionThreshold != 0)
+        {
+            return;
+        }
+        int threshold = cx.getFactory().getTierUpThreshold();
+        if (threshold > 0 && ++idata.tierCounter >= threshold) {
+            promote(cx, fn);
+        }
+    }
+
+    private static void promote(Context cx, InterpretedFunction fn)
+    {
+        final InterpreterData idata = fn.idata;
+        final String source = idata.rawSource;
+        if (source == null || fn.securityDomain != null
+            || cx.debugger != null)
+        {
+            idata.tierState = TIER_NEVER;
+            idata.rawSource = null;
+            return;
+        }
+        idata.tierState = TIER_QUEUED;
+        final boolean observerCount = cx.generateObserverCount;
+        final ContextFactory factory = cx.getFactory();
+        final Scriptable topScope = ScriptableObject.getTopLevelScope(fn);
+        try {
+            executor.execute(new Runnable() {
+                public void run()
+                {
+                    factory.call(new ContextAction() {
+                        public Object run(Context bcx)
+                        {
+                            bcx.setGenerateObserverCount(observerCount);
+                            compile(bcx, idata, source, topScope);
+                            return null;
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // the queue is full; count again from zero
+            idata.tierCounter = 0;
+            idata.tierState = TIER_INTERPRETED;
+        }
+    }
+
+    // Runs on the compiler thread
+    private static void compile(Context cx, InterpreterData idata,
+                                String source, Scriptable topScope)
+    {
+        try {
+            cx.setOptimizationLevel(9);
+            cx.setLanguageVersion(idata.languageVersion);
+            CompilerEnvirons compilerEnv = new CompilerEnvirons();
+            compilerEnv.initFromContext(cx);
+
+            Parser p = new Parser(compilerEnv);
+            p.calledByCompileFunction = true;
+            AstRoot ast = p.parse(source, idata.itsSourceFile,
+                                  idata.rawSourceLineno);
+            // Strict mode of the script the function came from
+            ast.setInStrictMode(idata.isStrict);
+            if (ast.getFirstChild() == null
+                || ast.getFirstChild().getType() != Token.FUNCTION
+                || ast.getFirstChild().getNext() != null)
+            {
+                idata.tierState = TIER_NEVER;
+                return;
+            }
+            IRFactory irf = new IRFactory(compilerEnv);
+            ScriptNode tree = irf.transformTree(ast);
+
+            Evaluator compiler = cx.createCompiler();
+            if (compiler instanceof Interpreter) {
+                // no optimizer on the class path
+                idata.tierState = TIER_NEVER;
+                return;
+            }
+            Object bytecode = compiler.compile(compilerEnv, tree,
+                                               tree.getEncodedSource(), true);
+            Function template = compiler.createFunctionObject(cx, topScope,
+                                                              bytecode, null);
+            idata.tierConstructor = template.getClass().getConstructors()[0];
+            idata.tierState = TIER_COMPILED;
+        } catch (RuntimeException ex) {
+            idata.tierState = TIER_NEVER;
+        } catch (LinkageError ex) {
+            idata.tierState = TIER_NEVER;
+        } finally {
+            idata.rawSource = null;
+        }
+    }
+
+    /**
+     * Return the compiled code for closure <code>fn</code>, or null while
+     * it is interpreted.
+     */
+    static NativeFunction getCompiled(Context cx, InterpretedFunction fn)
+    {
+        Constructor<?> ctor = fn.idata.tierConstructor;
+        if (ctor == null) {
+            return null;
+        }
+        try {
+            return (NativeFunction) ctor.newInstance(fn.getParentScope(), cx,
+                                                     Integer.valueOf(0));
+        } catch (Exception ex) {
+            fn.idata.tierConstructor = null;
+            fn.idata.tierState = TIER_NEVER;
+            return null;
+        }
+    }
+}
@@ -118,6 +118,15 @@ public class TopLevel extends IdScriptableObject {
         }
     }
 
+    /**
+     * Use the built-in constructors cached by <code>shared</code>, the
+     * sealed top-level scope this scope inherits its standard objects from.
+     */
+    void shareBuiltins(TopLevel shared) {
+        ctors = shared.ctors;
+        errors = shared.errors;
+    }
+
     /**
      * Static helper method to get a built-in object constructor with the given
      * <code>type</code> from the given <code>scope</code>. If the scope is not
@@ -7,14 +7,20 @@
 package org.mozilla.javascript.json;
 
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ObjectTemplate;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptRuntime;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 /**
  * This class converts a stream of JSON tokens into a JSON value.
+ * <p>
+ * Objects with the same keys in the same order, such as the records of
+ * an array, are created from one {@link ObjectTemplate}. A parser is not
+ * safe to use from several threads at once.
  *
  * See ECMA 15.12.
  * @author Raphael Speyer
@@ -29,12 +35,50 @@ public class JsonParser {
     private int length;
     private String src;
 
+    // The key sequences of the objects read so far
+    private final KeyNode keys = new KeyNode(new String[0]);
+    private int keyNodeCount;
+
+    // Objects beyond these limits are read as maps, not records
+    private static final int MAX_KEY_NODES = 1024;
+    private static final int MAX_TEMPLATE_KEYS = 128;
+
+    /**
+     * A key sequence, with the template of objects that have exactly
+     * these keys and the sequences that extend it by one key.
+     */
+    private static final class KeyNode {
+        final String[] names;
+        HashMap<String,KeyNode> next;
+        // The last sequence followed from this one, whose last key is
+        // matched against the source text before reading a key
+        KeyNode expected;
+        ObjectTemplate template;
+        boolean noTemplate;
+
+        KeyNode(String[] names) {
+            this.names = names;
+        }
+
+        ObjectTemplate getTemplate() {
+            if (template == null && !noTemplate) {
+                try {
+                    template = new ObjectTemplate(names);
+                } catch (IllegalArgumentException ex) {
+                    // repeated key
+                    noTemplate = true;
+                }
+            }
+            return template;
+        }
+    }
+
     public JsonParser(Context cx, Scriptable scope) {
         this.cx = cx;
         this.scope = scope;
     }
 
-    public synchronized Object parseValue(String json) throws ParseException {
+    public Object parseValue(String json) throws ParseException {
         if (json == null) {
             throw new ParseException("Input string may not be null");
         }
@@ -87,14 +131,16 @@ public class JsonParser {
 
     private Object readObject() throws ParseException {
         consumeWhitespace();
-        Scriptable object = cx.newObject(scope);
         // handle empty object literal case early
         if (pos < length && src.charAt(pos) == '}') {
             pos += 1;
-            return object;
+            return cx.newObject(scope);
         }
-        String id;
-        Object value;
+        // Read all members first, following their keys down the key tree
+        KeyNode node = keys;
+        String[] ids = new String[8];
+        Object[] values = new Object[8];
+        int count = 0;
         boolean needsComma = false;
         while (pos < length) {
             char c = src.charAt(pos++);
@@ -103,7 +149,12 @@ public class JsonParser {
                     if (!needsComma) {
                         throw new ParseException("Unexpected comma in object literal");
                     }
-                    return object;
+                    ObjectTemplate template = node == null ? null
+                                              : node.getTemplate();
+                    if (template != null) {
+                        return template.newObject(cx, scope, values);
+                    }
+                    return newObject(ids, values, count);
                 case ',':
                     if (!needsComma) {
                         throw new ParseException("Unexpected comma in object literal");
@@ -114,15 +165,23 @@ public class JsonParser {
                     if (needsComma) {
                         throw new ParseException("Missing comma in object literal");
                     }
-                    id = readString();
+                    String id = readKey(node);
                     consume(':');
-                    value = readValue();
+                    Object value = readValue();
 
-                    long index = ScriptRuntime.indexFromString(id);
-                    if (index < 0) {
-                      object.put(id, object, value);
-                    } else {
-                      object.put((int)index, object, value);
+                    if (count == ids.length) {
+                        String[] grownIds = new String[count * 2];
+                        System.arraycopy(ids, 0, grownIds, 0, count);
+                        ids = grownIds;
+                        Object[] grownValues = new Object[count * 2];
+                        System.arraycopy(values, 0, grownValues, 0, count);
+                        values = grownValues;
+                    }
+                    ids[count] = id;
+                    values[count] = value;
+                    count++;
+                    if (node != null) {
+                        node = nextKeyNode(node, id);
                     }
 
                     needsComma = true;
@@ -135,6 +194,82 @@ public class JsonParser {
         throw new ParseException("Unterminated object literal");
     }
 
+    /*
+     * Return the node of the keys of node followed by id, or null if an
+     * object with these keys has no template.
+     */
+    private KeyNode nextKeyNode(KeyNode node, String id) {
+        KeyNode next = node.expected;
+        if (next != null && next.names[next.names.length - 1] == id) {
+            return next;
+        }
+        next = node.next == null ? null : node.next.get(id);
+        if (next == null) {
+            if (keyNodeCount == MAX_KEY_NODES
+                    || node.names.length == MAX_TEMPLATE_KEYS
+                    || ScriptRuntime.indexFromString(id) >= 0) {
+                return null;
+            }
+            int n = node.names.length;
+            String[] names = new String[n + 1];
+            System.arraycopy(node.names, 0, names, 0, n);
+            names[n] = id;
+            next = new KeyNode(names);
+            if (node.next == null) {
+                node.next = new HashMap<String,KeyNode>(4);
+            }
+            node.next.put(id, next);
+            keyNodeCount++;
+        }
+        if (isPlain(id)) {
+            node.expected = next;
+        }
+        return next;
+    }
+
+    /*
+     * Read a key, and return the last key of node.expected instead of a
+     * new string if the source text has the same key.
+     */
+    private String readKey(KeyNode node) throws ParseException {
+        KeyNode expected = node == null ? null : node.expected;
+        if (expected != null) {
+            String key = expected.names[expected.names.length - 1];
+            int end = pos + key.length();
+            if (end < length && src.charAt(end) == '"'
+                    && src.regionMatches(pos, key, 0, key.length())) {
+                pos = end + 1;
+                return key;
+            }
+        }
+        return readString();
+    }
+
+    // Whether a key is written as is between the quotes of its source text
+    private static boolean isPlain(String key) {
+        for (int i = 0; i != key.length(); ++i) {
+            char c = key.charAt(i);
+            if (c <= '\u001F' || c == '"' || c == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Scriptable newObject(String[] ids, Object[] values, int count) {
+        Scriptable object = cx.newObject(scope);
+        for (int i = 0; i != count; ++i) {
+            String id = ids[i];
+            long index = ScriptRuntime.indexFromString(id);
+            if (index < 0) {
+              object.put(id, object, values[i]);
+            } else {
+              object.put((int)index, object, values[i]);
+            }
+        }
+        return object;
+    }
+
     private Object readArray() throws ParseException {
         consumeWhitespace();
         // handle empty array literal case early
@@ -279,6 +414,15 @@ public class JsonParser {
         if (c != '0') {
             readDigits();
         }
+        // Integers of up to 9 digits need no double conversion
+        if (pos - numberStart < 10 && (pos == length || !isFractionOrExponent(src.charAt(pos)))) {
+            int i = src.charAt(numberStart) == '-' ? numberStart + 1 : numberStart;
+            int ival = 0;
+            for (; i < pos; ++i) {
+                ival = ival * 10 + (src.charAt(i) - '0');
+            }
+            return Integer.valueOf(src.charAt(numberStart) == '-' ? -ival : ival);
+        }
         // read optional fraction part
         if (pos < length) {
             c = src.charAt(pos);
@@ -316,6 +460,10 @@ public class JsonParser {
         }
     }
 
+    private static boolean isFractionOrExponent(char c) {
+        return c == '.' || c == 'e' || c == 'E';
+    }
+
     private ParseException numberError(int start, int end) {
         return new ParseException("Unsupported number format: " + src.substring(start, end));
     }
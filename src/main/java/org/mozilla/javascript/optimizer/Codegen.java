@@ -62,15 +62,8 @@ public class Codegen implements Evaluator
             serial = ++globalSerialClassCounter;
         }
 
-        String baseName = "c";
-        if (tree.getSourceName().length() > 0) {
-          baseName = tree.getSourceName().replaceAll("\\W", "_");
-          if (!Character.isJavaIdentifierStart(baseName.charAt(0))) {
-            baseName = "_" + baseName;
-          }
-        }
-
-        String mainClassName = "org.mozilla.javascript.gen." + baseName + "_" + serial;
+        String mainClassName = makeMainClassName(tree.getSourceName(),
+                                                 String.valueOf(serial));
 
         byte[] mainClassBytes = compileToClassFile(compilerEnv, mainClassName,
                                                    tree, encodedSource,
@@ -79,6 +72,22 @@ public class Codegen implements Evaluator
         return new Object[] { mainClassName, mainClassBytes };
     }
 
+    /**
+     * Return the name of a generated class for a script from
+     * <code>sourceName</code>, made unique by <code>suffix</code>.
+     */
+    static String makeMainClassName(String sourceName, String suffix)
+    {
+        String baseName = "c";
+        if (sourceName.length() > 0) {
+          baseName = sourceName.replaceAll("\\W", "_");
+          if (!Character.isJavaIdentifierStart(baseName.charAt(0))) {
+            baseName = "_" + baseName;
+          }
+        }
+        return "org.mozilla.javascript.gen." + baseName + "_" + suffix;
+    }
+
     public Script createScriptObject(Object bytecode,
                                      Object staticSecurityDomain)
     {
@@ -1021,7 +1030,7 @@ public class Codegen implements Evaluator
     private void emitConstantDudeInitializers(ClassFileWriter cfw)
     {
         int N = itsConstantListSize;
-        if (N == 0)
+        if (N == 0 && itsPropertyCacheCount == 0)
             return;
 
         cfw.startMethod("<clinit>", "()V", (short)(ACC_STATIC | ACC_FINAL));
@@ -1046,10 +1055,38 @@ public class Codegen implements Evaluator
                     constantName, constantType);
         }
 
+        for (int i = 0; i != itsPropertyCacheCount; ++i) {
+            String cacheName = "_pc" + i;
+            cfw.addField(cacheName, PROPERTY_CACHE_SIGNATURE,
+                        (short)(ACC_STATIC | ACC_PRIVATE));
+            cfw.add(ByteCode.NEW, PROPERTY_CACHE_CLASS);
+            cfw.add(ByteCode.DUP);
+            cfw.addInvoke(ByteCode.INVOKESPECIAL, PROPERTY_CACHE_CLASS,
+                          "<init>", "()V");
+            cfw.add(ByteCode.PUTSTATIC, mainClassName,
+                    cacheName, PROPERTY_CACHE_SIGNATURE);
+        }
+
         cfw.add(ByteCode.RETURN);
         cfw.stopMethod((short)0);
     }
 
+    /**
+     * Pushes a new property cache for a GETPROP or SETPROP site, or
+     * returns false, pushing nothing, if the class has no room for more.
+     */
+    boolean pushPropertyCache(ClassFileWriter cfw)
+    {
+        // shares the static field limit noted in pushNumberAsObject
+        if (itsPropertyCacheCount >= 2000) {
+            return false;
+        }
+        String cacheName = "_pc" + itsPropertyCacheCount++;
+        cfw.add(ByteCode.GETSTATIC, mainClassName,
+                cacheName, PROPERTY_CACHE_SIGNATURE);
+        return true;
+    }
+
     void pushNumberAsObject(ClassFileWriter cfw, double num)
     {
         if (num == 0.0) {
@@ -1232,6 +1269,30 @@ public class Codegen implements Evaluator
         = "(Lorg/mozilla/javascript/Scriptable;"
           +"Lorg/mozilla/javascript/Context;I)V";
 
+    static final String PROPERTY_CACHE_CLASS
+        = "org/mozilla/javascript/PropertyCache";
+    static final String PROPERTY_CACHE_SIGNATURE
+        = "Lorg/mozilla/javascript/PropertyCache;";
+
+    // Property accesses with constant names are invokedynamic sites linked
+    // by PropertyCallSite when the class file version allows it, and use a
+    // static PropertyCache otherwise
+    static final boolean USE_PROPERTY_SITES
+        = ClassFileWriter.isInvokeDynamicSupported();
+    static final ClassFileWriter.MHandle PROPERTY_SITE_BOOTSTRAP
+        = new ClassFileWriter.MHandle(ByteCode.MH_INVOKESTATIC,
+              "org/mozilla/javascript/PropertyCallSite", "bootstrap",
+              "(Ljava/lang/invoke/MethodHandles$Lookup;"
+              +"Ljava/lang/String;"
+              +"Ljava/lang/invoke/MethodType;"
+              +"Ljava/lang/String;"
+              +")Ljava/lang/invoke/CallSite;");
+    static final String GET_PROPERTY_SITE_SIGNATURE
+        = "(Ljava/lang/Object;"
+          +"Lorg/mozilla/javascript/Context;"
+          +"Lorg/mozilla/javascript/Scriptable;"
+          +")Ljava/lang/Object;";
+
     private static final Object globalLock = new Object();
     private static int globalSerialClassCounter;
 
@@ -1248,6 +1309,7 @@ public class Codegen implements Evaluator
 
     private double[] itsConstantList;
     private int itsConstantListSize;
+    private int itsPropertyCacheCount;
 }
 
 
@@ -2343,12 +2405,13 @@ class BodyCodegen
               }
 
               case Token.BITNOT:
-                generateExpression(child, node);
-                addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
+                generateInt32(child, node);
                 cfw.addPush(-1);         // implement ~a as (a ^ -1)
                 cfw.add(ByteCode.IXOR);
                 cfw.add(ByteCode.I2D);
-                addDoubleWrap();
+                if (node.getIntProp(Node.ISNUMBER_PROP, -1) == -1) {
+                    addDoubleWrap();
+                }
                 break;
 
               case Token.VOID:
@@ -3341,7 +3404,8 @@ class BodyCodegen
                             +"Lorg/mozilla/javascript/Context;"
                             +"Lorg/mozilla/javascript/Scriptable;"
                             +")Ljava/lang/Object;";
-            } else if (childType == Token.GETPROP) {
+            } else if (childType == Token.GETPROP
+                       && !Codegen.USE_PROPERTY_SITES) {
                 // x.name() call
                 Node propTarget = child.getFirstChild();
                 generateExpression(propTarget, node);
@@ -3635,18 +3699,38 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             Node target = node.getFirstChild();
             generateExpression(target, node);
             Node id = target.getNext();
-            if (type == Token.GETPROP) {
-                String property = id.getString();
-                cfw.addPush(property);
+            if (type == Token.GETPROP && Codegen.USE_PROPERTY_SITES) {
                 cfw.addALoad(contextLocal);
                 cfw.addALoad(variableObjectLocal);
-                addScriptRuntimeInvoke(
-                    "getPropFunctionAndThis",
+                cfw.addInvokeDynamic("getPropFunctionAndThis",
                     "(Ljava/lang/Object;"
-                    +"Ljava/lang/String;"
                     +"Lorg/mozilla/javascript/Context;"
                     +"Lorg/mozilla/javascript/Scriptable;"
-                    +")Lorg/mozilla/javascript/Callable;");
+                    +")Lorg/mozilla/javascript/Callable;",
+                    Codegen.PROPERTY_SITE_BOOTSTRAP, id.getString());
+            } else if (type == Token.GETPROP) {
+                String property = id.getString();
+                cfw.addPush(property);
+                cfw.addALoad(contextLocal);
+                cfw.addALoad(variableObjectLocal);
+                if (codegen.pushPropertyCache(cfw)) {
+                    addScriptRuntimeInvoke(
+                        "getPropFunctionAndThis",
+                        "(Ljava/lang/Object;"
+                        +"Ljava/lang/String;"
+                        +"Lorg/mozilla/javascript/Context;"
+                        +"Lorg/mozilla/javascript/Scriptable;"
+                        +Codegen.PROPERTY_CACHE_SIGNATURE
+                        +")Lorg/mozilla/javascript/Callable;");
+                } else {
+                    addScriptRuntimeInvoke(
+                        "getPropFunctionAndThis",
+                        "(Ljava/lang/Object;"
+                        +"Ljava/lang/String;"
+                        +"Lorg/mozilla/javascript/Context;"
+                        +"Lorg/mozilla/javascript/Scriptable;"
+                        +")Lorg/mozilla/javascript/Callable;");
+                }
             } else {
                 generateExpression(id, node);  // id
                 if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1)
@@ -4562,34 +4646,27 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     private void visitBitOp(Node node, int type, Node child)
     {
         int childNumberFlag = node.getIntProp(Node.ISNUMBER_PROP, -1);
-        generateExpression(child, node);
+        generateInt32(child, node);
 
         // special-case URSH; work with the target arg as a long, so
-        // that we can return a 32-bit unsigned value, and call
-        // toUint32 instead of toInt32.
+        // that we can return a 32-bit unsigned value.
         if (type == Token.URSH) {
-            addScriptRuntimeInvoke("toUint32", "(Ljava/lang/Object;)J");
-            generateExpression(child.getNext(), node);
-            addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
+            cfw.add(ByteCode.I2L);
+            cfw.addPush(0xFFFFFFFFL);
+            cfw.add(ByteCode.LAND);
+            generateInt32(child.getNext(), node);
             // Looks like we need to explicitly mask the shift to 5 bits -
             // LUSHR takes 6 bits.
             cfw.addPush(31);
             cfw.add(ByteCode.IAND);
             cfw.add(ByteCode.LUSHR);
             cfw.add(ByteCode.L2D);
-            addDoubleWrap();
+            if (childNumberFlag == -1) {
+                addDoubleWrap();
+            }
             return;
         }
-        if (childNumberFlag == -1) {
-            addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
-            generateExpression(child.getNext(), node);
-            addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
-        }
-        else {
-            addScriptRuntimeInvoke("toInt32", "(D)I");
-            generateExpression(child.getNext(), node);
-            addScriptRuntimeInvoke("toInt32", "(D)I");
-        }
+        generateInt32(child.getNext(), node);
         switch (type) {
           case Token.BITOR:
             cfw.add(ByteCode.IOR);
@@ -4615,6 +4692,142 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         }
     }
 
+    /**
+     * Generate code leaving ToInt32 of the value of <code>node</code> on
+     * the stack as an int. Bit operations, int32 variables and sums and
+     * products of them are computed with int instructions; they give the
+     * same result as long as the exact value fits in a double mantissa,
+     * which {@link #int32Bits(Node)} makes sure of. Anything else is
+     * computed as usual and converted.
+     */
+    private void generateInt32(Node node, Node parent)
+    {
+        int type = node.getType();
+        switch (type) {
+          case Token.NUMBER:
+            cfw.addPush(ScriptRuntime.toInt32(node.getDouble()));
+            return;
+
+          case Token.GETVAR:
+            if (isInt32Var(node)) {
+                cfw.addDLoad(varRegisters[fnCurrent.getVarIndex(node)]);
+                cfw.add(ByteCode.D2I);
+                return;
+            }
+            break;
+
+          case Token.BITOR:
+          case Token.BITXOR:
+          case Token.BITAND:
+          case Token.LSH:
+          case Token.RSH:
+            generateInt32(node.getFirstChild(), node);
+            generateInt32(node.getFirstChild().getNext(), node);
+            switch (type) {
+              case Token.BITOR:  cfw.add(ByteCode.IOR);  break;
+              case Token.BITXOR: cfw.add(ByteCode.IXOR); break;
+              case Token.BITAND: cfw.add(ByteCode.IAND); break;
+              case Token.LSH:    cfw.add(ByteCode.ISHL); break;
+              default:           cfw.add(ByteCode.ISHR); break;
+            }
+            return;
+
+          case Token.BITNOT:
+            generateInt32(node.getFirstChild(), node);
+            cfw.addPush(-1);
+            cfw.add(ByteCode.IXOR);
+            return;
+
+          case Token.TO_DOUBLE:
+          case Token.TO_OBJECT:
+            if (int32Bits(node.getFirstChild()) <= MAX_EXACT_BITS) {
+                generateInt32(node.getFirstChild(), node);
+                return;
+            }
+            break;
+
+          case Token.ADD:
+          case Token.SUB:
+          case Token.MUL:
+            if (int32Bits(node) <= MAX_EXACT_BITS) {
+                generateInt32(node.getFirstChild(), node);
+                generateInt32(node.getFirstChild().getNext(), node);
+                cfw.add(type == Token.ADD ? ByteCode.IADD
+                        : type == Token.SUB ? ByteCode.ISUB
+                        : ByteCode.IMUL);
+                return;
+            }
+            break;
+        }
+        generateExpression(node, parent);
+        if (parent.getIntProp(Node.ISNUMBER_PROP, -1) != -1) {
+            addScriptRuntimeInvoke("toInt32", "(D)I");
+        } else {
+            addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
+        }
+    }
+
+    private static final int MAX_EXACT_BITS = 53;
+
+    /**
+     * Return b such that the value of <code>node</code> is always an
+     * integer of magnitude at most 2^b, or a value above
+     * MAX_EXACT_BITS if that is not known.
+     */
+    private int int32Bits(Node node)
+    {
+        switch (node.getType()) {
+          case Token.NUMBER: {
+                double d = node.getDouble();
+                if (d != (int)d) {
+                    return Integer.MAX_VALUE;
+                }
+                return 64 - Long.numberOfLeadingZeros(Math.abs((long)d));
+            }
+          case Token.GETVAR:
+            return isInt32Var(node) ? 31 : Integer.MAX_VALUE;
+          case Token.BITOR:
+          case Token.BITXOR:
+          case Token.BITAND:
+          case Token.BITNOT:
+          case Token.LSH:
+          case Token.RSH:
+            return 31;
+          case Token.TO_DOUBLE:
+          case Token.TO_OBJECT:
+            return int32Bits(node.getFirstChild());
+          case Token.ADD:
+          case Token.SUB: {
+                int left = int32Bits(node.getFirstChild());
+                int right = int32Bits(node.getFirstChild().getNext());
+                if (left > MAX_EXACT_BITS || right > MAX_EXACT_BITS) {
+                    return Integer.MAX_VALUE;
+                }
+                return Math.max(left, right) + 1;
+            }
+          case Token.MUL: {
+                int left = int32Bits(node.getFirstChild());
+                int right = int32Bits(node.getFirstChild().getNext());
+                if (left > MAX_EXACT_BITS || right > MAX_EXACT_BITS) {
+                    return Integer.MAX_VALUE;
+                }
+                return left + right;
+            }
+          default:
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    private boolean isInt32Var(Node node)
+    {
+        if (!hasVarsInRegs) {
+            return false;
+        }
+        int varIndex = fnCurrent.getVarIndex(node);
+        return !varIsDirectCallParameter(varIndex)
+               && fnCurrent.isInt32Var(varIndex);
+    }
+
     private int nodeIsDirectCallParameter(Node node)
     {
         if (node.getType() == Token.GETVAR
@@ -5055,16 +5268,31 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     {
         generateExpression(child, node); // object
         Node nameChild = child.getNext();
+        if (Codegen.USE_PROPERTY_SITES
+            && nameChild.getType() == Token.STRING)
+        {
+            cfw.addALoad(contextLocal);
+            cfw.addALoad(variableObjectLocal);
+            cfw.addInvokeDynamic(
+                node.getType() == Token.GETPROPNOWARN ? "getPropNoWarn"
+                                                      : "getProp",
+                Codegen.GET_PROPERTY_SITE_SIGNATURE,
+                Codegen.PROPERTY_SITE_BOOTSTRAP, nameChild.getString());
+            return;
+        }
         generateExpression(nameChild, node);  // the name
+        boolean cached = nameChild.getType() == Token.STRING;
         if (node.getType() == Token.GETPROPNOWARN) {
             cfw.addALoad(contextLocal);
             cfw.addALoad(variableObjectLocal);
+            cached = cached && codegen.pushPropertyCache(cfw);
             addScriptRuntimeInvoke(
                 "getObjectPropNoWarn",
                 "(Ljava/lang/Object;"
                 +"Ljava/lang/String;"
                 +"Lorg/mozilla/javascript/Context;"
                 +"Lorg/mozilla/javascript/Scriptable;"
+                +(cached ? Codegen.PROPERTY_CACHE_SIGNATURE : "")
                 +")Ljava/lang/Object;");
             return;
         }
@@ -5073,23 +5301,27 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             skip some casting overhead.
         */
         int childType = child.getType();
-        if (childType == Token.THIS && nameChild.getType() == Token.STRING) {
+        if (childType == Token.THIS && cached) {
             cfw.addALoad(contextLocal);
+            cached = codegen.pushPropertyCache(cfw);
             addScriptRuntimeInvoke(
                 "getObjectProp",
                 "(Lorg/mozilla/javascript/Scriptable;"
                 +"Ljava/lang/String;"
                 +"Lorg/mozilla/javascript/Context;"
+                +(cached ? Codegen.PROPERTY_CACHE_SIGNATURE : "")
                 +")Ljava/lang/Object;");
         } else {
             cfw.addALoad(contextLocal);
             cfw.addALoad(variableObjectLocal);
+            cached = cached && codegen.pushPropertyCache(cfw);
             addScriptRuntimeInvoke(
                 "getObjectProp",
                 "(Ljava/lang/Object;"
                 +"Ljava/lang/String;"
                 +"Lorg/mozilla/javascript/Context;"
                 +"Lorg/mozilla/javascript/Scriptable;"
+                +(cached ? Codegen.PROPERTY_CACHE_SIGNATURE : "")
                 +")Ljava/lang/Object;");
         }
     }
@@ -5103,38 +5335,66 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             cfw.add(ByteCode.DUP);
         }
         Node nameChild = child;
+        if (Codegen.USE_PROPERTY_SITES
+            && nameChild.getType() == Token.STRING)
+        {
+            String property = nameChild.getString();
+            if (type == Token.SETPROP_OP) {
+                // stack: ... object object -> ... object value
+                cfw.addALoad(contextLocal);
+                cfw.addALoad(variableObjectLocal);
+                cfw.addInvokeDynamic("getProp",
+                    Codegen.GET_PROPERTY_SITE_SIGNATURE,
+                    Codegen.PROPERTY_SITE_BOOTSTRAP, property);
+            }
+            generateExpression(child.getNext(), node);
+            cfw.addALoad(contextLocal);
+            cfw.addALoad(variableObjectLocal);
+            cfw.addInvokeDynamic("setProp",
+                "(Ljava/lang/Object;"
+                +"Ljava/lang/Object;"
+                +"Lorg/mozilla/javascript/Context;"
+                +"Lorg/mozilla/javascript/Scriptable;"
+                +")Ljava/lang/Object;",
+                Codegen.PROPERTY_SITE_BOOTSTRAP, property);
+            return;
+        }
         generateExpression(child, node);
         child = child.getNext();
+        boolean cached = nameChild.getType() == Token.STRING;
         if (type == Token.SETPROP_OP) {
             // stack: ... object object name -> ... object name object name
             cfw.add(ByteCode.DUP_X1);
             //for 'this.foo += ...' we call thisGet which can skip some
             //casting overhead.
-            if (objectChild.getType() == Token.THIS
-                && nameChild.getType() == Token.STRING)
-            {
+            if (objectChild.getType() == Token.THIS && cached) {
                 cfw.addALoad(contextLocal);
+                boolean getCached = codegen.pushPropertyCache(cfw);
                 addScriptRuntimeInvoke(
                     "getObjectProp",
                     "(Lorg/mozilla/javascript/Scriptable;"
                     +"Ljava/lang/String;"
                     +"Lorg/mozilla/javascript/Context;"
+                    +(getCached ? Codegen.PROPERTY_CACHE_SIGNATURE : "")
                     +")Ljava/lang/Object;");
             } else {
                 cfw.addALoad(contextLocal);
                 cfw.addALoad(variableObjectLocal);
+                boolean getCached = cached && codegen.pushPropertyCache(cfw);
                 addScriptRuntimeInvoke(
                     "getObjectProp",
                     "(Ljava/lang/Object;"
                     +"Ljava/lang/String;"
                     +"Lorg/mozilla/javascript/Context;"
                     +"Lorg/mozilla/javascript/Scriptable;"
+                    +(getCached ? Codegen.PROPERTY_CACHE_SIGNATURE : "")
                     +")Ljava/lang/Object;");
             }
         }
         generateExpression(child, node);
         cfw.addALoad(contextLocal);
         cfw.addALoad(variableObjectLocal);
+        cached = cached && codegen.pushPropertyCache(cfw);
         addScriptRuntimeInvoke(
             "setObjectProp",
             "(Ljava/lang/Object;"
@@ -5142,6 +5402,7 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             +"Ljava/lang/Object;"
             +"Lorg/mozilla/javascript/Context;"
             +"Lorg/mozilla/javascript/Scriptable;"
+            +(cached ? Codegen.PROPERTY_CACHE_SIGNATURE : "")
             +")Ljava/lang/Object;");
     }
 
@@ -0,0 +1,483 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.optimizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Kit;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.ScriptCache;
+
+/**
+ * A {@link ScriptCache} that keeps the class files generated for compiled
+ * scripts in a directory, so that later processes load them instead of
+ * parsing and generating code again.
+ * <p>
+ * Each script is stored in a file named by a SHA-256 digest of its source,
+ * source name, line number, language version, optimization level and
+ * compiler flags, together with a digest of the Rhino runtime classes and a
+ * format version. Every file ends in an HMAC-SHA256 of its contents, made
+ * with a secret key given to the constructor or kept in the file
+ * <code>cache.key</code> of the directory, readable only by its owner. A
+ * file is used only if its MAC is right, its header repeats the digest and
+ * its class loads; anything else is deleted and the script compiled again.
+ * Files are written to a temporary name and renamed into place, so
+ * concurrent processes may share the directory.
+ * <p>
+ * Only scripts compiled to class files, with optimization level 0 or
+ * above and no security domain, are stored on disk. Every other script is
+ * compiled as if there were no cache. An optional memory cache in front of
+ * the directory keeps loaded scripts for reuse within the process.
+ */
+public class DiskScriptCache implements ScriptCache
+{
+    private static final int MAGIC = 0x52484343; // "RHCC"
+    private static final int FORMAT_VERSION = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int MAC_LENGTH = 32;
+    private static final String KEY_FILE = "cache.key";
+
+    private static volatile String runtimeStamp;
+
+    private final File directory;
+    private final ScriptCache memory;
+    private final SecretKeySpec key;
+
+    public DiskScriptCache(File directory)
+    {
+        this(directory, null);
+    }
+
+    /**
+     * @param directory the directory of the class files, created if absent
+     * @param memory cache for scripts already loaded by this process, or
+     *        null to load from the directory on every call
+     */
+    public DiskScriptCache(File directory, ScriptCache memory)
+    {
+        this(directory, memory, null);
+    }
+
+    /**
+     * @param directory the directory of the class files, created if absent
+     * @param memory cache for scripts already loaded by this process, or
+     *        null to load from the directory on every call
+     * @param secret the key of the MACs of the class files, or null to use
+     *        the key file of the directory, created if absent
+     */
+    public DiskScriptCache(File directory, ScriptCache memory, byte[] secret)
+    {
+        if (directory == null) throw new IllegalArgumentException();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException(
+                "Can not create cache directory " + directory);
+        }
+        if (secret == null) {
+            try {
+                secret = readOrCreateKey(new File(directory, KEY_FILE));
+            } catch (IOException ex) {
+                throw Kit.initCause(new IllegalArgumentException(
+                    "Can not read cache key in " + directory), ex);
+            }
+        } else if (secret.length == 0) {
+            throw new IllegalArgumentException();
+        }
+        this.directory = directory;
+        this.memory = memory;
+        this.key = new SecretKeySpec(secret, MAC_ALGORITHM);
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    public Script get(final Key key, final Compilation compilation)
+    {
+        if (key.getOptimizationLevel() < 0
+            || key.getSecurityDomain() != null)
+        {
+            return (memory != null) ? memory.get(key, compilation)
+                                    : compilation.compile();
+        }
+        if (memory == null) {
+            return loadOrCompile(key);
+        }
+        return memory.get(key, new Compilation() {
+            public Script compile()
+            {
+                return loadOrCompile(key);
+            }
+        });
+    }
+
+    /**
+     * Remove the scripts cached in memory and every class file in the
+     * directory.
+     */
+    public void clear()
+    {
+        if (memory != null) {
+            memory.clear();
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().endsWith(".rhc")) {
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    private Script loadOrCompile(Key key)
+    {
+        Context cx = Context.getCurrentContext();
+        String digest = digest(key, getRuntimeStamp());
+        File file = new File(directory, digest + ".rhc");
+        if (file.isFile()) {
+            Script script = load(file, digest);
+            if (script != null) {
+                return script;
+            }
+            file.delete();
+        }
+
+        CompilerEnvirons compilerEnv = new CompilerEnvirons();
+        compilerEnv.initFromContext(cx);
+        ClassCompiler compiler = new ClassCompiler(compilerEnv);
+        String className = Codegen.makeMainClassName(key.getSourceName(),
+                                                     digest.substring(0, 16));
+        Object[] nameBytesPair = compiler.compileToClassFiles(
+            key.getSource(), key.getSourceName(), key.getLineno(),
+            className);
+        store(file, digest, className, (byte[]) nameBytesPair[1]);
+        return new Codegen().createScriptObject(nameBytesPair, null);
+    }
+
+    private Script load(File file, String digest)
+    {
+        String className;
+        byte[] classBytes;
+        try {
+            // Check the MAC over the whole file before reading any of it
+            byte[] data = Files.readAllBytes(file.toPath());
+            if (data.length <= MAC_LENGTH) {
+                return null;
+            }
+            int end = data.length - MAC_LENGTH;
+            Mac mac = newMac();
+            mac.update(data, 0, end);
+            if (!MessageDigest.isEqual(mac.doFinal(),
+                                       Arrays.copyOfRange(data, end,
+                                                          data.length)))
+            {
+                return null;
+            }
+            DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(data, 0, end));
+            if (in.readInt() != MAGIC
+                || in.readInt() != FORMAT_VERSION
+                || !digest.equals(in.readUTF()))
+            {
+                return null;
+            }
+            className = in.readUTF();
+            int length = in.readInt();
+            if (length <= 0 || length > end) {
+                return null;
+            }
+            classBytes = new byte[length];
+            in.readFully(classBytes);
+            if (in.read() != -1) {
+                return null;
+            }
+        } catch (IOException ex) {
+            return null;
+        }
+        try {
+            return new Codegen().createScriptObject(
+                new Object[] { className, classBytes }, null);
+        } catch (RuntimeException ex) {
+            return null;
+        } catch (LinkageError ex) {
+            return null;
+        }
+    }
+
+    private void store(File file, String digest, String className,
+                       byte[] classBytes)
+    {
+        File temp = null;
+        try {
+            ByteArrayOutputStream bytes
+                = new ByteArrayOutputStream(classBytes.length + 256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(digest);
+            out.writeUTF(className);
+            out.writeInt(classBytes.length);
+            out.write(classBytes);
+            out.flush();
+            byte[] data = bytes.toByteArray();
+            byte[] mac = newMac().doFinal(data);
+
+            temp = File.createTempFile(digest, ".tmp", directory);
+            FileOutputStream fileOut = new FileOutputStream(temp);
+            try {
+                fileOut.write(data);
+                fileOut.write(mac);
+            } finally {
+                fileOut.close();
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+        } catch (IOException ex) {
+            // the cache is an optimization; the compiled script still runs
+            Context.reportWarning("Can not write script cache file " + file
+                                  + ": " + ex);
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    private Mac newMac()
+    {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException ex) {
+            throw Kit.initCause(new IllegalStateException(), ex);
+        }
+    }
+
+    private static byte[] readOrCreateKey(File file) throws IOException
+    {
+        if (!file.isFile()) {
+            byte[] secret = new byte[MAC_LENGTH];
+            new SecureRandom().nextBytes(secret);
+            File temp = File.createTempFile(KEY_FILE, ".tmp",
+                                            file.getParentFile());
+            try {
+                // Owner only, before the key is written
+                temp.setReadable(false, false);
+                temp.setWritable(false, false);
+                temp.setReadable(true, true);
+                temp.setWritable(true, true);
+                FileOutputStream out = new FileOutputStream(temp);
+                try {
+                    out.write(secret);
+                } finally {
+                    out.close();
+                }
+                // Another process may have made the key first; keep theirs
+                Files.move(temp.toPath(), file.toPath(),
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException ex) {
+                // use the existing key
+            } finally {
+                temp.delete();
+            }
+        }
+        byte[] secret = Files.readAllBytes(file.toPath());
+        if (secret.length == 0) {
+            throw new IOException("Empty cache key " + file);
+        }
+        return secret;
+    }
+
+    /**
+     * Returns a hex SHA-256 digest of the Rhino runtime the generated
+     * classes link against: the bytes of its jar, or of every class file
+     * under its class directory. Computed once per process.
+     */
+    static String getRuntimeStamp()
+    {
+        String stamp = runtimeStamp;
+        if (stamp == null) {
+            stamp = computeRuntimeStamp();
+            runtimeStamp = stamp;
+        }
+        return stamp;
+    }
+
+    private static String computeRuntimeStamp()
+    {
+        MessageDigest md = newDigest();
+        update(md, FORMAT_VERSION);
+        File location = null;
+        CodeSource source = Context.class.getProtectionDomain()
+                                         .getCodeSource();
+        if (source != null && source.getLocation() != null) {
+            try {
+                location = new File(source.getLocation().toURI());
+            } catch (URISyntaxException ex) {
+                location = null;
+            } catch (IllegalArgumentException ex) {
+                // not a file: URL
+                location = null;
+            }
+        }
+        try {
+            if (location != null && location.isFile()) {
+                updateFile(md, location);
+            } else if (location != null && location.isDirectory()) {
+                updateClasses(md, new File(location, "org/mozilla/javascript"),
+                              "");
+            } else {
+                // Unknown packaging: digest the classes generated code
+                // calls into
+                Class<?>[] runtime = { Context.class,
+                    org.mozilla.javascript.ScriptRuntime.class,
+                    org.mozilla.javascript.ScriptableObject.class,
+                    org.mozilla.javascript.NativeFunction.class,
+                    OptRuntime.class, Codegen.class };
+                for (Class<?> c : runtime) {
+                    String name = c.getName().replace('.', '/') + ".class";
+                    URL url = c.getClassLoader() == null ? null
+                        : c.getClassLoader().getResource(name);
+                    if (url == null) {
+                        throw new IOException("No class file for " + c);
+                    }
+                    update(md, name);
+                    InputStream in = url.openStream();
+                    try {
+                        updateStream(md, in);
+                    } finally {
+                        in.close();
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            throw Kit.initCause(new IllegalStateException(
+                "Can not read the Rhino runtime classes"), ex);
+        }
+        return toHex(md.digest());
+    }
+
+    private static void updateClasses(MessageDigest md, File dir,
+                                      String prefix)
+        throws IOException
+    {
+        String[] names = dir.list();
+        if (names == null) {
+            throw new IOException("Can not list " + dir);
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            File f = new File(dir, name);
+            if (f.isDirectory()) {
+                updateClasses(md, f, prefix + name + "/");
+            } else if (name.endsWith(".class")) {
+                update(md, prefix + name);
+                updateFile(md, f);
+            }
+        }
+    }
+
+    private static void updateFile(MessageDigest md, File file)
+        throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        try {
+            updateStream(md, in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void updateStream(MessageDigest md, InputStream in)
+        throws IOException
+    {
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            md.update(buffer, 0, n);
+        }
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw Kit.initCause(new IllegalStateException(), ex);
+        }
+    }
+
+    private static String digest(Key key, String runtimeStamp)
+    {
+        MessageDigest md = newDigest();
+        update(md, FORMAT_VERSION);
+        update(md, runtimeStamp);
+        update(md, key.getSourceName());
+        update(md, key.getLineno());
+        update(md, key.getLanguageVersion());
+        update(md, key.getOptimizationLevel());
+        update(md, key.getFeatures());
+        update(md, key.getSource());
+        return toHex(md.digest());
+    }
+
+    private static String toHex(byte[] hash)
+    {
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static void update(MessageDigest md, int value)
+    {
+        md.update((byte) (value >>> 24));
+        md.update((byte) (value >>> 16));
+        md.update((byte) (value >>> 8));
+        md.update((byte) value);
+    }
+
+    // length-prefixed, so that field boundaries are part of the digest
+    private static void update(MessageDigest md, String value)
+    {
+        byte[] bytes = value.getBytes(UTF_8);
+        update(md, bytes.length);
+        md.update(bytes);
+    }
+}
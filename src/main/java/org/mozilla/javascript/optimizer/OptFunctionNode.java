@@ -87,6 +87,32 @@ public final class OptFunctionNode
         numberVarFlags[varIndex] = true;
     }
 
+    /**
+     * Return true if the local variable is a Number variable that only ever
+     * holds integers in the int32 range, so ToInt32 of its value is exact.
+     */
+    public boolean isInt32Var(int varIndex)
+    {
+        varIndex -= fnode.getParamCount();
+        if (varIndex >= 0 && int32VarFlags != null) {
+            return int32VarFlags[varIndex];
+        }
+        return false;
+    }
+
+    void setIsInt32Var(int varIndex, boolean b)
+    {
+        // Only Number variables can be int32 variables
+        if (b && !isNumberVar(varIndex)) Kit.codeBug();
+        varIndex -= fnode.getParamCount();
+        if (int32VarFlags == null) {
+            if (!b) return;
+            int size = fnode.getParamAndVarCount() - fnode.getParamCount();
+            int32VarFlags = new boolean[size];
+        }
+        int32VarFlags[varIndex] = b;
+    }
+
     public int getVarIndex(Node n)
     {
         int index = n.getIntProp(Node.VARIABLE_PROP, -1);
@@ -111,6 +137,7 @@ public final class OptFunctionNode
     public final FunctionNode fnode;
 
     private boolean[] numberVarFlags;
+    private boolean[] int32VarFlags;
     private int directTargetIndex = -1;
     private boolean itsParameterNumberContext;
     boolean itsContainsCalls0;
@@ -41,6 +41,7 @@ class Optimizer
         statementsArray.toArray(theStatementNodes);
 
         Block.runFlowAnalyzes(theFunction, theStatementNodes);
+        markInt32Variables(theStatementNodes);
 
         if (!theFunction.fnode.requiresActivation()) {
             /*
@@ -60,6 +61,106 @@ class Optimizer
     }
 
 
+/*
+        A Number variable is an int32 variable if every value assigned to it
+        is an int32 value: an integer constant, the result of a signed bit
+        operation, or another int32 variable. Flow analysis has already made
+        sure that a Number variable is never read before it is assigned, so
+        its value is never NaN. The codegen reads such variables as ints
+        when it computes bit operations.
+*/
+    private void markInt32Variables(Node[] statementNodes)
+    {
+        int paramCount = theFunction.fnode.getParamCount();
+        int varCount = theFunction.getVarCount();
+        boolean any = false;
+        for (int i = paramCount; i != varCount; ++i) {
+            if (theFunction.isNumberVar(i)) {
+                theFunction.setIsInt32Var(i, true);
+                any = true;
+            }
+        }
+        if (!any) return;
+
+        ObjArray assignments = new ObjArray();
+        for (Node statement : statementNodes) {
+            collectAssignments_r(statement, assignments);
+        }
+        boolean changed;
+        do {
+            changed = false;
+            for (int i = 0; i != assignments.size(); ++i) {
+                Node n = (Node)assignments.get(i);
+                int type = n.getType();
+                int varIndex;
+                boolean int32;
+                if (type == Token.INC || type == Token.DEC) {
+                    varIndex = theFunction.getVarIndex(n.getFirstChild());
+                    int32 = false;
+                } else {
+                    varIndex = theFunction.getVarIndex(n);
+                    int32 = isInt32Expression(n.getFirstChild().getNext());
+                }
+                if (!int32 && theFunction.isInt32Var(varIndex)) {
+                    theFunction.setIsInt32Var(varIndex, false);
+                    changed = true;
+                }
+            }
+        } while (changed);
+    }
+
+    private void collectAssignments_r(Node n, ObjArray assignments)
+    {
+        int type = n.getType();
+        if (type == Token.SETVAR || type == Token.SETCONSTVAR) {
+            if (theFunction.isNumberVar(theFunction.getVarIndex(n))) {
+                assignments.add(n);
+            }
+        } else if ((type == Token.INC || type == Token.DEC)
+                   && n.getFirstChild().getType() == Token.GETVAR)
+        {
+            if (theFunction.isNumberVar(
+                    theFunction.getVarIndex(n.getFirstChild())))
+            {
+                assignments.add(n);
+            }
+        }
+        for (Node child = n.getFirstChild(); child != null;
+             child = child.getNext())
+        {
+            collectAssignments_r(child, assignments);
+        }
+    }
+
+    private boolean isInt32Expression(Node n)
+    {
+        switch (n.getType()) {
+          case Token.NUMBER: {
+                double d = n.getDouble();
+                return d == (int)d;
+            }
+          case Token.GETVAR:
+            return theFunction.isInt32Var(theFunction.getVarIndex(n));
+          case Token.BITOR:
+          case Token.BITXOR:
+          case Token.BITAND:
+          case Token.BITNOT:
+          case Token.LSH:
+          case Token.RSH:
+            return true;
+          case Token.SETVAR:
+          case Token.SETCONSTVAR:
+            return isInt32Expression(n.getFirstChild().getNext());
+          case Token.HOOK: {
+                Node ifTrue = n.getFirstChild().getNext();
+                return isInt32Expression(ifTrue)
+                       && isInt32Expression(ifTrue.getNext());
+            }
+          default:
+            return false;
+        }
+    }
+
 /*
         Each directCall parameter is passed as a pair of values - an object
         and a double. The value passed depends on the type of value available at
@@ -294,6 +395,7 @@ class Optimizer
             case Token.BITOR :
             case Token.BITAND :
             case Token.RSH :
+            case Token.URSH :
             case Token.LSH :
             case Token.SUB :
             case Token.MUL :
@@ -346,6 +448,18 @@ class Optimizer
                         }
                     }
                 }
+            case Token.BITNOT : {
+                    Node child = n.getFirstChild();
+                    int type = rewriteForNumberVariables(child, NumberType);
+                    markDCPNumberContext(child);
+                    if (type != NumberType && !convertParameter(child)) {
+                        n.removeChild(child);
+                        n.addChildToFront(new Node(Token.TO_DOUBLE, child));
+                    }
+                    n.putIntProp(Node.ISNUMBER_PROP, Node.BOTH);
+                    return NumberType;
+                }
+
             case Token.SETELEM :
             case Token.SETELEM_OP : {
                     Node arrayBase = n.getFirstChild();
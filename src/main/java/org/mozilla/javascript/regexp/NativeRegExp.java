@@ -7,6 +7,9 @@
 package org.mozilla.javascript.regexp;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
@@ -109,6 +112,9 @@ public class NativeRegExp extends IdScriptableObject implements Function
 
     private static final int ANCHOR_BOL = -2;
 
+    // Most states times positions executeNFA remembers in one match
+    private static final long MAX_MEMO_BITS = 1L << 26;
+
 
     public static void init(Context cx, Scriptable scope, boolean sealed)
     {
@@ -173,6 +179,10 @@ public class NativeRegExp extends IdScriptableObject implements Function
 
     Scriptable compile(Context cx, Scriptable scope, Object[] args)
     {
+        if (isSealed()) {
+            throw Context.reportRuntimeError(ScriptRuntime.getMessage1(
+                "msg.modify.sealed.state", "compile"));
+        }
         if (args.length > 0 && args[0] instanceof NativeRegExp) {
             if (args.length > 1 && args[1] != Undefined.instance) {
                 // report error
@@ -279,6 +289,28 @@ public class NativeRegExp extends IdScriptableObject implements Function
     }
 
     static RECompiled compileRE(Context cx, String str, String global, boolean flat)
+    {
+        String key = (flat ? "f" : "r") + (global == null ? "" : global)
+                     + '/' + str;
+        RECompiled regexp;
+        synchronized (compiledCache) {
+            regexp = compiledCache.get(key);
+        }
+        if (regexp == null) {
+            regexp = compileREUncached(cx, str, global, flat);
+            // A cached copy would not repeat the warnings of compiling
+            // it for contexts in strict mode
+            if (regexp != null && !regexp.warned) {
+                synchronized (compiledCache) {
+                    compiledCache.put(key, regexp);
+                }
+            }
+        }
+        return regexp;
+    }
+
+    private static RECompiled compileREUncached(Context cx, String str,
+                                                String global, boolean flat)
     {
         RECompiled regexp = new RECompiled(str);
         int length = str.length();
@@ -321,7 +353,9 @@ public class NativeRegExp extends IdScriptableObject implements Function
             // "Note: if the number of left parentheses is less than the number
             // specified in \#, the \# is taken as an octal escape"
             if (state.maxBackReference > state.parenCount) {
+                boolean warned = state.warned;
                 state = new CompilerState(cx, regexp.source, length, flags);
+                state.warned = warned;
                 state.backReferenceLimit = state.parenCount;
                 if (!parseDisjunction(state))
                     return null;
@@ -345,6 +379,8 @@ public class NativeRegExp extends IdScriptableObject implements Function
             System.out.println();
         }
         regexp.parenCount = state.parenCount;
+        regexp.tree = state.result;
+        regexp.warned = state.warned;
 
         // If re starts with literal, init anchorCh accordingly
         switch (regexp.program[0]) {
@@ -385,7 +421,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
         return '0' <= c && c <= '9';
     }
 
-    private static boolean isWord(char c)
+    static boolean isWord(char c)
     {
         return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z') || isDigit(c) || c == '_';
     }
@@ -395,7 +431,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
         return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z');
     }
 
-    private static boolean isLineTerm(char c)
+    static boolean isLineTerm(char c)
     {
         return ScriptRuntime.isJSLineTerminator(c);
     }
@@ -845,7 +881,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
  * http://wiki.ecmascript.org/doku.php?id=harmony:regexp_match_web_reality
  * http://wiki.ecmascript.org/doku.php?id=strawman:match_web_reality_spec
  */
-                    reportWarning(state.cx, "msg.bad.backref", "");
+                    reportWarning(state, "msg.bad.backref", "");
                     /* octal escape */
                     num = 0;
                     // follow spidermonkey and allow multiple leading zeros,
@@ -875,7 +911,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
                     num = getDecimalValue(c, state, 0xFFFF,
                                           "msg.overlarge.backref");
                     if (num > state.backReferenceLimit)
-                        reportWarning(state.cx, "msg.bad.backref", "");
+                        reportWarning(state, "msg.bad.backref", "");
                     /*
                      * n > count of parentheses, then treat as octal instead.
                      * Also see note above concerning 'web reality'
@@ -1968,6 +2004,9 @@ public class NativeRegExp extends IdScriptableObject implements Function
         }
 
         for (;;) {
+            if (--gData.stepsLeft < 0) {
+                gData.checkpoint();
+            }
 
             if (reopIsSimple(op)) {
                 int match = simpleMatch(gData, input, op, program, pc, end, true);
@@ -2356,6 +2395,458 @@ public class NativeRegExp extends IdScriptableObject implements Function
 
     }
 
+    /*
+     * Match the NFA from gData.cp on, as executeREBytecode would: try the
+     * out1 state of a SPLIT before its out2 state and set the captures on
+     * the way. A memoized state that led to no match from a position is
+     * not entered there again, which bounds the steps by the states times
+     * the positions. An iteration that ends at the position its loop head
+     * was entered at is empty and fails, as in executeREBytecode.
+     */
+    private static boolean
+    executeNFA(REGlobalData gData, RENFA nfa, String input, int end)
+    {
+        int[] kind = nfa.kind;
+        int[] out1 = nfa.out1;
+        int[] memoIndex = nfa.memoIndex;
+        int parenCount = gData.regexp.parenCount;
+        long[] parens = gData.parens;
+        int[] trail = gData.trail;
+        long[] trailValues = gData.trailValues;
+        if (trail == null) {
+            trail = gData.trail = new int[32];
+            trailValues = gData.trailValues = new long[32];
+        }
+        // The trail records, from the first on: a choice of state t >= 0
+        // at position value, the capture -1 - t to restore to value, or,
+        // for t < -parenCount, that memoized state -1 - parenCount - t
+        // entered at position value led to no match when unwound.
+        int top = 0;
+        int q = nfa.start;
+        int cp = gData.cp;
+        for (;;) {
+            if (--gData.stepsLeft < 0) {
+                gData.checkpoint();
+            }
+            if (top + parenCount + 2 > trail.length) {
+                int n = 2 * (top + parenCount + 2);
+                int[] t = new int[n];
+                System.arraycopy(trail, 0, t, 0, top);
+                long[] v = new long[n];
+                System.arraycopy(trailValues, 0, v, 0, top);
+                trail = gData.trail = t;
+                trailValues = gData.trailValues = v;
+            }
+            boolean result = true;
+            int m = memoIndex[q];
+            if (m >= 0) {
+                long[] marks = gData.memoAt(cp);
+                long bit = 1L << (cp - gData.memoStart);
+                if ((marks[2 * m + 1] & bit) != 0) {
+                    result = false;
+                } else {
+                    marks[2 * m] |= bit;
+                    trail[top] = -1 - parenCount - m;
+                    trailValues[top++] = cp;
+                }
+            }
+            if (result) {
+                switch (kind[q]) {
+                  case RENFA.CHAR:
+                    if (cp != end && matchesChar(gData, nfa.op[q], nfa.arg[q],
+                                                 input.charAt(cp)))
+                    {
+                        ++cp;
+                    } else {
+                        result = false;
+                    }
+                    break;
+                  case RENFA.SPLIT:
+                    trail[top] = nfa.out2[q];
+                    trailValues[top++] = cp;
+                    break;
+                  case RENFA.BACK: {
+                    // Fail the iteration if the loop head was entered here
+                    int head = memoIndex[out1[q]];
+                    long bit = 1L << (cp - gData.memoStart);
+                    result = (gData.memoAt(cp)[2 * head] & bit) == 0;
+                    break;
+                  }
+                  case RENFA.BOL:
+                  case RENFA.EOL:
+                  case RENFA.WBDRY:
+                  case RENFA.WNONBDRY:
+                    gData.cp = cp;
+                    result = simpleMatch(gData, input, nfa.op[q], null, 0,
+                                         end, false) >= 0;
+                    break;
+                  case RENFA.OPEN: {
+                    int k = nfa.arg[q];
+                    trail[top] = -1 - k;
+                    trailValues[top++] = parens[k];
+                    parens[k] = cp & 0xffffffffL;
+                    break;
+                  }
+                  case RENFA.CLOSE: {
+                    int k = nfa.arg[q];
+                    trail[top] = -1 - k;
+                    trailValues[top++] = parens[k];
+                    int index = (int) parens[k];
+                    parens[k] = (index & 0xffffffffL)
+                                | ((long) (cp - index) << 32);
+                    break;
+                  }
+                  case RENFA.RESET:
+                    for (int k = nfa.arg[q], n = k + nfa.op[q]; k != n; ++k) {
+                        trail[top] = -1 - k;
+                        trailValues[top++] = parens[k];
+                        parens[k] = 0xffffffffL;
+                    }
+                    break;
+                  case RENFA.MATCH:
+                    gData.cp = cp;
+                    return true;
+                  default:
+                    throw Kit.codeBug();
+                }
+            }
+            if (result) {
+                q = out1[q];
+                continue;
+            }
+            // Unwind the trail to the last choice and take it
+            for (;;) {
+                if (top == 0) {
+                    return false;
+                }
+                int t = trail[--top];
+                long value = trailValues[top];
+                if (t >= 0) {
+                    q = t;
+                    cp = (int) value;
+                    break;
+                }
+                int k = -1 - t;
+                if (k < parenCount) {
+                    parens[k] = value;
+                } else {
+                    int at = (int) value;
+                    gData.memoAt(at)[2 * (k - parenCount) + 1]
+                        |= 1L << (at - gData.memoStart);
+                }
+            }
+        }
+    }
+
+    /*
+     * Return the DFAs of re, which rule out input and start positions
+     * without a match, for multiline false and true, each unanchored and
+     * anchored; or null if re has none.
+     */
+    private static RELazyDFA[] getDFAs(RECompiled re)
+    {
+        RELazyDFA[] dfas = re.dfas;
+        if (dfas == null) {
+            synchronized (re) {
+                dfas = re.dfas;
+                if (dfas == null) {
+                    RENFA nfa = re.tree == null ? null : buildNFA(re, re.tree);
+                    if (nfa == null) {
+                        dfas = new RELazyDFA[0];
+                    } else {
+                        dfas = new RELazyDFA[] {
+                            new RELazyDFA(nfa, false, false),
+                            new RELazyDFA(nfa, false, true),
+                            new RELazyDFA(nfa, true, false),
+                            new RELazyDFA(nfa, true, true)
+                        };
+                    }
+                    re.tree = null;
+                    re.nfa = nfa;
+                    re.dfas = dfas;
+                }
+            }
+        }
+        return dfas.length == 0 ? null : dfas;
+    }
+
+    /*
+     * Build the Thompson NFA of the parse tree of re, or return null if it
+     * uses backreferences or lookahead or is too large.
+     */
+    private static RENFA buildNFA(final RECompiled re, RENode tree)
+    {
+        RENFA nfa = new RENFA() {
+            @Override
+            boolean matchesChar(int q, char c)
+            {
+                return matchesNFAChar(re, op[q], arg[q], c);
+            }
+        };
+        int match = nfa.add(RENFA.MATCH, 0, 0, -1, -1);
+        int start = buildNFA(re, nfa, tree, match, true);
+        if (start < 0 || nfa.isFull()) {
+            return null;
+        }
+        nfa.finish(start);
+        return nfa;
+    }
+
+    /*
+     * Add the NFA states of the terms from t on, continuing at next, and
+     * return the first of them, or -1 if they cannot be expressed. If
+     * fresh, the captures inside the terms are unset when they start.
+     */
+    private static int buildNFA(RECompiled re, RENFA nfa, RENode t, int next,
+                                boolean fresh)
+    {
+        ArrayList<RENode> terms = new ArrayList<RENode>();
+        for (; t != null; t = t.next) {
+            terms.add(t);
+        }
+        int flat1 = (re.flags & JSREG_FOLD) != 0 ? REOP_FLAT1i : REOP_FLAT1;
+        for (int i = terms.size(); i-- != 0; ) {
+            if (next < 0 || nfa.isFull()) {
+                return -1;
+            }
+            t = terms.get(i);
+            switch (t.op) {
+            case REOP_EMPTY:
+                break;
+            case REOP_FLAT:
+                if (t.flatIndex != -1 && t.length > 1) {
+                    for (int k = t.length; k-- != 0; ) {
+                        next = nfa.add(RENFA.CHAR, flat1,
+                                       re.source[t.flatIndex + k], next, -1);
+                    }
+                } else {
+                    next = nfa.add(RENFA.CHAR, flat1, t.chr, next, -1);
+                }
+                break;
+            case REOP_DOT:
+            case REOP_DIGIT:
+            case REOP_NONDIGIT:
+            case REOP_ALNUM:
+            case REOP_NONALNUM:
+            case REOP_SPACE:
+            case REOP_NONSPACE:
+                next = nfa.add(RENFA.CHAR, t.op, 0, next, -1);
+                break;
+            case REOP_CLASS:
+                next = nfa.add(RENFA.CHAR, REOP_CLASS, t.index, next, -1);
+                break;
+            case REOP_BOL:
+                next = nfa.add(RENFA.BOL, REOP_BOL, 0, next, -1);
+                break;
+            case REOP_EOL:
+                next = nfa.add(RENFA.EOL, REOP_EOL, 0, next, -1);
+                break;
+            case REOP_WBDRY:
+                next = nfa.add(RENFA.WBDRY, REOP_WBDRY, 0, next, -1);
+                break;
+            case REOP_WNONBDRY:
+                next = nfa.add(RENFA.WNONBDRY, REOP_WNONBDRY, 0, next, -1);
+                break;
+            case REOP_LPAREN:
+                next = nfa.add(RENFA.CLOSE, 0, t.parenIndex, next, -1);
+                next = buildNFA(re, nfa, t.kid, next, fresh);
+                if (next >= 0) {
+                    next = nfa.add(RENFA.OPEN, 0, t.parenIndex, next, -1);
+                }
+                break;
+            case REOP_ALT:
+            case REOP_ALTPREREQ:
+            case REOP_ALTPREREQi:
+            case REOP_ALTPREREQ2: {
+                int kid = buildNFA(re, nfa, t.kid, next, fresh);
+                int kid2 = buildNFA(re, nfa, t.kid2, next, fresh);
+                next = kid < 0 || kid2 < 0 ? -1
+                       : nfa.add(RENFA.SPLIT, 0, 0, kid, kid2);
+                break;
+            }
+            case REOP_QUANT:
+                next = buildQuantifier(re, nfa, t, next, fresh);
+                break;
+            default:
+                // backreferences and lookahead
+                return -1;
+            }
+        }
+        return next;
+    }
+
+    /*
+     * Add the NFA states of the quantifier t as executeREBytecode runs it.
+     * Iteration i of the kid resets the captures inside it if i > 1 and,
+     * for a greedy quantifier, i > min, or, for a lazy one, if min == 0.
+     * Iterations beyond min must not be empty; the memoizing matcher
+     * tells for those of a loop, at the BACK state that ends them, but
+     * not for the others.
+     */
+    private static int buildQuantifier(RECompiled re, RENFA nfa, RENode t,
+                                       int next, boolean fresh)
+    {
+        if (t.max == 0) {
+            // The backtracker runs the kid of x{0} once, and then as often
+            // as x*, which no NFA here expresses
+            return -1;
+        }
+        boolean nullable = isNullable(t.kid);
+        int exit = next;
+        if (t.max == -1) {
+            // One loop for the iterations beyond min, all of which reset
+            int loop = nfa.add(RENFA.SPLIT, 0, 0, -1, -1);
+            int back = nfa.add(RENFA.BACK, 0, 0, loop, -1);
+            int kid = buildIteration(re, nfa, t, back, true, fresh);
+            if (kid < 0) {
+                return -1;
+            }
+            setPriority(nfa, loop, t.greedy, kid, exit);
+            next = loop;
+            if (t.min == 0 && t.greedy && !fresh && t.parenCount != 0) {
+                // Unlike the loop, the first iteration keeps the captures
+                kid = buildIteration(re, nfa, t, loop, false, fresh);
+                if (kid < 0) {
+                    return -1;
+                }
+                next = nfa.add(RENFA.SPLIT, 0, 0, kid, exit);
+                if (nullable) {
+                    nfa.memoizable = false;
+                }
+            }
+        } else {
+            for (int i = t.max; i > t.min; --i) {
+                if (next < 0 || nfa.isFull()) {
+                    return -1;
+                }
+                int kid = buildIteration(re, nfa, t, next,
+                                         !t.greedy || i > 1, fresh);
+                if (kid < 0) {
+                    return -1;
+                }
+                next = nfa.add(RENFA.SPLIT, 0, 0, -1, -1);
+                setPriority(nfa, next, t.greedy, kid, exit);
+            }
+            if (t.max > t.min && nullable) {
+                nfa.memoizable = false;
+            }
+        }
+        for (int i = t.min; i > 0; --i) {
+            if (next < 0 || nfa.isFull()) {
+                return -1;
+            }
+            next = buildIteration(re, nfa, t, next, !t.greedy && i > 1, fresh);
+        }
+        return next;
+    }
+
+    private static int buildIteration(RECompiled re, RENFA nfa, RENode t,
+                                      int next, boolean reset, boolean fresh)
+    {
+        next = buildNFA(re, nfa, t.kid, next, fresh || reset);
+        if (next >= 0 && reset && t.parenCount != 0) {
+            next = nfa.add(RENFA.RESET, t.parenCount, t.parenIndex, next, -1);
+        }
+        return next;
+    }
+
+    private static void setPriority(RENFA nfa, int split, boolean greedy,
+                                    int kid, int exit)
+    {
+        nfa.out1[split] = greedy ? kid : exit;
+        nfa.out2[split] = greedy ? exit : kid;
+    }
+
+    /*
+     * Whether the terms from t on can match the empty string.
+     */
+    private static boolean isNullable(RENode t)
+    {
+        for (; t != null; t = t.next) {
+            switch (t.op) {
+            case REOP_EMPTY:
+            case REOP_BOL:
+            case REOP_EOL:
+            case REOP_WBDRY:
+            case REOP_WNONBDRY:
+            case REOP_ASSERT:
+            case REOP_ASSERT_NOT:
+                break;
+            case REOP_LPAREN:
+                if (!isNullable(t.kid)) {
+                    return false;
+                }
+                break;
+            case REOP_ALT:
+            case REOP_ALTPREREQ:
+            case REOP_ALTPREREQi:
+            case REOP_ALTPREREQ2:
+                if (!isNullable(t.kid) && !isNullable(t.kid2)) {
+                    return false;
+                }
+                break;
+            case REOP_QUANT:
+                if (t.min != 0 && !isNullable(t.kid)) {
+                    return false;
+                }
+                break;
+            default:
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Whether the single char test op of the NFA accepts c.
+     */
+    static boolean matchesChar(REGlobalData gData, int op, int arg, char c)
+    {
+        switch (op) {
+        case REOP_DOT:
+            return !isLineTerm(c);
+        case REOP_DIGIT:
+            return isDigit(c);
+        case REOP_NONDIGIT:
+            return !isDigit(c);
+        case REOP_ALNUM:
+            return isWord(c);
+        case REOP_NONALNUM:
+            return !isWord(c);
+        case REOP_SPACE:
+            return isREWhiteSpace(c);
+        case REOP_NONSPACE:
+            return !isREWhiteSpace(c);
+        case REOP_FLAT1:
+            return c == arg;
+        case REOP_FLAT1i:
+            return c == arg || upcase((char)arg) == upcase(c);
+        case REOP_CLASS:
+            return classMatcher(gData, gData.regexp.classList[arg], c);
+        default:
+            throw Kit.codeBug();
+        }
+    }
+
+    /*
+     * Whether the single char test op of the NFA of re accepts c, for
+     * matchers that do not run with an REGlobalData.
+     */
+    private static boolean
+    matchesNFAChar(RECompiled re, int op, int arg, char c)
+    {
+        if (op != REOP_CLASS) {
+            return matchesChar(null, op, arg, c);
+        }
+        RECharSet charSet = re.classList[arg];
+        if (!charSet.converted) {
+            REGlobalData gData = new REGlobalData();
+            gData.regexp = re;
+            processCharSet(gData, charSet);
+        }
+        return classMatcher(null, charSet, c);
+    }
+
     private static boolean
     matchRegExp(REGlobalData gData, RECompiled re,
                 String input, int start, int end, boolean multiline)
@@ -2372,6 +2863,28 @@ public class NativeRegExp extends IdScriptableObject implements Function
         gData.multiline = multiline || (re.flags & JSREG_MULTILINE) != 0;
         gData.regexp = re;
 
+        // Rule out input without a match before backtracking
+        RELazyDFA[] dfas = getDFAs(re);
+        RELazyDFA anchored = null;
+        RENFA nfa = null;
+        if (dfas != null) {
+            int variant = gData.multiline ? 2 : 0;
+            if (!dfas[variant].mayMatch(input, start, end)) {
+                return false;
+            }
+            anchored = dfas[variant + 1];
+            nfa = re.nfa;
+            if (!gData.memoize || !nfa.memoizable
+                || (long) nfa.memoCount * (end - start + 1) > MAX_MEMO_BITS)
+            {
+                nfa = null;
+            } else {
+                gData.memoCount = nfa.memoCount;
+                gData.memoStart = start;
+                gData.memo = new long[1][];
+            }
+        }
+
         int anchorCh = gData.regexp.anchorCh;
         //
         // have to include the position beyond the last character
@@ -2403,7 +2916,11 @@ public class NativeRegExp extends IdScriptableObject implements Function
             for (int j = 0; j < re.parenCount; j++) {
                 gData.parens[j] = -1l;
             }
-            boolean result = executeREBytecode(gData, input, end);
+            boolean result = (anchored == null
+                              || anchored.mayMatch(input, i, end))
+                             && (nfa != null
+                                 ? executeNFA(gData, nfa, input, end)
+                                 : executeREBytecode(gData, input, end));
 
             gData.backTrackStackTop = null;
             gData.stateStackTop = null;
@@ -2426,6 +2943,8 @@ public class NativeRegExp extends IdScriptableObject implements Function
                          String str, int indexp[], int matchType)
     {
         REGlobalData gData = new REGlobalData();
+        gData.startCounting(cx);
+        gData.memoize = cx.hasFeature(Context.FEATURE_MEMOIZED_REGEXP);
 
         int start = indexp[0];
         int end = str.length();
@@ -2436,6 +2955,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
         //
         boolean matches = matchRegExp(gData, re, str, start, end,
                                       res.multiline);
+        gData.finishCounting();
         if (!matches) {
             if (matchType != PREFIX) return null;
             return Undefined.instance;
@@ -2551,9 +3071,11 @@ public class NativeRegExp extends IdScriptableObject implements Function
         return re.flags;
     }
 
-    private static void reportWarning(Context cx, String messageId, String arg)
+    private static void reportWarning(CompilerState state, String messageId,
+                                      String arg)
     {
-        if (cx.hasFeature(Context.FEATURE_STRICT_MODE)) {
+        state.warned = true;
+        if (state.cx.hasFeature(Context.FEATURE_STRICT_MODE)) {
             String msg = ScriptRuntime.getMessage1(messageId, arg);
             Context.reportWarning(msg);
         }
@@ -2774,6 +3296,21 @@ public class NativeRegExp extends IdScriptableObject implements Function
 
 // #/string_id_map#
 
+    // Compiled regexps by flat-ness, flags and source, shared by all
+    // contexts: a compiled regexp does not change once compiled
+    private static final int COMPILED_CACHE_SIZE = 128;
+    private static final Map<String,RECompiled> compiledCache =
+        new LinkedHashMap<String,RECompiled>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String,RECompiled> eldest)
+            {
+                return size() > COMPILED_CACHE_SIZE;
+            }
+        };
+
     private RECompiled re;
     Object lastIndex = 0d;     /* index after last match, for //g iterator */
     private int lastIndexAttr = DONTENUM | PERMANENT;
@@ -2791,6 +3328,10 @@ class RECompiled implements Serializable
     int classCount;         /* count [...] bitmaps */
     RECharSet[] classList;  /* list of [...] bitmaps */
     int anchorCh = -1;      /* if >= 0, then re starts with this literal char */
+    transient RENode tree;  /* parse tree, until the DFAs are built */
+    transient RENFA nfa;    /* NFA of the DFAs, for memoized matching */
+    transient volatile RELazyDFA[] dfas;  /* see NativeRegExp.getDFAs */
+    transient boolean warned;  /* compiling it reported warnings */
 
     RECompiled(String str) {
         this.source = str.toCharArray();
@@ -2858,6 +3399,7 @@ class CompilerState {
     int         parenNesting;
     int         classCount;   /* number of [] encountered */
     int         progLength;   /* estimated bytecode length */
+    boolean     warned;       /* a warning was reported */
     RENode      result;
 }
 
@@ -2913,6 +3455,9 @@ class REBackTrackData {
 }
 
 class REGlobalData {
+    // Steps between counting them as script instructions
+    private static final int STEPS_PER_REPORT = 1024;
+
     boolean multiline;
     RECompiled regexp;              /* the RE in execution */
     int skipped;                    /* chars skipped anchoring this r.e. */
@@ -2924,6 +3469,18 @@ class REGlobalData {
 
     REBackTrackData backTrackStackTop;  /* last matched-so-far position */
 
+    Context cx;                     /* for the step budget, or null */
+    int stepLimit;                  /* cx.getMaximumRegExpSteps() */
+    long steps;                     /* steps counted so far */
+    int stepChunk;                  /* steps between checkpoints */
+    int stepsLeft = Integer.MAX_VALUE;  /* until the next checkpoint */
+
+    boolean memoize;                /* use executeNFA where it can */
+    int memoCount;                  /* states memoized by the NFA */
+    int memoStart;                  /* first position of memo */
+    long[][] memo;                  /* see memoAt */
+    int[] trail;                    /* choices and captures to undo */
+    long[] trailValues;
 
     /**
      * Get start of parenthesis capture contents, -1 for empty.
@@ -2950,6 +3507,78 @@ class REGlobalData {
         parens[i] = (index & 0xffffffffL) | ((long)length << 32);
     }
 
+    void startCounting(Context cx)
+    {
+        this.cx = cx;
+        stepLimit = cx.getMaximumRegExpSteps();
+        startChunk();
+    }
+
+    private void startChunk()
+    {
+        long chunk = cx.getInstructionObserverThreshold() != 0
+                     ? STEPS_PER_REPORT : Integer.MAX_VALUE;
+        if (stepLimit != 0) {
+            chunk = Math.min(chunk, stepLimit - steps);
+        }
+        stepChunk = (int) chunk;
+        stepsLeft = stepChunk;
+    }
+
+    /**
+     * Called by the matchers when stepsLeft falls below 0: count the
+     * steps of the chunk as script instructions, and throw if the step
+     * budget is spent.
+     */
+    void checkpoint()
+    {
+        if (cx == null) {
+            stepsLeft = Integer.MAX_VALUE;
+            return;
+        }
+        int taken = stepChunk - stepsLeft;
+        steps += taken;
+        if (cx.getInstructionObserverThreshold() != 0) {
+            ScriptRuntime.addInstructionCount(cx, taken);
+        }
+        if (stepLimit != 0 && steps > stepLimit) {
+            String msg = ScriptRuntime.getMessage1("msg.re.too.many.steps",
+                                                   String.valueOf(stepLimit));
+            throw Context.reportRuntimeError(msg);
+        }
+        startChunk();
+    }
+
+    void finishCounting()
+    {
+        int taken = stepChunk - stepsLeft;
+        if (taken > 0 && cx.getInstructionObserverThreshold() != 0) {
+            ScriptRuntime.addInstructionCount(cx, taken);
+        }
+    }
+
+    /**
+     * Return the marks of the memoized states at the 64 positions from
+     * that of cp on: bit cp - memoStart of element 2 * m tells whether
+     * state m was entered at cp, that of element 2 * m + 1 whether it
+     * led to no match from there.
+     */
+    long[] memoAt(int cp)
+    {
+        int c = (cp - memoStart) >>> 6;
+        long[][] memo = this.memo;
+        if (c >= memo.length) {
+            memo = new long[Math.max(c + 1, 2 * memo.length)][];
+            System.arraycopy(this.memo, 0, memo, 0, this.memo.length);
+            this.memo = memo;
+        }
+        long[] marks = memo[c];
+        if (marks == null) {
+            marks = memo[c] = new long[2 * memoCount];
+        }
+        return marks;
+    }
+
 }
 
 /*
@@ -0,0 +1,321 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.regexp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A DFA built lazily from the {@link RENFA} of a regular expression.
+ * <p>
+ * The DFA only tells whether the regular expression can match; the
+ * backtracking matcher in {@link NativeRegExp} still finds the match and
+ * its captures. Since greediness and captures do not change whether a
+ * match exists, the DFA rules out input without a match, and start
+ * positions without a match, in time linear in the input.
+ * <p>
+ * A DFA state is the set of NFA states reached after a char, together with
+ * what the assertions need to know of that char. Transitions are computed
+ * on first use and cached; instances are safe to share between threads.
+ */
+final class RELazyDFA
+{
+    private static final int MAX_DFA_STATES = 1000;
+
+    // What follows a position
+    private static final int NEXT_OTHER = 0;
+    private static final int NEXT_WORD = 1;
+    private static final int NEXT_LINE_TERM = 2;
+    private static final int NEXT_END = 3;
+
+    // What precedes a position
+    private static final int PREV_LINE_START = 1;
+    private static final int PREV_WORD = 2;
+
+    private static final class State
+    {
+        final int[] kernel;
+        final int context;
+        final int hash;
+        // Whether a match ends before each kind of next char; null in
+        // states only used as keys
+        final boolean[] accepts;
+        final boolean mayAccept;
+        final State[] next;
+        HashMap<Character,State> wideNext;
+
+        State(int[] kernel, int context, boolean[] accepts)
+        {
+            this.kernel = kernel;
+            this.context = context;
+            this.hash = 31 * Arrays.hashCode(kernel) + context;
+            this.accepts = accepts;
+            this.mayAccept = accepts != null
+                && (accepts[NEXT_OTHER] || accepts[NEXT_WORD]
+                    || accepts[NEXT_LINE_TERM]);
+            this.next = accepts == null ? null : new State[128];
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof State)) {
+                return false;
+            }
+            State other = (State) obj;
+            return context == other.context
+                   && Arrays.equals(kernel, other.kernel);
+        }
+    }
+
+    private final RENFA nfa;
+    private final boolean multiline;
+    private final boolean anchored;
+
+    private final HashMap<State,State> states = new HashMap<State,State>();
+    private final State[] initial = new State[4];
+    private volatile boolean exhausted;
+
+    // Scratch space of closure(), used under the lock
+    private final int[] marks;
+    private int generation;
+    private final int[] stack;
+    private final int[] found;
+
+    /**
+     * @param anchored if true, match only at the start position, otherwise
+     *        anywhere after it
+     */
+    RELazyDFA(RENFA nfa, boolean multiline, boolean anchored)
+    {
+        this.nfa = nfa;
+        this.multiline = multiline;
+        this.anchored = anchored;
+        marks = new int[nfa.count];
+        stack = new int[nfa.count];
+        found = new int[nfa.count];
+    }
+
+    /**
+     * Return false if the regular expression cannot match input from
+     * start on, or, for an anchored DFA, at start. Return true if it may.
+     */
+    boolean mayMatch(String input, int start, int end)
+    {
+        if (exhausted) {
+            return true;
+        }
+        int context = 0;
+        if (start == 0 || (multiline && NativeRegExp.isLineTerm(
+                                            input.charAt(start - 1))))
+        {
+            context |= PREV_LINE_START;
+        }
+        if (start != 0 && NativeRegExp.isWord(input.charAt(start - 1))) {
+            context |= PREV_WORD;
+        }
+        State s = initial[context];
+        if (s == null) {
+            s = getInitial(context);
+            if (s == null) {
+                return true;
+            }
+        }
+        for (int i = start; ; ++i) {
+            if (i == end) {
+                return s.accepts[NEXT_END];
+            }
+            char c = input.charAt(i);
+            if (s.mayAccept && s.accepts[classOf(c)]) {
+                return true;
+            }
+            if (s.kernel.length == 0) {
+                return false;
+            }
+            State next = c < 128 ? s.next[c] : null;
+            if (next == null) {
+                next = transition(s, c);
+                if (next == null) {
+                    return true;
+                }
+            }
+            s = next;
+        }
+    }
+
+    private int classOf(char c)
+    {
+        if (NativeRegExp.isWord(c)) {
+            return NEXT_WORD;
+        }
+        return multiline && NativeRegExp.isLineTerm(c)
+               ? NEXT_LINE_TERM : NEXT_OTHER;
+    }
+
+    private synchronized State getInitial(int context)
+    {
+        State s = initial[context];
+        if (s == null) {
+            s = intern(new int[] { nfa.start }, context);
+            initial[context] = s;
+        }
+        return s;
+    }
+
+    private synchronized State transition(State s, char c)
+    {
+        State next;
+        if (c < 128) {
+            next = s.next[c];
+        } else {
+            next = s.wideNext == null ? null
+                   : s.wideNext.get(Character.valueOf(c));
+        }
+        if (next != null || exhausted) {
+            return next;
+        }
+        int n = closure(s.kernel, s.context, classOf(c));
+        int[] kernel = new int[n + 1];
+        int size = 0;
+        ++generation;
+        for (int i = 0; i != n; ++i) {
+            int q = found[i];
+            if (nfa.kind[q] == RENFA.CHAR && nfa.matchesChar(q, c)) {
+                int target = nfa.out1[q];
+                if (marks[target] != generation) {
+                    marks[target] = generation;
+                    kernel[size++] = target;
+                }
+            }
+        }
+        if (!anchored && marks[nfa.start] != generation) {
+            kernel[size++] = nfa.start;
+        }
+        kernel = Arrays.copyOf(kernel, size);
+        Arrays.sort(kernel);
+        int context = NativeRegExp.isWord(c) ? PREV_WORD : 0;
+        if (multiline && NativeRegExp.isLineTerm(c)) {
+            context |= PREV_LINE_START;
+        }
+        next = intern(kernel, context);
+        if (next == null) {
+            return null;
+        }
+        if (c < 128) {
+            s.next[c] = next;
+        } else {
+            if (s.wideNext == null) {
+                s.wideNext = new HashMap<Character,State>();
+            }
+            s.wideNext.put(Character.valueOf(c), next);
+        }
+        return next;
+    }
+
+    private State intern(int[] kernel, int context)
+    {
+        State known = states.get(new State(kernel, context, null));
+        if (known != null) {
+            return known;
+        }
+        if (states.size() == MAX_DFA_STATES) {
+            // Too many states for this regexp and input: give up
+            exhausted = true;
+            states.clear();
+            return null;
+        }
+        boolean[] accepts = new boolean[4];
+        for (int next = NEXT_OTHER; next <= NEXT_END; ++next) {
+            int n = closure(kernel, context, next);
+            for (int i = 0; i != n; ++i) {
+                if (nfa.kind[found[i]] == RENFA.MATCH) {
+                    accepts[next] = true;
+                    break;
+                }
+            }
+        }
+        State s = new State(kernel, context, accepts);
+        states.put(s, s);
+        return s;
+    }
+
+    /*
+     * Put the CHAR and MATCH states reachable from kernel without consuming
+     * a char into found, given what precedes and follows, and return how
+     * many there are.
+     */
+    private int closure(int[] kernel, int context, int next)
+    {
+        int gen = ++generation;
+        int top = 0;
+        int n = 0;
+        for (int i = kernel.length; i-- != 0; ) {
+            int q = kernel[i];
+            if (marks[q] != gen) {
+                marks[q] = gen;
+                stack[top++] = q;
+            }
+        }
+        boolean prevWord = (context & PREV_WORD) != 0;
+        boolean nextWord = next == NEXT_WORD;
+        while (top != 0) {
+            int q = stack[--top];
+            int follow = -1, follow2 = -1;
+            switch (nfa.kind[q]) {
+              case RENFA.CHAR:
+              case RENFA.MATCH:
+                found[n++] = q;
+                break;
+              case RENFA.OPEN:
+              case RENFA.CLOSE:
+              case RENFA.RESET:
+              case RENFA.BACK:
+                follow = nfa.out1[q];
+                break;
+              case RENFA.SPLIT:
+                follow = nfa.out1[q];
+                follow2 = nfa.out2[q];
+                break;
+              case RENFA.BOL:
+                if ((context & PREV_LINE_START) != 0) {
+                    follow = nfa.out1[q];
+                }
+                break;
+              case RENFA.EOL:
+                if (next == NEXT_END || next == NEXT_LINE_TERM) {
+                    follow = nfa.out1[q];
+                }
+                break;
+              case RENFA.WBDRY:
+                if (prevWord != nextWord) {
+                    follow = nfa.out1[q];
+                }
+                break;
+              case RENFA.WNONBDRY:
+                if (prevWord == nextWord) {
+                    follow = nfa.out1[q];
+                }
+                break;
+            }
+            if (follow2 >= 0 && marks[follow2] != gen) {
+                marks[follow2] = gen;
+                stack[top++] = follow2;
+            }
+            if (follow >= 0 && marks[follow] != gen) {
+                marks[follow] = gen;
+                stack[top++] = follow;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,104 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.regexp;
+
+import java.util.Arrays;
+
+/**
+ * The Thompson NFA of a regular expression without backreferences or
+ * lookahead, built by NativeRegExp from the parse tree.
+ * <p>
+ * {@link RELazyDFA} runs it to tell whether a match exists. The memoizing
+ * matcher in {@link NativeRegExp} runs it to find the match the
+ * backtracking matcher finds: it tries the out1 state of a SPLIT before
+ * its out2 state, and the OPEN, CLOSE and RESET states set the captures
+ * as the backtracker does.
+ */
+abstract class RENFA
+{
+    // Kinds of states
+    static final int CHAR = 0;      // consume a char matchesChar accepts
+    static final int SPLIT = 1;     // continue at out1, then at out2
+    static final int BOL = 2;       // assertions
+    static final int EOL = 3;
+    static final int WBDRY = 4;
+    static final int WNONBDRY = 5;
+    static final int MATCH = 6;
+    static final int OPEN = 7;      // start capture arg
+    static final int CLOSE = 8;     // end capture arg
+    static final int RESET = 9;     // clear op captures from arg on
+    static final int BACK = 10;     // end an iteration of loop head out1
+
+    private static final int MAX_STATES = 4000;
+
+    int[] kind = new int[16];
+    int[] op = new int[16];
+    int[] arg = new int[16];
+    int[] out1 = new int[16];
+    int[] out2 = new int[16];
+    int count;
+    int start;
+
+    // False if an empty iteration of a quantifier must fail where the
+    // memoizing matcher cannot tell
+    boolean memoizable = true;
+
+    // For each state, its index among the states memoized, or -1
+    int[] memoIndex;
+    int memoCount;
+
+    /**
+     * Whether CHAR state q accepts c.
+     */
+    abstract boolean matchesChar(int q, char c);
+
+    int add(int kind, int op, int arg, int out1, int out2)
+    {
+        if (count == this.kind.length) {
+            int n = count * 2;
+            this.kind = Arrays.copyOf(this.kind, n);
+            this.op = Arrays.copyOf(this.op, n);
+            this.arg = Arrays.copyOf(this.arg, n);
+            this.out1 = Arrays.copyOf(this.out1, n);
+            this.out2 = Arrays.copyOf(this.out2, n);
+        }
+        this.kind[count] = kind;
+        this.op[count] = op;
+        this.arg[count] = arg;
+        this.out1[count] = out1;
+        this.out2[count] = out2;
+        return count++;
+    }
+
+    boolean isFull()
+    {
+        return count > MAX_STATES;
+    }
+
+    /**
+     * Set the start state and pick the states to memoize: those with more
+     * than one way in, which include the heads of all loops.
+     */
+    void finish(int start)
+    {
+        this.start = start;
+        int[] ways = new int[count];
+        ++ways[start];
+        for (int q = 0; q != count; ++q) {
+            if (out1[q] >= 0) {
+                ++ways[out1[q]];
+            }
+            if (out2[q] >= 0) {
+                ++ways[out2[q]];
+            }
+        }
+        memoIndex = new int[count];
+        for (int q = 0; q != count; ++q) {
+            memoIndex[q] = ways[q] > 1 ? memoCount++ : -1;
+        }
+    }
+}
@@ -6,6 +6,9 @@
 
 package org.mozilla.javascript.typedarrays;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 public class ByteIo
 {
     public static Object readInt8(byte[] buf, int offset)
@@ -211,4 +214,127 @@ public class ByteIo
         long base = Double.doubleToLongBits(val);
         writeUint64(buf, offset, base, littleEndian);
     }
+
+    // The same, on a ByteBuffer of either byte order. Only absolute gets
+    // and puts are used, so the position and limit of the buffer are left
+    // alone.
+
+    private static boolean swap(ByteBuffer buf, boolean littleEndian)
+    {
+        return littleEndian != (buf.order() == ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public static Object readInt8(ByteBuffer buf, int offset)
+    {
+        return buf.get(offset);
+    }
+
+    public static void writeInt8(ByteBuffer buf, int offset, int val)
+    {
+        buf.put(offset, (byte)val);
+    }
+
+    public static Object readUint8(ByteBuffer buf, int offset)
+    {
+        return buf.get(offset) & 0xff;
+    }
+
+    public static void writeUint8(ByteBuffer buf, int offset, int val)
+    {
+        buf.put(offset, (byte)(val & 0xff));
+    }
+
+    private static short doReadInt16(ByteBuffer buf, int offset, boolean littleEndian)
+    {
+        short val = buf.getShort(offset);
+        return swap(buf, littleEndian) ? Short.reverseBytes(val) : val;
+    }
+
+    private static void doWriteInt16(ByteBuffer buf, int offset, int val, boolean littleEndian)
+    {
+        short s = (short)val;
+        buf.putShort(offset, swap(buf, littleEndian) ? Short.reverseBytes(s) : s);
+    }
+
+    public static Object readInt16(ByteBuffer buf, int offset, boolean littleEndian)
+    {
+        return doReadInt16(buf, offset, littleEndian);
+    }
+
+    public static void writeInt16(ByteBuffer buf, int offset, int val, boolean littleEndian)
+    {
+        doWriteInt16(buf, offset, val, littleEndian);
+    }
+
+    public static Object readUint16(ByteBuffer buf, int offset, boolean littleEndian)
+    {
+        return doReadInt16(buf, offset, littleEndian) & 0xffff;
+    }
+
+    public static void writeUint16(ByteBuffer buf, int offset, int val, boolean littleEndian)
+    {
+        doWriteInt16(buf, offset, val & 0xffff, littleEndian);
+    }
+
+    public static int readInt32Primitive(ByteBuffer buf, int offset, boolean littleEndian)
+    {
+        int val = buf.getInt(offset);
+        return swap(buf, littleEndian) ? Integer.reverseBytes(val) : val;
+    }
+
+    public static Object readInt32(ByteBuffer buf, int offset, boolean littleEndian)
+    {
+        return readInt32Primitive(buf, offset, littleEndian);
+    }
+
+    public static void writeInt32(ByteBuffer buf, int offset, int val, boolean littleEndian)
+    {
+        buf.putInt(offset, swap(buf, littleEndian) ? Integer.reverseBytes(val) : val);
+    }
+
+    public static long readUint32Primitive(ByteBuffer buf, int offset, boolean littleEndian)
+    {
+        return readInt32Primitive(buf, offset, littleEndian) & 0xffffffffL;
+    }
+
+    public static void writeUint32(ByteBuffer buf, int offset, long val, boolean littleEndian)
+    {
+        writeInt32(buf, offset, (int)val, littleEndian);
+    }
+
+    public static Object readUint32(ByteBuffer buf, int offset, boolean littleEndian)
+    {
+        return readUint32Primitive(buf, offset, littleEndian);
+    }
+
+    public static long readUint64Primitive(ByteBuffer buf, int offset, boolean littleEndian)
+    {
+        long val = buf.getLong(offset);
+        return swap(buf, littleEndian) ? Long.reverseBytes(val) : val;
+    }
+
+    public static void writeUint64(ByteBuffer buf, int offset, long val, boolean littleEndian)
+    {
+        buf.putLong(offset, swap(buf, littleEndian) ? Long.reverseBytes(val) : val);
+    }
+
+    public static Object readFloat32(ByteBuffer buf, int offset, boolean littleEndian)
+    {
+        return Float.intBitsToFloat(readInt32Primitive(buf, offset, littleEndian));
+    }
+
+    public static void writeFloat32(ByteBuffer buf, int offset, double val, boolean littleEndian)
+    {
+        writeInt32(buf, offset, Float.floatToIntBits((float)val), littleEndian);
+    }
+
+    public static Object readFloat64(ByteBuffer buf, int offset, boolean littleEndian)
+    {
+        return Double.longBitsToDouble(readUint64Primitive(buf, offset, littleEndian));
+    }
+
+    public static void writeFloat64(ByteBuffer buf, int offset, double val, boolean littleEndian)
+    {
+        writeUint64(buf, offset, Double.doubleToLongBits(val), littleEndian);
+    }
 }
@@ -6,16 +6,29 @@
 
 package org.mozilla.javascript.typedarrays;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.nio.ByteBuffer;
+
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.IdFunctionObject;
 import org.mozilla.javascript.IdScriptableObject;
 import org.mozilla.javascript.ScriptRuntime;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.Undefined;
+import org.mozilla.javascript.Wrapper;
 
 /**
  * A NativeArrayBuffer is the backing buffer for a typed array. Used inside JavaScript code,
  * it implements the ArrayBuffer interface. Used directly from Java, it simply holds a byte array.
+ * <p>
+ * The bytes are held in a ByteBuffer. Buffers created by scripts are on the heap, but a buffer
+ * may also share the content of any writable ByteBuffer, such as a direct buffer or a file
+ * mapped into memory, without copying it. From Java, use {@link #NativeArrayBuffer(ByteBuffer)},
+ * or pass the ByteBuffer to the ArrayBuffer constructor with
+ * {@link Context#newObject(Scriptable, String, Object[])} to get a buffer scripts can use.
  */
 
 public class NativeArrayBuffer
@@ -29,7 +42,8 @@ public class NativeArrayBuffer
 
     public static final NativeArrayBuffer EMPTY_BUFFER = new NativeArrayBuffer();
 
-    final byte[] buffer;
+    /** The content, in big-endian order, from index 0 to the capacity */
+    transient ByteBuffer data;
 
     @Override
     public String getClassName()
@@ -48,7 +62,7 @@ public class NativeArrayBuffer
      */
     public NativeArrayBuffer()
     {
-        buffer = EMPTY_BUF;
+        data = ByteBuffer.wrap(EMPTY_BUF);
     }
 
     /**
@@ -60,25 +74,66 @@ public class NativeArrayBuffer
             throw ScriptRuntime.constructError("RangeError", "Negative array length " + len);
         }
         if (len == 0) {
-            buffer = EMPTY_BUF;
+            data = ByteBuffer.wrap(EMPTY_BUF);
         } else {
-            buffer = new byte[len];
+            data = ByteBuffer.wrap(new byte[len]);
+        }
+    }
+
+    /**
+     * Create a buffer that shares the bytes of "buf" between its position and its limit.
+     * Changes made through either will be reflected in the other. The position, limit and
+     * byte order of "buf" are left alone.
+     *
+     * @throws IllegalArgumentException if "buf" is read-only
+     */
+    public NativeArrayBuffer(ByteBuffer buf)
+    {
+        if (buf.isReadOnly()) {
+            throw new IllegalArgumentException("read-only buffer");
         }
+        data = buf.slice();
     }
 
     /**
      * Get the number of bytes in the buffer.
      */
     public int getLength() {
-        return buffer.length;
+        return data.capacity();
     }
 
     /**
      * Return the actual bytes that back the buffer. This is a reference to the real buffer,
      * so changes to bytes here will be reflected in the actual object and all its views.
+     *
+     * @throws UnsupportedOperationException if the buffer shares a ByteBuffer that is not
+     *         exactly a whole byte array, such as a direct buffer
      */
     public byte[] getBuffer() {
-        return buffer;
+        if (!data.hasArray() || data.arrayOffset() != 0
+            || data.array().length != data.capacity())
+        {
+            throw new UnsupportedOperationException("not backed by a byte array");
+        }
+        return data.array();
+    }
+
+    /**
+     * Return a big-endian ByteBuffer of the content of the buffer. It shares the bytes, so
+     * changes made through it will be reflected in the actual object and all its views, but it
+     * has a position and limit of its own.
+     */
+    public ByteBuffer getByteBuffer() {
+        return data.duplicate();
+    }
+
+    /**
+     * Return a ByteBuffer of the "len" bytes from "off" on, for a view of them.
+     */
+    ByteBuffer region(int off, int len) {
+        ByteBuffer b = data.duplicate();
+        b.limit(off + len).position(off);
+        return b.slice();
     }
 
     // Actual implementations of actual code
@@ -97,12 +152,16 @@ public class NativeArrayBuffer
     {
         // Handle negative start and and as relative to start
         // Clamp as per the spec to between 0 and length
-        int end = Math.max(0, Math.min(buffer.length, (e < 0 ? buffer.length + e : e)));
-        int start = Math.min(end, Math.max(0, (s < 0 ? buffer.length + s : s)));
+        int length = data.capacity();
+        int end = Math.max(0, Math.min(length, (e < 0 ? length + e : e)));
+        int start = Math.min(end, Math.max(0, (s < 0 ? length + s : s)));
         int len = end - start;
 
         NativeArrayBuffer newBuf = new NativeArrayBuffer(len);
-        System.arraycopy(buffer, start, newBuf.buffer, 0, len);
+        if (len > 0) {
+            newBuf.data.put(region(start, len));
+            newBuf.data.clear();
+        }
         return newBuf;
     }
 
@@ -121,13 +180,26 @@ public class NativeArrayBuffer
             return (isArg(args, 0) && (args[0] instanceof NativeArrayBufferView));
 
         case Id_constructor:
+            if (isArg(args, 0)) {
+                Object arg = args[0];
+                if (arg instanceof Wrapper) {
+                    arg = ((Wrapper)arg).unwrap();
+                }
+                if (arg instanceof ByteBuffer) {
+                    if (((ByteBuffer)arg).isReadOnly()) {
+                        throw ScriptRuntime.typeError(
+                            "ArrayBuffer cannot share a read-only ByteBuffer");
+                    }
+                    return new NativeArrayBuffer((ByteBuffer)arg);
+                }
+            }
             int length = isArg(args, 0) ? ScriptRuntime.toInt32(args[0]) : 0;
             return new NativeArrayBuffer(length);
 
         case Id_slice:
             NativeArrayBuffer self = realThis(thisObj, f);
             int start = isArg(args, 0) ? ScriptRuntime.toInt32(args[0]) : 0;
-            int end = isArg(args, 1) ? ScriptRuntime.toInt32(args[1]) : self.buffer.length;
+            int end = isArg(args, 1) ? ScriptRuntime.toInt32(args[1]) : self.getLength();
             return self.slice(start, end);
         }
         throw new IllegalArgumentException(String.valueOf(id));
@@ -215,7 +287,7 @@ public class NativeArrayBuffer
     protected Object getInstanceIdValue(int id)
     {
         if (id == Id_byteLength) {
-            return ScriptRuntime.wrapInt(buffer.length);
+            return ScriptRuntime.wrapInt(data.capacity());
         }
         return super.getInstanceIdValue(id);
     }
@@ -233,4 +305,29 @@ public class NativeArrayBuffer
     private static final int
         Id_byteLength           = 1,
         MAX_INSTANCE_ID         = Id_byteLength;
+
+    // A buffer is written as the byte[] field "buffer" it had before it held a ByteBuffer, so
+    // that streams stay compatible, and is read back as a heap buffer
+
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("buffer", byte[].class)
+    };
+
+    private void writeObject(ObjectOutputStream out)
+        throws IOException
+    {
+        byte[] bytes = new byte[data.capacity()];
+        data.duplicate().get(bytes);
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("buffer", bytes);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream.GetField fields = in.readFields();
+        byte[] bytes = (byte[])fields.get("buffer", null);
+        data = ByteBuffer.wrap(bytes == null ? EMPTY_BUF : bytes);
+    }
 }
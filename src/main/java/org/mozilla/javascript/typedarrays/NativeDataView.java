@@ -104,14 +104,14 @@ public class NativeDataView
 
         switch (bytes) {
         case 1:
-            return (signed ? ByteIo.readInt8(arrayBuffer.buffer, offset) :
-                             ByteIo.readUint8(arrayBuffer.buffer, offset));
+            return (signed ? ByteIo.readInt8(arrayBuffer.data, offset) :
+                             ByteIo.readUint8(arrayBuffer.data, offset));
         case 2:
-            return (signed ? ByteIo.readInt16(arrayBuffer.buffer, offset, littleEndian) :
-                             ByteIo.readUint16(arrayBuffer.buffer, offset, littleEndian));
+            return (signed ? ByteIo.readInt16(arrayBuffer.data, offset, littleEndian) :
+                             ByteIo.readUint16(arrayBuffer.data, offset, littleEndian));
         case 4:
-            return (signed ? ByteIo.readInt32(arrayBuffer.buffer, offset, littleEndian) :
-                             ByteIo.readUint32(arrayBuffer.buffer, offset, littleEndian));
+            return (signed ? ByteIo.readInt32(arrayBuffer.data, offset, littleEndian) :
+                             ByteIo.readUint32(arrayBuffer.data, offset, littleEndian));
         default:
             throw new AssertionError();
         }
@@ -129,9 +129,9 @@ public class NativeDataView
 
         switch (bytes) {
         case 4:
-            return ByteIo.readFloat32(arrayBuffer.buffer, offset, littleEndian);
+            return ByteIo.readFloat32(arrayBuffer.data, offset, littleEndian);
         case 8:
-            return ByteIo.readFloat64(arrayBuffer.buffer, offset, littleEndian);
+            return ByteIo.readFloat64(arrayBuffer.data, offset, littleEndian);
         default:
             throw new AssertionError();
         }
@@ -151,23 +151,23 @@ public class NativeDataView
         switch (bytes) {
         case 1:
             if (signed) {
-                ByteIo.writeInt8(arrayBuffer.buffer, offset, Conversions.toInt8(args[1]));
+                ByteIo.writeInt8(arrayBuffer.data, offset, Conversions.toInt8(args[1]));
             } else {
-                ByteIo.writeUint8(arrayBuffer.buffer, offset, Conversions.toUint8(args[1]));
+                ByteIo.writeUint8(arrayBuffer.data, offset, Conversions.toUint8(args[1]));
             }
             break;
         case 2:
             if (signed) {
-                ByteIo.writeInt16(arrayBuffer.buffer, offset, Conversions.toInt16(args[1]), littleEndian);
+                ByteIo.writeInt16(arrayBuffer.data, offset, Conversions.toInt16(args[1]), littleEndian);
             } else {
-                ByteIo.writeUint16(arrayBuffer.buffer, offset, Conversions.toUint16(args[1]), littleEndian);
+                ByteIo.writeUint16(arrayBuffer.data, offset, Conversions.toUint16(args[1]), littleEndian);
             }
             break;
         case 4:
             if (signed) {
-                ByteIo.writeInt32(arrayBuffer.buffer, offset, Conversions.toInt32(args[1]), littleEndian);
+                ByteIo.writeInt32(arrayBuffer.data, offset, Conversions.toInt32(args[1]), littleEndian);
             } else {
-                ByteIo.writeUint32(arrayBuffer.buffer, offset, Conversions.toUint32(args[1]), littleEndian);
+                ByteIo.writeUint32(arrayBuffer.data, offset, Conversions.toUint32(args[1]), littleEndian);
             }
             break;
         default:
@@ -189,10 +189,10 @@ public class NativeDataView
 
         switch (bytes) {
         case 4:
-            ByteIo.writeFloat32(arrayBuffer.buffer, offset, val, littleEndian);
+            ByteIo.writeFloat32(arrayBuffer.data, offset, val, littleEndian);
             break;
         case 8:
-            ByteIo.writeFloat64(arrayBuffer.buffer, offset, val, littleEndian);
+            ByteIo.writeFloat64(arrayBuffer.data, offset, val, littleEndian);
             break;
         default:
             throw new AssertionError();
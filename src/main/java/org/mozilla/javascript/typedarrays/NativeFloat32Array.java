@@ -78,7 +78,7 @@ public class NativeFloat32Array
         if (checkIndex(index)) {
             return Undefined.instance;
         }
-        return ByteIo.readFloat32(arrayBuffer.buffer, (index * BYTES_PER_ELEMENT) + offset, false);
+        return ByteIo.readFloat32(arrayBuffer.data, (index * BYTES_PER_ELEMENT) + offset, false);
     }
 
     @Override
@@ -88,7 +88,7 @@ public class NativeFloat32Array
             return Undefined.instance;
         }
         double val = ScriptRuntime.toNumber(c);
-        ByteIo.writeFloat32(arrayBuffer.buffer, (index * BYTES_PER_ELEMENT) + offset, val, false);
+        ByteIo.writeFloat32(arrayBuffer.data, (index * BYTES_PER_ELEMENT) + offset, val, false);
         return null;
     }
 
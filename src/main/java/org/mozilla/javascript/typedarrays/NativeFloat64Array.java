@@ -6,6 +6,8 @@
 
 package org.mozilla.javascript.typedarrays;
 
+import java.nio.DoubleBuffer;
+
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.IdFunctionObject;
 import org.mozilla.javascript.ScriptRuntime;
@@ -25,6 +27,9 @@ public class NativeFloat64Array
     private static final String CLASS_NAME = "Float64Array";
     private static final int BYTES_PER_ELEMENT = 8;
 
+    /** The region seen as doubles, so that no element is put together from bytes; made lazily */
+    private transient DoubleBuffer doubles;
+
     public NativeFloat64Array()
     {
     }
@@ -39,6 +44,26 @@ public class NativeFloat64Array
         this(new NativeArrayBuffer(len * BYTES_PER_ELEMENT), 0, len);
     }
 
+    /**
+     * Return a DoubleBuffer over the elements of this array, for numeric code that fills or
+     * reads whole arrays of doubles. It shares the backing buffer's bytes but not this view's
+     * position or limit.
+     */
+    public DoubleBuffer asDoubleBuffer()
+    {
+        return elements().duplicate();
+    }
+
+    private DoubleBuffer elements()
+    {
+        DoubleBuffer b = doubles;
+        if (b == null) {
+            b = arrayBuffer.region(offset, byteLength).asDoubleBuffer();
+            doubles = b;
+        }
+        return b;
+    }
+
     @Override
     public String getClassName()
     {
@@ -78,8 +103,7 @@ public class NativeFloat64Array
         if (checkIndex(index)) {
             return Undefined.instance;
         }
-        long base = ByteIo.readUint64Primitive(arrayBuffer.buffer, (index * BYTES_PER_ELEMENT) + offset, false);
-        return Double.longBitsToDouble(base);
+        return elements().get(index);
     }
 
     @Override
@@ -89,8 +113,11 @@ public class NativeFloat64Array
             return Undefined.instance;
         }
         double val = ScriptRuntime.toNumber(c);
-        long base = Double.doubleToLongBits(val);
-        ByteIo.writeUint64(arrayBuffer.buffer, (index * BYTES_PER_ELEMENT) + offset, base, false);
+        if (val != val) {
+            // Store the one NaN, as doubleToLongBits would
+            val = Double.NaN;
+        }
+        elements().put(index, val);
         return null;
     }
 
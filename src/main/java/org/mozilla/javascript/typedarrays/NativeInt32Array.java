@@ -6,6 +6,8 @@
 
 package org.mozilla.javascript.typedarrays;
 
+import java.nio.IntBuffer;
+
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.IdFunctionObject;
 import org.mozilla.javascript.ScriptRuntime;
@@ -25,6 +27,9 @@ public class NativeInt32Array
     private static final String CLASS_NAME = "Int32Array";
     private static final int BYTES_PER_ELEMENT = 4;
 
+    /** An int view of the region, so an element is one getInt or putInt; made lazily */
+    private transient IntBuffer ints;
+
     public NativeInt32Array()
     {
     }
@@ -39,6 +44,26 @@ public class NativeInt32Array
         this(new NativeArrayBuffer(len * BYTES_PER_ELEMENT), 0, len);
     }
 
+    /**
+     * Return an IntBuffer over the 32-bit elements of this array. Writes through it are seen
+     * by scripts, and bulk get and put calls move many ints at a time; its position and limit
+     * are its own.
+     */
+    public IntBuffer asIntBuffer()
+    {
+        return elements().duplicate();
+    }
+
+    private IntBuffer elements()
+    {
+        IntBuffer b = ints;
+        if (b == null) {
+            b = arrayBuffer.region(offset, byteLength).asIntBuffer();
+            ints = b;
+        }
+        return b;
+    }
+
     @Override
     public String getClassName()
     {
@@ -78,7 +103,7 @@ public class NativeInt32Array
         if (checkIndex(index)) {
             return Undefined.instance;
         }
-        return ByteIo.readInt32(arrayBuffer.buffer, (index * BYTES_PER_ELEMENT) + offset, false);
+        return elements().get(index);
     }
 
     @Override
@@ -88,7 +113,7 @@ public class NativeInt32Array
             return Undefined.instance;
         }
         int val = ScriptRuntime.toInt32(c);
-        ByteIo.writeInt32(arrayBuffer.buffer, (index * BYTES_PER_ELEMENT) + offset, val, false);
+        elements().put(index, val);
         return null;
     }
 
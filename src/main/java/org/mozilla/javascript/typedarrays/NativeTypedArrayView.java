@@ -138,10 +138,10 @@ public abstract class NativeTypedArrayView<T>
                 byteLen = na.getLength() - byteOff;
             }
 
-            if ((byteOff < 0) || (byteOff > na.buffer.length)) {
+            if ((byteOff < 0) || (byteOff > na.getLength())) {
                 throw ScriptRuntime.constructError("RangeError", "offset out of range");
             }
-            if ((byteLen < 0) || ((byteOff + byteLen) > na.buffer.length)) {
+            if ((byteLen < 0) || ((byteOff + byteLen) > na.getLength())) {
                 throw ScriptRuntime.constructError("RangeError", "length out of range");
             }
             if ((byteOff % getBytesPerElement()) != 0) {
@@ -77,7 +77,7 @@ public class NativeUint16Array
         if (checkIndex(index)) {
             return Undefined.instance;
         }
-        return ByteIo.readUint16(arrayBuffer.buffer, (index * BYTES_PER_ELEMENT) + offset, false);
+        return ByteIo.readUint16(arrayBuffer.data, (index * BYTES_PER_ELEMENT) + offset, false);
     }
 
     @Override
@@ -87,7 +87,7 @@ public class NativeUint16Array
             return Undefined.instance;
         }
         int val = Conversions.toUint16(c);
-        ByteIo.writeUint16(arrayBuffer.buffer, (index * BYTES_PER_ELEMENT) + offset, val, false);
+        ByteIo.writeUint16(arrayBuffer.data, (index * BYTES_PER_ELEMENT) + offset, val, false);
         return null;
     }
 
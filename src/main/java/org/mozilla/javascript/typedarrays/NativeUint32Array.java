@@ -77,7 +77,7 @@ public class NativeUint32Array
         if (checkIndex(index)) {
             return Undefined.instance;
         }
-        return ByteIo.readUint32(arrayBuffer.buffer, (index * BYTES_PER_ELEMENT) + offset, false);
+        return ByteIo.readUint32(arrayBuffer.data, (index * BYTES_PER_ELEMENT) + offset, false);
     }
 
     @Override
@@ -87,7 +87,7 @@ public class NativeUint32Array
             return Undefined.instance;
         }
         long val = Conversions.toUint32(c);
-        ByteIo.writeUint32(arrayBuffer.buffer, (index * BYTES_PER_ELEMENT) + offset, val, false);
+        ByteIo.writeUint32(arrayBuffer.data, (index * BYTES_PER_ELEMENT) + offset, val, false);
         return null;
     }
 
@@ -77,7 +77,7 @@ public class NativeUint8ClampedArray
         if (checkIndex(index)) {
             return Undefined.instance;
         }
-        return ByteIo.readUint8(arrayBuffer.buffer, index + offset);
+        return ByteIo.readUint8(arrayBuffer.data, index + offset);
     }
 
     @Override
@@ -87,7 +87,7 @@ public class NativeUint8ClampedArray
             return Undefined.instance;
         }
         int val = Conversions.toUint8Clamp(c);
-        ByteIo.writeUint8(arrayBuffer.buffer, index + offset, val);
+        ByteIo.writeUint8(arrayBuffer.data, index + offset, val);
         return null;
     }
 
@@ -3,9 +3,21 @@ package XPR;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class ConfigurationTest {
   Configuration configuration;
@@ -75,6 +87,30 @@ public class ConfigurationTest {
     assertEquals(activation, configuration.findParameterByTrigger("--activation"));
   }
 
+  @Test
+  public void findParameterByTrigger_exact() throws Exception {
+    Configuration.Parameter verbose = new Configuration.Parameter(
+      "verbose", Configuration.Parameter.ValueType.NONE, "--verbose", "-v"
+    );
+    Configuration.Parameter shadow = new Configuration.Parameter(
+      "shadow", Configuration.Parameter.ValueType.NONE, "--activation"
+    );
+    Configuration c = new Configuration("exact", new Configuration.Director() {
+        public boolean set(Configuration main, Configuration.Parameter parameter,
+          int parameterIndex, Object value) { return true; }
+        public int parse(Configuration main, int index, String parameter,
+          String value) { return 0; }
+        public Object get(String path) { return path; }
+        public String locateHelpFor(String path) { return null; }
+      },
+      new Configuration.Category("main", activation, verbose, shadow)
+    );
+    assertEquals(verbose, c.findParameterByTrigger("-v"));
+    // a selector declared first still wins over a later exact trigger
+    assertEquals(activation, c.findParameterByTrigger("--activation"));
+    assertEquals(null, c.findParameterByTrigger("--missing"));
+  }
+
   @Test
   public void findParameterByName() throws Exception {
     assertEquals(file, configuration.findParameterByName("test.main.my.super.file"));
@@ -100,6 +136,50 @@ public class ConfigurationTest {
     assertEquals("/dev/stdin", configuration.get("test.main.my.super.file"));
   }
 
+  @Test
+  public void get_live() throws Exception {
+    int[] ticks = {0};
+    Configuration[] self = {null};
+    ArrayList<String> seen = new ArrayList<>();
+    HashMap<String, Object> database = new HashMap<>();
+    Configuration c = new Configuration("live", new Configuration.Director() {
+        public boolean set(Configuration main, Configuration.Parameter parameter,
+          int parameterIndex, Object value) {
+          database.put(main.getParameterPath(parameter), value); return true;
+        }
+        // an unknown option sets a parameter path behind Configuration's back
+        public int parse(Configuration main, int index, String parameter,
+          String value) {
+          database.put("live.main.my.super.file", parameter); return 1;
+        }
+        public Object get(String path) {
+          seen.add(path);
+          if (path.equals("live.main.activation")) return ++ticks[0];
+          if (path.equals("live.alias")) return self[0].get("live.main.my.super.file");
+          return database.get(path);
+        }
+        public String locateHelpFor(String path) { return null; }
+      },
+      new Configuration.Category("main", activation, file)
+    );
+    self[0] = c;
+    c.set("live.main.my.super.file", "a");
+    assertEquals("a", c.get("live.main.my.super.file"));
+    c.configure("--unknown");
+    assertEquals("--unknown", c.get("live.main.my.super.file"));
+    database.put("live.main.my.super.file", "b");
+    assertEquals("b", c.get("live.main.my.super.file"));
+    // values computed by the director are asked for every time
+    assertEquals(1, (int) c.get("live.main.activation"));
+    assertEquals(2, (int) c.get("live.main.activation"));
+    // a director may read the configuration while it answers
+    assertEquals("b", c.get("live.alias"));
+    // known paths reach the director as the path table's own string
+    seen.clear();
+    c.get(new String("live.main.my.super.file"));
+    assertTrue(seen.get(0) == c.getParameterPath(file));
+  }
+
   @Test public void parameter_value_fail() throws Exception {
     try {
       configuration.configure("--file", "--activation", "/dev/stdin");
@@ -110,6 +190,68 @@ public class ConfigurationTest {
     }
   }
 
+  @Test
+  public void load_snapshot() throws Exception {
+    ArrayList<Set<String>> changes = new ArrayList<>();
+    configuration.addReloadListener(
+      (main, previous, current, changed) -> changes.add(changed)
+    );
+    configuration.load("{\"limits\":{\"rate\":10,\"burst\":20}}");
+    configuration.load("{\"limits\":{\"rate\":15,\"burst\":20}}");
+    configuration.load("{\"limits\":{\"rate\":15,\"burst\":20}}");
+    assertEquals(15, (int) configuration.getSnapshot().get("limits.rate"));
+    assertEquals(2, changes.size());
+    assertEquals(Collections.singleton("limits.rate"), changes.get(1));
+  }
+
+  @Test
+  public void load_snapshot_frozen() throws Exception {
+    configuration.load("{\"empty\":{},\"list\":[{\"x\":[1]}]}");
+    Configuration.Snapshot s = configuration.getSnapshot();
+    assertTrue(s.has("empty"));
+    assertEquals(Collections.emptyMap(), s.get("empty"));
+    List<Map<String, Object>> list = s.get("list");
+    try {
+      list.get(0).put("y", 2);
+      fail();
+    } catch (UnsupportedOperationException expected) {}
+    try {
+      ((List<Object>) list.get(0).get("x")).add(2);
+      fail();
+    } catch (UnsupportedOperationException expected) {}
+  }
+
+  @Test
+  public void load_listener_unlocked() throws Exception {
+    configuration.addReloadListener((main, previous, current, changed) -> {
+      if (! changed.contains("first")) return;
+      // another thread may load while listeners run
+      Thread t = new Thread(() -> main.load("{\"second\":1}"));
+      t.start();
+      try { t.join(10000); } catch (InterruptedException e) { return; }
+    });
+    configuration.load("{\"first\":1}");
+    assertTrue(configuration.getSnapshot().has("second"));
+  }
+
+  @Test
+  public void watch_reload() throws Exception {
+    Path file = Files.createTempFile("xpr-configuration", ".json");
+    Files.write(file, "{\"rate\":1}".getBytes(StandardCharsets.UTF_8));
+    CountDownLatch reloaded = new CountDownLatch(1);
+    try (Configuration.Watcher w = configuration.watch(file)) {
+      assertEquals(1, (int) configuration.getSnapshot().get("rate"));
+      configuration.addReloadListener((main, previous, current, changed) -> {
+        if (changed.contains("rate")) reloaded.countDown();
+      });
+      Files.write(file, "{\"rate\":2}".getBytes(StandardCharsets.UTF_8));
+      assertTrue(reloaded.await(30, TimeUnit.SECONDS));
+      assertEquals(2, (int) configuration.getSnapshot().get("rate"));
+    } finally {
+      Files.delete(file);
+    }
+  }
+
   @Test
   public void toJSON() throws Exception {
     try {
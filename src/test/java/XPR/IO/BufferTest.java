@@ -0,0 +1,59 @@
+package XPR.IO;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.typedarrays.NativeArrayBuffer;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class BufferTest {
+
+  private static String run(Scriptable scope, String script) {
+    return Context.toString(Context.getCurrentContext()
+      .evaluateString(scope, script, "buffer.js", 1, null));
+  }
+
+  @Test
+  public void toArrayBuffer_sharesTheBufferBytes() throws Exception {
+    Integer id = Buffer.create(4, 2);
+    Context cx = Context.enter();
+    try {
+      cx.setLanguageVersion(Context.VERSION_ES6);
+      Scriptable scope = cx.initStandardObjects();
+      ScriptableObject.putProperty(scope, "buf",
+        Buffer.toArrayBuffer(cx, scope, id));
+      assertEquals("8,true", run(scope, "new Int32Array(buf)[1] = 7;"
+        + " [buf.byteLength, buf instanceof ArrayBuffer].join()"));
+      assertEquals(7, ByteBuffer.wrap(Buffer.get(id)).getInt(4));
+    } finally {
+      Context.exit();
+      Buffer.free(id);
+    }
+  }
+
+  @Test
+  public void toArrayBuffer_withoutES6() throws Exception {
+    ByteBuffer host = ByteBuffer.allocateDirect(16);
+    Context cx = Context.enter();
+    try {
+      cx.setLanguageVersion(Context.VERSION_1_7);
+      Scriptable scope = cx.initStandardObjects();
+      Scriptable buffer = Buffer.toArrayBuffer(cx, scope, host);
+      ScriptableObject.putProperty(scope, "buf", buffer);
+      assertEquals("16,[object ArrayBuffer]", run(scope, "[buf.byteLength,"
+        + " Object.prototype.toString.call(buf)].join()"));
+      assertSame(ScriptableObject.getObjectPrototype(scope),
+        buffer.getPrototype());
+      ((NativeArrayBuffer) buffer).getByteBuffer().putInt(0, 9);
+      assertEquals(9, host.getInt(0));
+    } finally {
+      Context.exit();
+    }
+  }
+
+}
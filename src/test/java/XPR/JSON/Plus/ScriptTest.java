@@ -0,0 +1,183 @@
+package XPR.JSON.Plus;
+
+import XPR.Fault;
+import XPR.JSON.Type.Variant;
+import XPR.JSON.Type.VariantList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EcmaError;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScriptTest {
+
+  private Context cx;
+  private Scriptable scope;
+
+  @Before
+  public void enter() {
+    cx = Context.enter();
+    cx.setLanguageVersion(Context.VERSION_1_8);
+    cx.setWrapFactory(new Script.WrapFactory());
+    scope = cx.initStandardObjects();
+  }
+
+  @After
+  public void exit() {
+    Context.exit();
+  }
+
+  private Object eval(String script) {
+    return cx.evaluateString(scope, script, "script.js", 1, null);
+  }
+
+  private String run(String script) {
+    return Context.toString(eval(script));
+  }
+
+  private void view(String name, Object tree) {
+    ScriptableObject.putProperty(scope, name,
+      Script.toScriptValue(scope, tree));
+  }
+
+  private String error(String script) {
+    try {
+      eval(script);
+    } catch (EcmaError e) {
+      return e.getName();
+    }
+    return "none";
+  }
+
+  @Test
+  public void viewsReadAndWriteTheTree() throws Exception {
+    Variant variant = new Variant("{\"a\":1,\"b\":{\"c\":[1,2]}}");
+    view("v", variant);
+    assertEquals("1,2,true,true",
+      run("[v.a, v.b.c[1], v.b === v.b, v.b.c === v.b.c].join()"));
+    eval("v.x = { y: [1, 'z'] }; v.a = undefined; v.b.c.push(3);");
+    assertFalse(variant.has("a"));
+    assertEquals("z", variant.getJSONValue("x").getJSONElements("y").get(1));
+    assertEquals(3, variant.getJSONValue("b").getJSONElements("c").length());
+  }
+
+  @Test
+  public void storingAViewIntoItselfFails() throws Exception {
+    Variant variant = new Variant("{\"a\":{\"b\":[]}}");
+    view("v", variant);
+    for (String store : new String[] { "v.self = v", "v.a.back = v",
+      "v.a.b[0] = v", "v.list = [1, { v: v }]", "v.a.b.push(v.a)" }) {
+      assertEquals(store, "TypeError", error(store));
+    }
+    assertEquals("{\"a\":{\"b\":[]}}", variant.toString());
+    // the same tree twice is not a cycle
+    eval("v.c = v.a.b; v.d = [v.a.b, v.a.b]");
+    assertSame(variant.getJSONValue("a").getJSONElements("b"),
+      variant.getJSONElements("c"));
+    assertEquals("{\"a\":{\"b\":[]},\"c\":[],\"d\":[[],[]]}",
+      run("JSON.stringify(v, ['a', 'b', 'c', 'd'])"));
+  }
+
+  @Test
+  public void treesThatContainThemselvesDoNotConvert() throws Exception {
+    Variant variant = new Variant();
+    variant.put("me", variant);
+    view("v", variant);
+    try {
+      Script.toVariant(eval("[v]"));
+      fail("converted a cycle");
+    } catch (Fault e) {
+      // expected
+    }
+    assertEquals("TypeError", error("v.x = v.me"));
+  }
+
+  @Test
+  public void deletedElementsAreHoles() throws Exception {
+    VariantList list = new VariantList("[1,2,3]");
+    view("a", list);
+    assertEquals("false,true,3,undefined,[null,2,3]",
+      run("delete a[0]; [0 in a, 1 in a, a.length, String(a[0]),"
+        + " JSON.stringify(a)].join()"));
+    assertTrue(list.isNull(0));
+    assertEquals("P,1,2", run("Array.prototype[0] = 'P';"
+      + " var r = [a[0], Object.keys(a)]; delete Array.prototype[0];"
+      + " r.join()"));
+    assertEquals("true,9", run("a[0] = 9; [0 in a, a[0]].join()"));
+    assertEquals(9, list.get(0));
+  }
+
+  @Test
+  public void lengthGrowsWithHolesAndTruncates() throws Exception {
+    VariantList list = new VariantList("[1,2]");
+    view("a", list);
+    assertEquals("5,false,true", run("a.length = 5; [a.length, 3 in a,"
+      + " 1 in a].join()"));
+    assertEquals(5, list.length());
+    assertEquals("1,1,false", run("a.length = 1; a.length = 3;"
+      + " [a[0], Object.keys(a).length, 1 in a].join()"));
+    assertEquals("6,false,7", run("a[5] = 7; [a.length, 4 in a, a[5]]"
+      + ".join()"));
+    long start = System.nanoTime();
+    assertEquals("RangeError", error("a.length = 1e9"));
+    assertEquals("RangeError", error("a[100000000] = 1"));
+    assertEquals("RangeError", error("a.length = -1"));
+    assertEquals("RangeError", error("a.length = 1.5"));
+    assertTrue(System.nanoTime() - start < 1000000000L);
+    assertEquals(6, list.length());
+  }
+
+  @Test
+  public void namedPropertiesOfArraysAreListed() throws Exception {
+    VariantList list = new VariantList("[1]");
+    view("a", list);
+    assertEquals("0,foo;foo;[1]", run("a.foo = 'x'; var k = [];"
+      + " for (var p in a) if (p === 'foo') k.push(p);"
+      + " [Object.keys(a), k, JSON.stringify(a)].join(';')"));
+    assertEquals(1, list.length());
+  }
+
+  @Test
+  public void toJSONGetsTheKey() throws Exception {
+    Object value = Script.toVariant(eval(
+      "var o = { toJSON: function(k) { return 'k=' + k; } };"
+        + " ({ p: o, q: [1, o] })"));
+    Variant variant = (Variant) value;
+    assertEquals("k=p", variant.get("p"));
+    assertEquals("k=1", variant.getJSONElements("q").get(1));
+    assertEquals("k=", Script.toVariant(eval("o")));
+  }
+
+  @Test
+  public void javaMethodsReturnViews() throws Exception {
+    Variant variant = new Variant("{\"n\":{\"m\":2}}");
+    ScriptableObject.putProperty(scope, "j",
+      Context.javaToJS(new Holder(variant), scope));
+    assertEquals("2,Object", run("var n = j.get().n;"
+      + " [n.m, Object.prototype.toString.call(j.get()).slice(8, -1)]"
+      + ".join()"));
+    eval("j.get().n.m = 3");
+    assertEquals(3, variant.getJSONValue("n").get("m"));
+  }
+
+  public static class Holder {
+    private final Variant variant;
+
+    public Holder(Variant variant) {
+      this.variant = variant;
+    }
+
+    public Variant get() {
+      return variant;
+    }
+  }
+
+}
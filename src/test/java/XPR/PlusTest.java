@@ -0,0 +1,32 @@
+package XPR;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PlusTest {
+
+  @Test
+  public void classMember() throws Exception {
+    assertTrue(Plus.classMember(new ArrayList<>(), List.class));
+    assertTrue(Plus.classMember(System.in, String.class, InputStream.class));
+    assertTrue(Plus.classMember(new byte[0], byte[].class));
+    assertFalse(Plus.classMember(new Object(), List.class));
+    assertFalse(Plus.classMember("", Integer.class));
+  }
+
+  @Test
+  public void getBasicListOf() throws Exception {
+    HashSet<String> set = new HashSet<>();
+    set.add("a");
+    assertArrayEquals(new Object[]{"a"}, Plus.getBasicListOf(set));
+  }
+
+}
@@ -0,0 +1,59 @@
+package XPR.System;
+
+import XPR.Fault;
+import XPR.JSON.Type.Variant;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+
+  @Test
+  public void counter() throws Exception {
+    Metrics.Counter c = Metrics.counter("test.counter");
+    assertSame(c, Metrics.counter("test.counter"));
+    c.add(5); c.decrement();
+    assertEquals(4, c.get());
+  }
+
+  @Test(expected = Fault.WrongParameterType.class)
+  public void wrongMeterType() throws Exception {
+    Metrics.counter("test.kind");
+    Metrics.histogram("test.kind");
+  }
+
+  @Test
+  public void histogram_buckets() throws Exception {
+    for (long v: new long[]{0, 31, 32, 33, 1000, 123456789L, Long.MAX_VALUE}) {
+      long lowest = Metrics.Histogram.lowestOf(Metrics.Histogram.bucketOf(v));
+      assertTrue(lowest <= v && v - lowest <= v / 32);
+    }
+  }
+
+  @Test
+  public void histogram_percentiles() throws Exception {
+    Metrics.Histogram h = Metrics.histogram("test.histogram");
+    for (int i = 1; i <= 1000; i++) h.record(i);
+    assertEquals(1000, h.getCount());
+    assertEquals(1, h.getMin());
+    assertEquals(1000, h.getMax());
+    long p50 = h.getPercentile(50);
+    assertTrue(p50 > 480 && p50 <= 500);
+    assertEquals(1000, h.getPercentile(100), 32);
+  }
+
+  @Test
+  public void snapshot() throws Exception {
+    Metrics.counter("test.snapshot").increment();
+    Metrics.gauge("test.gauge", () -> 42);
+    Variant v = Metrics.getSnapshot();
+    assertEquals(42, v.getLong("test.gauge"));
+    assertEquals(1, v.getLong("test.snapshot"));
+    new Variant("{\"a\":[1,2]}");
+    Variant parse = Metrics.getSnapshot().getJSONValue("XPR.JSON.Compiler.parse");
+    assertTrue(parse.getLong("count") > 0);
+  }
+
+}
@@ -0,0 +1,88 @@
+package XPR.System;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class VironTest {
+
+  @Test
+  public void readTable_copy() throws Exception {
+    Viron.set("viron.test.copy", "1");
+    Map<String, String> table = Viron.readTable();
+    table.put("viron.test.copy", "2");
+    assertEquals("1", Viron.get("viron.test.copy"));
+    assertSame(Viron.snapshot(), Viron.snapshot());
+    Viron.clearKey("viron.test.copy");
+  }
+
+  @Test
+  public void listener() throws Exception {
+    ArrayList<String> changes = new ArrayList<>();
+    Viron.Listener l = (key, previous, value) -> {
+      if (key.startsWith("viron.test.listen")) changes.add(key + "=" + value);
+    };
+    Viron.addListener(l);
+    try {
+      Viron.set("viron.test.listen", "a");
+      Viron.set("viron.test.listen", "a");
+      Viron.clearKey("viron.test.listen");
+    } finally {
+      Viron.removeListener(l);
+    }
+    assertEquals(Arrays.asList("viron.test.listen=a", "viron.test.listen=null"), changes);
+  }
+
+  @Test
+  public void scope_overlay() throws Exception {
+    Viron.set("viron.test.scope", "process");
+    try (Viron.Scope s = Viron.openScope()) {
+      assertEquals("process", Viron.get("viron.test.scope"));
+      Viron.set("viron.test.scope", "scope");
+      Viron.set("viron.test.null", null);
+      assertEquals("scope", Viron.get("viron.test.scope"));
+      assertTrue(Viron.snapshot().containsKey("viron.test.null"));
+      Viron.clearKey("viron.test.scope");
+      assertNull(Viron.get("viron.test.scope"));
+      assertFalse(Arrays.asList(Viron.getKeys()).contains("viron.test.scope"));
+    }
+    assertEquals("process", Viron.get("viron.test.scope"));
+    assertNull(Viron.getScope());
+    Viron.clearKey("viron.test.scope");
+  }
+
+  @Test
+  public void scope_set_null() throws Exception {
+    try (Viron.Scope outer = Viron.openScope()) {
+      Viron.set("viron.test.shadow", "outer");
+      try (Viron.Scope inner = Viron.openScope()) {
+        Viron.set("viron.test.shadow", null);
+        assertNull(Viron.get("viron.test.shadow"));
+      }
+      assertEquals("outer", Viron.get("viron.test.shadow"));
+    }
+  }
+
+  @Test
+  public void scope_close_out_of_order() throws Exception {
+    Viron.Scope outer = Viron.openScope();
+    Viron.set("viron.test.order", "outer");
+    Viron.Scope inner = Viron.openScope();
+    outer.close();
+    assertFalse(outer.isOpen());
+    // the inner scope no longer sees the closed outer scope
+    assertNull(Viron.get("viron.test.order"));
+    assertSame(inner, Viron.getScope());
+    inner.close();
+    assertNull(Viron.getScope());
+  }
+
+}
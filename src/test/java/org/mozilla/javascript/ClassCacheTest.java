@@ -0,0 +1,139 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.classfile.ByteCode;
+import org.mozilla.classfile.ClassFileWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that the global ClassCache does not keep class loaders alive.
+ */
+public class ClassCacheTest
+{
+    private boolean invokerOptimization;
+
+    @Before
+    public void enableAccessors()
+    {
+        invokerOptimization =
+            ClassCache.getGlobal().isInvokerOptimizationEnabled();
+        ClassCache.getGlobal().setInvokerOptimizationEnabled(true);
+    }
+
+    @After
+    public void restoreAccessors()
+    {
+        ClassCache.getGlobal().setInvokerOptimizationEnabled(
+            invokerOptimization);
+    }
+
+    @Test
+    public void droppedLoaderIsCollected() throws Exception
+    {
+        WeakReference<ClassLoader> loader = usePayloadFromOwnLoader();
+        assertCollected(loader);
+    }
+
+    @Test
+    public void droppedApplicationLoaderIsCollected() throws Exception
+    {
+        WeakReference<ClassLoader> loader = useBootstrapClasses();
+        assertCollected(loader);
+    }
+
+    private static WeakReference<ClassLoader> usePayloadFromOwnLoader()
+    {
+        DefiningClassLoader loader = new DefiningClassLoader(
+            ClassCacheTest.class.getClassLoader());
+        Class<?> cl = loader.defineClass("CachePayload", payloadClass());
+        ContextFactory factory = new ContextFactory();
+        factory.setClassCache(ClassCache.getGlobal());
+        Context cx = factory.enterContext();
+        try {
+            cx.setOptimizationLevel(-1);
+            Scriptable scope = cx.initStandardObjects();
+            ScriptableObject.putProperty(scope, "Payload",
+                                         new NativeJavaClass(scope, cl));
+            Object result = cx.evaluateString(scope,
+                "new Payload().twice(5)", "payload.js", 1, null);
+            assertEquals(10, ((Number) result).intValue());
+            JavaMembers members = ClassCache.getGlobal().getReflectedClass(
+                cl, false, false);
+            assertNotNull(members);
+            assertSame(loader, members.getAccessorParent());
+        } finally {
+            Context.exit();
+        }
+        return new WeakReference<ClassLoader>(loader);
+    }
+
+    private static WeakReference<ClassLoader> useBootstrapClasses()
+    {
+        ClassLoader loader = new URLClassLoader(new URL[0],
+            ClassCacheTest.class.getClassLoader());
+        ContextFactory factory = new ContextFactory();
+        factory.initApplicationClassLoader(loader);
+        factory.setClassCache(ClassCache.getGlobal());
+        Context cx = factory.enterContext();
+        try {
+            cx.setOptimizationLevel(-1);
+            Scriptable scope = cx.initStandardObjects();
+            Object result = cx.evaluateString(scope,
+                "var m = new java.util.HashMap(); m.put('k', 'v');"
+                + " m.get('k') + m.size()", "boot.js", 1, null);
+            assertEquals("v1", result);
+            assertNotNull(ClassCache.getGlobal().getReflectedClass(
+                java.util.HashMap.class, false, false));
+        } finally {
+            Context.exit();
+        }
+        return new WeakReference<ClassLoader>(loader);
+    }
+
+    private static void assertCollected(WeakReference<ClassLoader> ref)
+        throws InterruptedException
+    {
+        for (int i = 0; i != 50 && ref.get() != null; ++i) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull("class loader is still reachable", ref.get());
+    }
+
+    // public class CachePayload { public int twice(int x) { return x + x; } }
+    private static byte[] payloadClass()
+    {
+        ClassFileWriter cfw = new ClassFileWriter("CachePayload",
+                                                  "java.lang.Object",
+                                                  "<payload>");
+        cfw.startMethod("<init>", "()V", ClassFileWriter.ACC_PUBLIC);
+        cfw.addALoad(0);
+        cfw.addInvoke(ByteCode.INVOKESPECIAL, "java/lang/Object", "<init>",
+                      "()V");
+        cfw.add(ByteCode.RETURN);
+        cfw.stopMethod((short)1);
+        cfw.startMethod("twice", "(I)I", ClassFileWriter.ACC_PUBLIC);
+        cfw.addILoad(1);
+        cfw.addILoad(1);
+        cfw.add(ByteCode.IADD);
+        cfw.add(ByteCode.IRETURN);
+        cfw.stopMethod((short)2);
+        return cfw.toByteArray();
+    }
+}
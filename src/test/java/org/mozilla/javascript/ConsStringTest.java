@@ -0,0 +1,186 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ConsStringTest
+{
+    @Test
+    public void appendsInALoop()
+    {
+        CharSequence s = "";
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i != 5000; ++i) {
+            String piece = Integer.toString(i);
+            s = new ConsString(s, piece);
+            expected.append(piece);
+        }
+        assertChars(expected.toString(), s);
+    }
+
+    @Test
+    public void wrapsInALoop()
+    {
+        CharSequence s = "x";
+        for (int i = 0; i != 3000; ++i) {
+            s = new ConsString(new ConsString("<", s), ">");
+        }
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i != 3000; ++i) {
+            expected.append('<');
+        }
+        expected.append('x');
+        for (int i = 0; i != 3000; ++i) {
+            expected.append('>');
+        }
+        assertChars(expected.toString(), s);
+    }
+
+    @Test(timeout = 5000)
+    public void wrappingIsNotQuadratic()
+    {
+        // Copying the whole string on every wrap takes tens of seconds
+        CharSequence s = "";
+        int n = 600000;
+        for (int i = 0; i != n; ++i) {
+            s = new ConsString(new ConsString("<", s), ">");
+        }
+        assertEquals(2 * n, s.toString().length());
+        assertEquals('<', s.charAt(n - 1));
+        assertEquals('>', s.charAt(n));
+    }
+
+    @Test
+    public void earlierStringsKeepTheirChars()
+    {
+        // Both appends to a string whose last piece is in a buffer must
+        // leave it and each other unchanged
+        CharSequence base = "";
+        for (int i = 0; i != 100; ++i) {
+            base = new ConsString(base, "ab");
+        }
+        String before = base.toString();
+        CharSequence a = new ConsString(base, "x");
+        CharSequence b = new ConsString(base, "y");
+        CharSequence a2 = new ConsString(a, "z");
+        assertChars(before, base);
+        assertChars(before + "x", a);
+        assertChars(before + "y", b);
+        assertChars(before + "xz", a2);
+    }
+
+    @Test
+    public void randomTrees()
+    {
+        Random random = new Random(42);
+        List<CharSequence> ropes = new ArrayList<CharSequence>();
+        List<String> strings = new ArrayList<String>();
+        ropes.add("");
+        strings.add("");
+        for (int i = 0; i != 3000; ++i) {
+            int a = random.nextInt(ropes.size());
+            int b = random.nextInt(ropes.size());
+            CharSequence rope;
+            String string;
+            switch (random.nextInt(4)) {
+              case 0:
+                String piece = randomString(random);
+                rope = new ConsString(ropes.get(a), piece);
+                string = strings.get(a) + piece;
+                break;
+              case 1:
+                piece = randomString(random);
+                rope = new ConsString(piece, ropes.get(a));
+                string = piece + strings.get(a);
+                break;
+              case 2:
+                rope = new ConsString(ropes.get(a), ropes.get(b));
+                string = strings.get(a) + strings.get(b);
+                break;
+              default:
+                // keep extending the last string, as a loop would
+                a = ropes.size() - 1;
+                piece = randomString(random);
+                rope = new ConsString(ropes.get(a), piece);
+                string = strings.get(a) + piece;
+                break;
+            }
+            if (string.length() > 100000) {
+                continue;
+            }
+            ropes.add(rope);
+            strings.add(string);
+        }
+        for (int i = 0; i != ropes.size(); ++i) {
+            CharSequence rope = ropes.get(i);
+            String string = strings.get(i);
+            assertEquals(string.length(), rope.length());
+            for (int k = 0; k != 5 && string.length() != 0; ++k) {
+                int at = random.nextInt(string.length());
+                assertEquals(string.charAt(at), rope.charAt(at));
+                int end = at + random.nextInt(string.length() - at + 1);
+                assertEquals(string.substring(at, end),
+                             rope.subSequence(at, end).toString());
+            }
+            assertChars(string, rope);
+        }
+    }
+
+    @Test
+    public void indexesOutOfRange()
+    {
+        CharSequence s = "";
+        for (int i = 0; i != 20; ++i) {
+            s = new ConsString(s, "abc");
+        }
+        int n = s.length();
+        for (int index : new int[] { -1, n, Integer.MIN_VALUE }) {
+            try {
+                s.charAt(index);
+                fail("charAt(" + index + ")");
+            } catch (StringIndexOutOfBoundsException ex) {
+                // expected
+            }
+        }
+        int[][] ranges = { { -1, 2 }, { 0, n + 1 }, { 3, 2 } };
+        for (int[] range : ranges) {
+            try {
+                s.subSequence(range[0], range[1]);
+                fail("subSequence(" + range[0] + ", " + range[1] + ")");
+            } catch (StringIndexOutOfBoundsException ex) {
+                // expected
+            }
+        }
+        assertEquals("abcabc", s.subSequence(n - 6, n).toString());
+        assertEquals('c', s.charAt(n - 1));
+    }
+
+    private static String randomString(Random random)
+    {
+        int n = random.nextInt(10) == 0 ? random.nextInt(2000)
+                                        : random.nextInt(6);
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i != n; ++i) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    private static void assertChars(String expected, CharSequence actual)
+    {
+        assertEquals(expected.length(), actual.length());
+        assertEquals(expected, actual.toString());
+    }
+}
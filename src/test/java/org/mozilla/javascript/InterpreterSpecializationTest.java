@@ -0,0 +1,277 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the instructions the interpreter rewrites in place once it has
+ * seen their operands, and the boxes of small numbers it hands out.
+ */
+public class InterpreterSpecializationTest
+{
+    @Test
+    public void addSiteFallsBackForGood()
+    {
+        Scriptable scope = newScope();
+        Context cx = Context.enter();
+        try {
+            cx.setOptimizationLevel(-1);
+            cx.evaluateString(scope,
+                "function add(a, b) { return a + b; }"
+                + " var o = { valueOf: function() { return 40; } };",
+                "add.js", 1, null);
+            assertEquals(0, count(scope, "add", Icode.Icode_ADD_NUM));
+
+            assertEquals("3", eval(cx, scope, "add(1, 2)"));
+            assertEquals(1, count(scope, "add", Icode.Icode_ADD_NUM));
+            assertEquals("4", eval(cx, scope, "add(1.5, 2.5)"));
+            assertEquals(1, count(scope, "add", Icode.Icode_ADD_NUM));
+
+            assertEquals("a1", eval(cx, scope, "add('a', 1)"));
+            assertEquals(0, count(scope, "add", Icode.Icode_ADD_NUM));
+            assertEquals(1, count(scope, "add", Token.ADD));
+            assertEquals("42", eval(cx, scope, "add(o, 2)"));
+            assertEquals("3", eval(cx, scope, "add(1, 2)"));
+            assertEquals(0, count(scope, "add", Icode.Icode_ADD_NUM));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void compareSiteFallsBackForGood()
+    {
+        Scriptable scope = newScope();
+        Context cx = Context.enter();
+        try {
+            cx.setOptimizationLevel(-1);
+            cx.evaluateString(scope,
+                "function lt(a, b) { return a < b; }"
+                + " var log = ''; var o = { valueOf: function() {"
+                + " log += 'v'; return 1; } };",
+                "lt.js", 1, null);
+
+            assertEquals("true", eval(cx, scope, "lt(1, 2)"));
+            assertEquals(1, count(scope, "lt", Icode.Icode_LT_NUM));
+            assertEquals("false", eval(cx, scope, "lt(2.5, 0.5)"));
+            assertEquals("false", eval(cx, scope, "lt(0 / 0, 1)"));
+            assertEquals(1, count(scope, "lt", Icode.Icode_LT_NUM));
+
+            assertEquals("true", eval(cx, scope, "lt('a', 'b')"));
+            assertEquals(0, count(scope, "lt", Icode.Icode_LT_NUM));
+            assertEquals("false,v", eval(cx, scope, "[lt(o, 1), log]"));
+            assertEquals("true", eval(cx, scope, "lt(1, 2)"));
+            assertEquals(0, count(scope, "lt", Icode.Icode_LT_NUM));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void closuresShareTheirFeedback()
+    {
+        Scriptable scope = newScope();
+        Context cx = Context.enter();
+        try {
+            cx.setOptimizationLevel(-1);
+            cx.evaluateString(scope,
+                "function make() { return function(a, b) { return a + b; }; }"
+                + " var f = make(), g = make();",
+                "make.js", 1, null);
+            assertEquals("3", eval(cx, scope, "f(1, 2)"));
+            assertEquals(1, count(scope, "g", Icode.Icode_ADD_NUM));
+            assertEquals("ab", eval(cx, scope, "g('a', 'b')"));
+            assertEquals(0, count(scope, "f", Icode.Icode_ADD_NUM));
+            assertEquals("3", eval(cx, scope, "f(1, 2)"));
+            assertEquals(0, count(scope, "f", Icode.Icode_ADD_NUM));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void denseReadsFindHolesInThePrototype()
+    {
+        Scriptable scope = newScope();
+        Context cx = Context.enter();
+        try {
+            cx.setOptimizationLevel(-1);
+            cx.evaluateString(scope,
+                "function get(a, i) { return a[i]; }"
+                + " Object.defineProperty(Array.prototype, '1', {"
+                + " get: function() { return 'P'; }, configurable: true });"
+                + " var ints = [0, , 2], doubles = [0.5, , 2.5],"
+                + " objects = ['a', , 'c'], deleted = [0, 1, 2];"
+                + " delete deleted[1];",
+                "get.js", 1, null);
+
+            assertEquals("0", eval(cx, scope, "get(ints, 0)"));
+            assertEquals(1, count(scope, "get", Icode.Icode_GETELEM_DENSE));
+            assertEquals("P,P,P,P", eval(cx, scope,
+                "[get(ints, 1), get(doubles, 1), get(objects, 1),"
+                + " get(deleted, 1)]"));
+            assertEquals("0.5,c,2,undefined", eval(cx, scope,
+                "[get(doubles, 0), get(objects, 2), get(deleted, 2),"
+                + " typeof get(ints, 3)]"));
+            assertEquals(1, count(scope, "get", Icode.Icode_GETELEM_DENSE));
+
+            assertEquals("x", eval(cx, scope, "get({ 0: 'x' }, 0)"));
+            assertEquals(0, count(scope, "get", Icode.Icode_GETELEM_DENSE));
+            assertEquals("P", eval(cx, scope, "get(ints, 1)"));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void denseWritesFindSettersInThePrototype()
+    {
+        Scriptable scope = newScope();
+        Context cx = Context.enter();
+        try {
+            cx.setOptimizationLevel(-1);
+            cx.evaluateString(scope,
+                "function set(a, i, v) { a[i] = v; }"
+                + " var log = '';"
+                + " Object.defineProperty(Array.prototype, '1', {"
+                + " get: function() { return 'P'; },"
+                + " set: function(v) { log += v; }, configurable: true });"
+                + " var ints = [0, , 2], doubles = [0.5, , 2.5],"
+                + " objects = ['a', , 'c'];",
+                "set.js", 1, null);
+
+            eval(cx, scope, "set(ints, 0, 7)");
+            assertEquals(1, count(scope, "set", Icode.Icode_SETELEM_DENSE));
+            eval(cx, scope,
+                "set(ints, 1, 'i'); set(doubles, 1, 1.5);"
+                + " set(objects, 1, 'o');");
+            assertEquals("i1.5o,P,false,false,false", eval(cx, scope,
+                "[log, ints[1], ints.hasOwnProperty(1),"
+                + " doubles.hasOwnProperty(1), objects.hasOwnProperty(1)]"));
+            assertEquals(1, count(scope, "set", Icode.Icode_SETELEM_DENSE));
+
+            eval(cx, scope,
+                "set(ints, 2, 8); set(doubles, 2, 'd'); set(objects, 0, 9);");
+            assertEquals("7,P,8|0.5,P,d|9,P,c", eval(cx, scope,
+                "[ints, doubles, objects].join('|')"));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void sharedSitesGiveTheRightResultsOnEveryThread()
+        throws InterruptedException
+    {
+        Context cx = Context.enter();
+        final Script script;
+        try {
+            cx.setOptimizationLevel(-1);
+            script = cx.compileString(
+                "function add(a, b) { return a + b; }"
+                + " function get(a, i) { return a[i]; }"
+                + " var r = 0, s = '', a = [1, 2, 3], o = { 1: 2 };"
+                + " for (var i = 0; i < 2000; i++) {"
+                + "   if (i % 7 == 0) { s = add(s, i % 10); }"
+                + "   else { r = add(r, get(i % 5 ? a : o, 1)); } }"
+                + " r + ',' + s.length;",
+                "shared.js", 1, null);
+        } finally {
+            Context.exit();
+        }
+        final List<Object> results = new ArrayList<Object>();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i != threads.length; ++i) {
+            threads[i] = new Thread() {
+                @Override
+                public void run()
+                {
+                    Context cx = Context.enter();
+                    try {
+                        cx.setOptimizationLevel(-1);
+                        Scriptable scope = cx.initStandardObjects();
+                        Object result = script.exec(cx, scope);
+                        synchronized (results) {
+                            results.add(Context.toString(result));
+                        }
+                    } finally {
+                        Context.exit();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threads.length, results.size());
+        for (Object result : results) {
+            assertEquals("3428,286", result);
+        }
+    }
+
+    @Test
+    public void smallNumbersShareTheirBoxes()
+    {
+        assertSame(ScriptRuntime.wrapNumber(0), ScriptRuntime.wrapNumber(0.0));
+        assertSame(ScriptRuntime.wrapNumber(1023),
+                   ScriptRuntime.wrapNumber(1023.0));
+        assertEquals(Double.valueOf(1023), ScriptRuntime.wrapNumber(1023));
+        assertNotSame(ScriptRuntime.wrapNumber(1024),
+                      ScriptRuntime.wrapNumber(1024));
+        assertEquals(Double.valueOf(-1), ScriptRuntime.wrapNumber(-1));
+        assertEquals(Double.valueOf(0.5), ScriptRuntime.wrapNumber(0.5));
+
+        Number negativeZero = ScriptRuntime.wrapNumber(-0.0);
+        assertEquals(Double.valueOf(-0.0), negativeZero);
+        assertTrue(1 / negativeZero.doubleValue() < 0);
+        assertFalse(negativeZero == ScriptRuntime.wrapNumber(0));
+        assertSame(ScriptRuntime.NaNobj, ScriptRuntime.wrapNumber(Double.NaN));
+    }
+
+    private static Scriptable newScope()
+    {
+        Context cx = Context.enter();
+        try {
+            return cx.initStandardObjects();
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static String eval(Context cx, Scriptable scope, String source)
+    {
+        return Context.toString(
+            cx.evaluateString(scope, source, "eval.js", 1, null));
+    }
+
+    // How often op appears in the instructions of the function name
+    private static int count(Scriptable scope, String name, int op)
+    {
+        InterpretedFunction f = (InterpretedFunction) scope.get(name, scope);
+        byte[] iCode = f.idata.itsICode;
+        int n = 0;
+        for (int pc = 0; pc < iCode.length;) {
+            int at = iCode[pc];
+            if (at == op) {
+                ++n;
+            }
+            pc += Interpreter.bytecodeSpan(at);
+        }
+        return n;
+    }
+}
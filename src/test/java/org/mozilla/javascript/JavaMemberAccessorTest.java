@@ -0,0 +1,115 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the accessor classes generated when
+ * {@link ClassCache#setInvokerOptimizationEnabled(boolean)} is on.
+ */
+public class JavaMemberAccessorTest
+{
+    public static class Bean
+    {
+        public static int count;
+        public String name = "bean";
+        public final int fixed = 3;
+
+        public Bean() {}
+
+        public Bean(String name) { this.name = name; }
+
+        public String greet(String who) { return name + ":" + who; }
+
+        public int add(int a, int b) { return a + b; }
+
+        public void rename(String name) { this.name = name; }
+
+        public static int next() { return ++count; }
+    }
+
+    // Records the parent of every loader the factory makes
+    private static final class RecordingFactory extends ContextFactory
+    {
+        final List<ClassLoader> parents =
+            new CopyOnWriteArrayList<ClassLoader>();
+
+        @Override
+        protected GeneratedClassLoader createClassLoader(ClassLoader parent)
+        {
+            parents.add(parent);
+            return super.createClassLoader(parent);
+        }
+    }
+
+    @Test
+    public void membersGoThroughAccessors()
+    {
+        RecordingFactory factory = factory();
+        Bean.count = 0;
+        Context cx = factory.enterContext();
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            ScriptableObject.putProperty(scope, "Bean",
+                new NativeJavaClass(scope, Bean.class));
+            Object result = cx.evaluateString(scope,
+                "var b = new Bean('x'), c = new Bean();"
+                + " b.rename(b.greet('y')); c.name = 'set';"
+                + " [b.name, c.name, b.fixed, b.add(2, 3), Bean.next(),"
+                + " Bean.next(), Bean.count].join()",
+                "bean.js", 1, null);
+            assertEquals("x:y,set,3,5,1,2,2", Context.toString(result));
+            assertTrue(factory.parents.contains(Bean.class.getClassLoader()));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void bootstrapClassesDoNotUseTheApplicationLoader()
+    {
+        RecordingFactory factory = factory();
+        ClassLoader rhinoLoader = JavaMemberAccessor.class.getClassLoader();
+        ClassLoader appLoader = new URLClassLoader(new URL[0], rhinoLoader);
+        factory.initApplicationClassLoader(appLoader);
+        Context cx = factory.enterContext();
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            Object result = cx.evaluateString(scope,
+                "var l = new java.util.ArrayList(); l.add('a');"
+                + " [l.size(), java.lang.Integer.MAX_VALUE].join()",
+                "boot.js", 1, null);
+            assertEquals("1,2147483647", Context.toString(result));
+            assertFalse(factory.parents.isEmpty());
+            for (ClassLoader parent : factory.parents) {
+                assertSame(rhinoLoader, parent);
+            }
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static RecordingFactory factory()
+    {
+        ClassCache cache = new ClassCache();
+        cache.setInvokerOptimizationEnabled(true);
+        RecordingFactory factory = new RecordingFactory();
+        factory.setClassCache(cache);
+        return factory;
+    }
+}
@@ -0,0 +1,170 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks calls from scripts into Java members, which go through method
+ * handles made by {@link MemberBox} and overloads resolved once per
+ * argument type vector by {@link NativeJavaMethod}.
+ */
+public class MemberBoxTest
+{
+    public interface Named
+    {
+        String name();
+    }
+
+    public static class Host
+    {
+        public int value;
+
+        public Host() {}
+
+        public Host(int value) { this.value = value; }
+
+        public Host(String value) { this.value = -value.length(); }
+
+        public String pick(int i) { return "int"; }
+
+        public String pick(String s) { return "string"; }
+
+        public String pick(Object o) { return "object"; }
+
+        public String pick(int i, String s) { return "int,string"; }
+
+        public String join(String sep, String... parts)
+        {
+            StringBuilder sb = new StringBuilder();
+            for (String part : parts) {
+                if (sb.length() != 0) {
+                    sb.append(sep);
+                }
+                sb.append(part);
+            }
+            return sb.toString() + "/" + parts.length;
+        }
+
+        public long widen(long a, double b) { return a + (long) b; }
+
+        public void touch() { ++value; }
+
+        public String fail(String message)
+        {
+            throw new IllegalStateException(message);
+        }
+
+        public static String twice(String s) { return s + s; }
+
+        public Named hidden() { return new Hidden(); }
+    }
+
+    // Not public, so only the public interface method can be linked
+    private static class Hidden implements Named
+    {
+        public String name() { return "hidden"; }
+    }
+
+    @Test
+    public void overloadsResolvePerCall()
+    {
+        assertEquals("int,string,object,int,string,object,int,string",
+            run("var r = [], xs = [1, 's', {}];"
+                + " for (var i = 0; i < 6; ++i) r.push(host.pick(xs[i % 3]));"
+                + " r.push(host.pick(1, 's')); r.join()"));
+    }
+
+    @Test
+    public void manyArgumentTypesAtOneSite()
+    {
+        // More type vectors than the table first holds, each resolved the
+        // same as in a fresh scope where nothing is cached
+        String[] args = { "1", "'s'", "{}", "[]", "true",
+                          "new java.lang.Object()", "/x/", "function() {}",
+                          "new java.util.ArrayList()",
+                          "2", "'t'", "new java.lang.Integer(3)" };
+        StringBuilder expected = new StringBuilder();
+        StringBuilder list = new StringBuilder();
+        for (String arg : args) {
+            if (list.length() != 0) {
+                expected.append(',');
+                list.append(',');
+            }
+            expected.append(run("host.pick(" + arg + ")"));
+            list.append(arg);
+        }
+        assertEquals(expected.toString(),
+            run("var xs = [" + list + "], r = [];"
+                + " for (var i = 0; i < xs.length; ++i)"
+                + " r.push(host.pick(xs[i]));"
+                + " r.join()"));
+    }
+
+    @Test
+    public void varargs()
+    {
+        assertEquals("/0;a/1;a-b-c/3;x-y/2",
+            run("[host.join('-'), host.join('-', 'a'),"
+                + " host.join('-', 'a', 'b', 'c'), host.join('-', ['x', 'y'])]"
+                + ".join(';')"));
+    }
+
+    @Test
+    public void staticMethodsAndConstructors()
+    {
+        assertEquals("abab,5,-3,0,4",
+            run("var C = host.getClass(); var h = new Packages[C.getName()];"
+                + " h.touch(); h.touch(); h.touch(); h.touch();"
+                + " [host.twice('ab'), new Packages[C.getName()](5).value,"
+                + " new Packages[C.getName()]('abc').value, host.value,"
+                + " h.value].join()"));
+    }
+
+    @Test
+    public void primitiveConversions()
+    {
+        assertEquals("5,undefined,7",
+            run("[host.widen(2, 3.9), String(host.touch()),"
+                + " java.lang.Math.max(3, 7)].join()"));
+    }
+
+    @Test
+    public void javaExceptionsAreWrapped()
+    {
+        assertEquals("java.lang.IllegalStateException:boom",
+            run("try { host.fail('boom'); 'none' } catch (e) {"
+                + " e.javaException.getClass().getName() + ':'"
+                + " + e.javaException.getMessage() }"));
+    }
+
+    @Test
+    public void membersOfNonPublicClasses()
+    {
+        assertEquals("hidden,2,b",
+            run("var list = java.util.Collections.unmodifiableList("
+                + " java.util.Arrays.asList('a', 'b'));"
+                + " [host.hidden().name(), list.size(), list.get(1)].join()"));
+    }
+
+    private static String run(String script)
+    {
+        Context cx = new ContextFactory().enterContext();
+        try {
+            cx.setOptimizationLevel(-1);
+            Scriptable scope = cx.initStandardObjects();
+            ScriptableObject.putProperty(scope, "host",
+                                         Context.javaToJS(new Host(), scope));
+            return Context.toString(cx.evaluateString(scope, script,
+                                                      "member.js", 1, null));
+        } finally {
+            Context.exit();
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks dense arrays, which keep their elements in an int[], a double[]
+ * or an Object[] store, against what the same operations give on arrays
+ * that are not dense.
+ */
+public class NativeArrayTest
+{
+    // Each script builds its array with a function of the elements, so
+    // that it runs once on a dense array and once on a sparse one
+    private static final String[] SCRIPTS = {
+        "var a = make([3, 1, 2]); a.sort(); a",
+        "var a = make([3.5, -1, 2]); a.sort(function(x, y) { return x - y; });"
+        + " a",
+        "var a = make([10, 9, 1]); a.sort(); a",
+        "var a = make(['c', 'a', 'b']); a.sort(); a",
+        "var a = make([3, , 1]); a.sort(); [a, a.length, 2 in a]",
+        "var a = make([3, undefined, , 1]); a.sort();"
+        + " [a, a.length, 2 in a, 3 in a]",
+        "var a = make([1, 2]); a.push(3.5); a.push('x'); a.pop(); a",
+        "var a = make([1, 2, 3]); a[1] = 0.5; a[2] = NaN; [a, a[2] !== a[2],"
+        + " 2 in a]",
+        "var a = make([1, 2, 3]); delete a[1]; [a, 1 in a, a.length]",
+        "var a = make([1.5, 2.5]); delete a[0]; a[3] = 4;"
+        + " [a, 0 in a, 2 in a, a.length]",
+        "var a = make([1, , 3]); [a.pop(), a.pop(), String(a.pop()),"
+        + " a.length]",
+        "var a = make([1, 2, 3, 4]); [a.slice(1, 3), a.reverse(),"
+        + " a.indexOf(2), a.lastIndexOf(4), a.join('-')]",
+        "var a = make([1, 2]); a.length = 5; a[4] = 5; [a, 3 in a]",
+        "var a = make([1, 2, 3]); a.length = 1; [a, a.length, 1 in a]",
+        "var a = make([0, -0, 1]); [a, 1 / a[0], 1 / a[1]]",
+        "var a = make([1, 2]); a[0] += 0.25; a[1] = 'two'; a[0]++; a",
+        "var a = make([1, 2, 3]); var s = 0;"
+        + " for (var i = 0; i < a.length; ++i) {"
+        + " a[i] = a[i] * 1.5; s += a[i]; } [a, s]",
+        "var a = make([2, 1]); a.splice(1, 0, 1.5, 'x'); a.shift(); a",
+        "var a = make([1, 2, 3]); Object.freeze(a);"
+        + " try { a.sort(function(x, y) { return y - x; }); } catch (e) {}"
+        + " try { a[0] = 9; } catch (e) {} a",
+    };
+
+    // Builtins run on arrays with missing elements, which they must read
+    // through the prototype
+    private static final String[] BUILTINS = {
+        "a.join('|')", "String(a)", "a.slice(0)", "a.slice(1, 4)",
+        "a.concat([9])", "[0].concat(a)", "a.reverse()", "a.splice(1, 3)",
+        "a.splice(1, 1, 'x', 'y')", "a.splice(3, 0, 'x')", "a.shift()",
+        "a.unshift(0)", "a.pop()", "a.push(7)", "a.sort()",
+        "a.indexOf('Q')", "a.lastIndexOf('P')",
+        "a.map(function(x) { return x; })",
+        "a.filter(function() { return true; })",
+        "a.reduce(function(x, y) { return x + '' + y; })",
+        "JSON.stringify(a)", "Object.keys(a)",
+    };
+
+    // Ways of leaving elements 2 and 3 of an array missing, where V is
+    // replaced by the elements' values
+    private static final String[] HOLES = {
+        "a[0] = V0; a[1] = V1; a[4] = V4;",
+        "a[0] = V0; a[1] = V1; a[40] = V4;",
+        "for (var i = 0; i < 5; ++i) a[i] = eval('V' + i); delete a[2];"
+        + " delete a[3];",
+        "a[0] = V0; a[1] = V1; a.length = 5;",
+        "for (var i = 0; i < 5; ++i) a[i] = eval('V' + i); a.length = 2;"
+        + " a.length = 5;",
+    };
+
+    private static final String[][] VALUES = {
+        { "1", "2", "3", "4", "5" },
+        { "1.5", "2.5", "3.5", "4.5", "5.5" },
+        { "'a'", "'b'", "'c'", "'d'", "'e'" },
+    };
+
+    // Shows holes, -0, NaN and strings, which JSON.stringify does not
+    private static final String SHOW =
+        "function show(v) {"
+        + " if (v instanceof Array) { var r = [];"
+        + "   for (var i = 0; i < v.length; ++i)"
+        + "     r.push(i in v ? show(v[i]) : '_');"
+        + "   return '[' + r.join() + ']'; }"
+        + " if (typeof v === 'string') return \"'\" + v + \"'\";"
+        + " return v === 0 && 1 / v < 0 ? '-0' : String(v); }";
+
+    @Test
+    public void denseArraysMatchSparseArrays()
+    {
+        String dense = "function make(xs) { return xs; }";
+        // Elements stored beyond the dense storage leave dense mode
+        String sparse = "function make(xs) { var a = [];"
+            + " a[100000] = 0; a.length = 0;"
+            + " for (var i = 0; i < xs.length; ++i) if (i in xs) a[i] = xs[i];"
+            + " a.length = xs.length; return a; }";
+        Context cx = Context.enter();
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            NativeArray a = (NativeArray) cx.evaluateString(scope,
+                sparse + " make([1, 2])", "sparse.js", 1, null);
+            assertEquals(Scriptable.NOT_FOUND, a.getDenseElement(0));
+            assertEquals(2, ((Number) a.get(1, a)).intValue());
+        } finally {
+            Context.exit();
+        }
+        for (String script : SCRIPTS) {
+            String expected = run(sparse + script, -1);
+            assertEquals(script, expected, run(dense + script, -1));
+            assertEquals(script, expected, run(dense + script, 9));
+        }
+    }
+
+    @Test
+    public void sortReadsHolesThroughThePrototype()
+    {
+        String[] arrays = { "[3, , 1]", "[3.5, , 1.5]", "['c', , 'a']" };
+        String[] sorted = { "[1,3,'P']", "[1.5,3.5,'P']", "['P','a','c']" };
+        for (int i = 0; i != arrays.length; ++i) {
+            assertEquals(arrays[i], sorted[i],
+                run("Array.prototype[1] = 'P'; var a = " + arrays[i] + ";"
+                    + " a.sort(); delete Array.prototype[1]; a", -1));
+        }
+    }
+
+    @Test
+    public void builtinsReadHolesThroughThePrototype()
+    {
+        assertEquals("'1|2|P|4|5'",
+            run("Array.prototype[2] = 'P'; var a = [1, 2, 3, 4, 5];"
+                + " delete a[2]; a.slice(0).join('|')", -1));
+        assertEquals("['1|2|P||5','2|P|P']",
+            run("Array.prototype[2] = 'P'; var a = [1, 2]; a[4] = 5;"
+                + " [a.join('|'), a.splice(1, 3).join('|')]", -1));
+
+        String dense = "var a = [];";
+        String sparse = "var a = []; a[100000] = 0; a.length = 0;";
+        for (String[] values : VALUES) {
+            for (String holes : HOLES) {
+                String make = holes;
+                for (int i = 0; i != values.length; ++i) {
+                    make = make.replace("V" + i, values[i]);
+                }
+                make = make.replace("eval('V' + i)",
+                                    "[" + join(values) + "][i]");
+                assertTrue(make, store(build(dense + make + " a")) != null);
+                for (String builtin : BUILTINS) {
+                    String script = "Array.prototype[2] = 'P';"
+                        + " Array.prototype[3] = 'Q'; " + make
+                        + " var r = " + builtin + "; delete Array.prototype[2];"
+                        + " delete Array.prototype[3]; [r, a]";
+                    String expected = run(sparse + script, -1);
+                    assertEquals(script, expected, run(dense + script, -1));
+                    assertEquals(script, expected, run(dense + script, 9));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void serializedArraysKeepTheirHoles() throws Exception
+    {
+        String[] arrays = {
+            "[1, 2, 3]", "[1.5, , 3]", "[1.5, NaN, -0]", "[1, , 'x']",
+            "var a = [1, 2]; a[20] = 3; a", "var a = [1, 2]; a.length = 4; a",
+        };
+        for (String array : arrays) {
+            NativeArray a = build(array);
+            NativeArray b = (NativeArray) roundTrip(a);
+            assertEquals(array, store(a), store(b));
+            assertEquals(array, a.getLength(), b.getLength());
+            for (int i = 0; i != (int) a.getLength(); ++i) {
+                assertEquals(array + " " + i, a.has(i, a), b.has(i, b));
+                assertEquals(array + " " + i, a.get(i, a), b.get(i, b));
+            }
+        }
+        NativeArray b = (NativeArray) roundTrip(build("[1.5, , 3]"));
+        assertFalse(b.has(1, b));
+        assertTrue(NativeArray.isHole(b.getDenseNumber(1)));
+        b.put(1, b, Double.valueOf(2));
+        assertEquals(2.0, b.getDenseNumber(1), 0);
+    }
+
+    @Test
+    public void numbersReachJavaAsDoubles()
+    {
+        String[] arrays = {
+            "[1, 2, 3, 4]", "[1, 2.5]", "var a = []; a.push(1, 2); a",
+            "JSON.parse('[1, 2, 3]')", "[3, 1, 2].sort()",
+        };
+        for (int opt : new int[] { -1, 9 }) {
+            Context cx = Context.enter();
+            try {
+                cx.setOptimizationLevel(opt);
+                Scriptable scope = cx.initStandardObjects();
+                for (String array : arrays) {
+                    NativeArray a = (NativeArray) cx.evaluateString(scope,
+                        array, "java.js", 1, null);
+                    List<?> list = a;
+                    Object[] elements = cx.getElements(a);
+                    for (int i = 0; i != a.size(); ++i) {
+                        String what = array + " " + opt + " " + i;
+                        assertTrue(what, a.get(i, a) instanceof Double);
+                        assertTrue(what, list.get(i) instanceof Double);
+                        assertTrue(what, a.toArray()[i] instanceof Double);
+                        assertTrue(what, elements[i] instanceof Double);
+                    }
+                }
+            } finally {
+                Context.exit();
+            }
+        }
+    }
+
+    @Test
+    public void storesMoveFromIntsToDoublesToObjects()
+    {
+        Context cx = Context.enter();
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            NativeArray a = (NativeArray) cx.evaluateString(scope,
+                "[1, 2, 3]", "store.js", 1, null);
+            assertEquals("ints", store(a));
+            a.put(1, a, Double.valueOf(2));
+            assertEquals("ints", store(a));
+            a.put(1, a, Double.valueOf(2.5));
+            assertEquals("doubles", store(a));
+            assertEquals(2.5, a.getDenseNumber(1), 0);
+            a.put(2, a, "x");
+            assertEquals("dense", store(a));
+            assertTrue(NativeArray.isHole(a.getDenseNumber(0)));
+            assertEquals("1,2.5,x", Context.toString(a));
+
+            NativeArray b = (NativeArray) cx.evaluateString(scope,
+                "var b = [1.5, , 3]; b", "store.js", 1, null);
+            assertEquals("doubles", store(b));
+            assertTrue(NativeArray.isHole(b.getDenseNumber(1)));
+            assertFalse(b.has(1, b));
+            b.put(1, b, Double.valueOf(Double.NaN));
+            assertTrue(b.has(1, b));
+            assertFalse(NativeArray.isHole(b.getDenseNumber(1)));
+
+            NativeArray c = (NativeArray) cx.evaluateString(scope,
+                "var c = new Array(3); c[0] = 1; c[2] = 1; c", "store.js", 1,
+                null);
+            assertFalse(c.has(1, c));
+            assertEquals("1,,1", Context.toString(c));
+
+            // Stores and lengths a little past the end stay dense
+            NativeArray d = (NativeArray) cx.evaluateString(scope,
+                "var d = [1]; d[500] = 2; d.length = 1500; d", "store.js", 1,
+                null);
+            assertTrue(store(d) != null);
+            assertFalse(d.has(499, d));
+            assertEquals(1500, d.getLength());
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static NativeArray build(String script)
+    {
+        Context cx = Context.enter();
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            return (NativeArray) cx.evaluateString(scope, script, "build.js",
+                                                   1, null);
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static String join(String[] values)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            sb.append(sb.length() == 0 ? "" : ", ").append(value);
+        }
+        return sb.toString();
+    }
+
+    private static Object roundTrip(Object value) throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(value);
+        out.close();
+        return new ObjectInputStream(new ByteArrayInputStream(
+            bytes.toByteArray())).readObject();
+    }
+
+    // The store holding the elements of a, or null if a is not dense
+    private static String store(NativeArray a)
+    {
+        try {
+            for (String name : new String[] { "ints", "doubles", "dense" }) {
+                Field field = NativeArray.class.getDeclaredField(name);
+                field.setAccessible(true);
+                if (field.get(a) != null) {
+                    return name;
+                }
+            }
+            return null;
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String run(String script, int optimizationLevel)
+    {
+        Context cx = Context.enter();
+        try {
+            cx.setOptimizationLevel(optimizationLevel);
+            cx.setLanguageVersion(Context.VERSION_1_8);
+            Scriptable scope = cx.initStandardObjects();
+            Object result = cx.evaluateString(scope, script, "array.js", 1,
+                                              null);
+            ScriptableObject.putProperty(scope, "result", result);
+            return Context.toString(cx.evaluateString(scope,
+                SHOW + " show(result)", "show.js", 1, null));
+        } finally {
+            Context.exit();
+        }
+    }
+}
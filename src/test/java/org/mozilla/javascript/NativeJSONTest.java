@@ -0,0 +1,262 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import org.junit.Test;
+import org.mozilla.javascript.json.JsonParser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks JSON.stringify, which writes its text in one pass, and
+ * JSON.parse, which creates records with the same keys from one
+ * {@link ObjectTemplate}.
+ */
+public class NativeJSONTest
+{
+    private static final String[][] STRINGIFY = {
+        { "JSON.stringify({ a: 1, b: [true, null, 'x'], c: { d: 1.5 } })",
+          "{\"a\":1,\"b\":[true,null,\"x\"],\"c\":{\"d\":1.5}}" },
+        { "JSON.stringify([NaN, Infinity, -Infinity, -0, 1e21, 2147483648])",
+          "[null,null,null,0,1e+21,2147483648]" },
+        { "JSON.stringify({ u: undefined, f: function() {}, v: 1 })",
+          "{\"v\":1}" },
+        { "JSON.stringify([undefined, function() {}])", "[null,null]" },
+        { "String(JSON.stringify(undefined))", "undefined" },
+        { "JSON.stringify('\"\\\\\\b\\f\\n\\r\\t\\u0001\\u001f \\u00e9')",
+          "\"\\\"\\\\\\b\\f\\n\\r\\t\\u0001\\u001f \u00e9\"" },
+        { "JSON.stringify({ '\\n': 1, 'a\"': 2 })",
+          "{\"\\n\":1,\"a\\\"\":2}" },
+        { "JSON.stringify({ a: [1, { b: 2 }], c: {}, d: [] }, null, 2)",
+          "{\n  \"a\": [\n    1,\n    {\n      \"b\": 2\n    }\n  ],\n"
+          + "  \"c\": {},\n  \"d\": []\n}" },
+        { "JSON.stringify([1, [2]], null, '--')",
+          "[\n--1,\n--[\n----2\n--]\n]" },
+        { "JSON.stringify({ a: 1, b: 2, c: { a: 3, d: 4 } }, ['a', 'c'])",
+          "{\"a\":1,\"c\":{\"a\":3}}" },
+        { "JSON.stringify({ a: 1, b: 'x', c: [2] }, function(k, v) {"
+          + " return typeof v === 'number' ? v * 10 : v; })",
+          "{\"a\":10,\"b\":\"x\",\"c\":[20]}" },
+        { "JSON.stringify({ a: 1, b: 2 }, function(k, v) {"
+          + " return k === 'a' ? undefined : v; })",
+          "{\"b\":2}" },
+        { "JSON.stringify({ p: { toJSON: function(k) { return 'k=' + k; } },"
+          + " d: new Date(0) })",
+          "{\"p\":\"k=p\",\"d\":\"1970-01-01T00:00:00.000Z\"}" },
+        { "JSON.stringify([new Number(3), new String('s'),"
+          + " new Boolean(false)])",
+          "[3,\"s\",false]" },
+        // holes of dense arrays are read through the prototype
+        { "Array.prototype[1] = 'P'; var s = JSON.stringify([0, , 2]);"
+          + " delete Array.prototype[1]; s",
+          "[0,\"P\",2]" },
+        { "var a = [1, 2]; a[5] = 6; JSON.stringify(a)",
+          "[1,2,null,null,null,6]" },
+        { "var a = []; a.length = 3; JSON.stringify(a)", "[null,null,null]" },
+        { "var o = {}; JSON.stringify([o, o, { x: o }])",
+          "[{},{},{\"x\":{}}]" },
+        // the same keys quoted once are still written per object
+        { "var r = []; for (var i = 0; i < 3; ++i) r.push({ id: i, 'n\"': i });"
+          + " JSON.stringify(r)",
+          "[{\"id\":0,\"n\\\"\":0},{\"id\":1,\"n\\\"\":1},"
+          + "{\"id\":2,\"n\\\"\":2}]" },
+    };
+
+    private static final String[][] PARSE = {
+        { "[{\"a\":1,\"b\":2},{\"a\":3,\"b\":4},{\"b\":5,\"a\":6}]",
+          "[{\"a\":1,\"b\":2},{\"a\":3,\"b\":4},{\"b\":5,\"a\":6}]" },
+        // keys that share a prefix with the key expected next
+        { "[{\"ab\":1},{\"a\":2},{\"abc\":3},{\"ab\":4,\"a\":5},{\"ab\":6}]",
+          "[{\"ab\":1},{\"a\":2},{\"abc\":3},{\"ab\":4,\"a\":5},{\"ab\":6}]" },
+        // an escaped key equal to the key expected next
+        { "[{\"ab\":1},{\"a\\u0062\":2},{\"a\\\"\":3},{\"a\\\"\":4}]",
+          "[{\"ab\":1},{\"ab\":2},{\"a\\\"\":3},{\"a\\\"\":4}]" },
+        // repeated keys keep the last value
+        { "[{\"a\":1,\"a\":2},{\"a\":3,\"b\":4,\"a\":5}]",
+          "[{\"a\":2},{\"a\":5,\"b\":4}]" },
+        // index keys are not part of records
+        { "[{\"x\":1,\"2\":2,\"0\":3},{\"x\":4},{\"0\":5}]",
+          "[{\"x\":1,\"2\":2,\"0\":3},{\"x\":4},{\"0\":5}]" },
+        { "{\"\":1,\"__proto__\":{\"p\":2}}",
+          "{\"\":1,\"__proto__\":{\"p\":2}}" },
+        { "[0,-1,123456789,-123456789,999999999,1234567890,-1234567890,"
+          + "2147483648,1.5,-2.5e3,1E2,0.000001]",
+          "[0,-1,123456789,-123456789,999999999,1234567890,-1234567890,"
+          + "2147483648,1.5,-2500,100,0.000001]" },
+        { " { \"a\" : [ ] , \"b\" : { } } ", "{\"a\":[],\"b\":{}}" },
+    };
+
+    @Test
+    public void stringify()
+    {
+        for (String[] test : STRINGIFY) {
+            assertEquals(test[0], test[1], run(test[0]));
+        }
+    }
+
+    @Test
+    public void stringifyRejectsCycles()
+    {
+        String[] scripts = {
+            "var o = {}; o.o = o; return o",
+            "var a = [1]; a.push({ a: a }); return a",
+            "var o = { p: {} }; o.p.q = [o.p]; return o",
+        };
+        for (String script : scripts) {
+            assertEquals(script, "TypeError",
+                run("try { JSON.stringify((function() { " + script
+                    + " })()); 'none' } catch (e) { e.name }"));
+        }
+    }
+
+    @Test
+    public void parse()
+    {
+        for (String[] test : PARSE) {
+            assertEquals(test[0], test[1],
+                run("JSON.stringify(JSON.parse(" + quote(test[0]) + "))"));
+        }
+    }
+
+    @Test
+    public void parseWithReviver()
+    {
+        assertEquals("{\"a\":2,\"c\":[4]}",
+            run("JSON.stringify(JSON.parse('{\"a\":1,\"b\":2,\"c\":[3]}',"
+                + " function(k, v) { return k === 'b' ? undefined"
+                + " : typeof v === 'number' ? v + 1 : v; }))"));
+    }
+
+    @Test
+    public void parsedRecordsShareShapes()
+    {
+        Context cx = Context.enter();
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            NativeArray records = (NativeArray) cx.evaluateString(scope,
+                "var r = JSON.parse('[{\"id\":1,\"name\":\"a\"},"
+                + "{\"id\":2,\"name\":\"b\"},{\"name\":\"c\",\"id\":3}]');"
+                + " var o = {}; o.id = 0; o.name = 'o'; r.push(o); r",
+                "records.js", 1, null);
+            ScriptableObject first = record(records, 0);
+            ScriptableObject second = record(records, 1);
+            ScriptableObject third = record(records, 2);
+            ScriptableObject added = record(records, 3);
+            assertNotNull(first.getShape());
+            assertSame(first.getShape(), second.getShape());
+            assertSame(first.getShape(), added.getShape());
+            assertEquals(-1, first.getShape().indexOf("missing"));
+            assertEquals("c", ScriptableObject.getProperty(third, "name"));
+            assertEquals(3, ScriptableObject.getProperty(third, "id"));
+            // Records change like any other object
+            assertEquals("2,,b;x,1,3",
+                run("var r = JSON.parse("
+                    + " '[{\"a\":1,\"b\":2},{\"a\":3,\"b\":4}]');"
+                    + " delete r[0].a; r[0].c = 'b'; r[1].a = 'x';"
+                    + " r[1].b = 1; r[1].c = 3;"
+                    + " [r[0].b, r[0].a, r[0].c].join() + ';'"
+                    + " + [r[1].a, r[1].b, r[1].c].join()"));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void parserKeepsKeysAcrossParses() throws Exception
+    {
+        Context cx = Context.enter();
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            JsonParser parser = new JsonParser(cx, scope);
+            String[] texts = {
+                "{\"a\":1,\"b\":2}", "{\"a\":3}", "{\"a\":4,\"b\":5,\"c\":6}",
+                "{\"b\":7,\"a\":8}", "{\"a\":9,\"b\":10}",
+            };
+            StringBuilder result = new StringBuilder();
+            for (String text : texts) {
+                Object value = parser.parseValue(text);
+                result.append(NativeJSON.stringify(cx, scope, value, null,
+                                                   null));
+            }
+            assertEquals("{\"a\":1,\"b\":2}{\"a\":3}{\"a\":4,\"b\":5,\"c\":6}"
+                         + "{\"b\":7,\"a\":8}{\"a\":9,\"b\":10}",
+                         result.toString());
+            try {
+                parser.parseValue("{\"a\":1,}");
+                fail("trailing comma");
+            } catch (JsonParser.ParseException ex) {
+                // expected
+            }
+            assertEquals("{\"a\":1}", NativeJSON.stringify(cx, scope,
+                parser.parseValue("{\"a\":1}"), null, null));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void templates()
+    {
+        String[][] bad = { { "a", "a" }, { "0" }, { "x", "7" } };
+        for (String[] names : bad) {
+            try {
+                new ObjectTemplate(names);
+                fail(names[names.length - 1]);
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+        Context cx = Context.enter();
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            ObjectTemplate template =
+                new ObjectTemplate(new String[] { "p", "q" });
+            assertEquals(2, template.getPropertyCount());
+            assertEquals("q", template.getPropertyName(1));
+            Scriptable o = template.newObject(cx, scope,
+                                              new Object[] { "x", 2, "extra" });
+            assertSame(ScriptableObject.getObjectPrototype(scope),
+                       o.getPrototype());
+            assertEquals("{\"p\":\"x\",\"q\":2}",
+                         NativeJSON.stringify(cx, scope, o, null, null));
+            try {
+                template.newObject(cx, scope, new Object[] { "x" });
+                fail("too few values");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static ScriptableObject record(NativeArray records, int index)
+    {
+        return (ScriptableObject) records.get(index, records);
+    }
+
+    private static String quote(String s)
+    {
+        return "'" + s.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+
+    private static String run(String script)
+    {
+        Context cx = Context.enter();
+        try {
+            cx.setLanguageVersion(Context.VERSION_1_8);
+            Scriptable scope = cx.initStandardObjects();
+            return Context.toString(cx.evaluateString(scope, script,
+                                                      "json.js", 1, null));
+        } finally {
+            Context.exit();
+        }
+    }
+}
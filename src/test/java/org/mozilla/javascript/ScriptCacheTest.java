@@ -0,0 +1,199 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScriptCacheTest
+{
+    private static final String SOURCE = "var x = 1; x + 1";
+
+    @Test
+    public void sameSourceIsCompiledOnce()
+    {
+        LruScriptCache cache = new LruScriptCache(8);
+        ContextFactory factory = new ContextFactory();
+        factory.setScriptCache(cache);
+        Context cx = factory.enterContext();
+        try {
+            Script a = cx.compileString(SOURCE, "a.js", 1, null);
+            Script b = cx.compileString(SOURCE, "a.js", 1, null);
+            assertSame(a, b);
+            assertEquals(1, cache.getMisses());
+            assertEquals(1, cache.getHits());
+            assertNotSame(a, cx.compileString(SOURCE, "b.js", 1, null));
+            assertNotSame(a, cx.compileString(SOURCE, "a.js", 2, null));
+            assertEquals(3, cache.size());
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void contextSettingsMiss()
+    {
+        LruScriptCache cache = new LruScriptCache(16);
+        ContextFactory factory = new ContextFactory() {
+            @Override
+            protected boolean hasFeature(Context cx, int featureIndex)
+            {
+                if (featureIndex == Context.FEATURE_STRICT_MODE
+                    || featureIndex == Context.FEATURE_ENHANCED_JAVA_ACCESS) {
+                    return Boolean.TRUE.equals(
+                        cx.getThreadLocal("ScriptCacheTest"));
+                }
+                return super.hasFeature(cx, featureIndex);
+            }
+        };
+        factory.setScriptCache(cache);
+        Context cx = factory.enterContext();
+        try {
+            Script base = cx.compileString(SOURCE, "a.js", 1, null);
+            cx.setLanguageVersion(Context.VERSION_ES6);
+            assertNotSame(base, cx.compileString(SOURCE, "a.js", 1, null));
+            cx.setLanguageVersion(Context.VERSION_DEFAULT);
+            cx.setOptimizationLevel(cx.getOptimizationLevel() < 0 ? 0 : -1);
+            assertNotSame(base, cx.compileString(SOURCE, "a.js", 1, null));
+            cx.setOptimizationLevel(-1);
+            Script interpreted = cx.compileString(SOURCE, "a.js", 1, null);
+            cx.setGeneratingDebug(false);
+            assertNotSame(interpreted,
+                          cx.compileString(SOURCE, "a.js", 1, null));
+            cx.setGeneratingDebug(true);
+            cx.putThreadLocal("ScriptCacheTest", Boolean.TRUE);
+            assertNotSame(interpreted,
+                          cx.compileString(SOURCE, "a.js", 1, null));
+            cx.removeThreadLocal("ScriptCacheTest");
+            assertSame(interpreted, cx.compileString(SOURCE, "a.js", 1, null));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void everyCompilerFlagIsPartOfTheKey()
+    {
+        Context cx = new ContextFactory().enterContext();
+        try {
+            Set<Integer> seen = new HashSet<Integer>();
+            for (int flag = -1; flag != 15; ++flag) {
+                CompilerEnvirons env = new CompilerEnvirons();
+                env.initFromContext(cx);
+                switch (flag) {
+                  case 0: env.setGenerateDebugInfo(!env.isGenerateDebugInfo()); break;
+                  case 1: env.setReservedKeywordAsIdentifier(
+                              !env.isReservedKeywordAsIdentifier()); break;
+                  case 2: env.setAllowMemberExprAsFunctionName(
+                              !env.isAllowMemberExprAsFunctionName()); break;
+                  case 3: env.setXmlAvailable(!env.isXmlAvailable()); break;
+                  case 4: env.setGeneratingSource(!env.isGeneratingSource()); break;
+                  case 5: env.setStrictMode(!env.isStrictMode()); break;
+                  case 6: env.setGenerateObserverCount(
+                              !env.isGenerateObserverCount()); break;
+                  case 7: env.setGenerateSuperinstructions(
+                              !env.isGenerateSuperinstructions()); break;
+                  case 8: env.setRecordingComments(
+                              !env.isRecordingComments()); break;
+                  case 9: env.setRecordingLocalJsDocComments(
+                              !env.isRecordingLocalJsDocComments()); break;
+                  case 10: env.setRecoverFromErrors(
+                               !env.recoverFromErrors()); break;
+                  case 11: env.setWarnTrailingComma(
+                               !env.getWarnTrailingComma()); break;
+                  case 12: env.setIdeMode(!env.isIdeMode()); break;
+                  case 13: env.setAllowSharpComments(
+                               !env.getAllowSharpComments()); break;
+                  case 14: env.setLanguageVersion(Context.VERSION_ES6); break;
+                }
+                ScriptCache.Key key = new ScriptCache.Key(SOURCE, "a.js", 1,
+                                                          null, cx, env);
+                assertTrue("flag " + flag + " does not change the key",
+                           seen.add(key.getFeatures() * 1000
+                                    + key.getLanguageVersion()));
+            }
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void keysCompareSourceAndDomain()
+    {
+        Context cx = new ContextFactory().enterContext();
+        try {
+            CompilerEnvirons env = new CompilerEnvirons();
+            env.initFromContext(cx);
+            ScriptCache.Key a = new ScriptCache.Key(SOURCE, "a.js", 1,
+                                                    null, cx, env);
+            assertEquals(a, new ScriptCache.Key(SOURCE, "a.js", 1,
+                                                null, cx, env));
+            assertEquals(a.hashCode(), new ScriptCache.Key(SOURCE, "a.js", 1,
+                                                null, cx, env).hashCode());
+            assertNotEquals(a, new ScriptCache.Key(SOURCE + " ", "a.js", 1,
+                                                   null, cx, env));
+            assertNotEquals(a, new ScriptCache.Key(SOURCE, "a.js", 1,
+                                                   "domain", cx, env));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted()
+    {
+        LruScriptCache cache = new LruScriptCache(2);
+        ContextFactory factory = new ContextFactory();
+        factory.setScriptCache(cache);
+        Context cx = factory.enterContext();
+        try {
+            Script a = cx.compileString("1", "a.js", 1, null);
+            cx.compileString("2", "b.js", 1, null);
+            assertSame(a, cx.compileString("1", "a.js", 1, null));
+            cx.compileString("3", "c.js", 1, null);
+            assertEquals(2, cache.size());
+            assertSame(a, cx.compileString("1", "a.js", 1, null));
+            assertEquals(3, cache.getMisses());
+            cx.compileString("2", "b.js", 1, null);
+            assertEquals(4, cache.getMisses());
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void errorsAreNotCached()
+    {
+        LruScriptCache cache = new LruScriptCache(4);
+        ContextFactory factory = new ContextFactory();
+        factory.setScriptCache(cache);
+        Context cx = factory.enterContext();
+        try {
+            for (int i = 0; i != 2; ++i) {
+                try {
+                    cx.compileString("var = ;", "bad.js", 1, null);
+                    fail();
+                } catch (EvaluatorException e) {
+                    // expected
+                }
+            }
+            assertEquals(2, cache.getMisses());
+            assertEquals(0, cache.size());
+        } finally {
+            Context.exit();
+        }
+    }
+}
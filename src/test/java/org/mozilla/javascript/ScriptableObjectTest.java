@@ -0,0 +1,80 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ScriptableObjectTest
+{
+    @Test
+    public void associatedValues()
+    {
+        NativeObject obj = new NativeObject();
+        assertNull(obj.getAssociatedValue("k"));
+        assertEquals("a", obj.associateValue("k", "a"));
+        assertEquals("a", obj.associateValue("k", "b"));
+        assertEquals("n", obj.associateValue(null, "n"));
+        assertEquals("n", obj.getAssociatedValue(null));
+        assertEquals("a", obj.getAssociatedValue("k"));
+    }
+
+    @Test
+    public void associatedValuesKeepTheirSerializedForm() throws Exception
+    {
+        assertEquals(Map.class, ObjectStreamClass.lookup(ScriptableObject.class)
+                     .getField("associatedValues").getType());
+
+        NativeObject obj = new NativeObject();
+        obj.associateValue("k", "a");
+        obj.associateValue(null, "n");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(obj);
+        out.close();
+        NativeObject copy = (NativeObject) new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals("a", copy.getAssociatedValue("k"));
+        assertEquals("n", copy.getAssociatedValue(null));
+        assertEquals("a", copy.associateValue("k", "b"));
+    }
+
+    @Test
+    public void threadConfinedObjects()
+    {
+        ContextFactory factory = new ContextFactory() {
+            @Override
+            protected boolean hasFeature(Context cx, int featureIndex)
+            {
+                if (featureIndex == Context.FEATURE_THREAD_CONFINED_OBJECTS) {
+                    return true;
+                }
+                return super.hasFeature(cx, featureIndex);
+            }
+        };
+        Context cx = factory.enterContext();
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            Object result = cx.evaluateString(scope,
+                "var o = {}; for (var i = 0; i < 100; i++) o['p' + i] = i;" +
+                "delete o.p5; Object.keys(o).length + ':' + o.p99",
+                "t", 1, null);
+            assertEquals("99:99", Context.toString(result));
+        } finally {
+            Context.exit();
+        }
+    }
+}
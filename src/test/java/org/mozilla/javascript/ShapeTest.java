@@ -0,0 +1,113 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+public class ShapeTest
+{
+    @Test
+    public void sameNamesShareShape()
+    {
+        Shape a = Shape.EMPTY.addProperty("shapeTestX").addProperty("y");
+        Shape b = Shape.EMPTY.addProperty("shapeTestX").addProperty("y");
+        assertSame(a, b);
+        assertEquals(1, a.indexOf("y"));
+        assertEquals(-1, a.indexOf("z"));
+    }
+
+    @Test
+    public void deadTransitionsAreExpunged()
+    {
+        // Fill the transitions of the empty shape with shapes nobody keeps
+        for (int i = 0; i != 1000; ++i) {
+            Shape.EMPTY.addProperty("shapeTestDead" + i);
+        }
+        for (int attempt = 0; ; ++attempt) {
+            System.gc();
+            Shape a = Shape.EMPTY.addProperty("shapeTestLive");
+            if (a == Shape.EMPTY.addProperty("shapeTestLive")) {
+                break;
+            }
+            if (attempt == 50) {
+                throw new AssertionError("new first properties never share");
+            }
+        }
+    }
+
+    @Test
+    public void propertyCachesAreAllocatedWithTheICode()
+    {
+        Context cx = Context.enter();
+        try {
+            cx.setOptimizationLevel(-1);
+            Script script = cx.compileString("var o = {a: 1}; o.a", "t", 1,
+                                             null);
+            InterpreterData idata = ((InterpretedFunction) script).idata;
+            assertNotNull(idata.itsPropertyCaches);
+            assertEquals(idata.itsICode.length,
+                         idata.itsPropertyCaches.length());
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void sharedScriptOnManyThreads() throws Exception
+    {
+        final Script script;
+        Context cx = Context.enter();
+        try {
+            cx.setOptimizationLevel(-1);
+            script = cx.compileString(
+                "var sum = 0;\n" +
+                "for (var i = 0; i < 2000; i++) {\n" +
+                "  var o = (i & 1) ? {a: i, b: 1} : {b: 1, a: i};\n" +
+                "  o.c = o.a + o.b; sum += o.c;\n" +
+                "}\n" +
+                "sum", "t", 1, null);
+        } finally {
+            Context.exit();
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int i = 0; i != 16; ++i) {
+                results.add(pool.submit(new Callable<Object>() {
+                    public Object call()
+                    {
+                        Context cx = Context.enter();
+                        try {
+                            cx.setOptimizationLevel(-1);
+                            Scriptable scope = cx.initStandardObjects();
+                            return script.exec(cx, scope);
+                        } finally {
+                            Context.exit();
+                        }
+                    }
+                }));
+            }
+            for (Future<Object> f : results) {
+                assertEquals(2001000.0,
+                             ((Number) f.get()).doubleValue(), 0.0);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
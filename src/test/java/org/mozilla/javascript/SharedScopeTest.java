@@ -0,0 +1,114 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a script in one scope from
+ * {@link ContextFactory#newStandardScope(Context)} cannot change what a
+ * script in another scope of the same factory sees.
+ */
+public class SharedScopeTest
+{
+    // Each case is a change tried in one scope and a check that must
+    // still hold in another one.
+    private static final String[][] CASES = {
+        { "Array.prototype.push(42)",
+          "[][0] === undefined && Array.prototype.length === 0" },
+        { "Array.prototype.unshift(1)", "Array.prototype.length === 0" },
+        { "Array.prototype.splice(0, 0, 1, 2)",
+          "Array.prototype.length === 0" },
+        { "Array.prototype[0] = 1", "[][0] === undefined" },
+        { "Array.prototype.length = 5", "Array.prototype.length === 0" },
+        { "Date.prototype.setTime(5)", "isNaN(Date.prototype.getTime())" },
+        { "Date.prototype.setFullYear(2000)",
+          "isNaN(Date.prototype.getTime())" },
+        { "RegExp.prototype.compile('abc', 'g')",
+          "RegExp.prototype.source !== 'abc' && !RegExp.prototype.global" },
+        { "Script.prototype.compile('1')", "String(Script.prototype) === ''" },
+        { "Array.prototype.__proto__ = null",
+          "Object.getPrototypeOf(Array.prototype) === Object.prototype" },
+        { "Object.prototype.__proto__ = {x: 1}", "({}).x === undefined" },
+        { "Object.defineProperty(Object.prototype, 'evil', {value: 1})",
+          "!('evil' in {})" },
+        { "Object.defineProperty(Array.prototype, 'map', {value: 1})",
+          "typeof [].map === 'function'" },
+        { "Object.defineProperty(Array.prototype, 'length', {value: 3})",
+          "Array.prototype.length === 0" },
+        { "Object.preventExtensions(Array.prototype)",
+          "Object.isExtensible(Array.prototype)" },
+        { "Object.freeze(Math)", "!Object.isFrozen(Math)" },
+        { "Object.seal(JSON)", "Object.isExtensible(JSON)" },
+        { "Error.captureStackTrace(Error.prototype)",
+          "Error.prototype.stack === undefined" },
+        { "Math.max = null", "typeof Math.max === 'function'" },
+    };
+
+    @Test
+    public void changesDoNotLeak()
+    {
+        for (int version : new int[] { Context.VERSION_1_8,
+                                       Context.VERSION_ES6 }) {
+            for (String[] c : CASES) {
+                checkIsolated(version, false, c[0], c[1]);
+                checkIsolated(version, true, c[0], c[1]);
+            }
+        }
+    }
+
+    @Test
+    public void scopeVariablesStayLocal()
+    {
+        ContextFactory factory = new ContextFactory();
+        Context cx = factory.enterContext();
+        try {
+            ScriptableObject a = factory.newStandardScope(cx);
+            ScriptableObject b = factory.newStandardScope(cx);
+            assertNotSame(a, b);
+            assertSame(a.getPrototype(), b.getPrototype());
+            cx.evaluateString(a, "var x = 1; Math = 2;", "a", 1, null);
+            assertEquals("undefined,object", cx.evaluateString(b,
+                "typeof x + ',' + typeof Math", "b", 1, null));
+            assertEquals("[1,2]", cx.evaluateString(a,
+                "var y = []; y.push(1, 2); JSON.stringify(y)", "a", 1, null));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static void checkIsolated(int version, boolean safe,
+                                      String change, String check)
+    {
+        ContextFactory factory = new ContextFactory();
+        Context cx = factory.enterContext();
+        try {
+            cx.setLanguageVersion(version);
+            ScriptableObject a = safe ? factory.newSafeStandardScope(cx)
+                                      : factory.newStandardScope(cx);
+            try {
+                cx.evaluateString(a, change, "a", 1, null);
+            } catch (EvaluatorException e) {
+                // The shared objects refuse the change
+            }
+            ScriptableObject b = safe ? factory.newSafeStandardScope(cx)
+                                      : factory.newStandardScope(cx);
+            Object result = cx.evaluateString(b, check, "b", 1, null);
+            if (!Boolean.TRUE.equals(result)) {
+                fail(change + " leaked into another scope (version "
+                     + version + ", safe " + safe + ")");
+            }
+        } finally {
+            Context.exit();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the same scripts in the interpreter with and without
+ * {@link Context#FEATURE_INTERPRETER_SUPERINSTRUCTIONS} and checks that
+ * they give the same results.
+ */
+public class SuperinstructionsTest
+{
+    // Each script is the body of a function, so that its variables are
+    // locals, and returns a string
+    private static final String[] SCRIPTS = {
+        // comparisons that decide branches
+        "var r = []; var xs = [0, 1, -1, 1.5, NaN, '1', '', 'a', null,"
+        + " undefined, true, {}, [1], Infinity];"
+        + " for (var i = 0; i < xs.length; i++) {"
+        + "   for (var j = 0; j < xs.length; j++) {"
+        + "     var a = xs[i], b = xs[j], s = '';"
+        + "     if (a == b) s += 'e'; if (a != b) s += 'n';"
+        + "     if (a === b) s += 'E'; if (a !== b) s += 'N';"
+        + "     if (a < b) s += 'l'; if (a <= b) s += 'L';"
+        + "     if (a > b) s += 'g'; if (a >= b) s += 'G';"
+        + "     r.push(s); } }"
+        + " return r.join();",
+        "var n = 0, s = ''; while (n < 5) { n++; } do { s += n; n--; }"
+        + " while (n >= 2); for (var k = 10; k > 7.5; k -= 0.5) s += k;"
+        + " return s + (n == 1 ? 'y' : 'n') + (n !== 1 && 'x');",
+        // operands are converted once each, in the same order
+        "var log = ''; function o(v) { return { valueOf: function() {"
+        + " log += v; return v; } }; }"
+        + " var a = o(1), b = o(2);"
+        + " if (a < b) log += '<'; if (a >= b) log += '>='; if (a == b)"
+        + " log += '=='; if (b > a) log += '>'; return log;",
+        "var log = ''; try { var a = { valueOf: function() {"
+        + " throw 'boom'; } }; if (a < 1) log += 'x'; } catch (e) {"
+        + " log += e; } return log;",
+        // ++ and -- on locals whose value is not used
+        "var i = 0, d = 0.5, s = '5', u, nl = null, b = true, o = {"
+        + " valueOf: function() { return 7; } };"
+        + " i++; ++i; i--; d++; --d; --d; s++; u++; nl--; b++; o++;"
+        + " return [i, d, s, typeof s, u, nl, b, o].join();",
+        "var big = 2147483647, small = -2147483648; big++; small--;"
+        + " var r = 0; for (var i = 0; i < 10; i++) { r++; } return"
+        + " [big, small, r, i].join();",
+        "var x = 1; function f() { x++; x++; return x; }"
+        + " var g = function() { var y = 'a'; y--; return y; };"
+        + " return [f(), x, g()].join();",
+        // property gets on locals
+        "var o = { a: 1, b: { c: 'd' } }, s = 'str', n = 4.25, t = true,"
+        + " a = [1, 2, 3], u = {};"
+        + " return [o.a, o.b.c, s.length, n.toFixed(1), t.toString(),"
+        + " a.length, u.missing, o.constructor === Object].join();",
+        "function P() {} P.prototype = { get g() { return this.v * 2; } };"
+        + " var p = new P(); p.v = 21; var r = p.g; p.v = 1;"
+        + " return r + ',' + p.g;",
+        "var r = []; var xs = [null, undefined];"
+        + " for (var i = 0; i < xs.length; i++) { var v = xs[i];"
+        + " try { r.push(v.x); } catch (e) { r.push(e.name + ': '"
+        + " + e.message); } } return r.join(';');",
+        // shapes that change under a property read site
+        "var r = 0; var os = [{ x: 1 }, { y: 0, x: 2 }, { x: 3 }];"
+        + " for (var i = 0; i < 30; i++) { var o = os[i % 3]; r += o.x; }"
+        + " return String(r);",
+    };
+
+    @Test
+    public void superinstructionsDoNotChangeResults()
+    {
+        for (String script : SCRIPTS) {
+            String expected = run(script, false);
+            assertEquals(script, expected, run(script, true));
+        }
+    }
+
+    @Test
+    public void resultsAreTheExpectedOnes()
+    {
+        assertEquals("5432109.598.58yfalse", run(SCRIPTS[1], true));
+        // >= and > convert their right operand first, as they always have
+        assertEquals("12<2112>", run(SCRIPTS[2], true));
+        assertEquals("1,-0.5,6,number,NaN,-1,2,8", run(SCRIPTS[4], true));
+        assertEquals("2147483648,-2147483649,10,10", run(SCRIPTS[5], true));
+        assertEquals("3,3,NaN", run(SCRIPTS[6], true));
+        assertEquals("42,2", run(SCRIPTS[8], true));
+    }
+
+    @Test
+    public void featureSelectsTheCombinedInstructions()
+    {
+        String source = "function f(o, n) { var i = 0, r = 0;"
+            + " while (i < n) { i++; if (i > 2) r = o.x; } return r; }";
+        int[] on = count(source, true);
+        int[] off = count(source, false);
+        for (int i = 0; i != on.length; ++i) {
+            assertTrue(String.valueOf(i), on[i] > 0);
+            assertEquals(String.valueOf(i), 0, off[i]);
+        }
+    }
+
+    private static final int[] FUSED = {
+        Icode.Icode_IFEQ_CMP, Icode.Icode_IFNE_CMP,
+        Icode.Icode_GETVAR1_PROP, Icode.Icode_VAR_INC_DEC_POP
+    };
+
+    // How often each of FUSED appears in the instructions of f
+    private static int[] count(String source, boolean fused)
+    {
+        Context cx = factory(fused).enterContext();
+        try {
+            cx.setOptimizationLevel(-1);
+            Scriptable scope = cx.initStandardObjects();
+            cx.evaluateString(scope, source, "count.js", 1, null);
+            InterpretedFunction f =
+                (InterpretedFunction) scope.get("f", scope);
+            byte[] iCode = f.idata.itsICode;
+            int[] counts = new int[FUSED.length];
+            for (int pc = 0; pc < iCode.length;) {
+                int op = iCode[pc];
+                for (int i = 0; i != FUSED.length; ++i) {
+                    if (op == FUSED[i]) {
+                        ++counts[i];
+                    }
+                }
+                pc += Interpreter.bytecodeSpan(op);
+            }
+            return counts;
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static ContextFactory factory(final boolean fused)
+    {
+        return new ContextFactory() {
+            @Override
+            protected boolean hasFeature(Context cx, int featureIndex)
+            {
+                if (featureIndex
+                    == Context.FEATURE_INTERPRETER_SUPERINSTRUCTIONS)
+                {
+                    return fused;
+                }
+                return super.hasFeature(cx, featureIndex);
+            }
+        };
+    }
+
+    private static String run(String script, boolean fused)
+    {
+        Context cx = factory(fused).enterContext();
+        try {
+            cx.setOptimizationLevel(-1);
+            cx.setLanguageVersion(Context.VERSION_1_8);
+            Scriptable scope = cx.initStandardObjects();
+            return Context.toString(cx.evaluateString(scope,
+                "(function() { " + script + " })()", "fused.js", 1, null));
+        } finally {
+            Context.exit();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TieredCompilerTest
+{
+    private static final int THRESHOLD = 20;
+
+    private static final class CountingFactory extends ContextFactory
+    {
+        volatile int observed;
+
+        @Override
+        protected void observeInstructionCount(Context cx,
+                                               int instructionCount)
+        {
+            ++observed;
+        }
+    }
+
+    @Test
+    public void hotFunctionIsCompiled() throws Exception
+    {
+        ContextFactory factory = new ContextFactory();
+        factory.setTierUpThreshold(THRESHOLD);
+        Context cx = enter(factory);
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            cx.evaluateString(scope,
+                "function add(a, b) { return a + b; }", "add.js", 1, null);
+            InterpretedFunction add = function(scope, "add");
+            assertNotNull(add.idata.rawSource);
+            for (int i = 0; i != THRESHOLD; ++i) {
+                cx.evaluateString(scope, "add(1, 2)", "call.js", 1, null);
+            }
+            awaitCompiled(add);
+            assertNull(add.idata.rawSource);
+            assertNotNull(add.getTieredTarget(cx));
+            assertEquals(Integer.valueOf(7), Context.jsToJava(
+                cx.evaluateString(scope, "add(3, 4)", "call.js", 1, null),
+                Integer.class));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void tierabilityComesFromTheTree()
+    {
+        ContextFactory factory = new ContextFactory();
+        factory.setTierUpThreshold(THRESHOLD);
+        Context cx = enter(factory);
+        try {
+            cx.setLanguageVersion(Context.VERSION_1_8);
+            Scriptable scope = cx.initStandardObjects();
+            cx.evaluateString(scope,
+                "function args() { return arguments.length; }\n"
+                + "function gen() { yield 1; }\n"
+                + "function ev(s) { return eval(s); }\n"
+                + "var named = function self() { return self; };\n"
+                + "var anon = function(o) { return o.length; };\n"
+                + "function words(o) { return o.yield + ' arguments'; }\n",
+                "tree.js", 1, null);
+            assertTierable(scope, "args", false);
+            assertTierable(scope, "gen", false);
+            assertTierable(scope, "ev", false);
+            assertTierable(scope, "named", false);
+            assertTierable(scope, "anon", true);
+            assertTierable(scope, "words", true);
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void observedContextsStayInterpreted() throws Exception
+    {
+        CountingFactory factory = new CountingFactory();
+        factory.setTierUpThreshold(THRESHOLD);
+        Context cx = enter(factory);
+        Scriptable scope;
+        InterpretedFunction spin;
+        try {
+            scope = cx.initStandardObjects();
+            cx.evaluateString(scope,
+                "function spin(n) { var i = 0; while (i < n) ++i; return i; }",
+                "spin.js", 1, null);
+            spin = function(scope, "spin");
+            // Hot in a context without an observer
+            for (int i = 0; i != THRESHOLD; ++i) {
+                cx.evaluateString(scope, "spin(10)", "call.js", 1, null);
+            }
+            awaitCompiled(spin);
+        } finally {
+            Context.exit();
+        }
+
+        cx = enter(factory);
+        try {
+            cx.setInstructionObserverThreshold(1000);
+            assertNull(spin.getTieredTarget(cx));
+            cx.evaluateString(scope, "spin(100000)", "call.js", 1, null);
+            assertTrue(factory.observed > 0);
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void observedContextsDoNotTierUp()
+    {
+        CountingFactory factory = new CountingFactory();
+        factory.setTierUpThreshold(THRESHOLD);
+        Context cx = enter(factory);
+        try {
+            cx.setInstructionObserverThreshold(1000);
+            Scriptable scope = cx.initStandardObjects();
+            cx.evaluateString(scope,
+                "function spin(n) { var i = 0; while (i < n) ++i; return i; }"
+                + "for (var k = 0; k < 100; ++k) spin(1000);",
+                "spin.js", 1, null);
+            InterpretedFunction spin = function(scope, "spin");
+            assertEquals(TieredCompiler.TIER_INTERPRETED, spin.idata.tierState);
+            assertTrue(factory.observed > 0);
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void strictScriptsRunAlike() throws Exception
+    {
+        ContextFactory factory = new ContextFactory();
+        factory.setTierUpThreshold(THRESHOLD);
+        Context cx = enter(factory);
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            cx.evaluateString(scope,
+                "'use strict';\n"
+                + "function set() { undeclared = 1; }\n"
+                + "function check() {\n"
+                + "  try { set(); return 'set'; }\n"
+                + "  catch (e) { return e.name; }\n"
+                + "}\n", "strict.js", 1, null);
+            String interpreted = (String) cx.evaluateString(scope, "check()",
+                                                            "call.js", 1, null);
+            InterpretedFunction set = function(scope, "set");
+            for (int i = 0; i != THRESHOLD; ++i) {
+                cx.evaluateString(scope, "check()", "call.js", 1, null);
+            }
+            awaitCompiled(set);
+            assertNotNull(set.getTieredTarget(cx));
+            ScriptableObject.deleteProperty(scope, "undeclared");
+            assertEquals(interpreted, cx.evaluateString(scope, "check()",
+                                                        "call.js", 1, null));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static Context enter(ContextFactory factory)
+    {
+        Context cx = factory.enterContext();
+        cx.setOptimizationLevel(-1);
+        return cx;
+    }
+
+    private static InterpretedFunction function(Scriptable scope, String name)
+    {
+        return (InterpretedFunction) ScriptableObject.getProperty(scope, name);
+    }
+
+    private static void assertTierable(Scriptable scope, String name,
+                                       boolean tierable)
+    {
+        InterpreterData idata = function(scope, name).idata;
+        assertEquals(name, tierable, idata.rawSourceStart >= 0);
+        assertEquals(name, tierable, idata.rawSource != null);
+    }
+
+    private static void awaitCompiled(InterpretedFunction fn)
+        throws InterruptedException
+    {
+        for (int i = 0; i != 1000; ++i) {
+            int state = fn.idata.tierState;
+            if (state == TieredCompiler.TIER_COMPILED) {
+                return;
+            }
+            assertTrue("function is not compiled",
+                       state != TieredCompiler.TIER_NEVER);
+            Thread.sleep(10);
+        }
+        throw new AssertionError("function was not compiled in time");
+    }
+}
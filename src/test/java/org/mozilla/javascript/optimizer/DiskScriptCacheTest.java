@@ -0,0 +1,161 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.optimizer;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.ScriptCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DiskScriptCacheTest
+{
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+    private static final String SOURCE = "'original-marker'";
+    private static final byte[] SECRET = "disk-cache-test".getBytes(LATIN_1);
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws Exception
+    {
+        directory = Files.createTempDirectory("rhino-cache").toFile();
+    }
+
+    @After
+    public void deleteDirectory()
+    {
+        for (File f : directory.listFiles()) {
+            f.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void runtimeStampIsADigest()
+    {
+        String stamp = DiskScriptCache.getRuntimeStamp();
+        assertTrue(stamp, stamp.matches("[0-9a-f]{64}"));
+        assertEquals(stamp, DiskScriptCache.getRuntimeStamp());
+    }
+
+    @Test
+    public void storedClassIsLoaded() throws Exception
+    {
+        assertEquals("original-marker",
+                     run(new DiskScriptCache(directory, null, SECRET)));
+        File file = classFile();
+        // A file with a valid MAC is trusted, so a change the MAC covers
+        // shows that later runs load it instead of compiling
+        rewrite(file, SECRET);
+        assertEquals("tampered-marker",
+                     run(new DiskScriptCache(directory, null, SECRET)));
+    }
+
+    @Test
+    public void tamperedClassIsCompiledAgain() throws Exception
+    {
+        run(new DiskScriptCache(directory, null, SECRET));
+        File file = classFile();
+        byte[] data = Files.readAllBytes(file.toPath());
+        replace(data);
+        Files.write(file.toPath(), data);
+        assertEquals("original-marker",
+                     run(new DiskScriptCache(directory, null, SECRET)));
+        assertTrue(new String(Files.readAllBytes(file.toPath()), LATIN_1)
+                   .contains("original-marker"));
+    }
+
+    @Test
+    public void otherKeyIsRejected() throws Exception
+    {
+        run(new DiskScriptCache(directory, null, SECRET));
+        rewrite(classFile(), SECRET);
+        byte[] other = "another-key".getBytes(LATIN_1);
+        assertEquals("original-marker",
+                     run(new DiskScriptCache(directory, null, other)));
+    }
+
+    @Test
+    public void keyFileIsShared() throws Exception
+    {
+        run(new DiskScriptCache(directory));
+        File keyFile = new File(directory, "cache.key");
+        assertTrue(keyFile.isFile());
+        byte[] secret = Files.readAllBytes(keyFile.toPath());
+        assertEquals(32, secret.length);
+        rewrite(classFile(), secret);
+        assertEquals("tampered-marker", run(new DiskScriptCache(directory)));
+    }
+
+    private static Object run(ScriptCache cache)
+    {
+        ContextFactory factory = new ContextFactory();
+        factory.setScriptCache(cache);
+        Context cx = factory.enterContext();
+        try {
+            cx.setOptimizationLevel(0);
+            return cx.evaluateString(cx.initStandardObjects(), SOURCE,
+                                     "marker.js", 1, null);
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private File classFile()
+    {
+        File[] files = directory.listFiles();
+        File found = null;
+        for (File f : files) {
+            if (f.getName().endsWith(".rhc")) {
+                assertEquals(null, found);
+                found = f;
+            }
+        }
+        assertTrue(found != null);
+        return found;
+    }
+
+    // Changes the string constant of the class and signs the file again
+    private static void rewrite(File file, byte[] secret) throws Exception
+    {
+        byte[] data = Files.readAllBytes(file.toPath());
+        int end = data.length - 32;
+        byte[] content = Arrays.copyOf(data, end);
+        replace(content);
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+        System.arraycopy(content, 0, data, 0, end);
+        System.arraycopy(mac.doFinal(content), 0, data, end, 32);
+        Files.write(file.toPath(), data);
+    }
+
+    // The string is both a constant and part of the kept source
+    private static void replace(byte[] data)
+    {
+        String text = new String(data, LATIN_1);
+        byte[] tampered = "tampered".getBytes(LATIN_1);
+        int at = text.indexOf("original-marker");
+        assertTrue(at >= 0);
+        while (at >= 0) {
+            System.arraycopy(tampered, 0, data, at, tampered.length);
+            at = text.indexOf("original-marker", at + 1);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.optimizer;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Scriptable;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the bit operations of compiled code, which work on int32
+ * variables with int instructions, with the interpreter.
+ */
+public class Int32InferenceTest
+{
+    private static final String[] SCRIPTS = {
+        // int arithmetic must wrap like ToInt32 of the double result
+        "function f() { var a = 0x7fffffff, b = 3; return (a * b) | 0; } f()",
+        "function f() { var a = 0x7fffffff; return (a + a + a + a) | 0; } f()",
+        "function f() { var a = -0x80000000; return (a - a - 1) | 0; } f()",
+        // products past 2^53 lose bits as doubles
+        "function f() { var a = 0x7fffffff, b = 0x7ffffff1;"
+        + " return (a * b) | 0; } f()",
+        "function f() { var a = 0x12345678, b = 0x7654321;"
+        + " return [(a * b) ^ 0, (a * b * a) >> 0]; } f()",
+        // unsigned shifts and shift counts
+        "function f() { var a = -1; return [a >>> 0, a >>> 31, a >>> 32,"
+        + " a << 33, a >> 40, ~a, ~~a]; } f()",
+        "function f() { var x = -5; var r = []; for (var i = 0; i < 40; i += 7)"
+        + " r.push(x >>> i, x >> i, x << i); return r; } f()",
+        // a variable that stops being int32
+        "function f() { var x = 1; x = 0.5; return [x | 0, x >>> 0, ~x]; } f()",
+        "function f(c) { var x = c ? 1 : 2.5; return x | 0; } [f(true), f(false)]",
+        "function f() { var x = 1; x = 'a'; return (x | 0) + ',' + typeof x; } f()",
+        "function f() { var x = 3; x /= 2; return x << 1; } f()",
+        // NaN, infinities, large doubles and -0
+        "function f() { var n = NaN, i = Infinity, b = 1e21, m = -0;"
+        + " return [n | 0, i | 0, -i >>> 0, b | 0, 4294967296.5 | 0,"
+        + " 1 / (m | 0)]; } f()",
+        "function f() { var a = 5; var z = a - a; return 1 / (z * -1); } f()",
+        // loops with int32 counters
+        "function f() { var h = 0; for (var i = 0; i < 1000; ++i)"
+        + " h = (h * 31 + i) | 0; return h; } f()",
+        "function f() { var h = 17; for (var i = 0; i < 300; i++)"
+        + " { h ^= h << 5; h ^= h >>> 7; h = h & 0xffffffff; } return h; } f()",
+        // operand conversion order and side effects
+        "function f() { var log = [];"
+        + " var a = { valueOf: function() { log.push('a'); return 6; } };"
+        + " var b = { valueOf: function() { log.push('b'); return 3; } };"
+        + " return [a & b, a >>> b, ~a, log.join('')]; } f()",
+        "function f() { var s = '12', t = '0x10'; return [s | 0, t >> 1,"
+        + " s ^ t]; } f()",
+    };
+
+    @Test
+    public void compiledMatchesInterpreted()
+    {
+        for (String script : SCRIPTS) {
+            String expected = run(script, -1);
+            assertEquals(script, expected, run(script, 0));
+            assertEquals(script, expected, run(script, 9));
+        }
+    }
+
+    private static String run(String script, int optimizationLevel)
+    {
+        Context cx = new ContextFactory().enterContext();
+        try {
+            cx.setOptimizationLevel(optimizationLevel);
+            Scriptable scope = cx.initStandardObjects();
+            Object result = cx.evaluateString(scope, script, "int32.js", 1,
+                                              null);
+            return Context.toString(result);
+        } finally {
+            Context.exit();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.optimizer;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+import org.mozilla.classfile.ClassFileWriter;
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Scriptable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares named property accesses of compiled code, which link through
+ * invokedynamic sites, with the interpreter. Every script runs its accesses
+ * in loops so that the sites learn shapes and relink.
+ */
+public class PropertyCallSiteTest
+{
+    private static final String[] SCRIPTS = {
+        // one site seeing many shapes, more than the site keeps
+        "function get(o) { return o.x; }"
+        + " var r = []; for (var i = 0; i < 40; ++i) {"
+        + " var o = {}; o['p' + (i % 9)] = i; o.x = i; r.push(get(o)); }"
+        + " r.join()",
+        // prototype properties, then shadowing and prototype changes
+        "function P() {} P.prototype.v = 'proto';"
+        + " function get(o) { return o.v; } var o = new P(), r = [];"
+        + " for (var i = 0; i < 10; ++i) r.push(get(o));"
+        + " o.v = 'own'; r.push(get(o)); delete o.v; r.push(get(o));"
+        + " P.prototype.v = 'changed'; r.push(get(o));"
+        + " o.__proto__ = { v: 'swapped' }; r.push(get(o)); r.join()",
+        // deleted and re-added properties
+        "function get(o) { return o.a + ',' + o.b; } var o = { a: 1, b: 2 };"
+        + " var r = [get(o), get(o)]; delete o.a; r.push(get(o));"
+        + " o.a = 3; r.push(get(o)); r.join(';')",
+        // writes through the site, compound assignment and its value
+        "function put(o, v) { return o.n = v; }"
+        + " function inc(o) { o.n += 2; return o.n++; }"
+        + " var o = {}, r = []; for (var i = 0; i < 10; ++i) {"
+        + " r.push(put(o, i), inc(o)); } r.push(o.n); r.join()",
+        // getters, setters and read-only properties
+        "var log = []; var o = { get g() { log.push('get'); return 7; },"
+        + " set s(v) { log.push('set' + v); } };"
+        + " Object.defineProperty(o, 'ro', { value: 1, writable: false });"
+        + " function f(o) { o.s = o.g; o.ro = 5; return o.ro; }"
+        + " for (var i = 0; i < 3; ++i) f(o); log.join() + '|' + f(o)",
+        // non-extensible and frozen receivers
+        "function put(o) { o.z = 1; return o.z; }"
+        + " var a = Object.preventExtensions({}), b = Object.freeze({ z: 0 });"
+        + " var r = []; for (var i = 0; i < 5; ++i) r.push(put(a), put(b));"
+        + " r.join()",
+        // method lookups, including this and changed methods
+        "var o = { k: 2, m: function(x) { return this.k * x; } };"
+        + " function call(o, x) { return o.m(x); } var r = [];"
+        + " for (var i = 0; i < 10; ++i) r.push(call(o, i));"
+        + " o.m = function(x) { return -x; }; r.push(call(o, 3)); r.join()",
+        // primitives and arrays as receivers
+        "function len(o) { return o.length; } var r = [];"
+        + " var xs = ['abc', [1, 2], { length: 'own' }, function(a, b) {}];"
+        + " for (var i = 0; i < 12; ++i) r.push(len(xs[i % 4]));"
+        + " r.push((5).toFixed(1), 'x'.concat('y')); r.join()",
+        // errors on undefined and null receivers
+        "function get(o) { return o.p; } var r = [];"
+        + " var xs = [{ p: 1 }, undefined, null]; for (var i = 0; i < 6; ++i) {"
+        + " try { r.push(get(xs[i % 3])); } catch (e) { r.push(e.name); } }"
+        + " r.join()",
+        "var o = {}; try { o.missing(); } catch (e) { e.name }",
+        // Java objects, whose method lookups are guarded on the members
+        "function app(sb, s) { return sb.append(s); }"
+        + " var sb = new java.lang.StringBuilder();"
+        + " for (var i = 0; i < 10; ++i) app(sb, i);"
+        + " function add(c, s) { return c.add(s); }"
+        + " var l = new java.util.ArrayList(), h = new java.util.HashSet();"
+        + " for (var i = 0; i < 10; ++i) { add(l, 'x'); add(h, 'x'); }"
+        + " [sb.toString(), l.size(), h.size()].join()",
+    };
+
+    @Test
+    public void compiledMatchesInterpreted()
+    {
+        for (String script : SCRIPTS) {
+            String expected = run(script, -1);
+            assertEquals(script, expected, run(script, 0));
+            assertEquals(script, expected, run(script, 9));
+        }
+    }
+
+    @Test
+    public void namedAccessesUseInvokeDynamic()
+    {
+        if (!ClassFileWriter.isInvokeDynamicSupported()) {
+            return;
+        }
+        Context cx = new ContextFactory().enterContext();
+        try {
+            CompilerEnvirons env = new CompilerEnvirons();
+            env.initFromContext(cx);
+            env.setOptimizationLevel(9);
+            Object[] classes = new ClassCompiler(env).compileToClassFiles(
+                "function f(o) { return o.x; }", "indy.js", 1, "IndyTest");
+            String text = new String((byte[]) classes[1],
+                                     Charset.forName("ISO-8859-1"));
+            assertTrue(text.contains("BootstrapMethods"));
+            assertTrue(text.contains("org/mozilla/javascript/PropertyCallSite"));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static String run(String script, int optimizationLevel)
+    {
+        Context cx = new ContextFactory().enterContext();
+        try {
+            cx.setOptimizationLevel(optimizationLevel);
+            cx.setLanguageVersion(Context.VERSION_1_8);
+            Scriptable scope = cx.initStandardObjects();
+            try {
+                return Context.toString(cx.evaluateString(scope, script,
+                                                          "site.js", 1, null));
+            } catch (RhinoException e) {
+                return e.getClass().getName() + ": " + e.details();
+            }
+        } finally {
+            Context.exit();
+        }
+    }
+}
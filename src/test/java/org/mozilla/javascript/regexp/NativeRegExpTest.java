@@ -0,0 +1,212 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.regexp;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.ErrorReporter;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Scriptable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the cache of compiled regexps, the lazy DFAs that rule out
+ * start positions without a match, the memoizing matcher and the step
+ * limit.
+ */
+public class NativeRegExpTest
+{
+    private static final Object[] PATTERNS = {
+        "a", "abc", "a|b|cd", "a*b", "a+?b", "(a|ab)(c|bcd)(d*)", "^ab",
+        "ab$", "^$", "\\bfoo\\b", "\\Bo", "[a-c]+d", "[^x]y", "x?y?z?",
+        "(\\d+)-(\\d+)", "\\s\\S\\w\\W", "a{2,3}", "a{0}b", "(?:ab){2}",
+        "^a{0}b$", "(?:xy){0}b", "(a*)*b", "[A-Z]", ".+", "a.c", "(x|y)*z",
+        "^(a|b)*?c", "(?:a|b)c$", "a{2,}", "\\u00e9", "[0-9a-f]+$",
+        "(a|ab)*c", "((a)|(b))+", "(a+|b+)*c", "(a?)+?b", "(a|b)?(a)*",
+        "((a)|b){2,3}", "(?:(a)|b)*?b", "^(?:(a+)+$|a*c)",
+    };
+
+    private static final Object[] INPUTS = {
+        "", "a", "b", "ab", "abc", "aab", "abcd", "xabcdx", "AB", "aBc",
+        "foo bar", "foobar", "12-345", "a\nb", "ab\nab", "x\ny", " a!_",
+        "aaab", "aaaa", "xyzzy", "yyz", "bac", "éŐ", "babab c",
+    };
+
+    // A pattern starting with a lookahead gets no DFA or NFA, so it shows
+    // what the backtracker alone matches
+    private static final String COMPARE =
+        "var bad = [];"
+        + " function show(r) { return r === null ? 'null'"
+        + "   : JSON.stringify([r.index].concat(r)); }"
+        + " for (var p = 0; p < patterns.length; ++p) {"
+        + "   for (var f = 0; f < flags.length; ++f) {"
+        + "     var re = new RegExp(patterns[p], flags[f]);"
+        + "     var plain = new RegExp('(?=[\\\\s\\\\S]?)' + patterns[p],"
+        + "                            flags[f]);"
+        + "     for (var i = 0; i < inputs.length; ++i) {"
+        + "       var s = inputs[i];"
+        + "       re.lastIndex = plain.lastIndex = 0;"
+        + "       var a = show(re.exec(s)), b = show(plain.exec(s));"
+        + "       var c = s.replace(re, '<$&>');"
+        + "       var d = s.replace(plain, '<$&>');"
+        + "       if (a !== b || c !== d)"
+        + "         bad.push(re + ' on ' + JSON.stringify(s) + ': '"
+        + "                  + a + ' ' + b + ' ' + c + ' ' + d);"
+        + "     }"
+        + "   }"
+        + " }"
+            + " bad.join('\\n')";
+
+    @Test
+    public void lazyDFAsMatchTheBacktracker()
+    {
+        assertEquals("", run(COMPARE, false, 0));
+    }
+
+    @Test
+    public void memoizedMatcherMatchesTheBacktracker()
+    {
+        assertEquals("", run(COMPARE, true, 0));
+    }
+
+    @Test(timeout = 5000)
+    public void memoizedMatchesTakeLinearSteps()
+    {
+        String script =
+            "var s = new Array(29).join('a') + 'c';"
+            + " var r = /^(?:(a+)+$|a*c)/.exec(s);"
+            + " [r[0].length, r[1], /^(a+)+$/.test(s + 'b')].join()";
+        assertEquals("29,,false", run(script, true, 100000));
+    }
+
+    @Test
+    public void stepLimitStopsBacktracking()
+    {
+        // The input matches, so the DFAs let the backtracker try every way
+        // the first alternative can fail first
+        String script =
+            "/^(?:(a+)+$|a*c)/.test(new Array(31).join('a') + 'c')";
+        assertEquals("true", run("/^(?:(a+)+$|a*c)/.test('aaac')", false,
+                                 100000));
+        assertEquals("true", run(script, true, 100000));
+        try {
+            run(script, false, 100000);
+            fail("no step limit");
+        } catch (EvaluatorException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("100000"));
+        }
+    }
+
+    @Test
+    public void compiledRegExpsAreShared()
+    {
+        Context cx = new ContextFactory().enterContext();
+        try {
+            Object a = NativeRegExp.compileRE(cx, "a+b", "g", false);
+            assertSame(a, NativeRegExp.compileRE(cx, "a+b", "g", false));
+            assertNotSame(a, NativeRegExp.compileRE(cx, "a+b", "i", false));
+            assertNotSame(a, NativeRegExp.compileRE(cx, "a+b", "g", true));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void strictModeWarnsOnEveryCompile()
+    {
+        // Compiled first without strict mode, when nothing is reported
+        assertEquals(0, countWarnings(false, "\\1x"));
+        assertEquals(2, countWarnings(true, "\\1x"));
+        assertEquals(2, countWarnings(true, "\\0"));
+        assertEquals(0, countWarnings(true, "(a)\\1"));
+    }
+
+    // Compile the pattern twice and count the warnings reported
+    private static int countWarnings(final boolean strict, String pattern)
+    {
+        ContextFactory factory = new ContextFactory() {
+            @Override
+            protected boolean hasFeature(Context cx, int featureIndex)
+            {
+                if (featureIndex == Context.FEATURE_STRICT_MODE) {
+                    return strict;
+                }
+                return super.hasFeature(cx, featureIndex);
+            }
+        };
+        final int[] warnings = { 0 };
+        Context cx = factory.enterContext();
+        try {
+            cx.setErrorReporter(new ErrorReporter() {
+                public void warning(String message, String sourceName,
+                                    int line, String lineSource,
+                                    int lineOffset)
+                {
+                    ++warnings[0];
+                }
+
+                public void error(String message, String sourceName,
+                                  int line, String lineSource,
+                                  int lineOffset)
+                {
+                    throw new AssertionError(message);
+                }
+
+                public EvaluatorException runtimeError(String message,
+                                                       String sourceName,
+                                                       int line,
+                                                       String lineSource,
+                                                       int lineOffset)
+                {
+                    return new EvaluatorException(message);
+                }
+            });
+            Scriptable scope = cx.initStandardObjects();
+            scope.put("pattern", scope, pattern);
+            cx.evaluateString(scope,
+                "new RegExp(pattern); new RegExp(pattern);", "warn.js", 1,
+                null);
+            return warnings[0];
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static String run(String script, final boolean memoize,
+                              int maxSteps)
+    {
+        ContextFactory factory = new ContextFactory() {
+            @Override
+            protected boolean hasFeature(Context cx, int featureIndex)
+            {
+                if (featureIndex == Context.FEATURE_MEMOIZED_REGEXP) {
+                    return memoize;
+                }
+                return super.hasFeature(cx, featureIndex);
+            }
+        };
+        Context cx = factory.enterContext();
+        try {
+            cx.setMaximumRegExpSteps(maxSteps);
+            Scriptable scope = cx.initStandardObjects();
+            scope.put("patterns", scope, cx.newArray(scope, PATTERNS));
+            scope.put("inputs", scope, cx.newArray(scope, INPUTS));
+            scope.put("flags", scope,
+                      cx.newArray(scope, new Object[] { "", "i", "m", "g" }));
+            return Context.toString(cx.evaluateString(scope, script,
+                                                      "regexp.js", 1, null));
+        } finally {
+            Context.exit();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.typedarrays;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EcmaError;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks array buffers that share the bytes of a ByteBuffer with Java.
+ */
+public class NativeArrayBufferTest
+{
+    private Context cx;
+    private Scriptable scope;
+
+    @Before
+    public void enter()
+    {
+        cx = Context.enter();
+        cx.setLanguageVersion(Context.VERSION_ES6);
+        scope = cx.initStandardObjects();
+    }
+
+    @After
+    public void exit()
+    {
+        Context.exit();
+    }
+
+    @Test
+    public void directBuffersAreShared()
+    {
+        ByteBuffer host = ByteBuffer.allocateDirect(32)
+                                    .order(ByteOrder.LITTLE_ENDIAN);
+        host.putInt(4, 0x01020304);
+        host.putDouble(8, 1.5);
+        host.position(4).limit(20);
+        NativeArrayBuffer buffer = share(host);
+        assertEquals(16, buffer.getLength());
+        // The views keep their big-endian layout
+        assertEquals("16,67305985,1.5",
+            run("var i = new Int32Array(buf, 0, 1);"
+                + " var d = new DataView(buf);"
+                + " [buf.byteLength, i[0], d.getFloat64(4, true)].join()"));
+        run("new Int32Array(buf)[3] = 258; new Float64Array(buf)[0] = 2.5;");
+        assertEquals(258, host.order(ByteOrder.BIG_ENDIAN).getInt(16));
+        assertEquals(2.5, host.getDouble(4), 0);
+        // The host's position, limit and order are left alone
+        assertEquals(4, host.position());
+        assertEquals(20, host.limit());
+        // Java sees the same bytes through getByteBuffer
+        buffer.getByteBuffer().put(0, (byte) 7);
+        assertEquals(7, host.get(4));
+        try {
+            buffer.getBuffer();
+            fail("direct buffer as byte[]");
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void slicesCopy()
+    {
+        ByteBuffer host = ByteBuffer.allocateDirect(8);
+        share(host);
+        assertEquals("3,0,3",
+            run("var a = new Uint8Array(buf); a[2] = 3;"
+                + " var s = new Uint8Array(buf.slice(2, 4)); a[2] = 9;"
+                + " [s[0], s[1], s.length + 1].join()"));
+        assertEquals(9, host.get(2));
+    }
+
+    @Test
+    public void heapBuffersAreSharedThroughTheConstructor()
+    {
+        byte[] bytes = new byte[8];
+        ScriptableObject.putProperty(scope, "host",
+            Context.javaToJS(ByteBuffer.wrap(bytes), scope));
+        run("var b = new ArrayBuffer(host); new Int8Array(b)[1] = 5;");
+        assertEquals(5, bytes[1]);
+        assertSame(bytes,
+            ((NativeArrayBuffer) scope.get("b", scope)).getBuffer());
+    }
+
+    @Test
+    public void readOnlyBuffersAreRejected()
+    {
+        ByteBuffer host = ByteBuffer.allocate(8).asReadOnlyBuffer();
+        ScriptableObject.putProperty(scope, "host",
+                                     Context.javaToJS(host, scope));
+        try {
+            run("new ArrayBuffer(host)");
+            fail("read-only buffer from a script");
+        } catch (EcmaError ex) {
+            assertEquals("TypeError", ex.getName());
+        }
+        try {
+            new NativeArrayBuffer(host);
+            fail("read-only buffer from Java");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void serializedFormKeepsTheByteArray() throws Exception
+    {
+        ObjectStreamField field = ObjectStreamClass.lookup(
+            NativeArrayBuffer.class).getField("buffer");
+        assertEquals(byte[].class, field.getType());
+
+        ByteBuffer host = ByteBuffer.allocateDirect(6);
+        host.put(1, (byte) 1).put(5, (byte) 5);
+        NativeArrayBuffer copy = (NativeArrayBuffer) roundTrip(
+            new NativeArrayBuffer(host));
+        assertArrayEquals(new byte[] { 0, 1, 0, 0, 0, 5 }, copy.getBuffer());
+        assertEquals(0, ((NativeArrayBuffer) roundTrip(
+            new NativeArrayBuffer())).getLength());
+    }
+
+    private NativeArrayBuffer share(ByteBuffer host)
+    {
+        NativeArrayBuffer buffer = new NativeArrayBuffer(host);
+        buffer.setParentScope(scope);
+        buffer.setPrototype(ScriptableObject.getClassPrototype(scope,
+            NativeArrayBuffer.CLASS_NAME));
+        ScriptableObject.putProperty(scope, "buf", buffer);
+        return buffer;
+    }
+
+    private static Object roundTrip(Object value) throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(value);
+        out.close();
+        return new ObjectInputStream(new ByteArrayInputStream(
+            bytes.toByteArray())).readObject();
+    }
+
+    private String run(String script)
+    {
+        return Context.toString(cx.evaluateString(scope, script,
+                                                  "buffer.js", 1, null));
+    }
+}